@@ -0,0 +1,98 @@
+package eu.zidek.augustin.minuscule;
+
+/**
+ * Label attached to a geometric object by <code>label(String)</code>. Unlike
+ * {@link MLabel} it is not a geometric object on its own: it is only the text,
+ * the angle at which it is placed around its owner and the style. It is not
+ * added into the canvas, the labels of the drawn objects are painted by the
+ * canvas in one pass at the layer of the labels.
+ * <p>
+ * The label is immutable, changing the text or the style of the owner's label
+ * replaces it. Its dimensions are measured once, when they are first needed.
+ * </p>
+ *
+ * @author Augustin Zidek
+ *
+ */
+final class AttachedLabel {
+	private final String text;
+	private final double angleDeg;
+	private final MStyle style;
+	// Measured lazily, the race is benign as the result is always the same
+	private MCoordinate dimensions;
+
+	/**
+	 * Creates a new label.
+	 *
+	 * @param text The text of the label
+	 * @param angleDeg The angle between the positive x-axis and the label
+	 *            relative to the owner
+	 * @param style The style of the label, it must have the font set
+	 */
+	AttachedLabel(final String text, final double angleDeg, final MStyle style) {
+		this.text = text;
+		this.angleDeg = angleDeg;
+		this.style = style;
+	}
+
+	/**
+	 * @return The text
+	 */
+	String getText() {
+		return this.text;
+	}
+
+	/**
+	 * @return The angle between the positive x-axis and the label relative to
+	 *         the owner
+	 */
+	double getAngle() {
+		return this.angleDeg;
+	}
+
+	/**
+	 * @return The style of the label
+	 */
+	MStyle getStyle() {
+		return this.style;
+	}
+
+	/**
+	 * @param style The new style
+	 * @return The label with the given style, its dimensions are measured
+	 *         again only if the font changed
+	 */
+	AttachedLabel withStyle(final MStyle style) {
+		final AttachedLabel label = new AttachedLabel(this.text, this.angleDeg,
+				style);
+		if (style.getFont().equals(this.style.getFont())) {
+			label.dimensions = this.dimensions;
+		}
+		return label;
+	}
+
+	/**
+	 * @return The width and the height of the text in the label's font,
+	 *         measured on the first call
+	 */
+	MCoordinate getDimensions() {
+		MCoordinate d = this.dimensions;
+		if (d == null) {
+			d = LabelPositioningUtils.getLabelDimensions(this.text,
+					this.style.getFont());
+			this.dimensions = d;
+		}
+		return d;
+	}
+
+	/**
+	 * @return A standalone <code>MLabel</code> with the same properties,
+	 *         positioned by the given owner
+	 */
+	MLabel toMLabel(final MGeometricObject owner) {
+		final MLabel label = new MLabel(this.text).style(this.style);
+		label.parent(owner);
+		label.positionSetByParent(true, this.angleDeg);
+		return label;
+	}
+}
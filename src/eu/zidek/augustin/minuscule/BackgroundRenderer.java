@@ -0,0 +1,244 @@
+package eu.zidek.augustin.minuscule;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Paints the frames of the canvas on a dedicated render thread into an
+ * offscreen image, so that the EDT only copies the finished image onto the
+ * screen.
+ * <p>
+ * Every frame is identified by the view it paints and by the version of the
+ * objects. When the EDT presents a frame and either of them has changed, a
+ * new frame is requested. A change of the view cancels the frame being
+ * painted: the painting checks for a newer view every
+ * <code>RENDER_PROGRESS_STEP</code> objects and stops if there is one. A
+ * change of the objects only lets the frame being painted finish and queues
+ * one more frame after it, so that a producer drawing continuously doesn't
+ * keep cancelling every frame before it is finished.
+ * </p>
+ * Two images are used: the render thread paints into the back one and swaps
+ * it with the front one (holding the lock of this renderer) once finished.
+ * The EDT copies the front one holding the same lock. The images are in the
+ * device pixels of the screen, i.e. scaled by the scale of the screen, so
+ * that they stay sharp on HiDPI screens.
+ *
+ * @author Augustin Zidek
+ *
+ */
+class BackgroundRenderer {
+	private final Canvas canvas;
+	private final RenderStats stats;
+	private final ExecutorService renderThread;
+	// Incremented by every change of the view, a frame is cancelled when it's
+	// not of the latest one
+	private final AtomicLong generation = new AtomicLong();
+	// Whether a frame is queued and hasn't started painting yet, such frame
+	// will paint the objects drawn until it starts
+	private final AtomicBoolean queued = new AtomicBoolean();
+	private volatile RenderProgressListener listener;
+	// The latest requested frame, EDT only
+	private SceneSnapshot requestedView;
+	private double requestedScale;
+	private long requestedVersion;
+	// The back image is used by the render thread only
+	private BufferedImage back;
+	// The last finished frame, guarded by this
+	private BufferedImage front;
+	private SceneSnapshot frontView;
+	private double frontScale;
+	private long frontFrame = 0;
+
+	/**
+	 * @param canvas The canvas whose frames are painted
+	 * @param stats The stats into which the cancelled frames are recorded
+	 */
+	BackgroundRenderer(final Canvas canvas, final RenderStats stats) {
+		this.canvas = canvas;
+		this.stats = stats;
+		this.renderThread = Executors
+				.newSingleThreadExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable r) {
+						final Thread t = new Thread(r,
+								Constants.BACKGROUND_RENDER_THREAD_NAME);
+						t.setDaemon(true);
+						return t;
+					}
+				});
+	}
+
+	/**
+	 * @param listener The listener of the progress, may be <code>null</code>
+	 */
+	void setListener(final RenderProgressListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Copies the last finished frame onto the screen and requests a new frame
+	 * if the view or the objects have changed. Called on the EDT.
+	 *
+	 * @param g2d The graphics of the canvas
+	 * @param view The current view
+	 * @param version The current version of the objects
+	 * @return The number of the frame presented, 0 if there is none yet
+	 */
+	long present(final Graphics2D g2d, final SceneSnapshot view,
+			final long version) {
+		final double scale = Canvas.getDeviceScale(g2d);
+		if (this.requestedView == null || !view.sameView(this.requestedView)
+				|| scale != this.requestedScale) {
+			this.requestedView = view;
+			this.requestedScale = scale;
+			this.requestedVersion = version;
+			this.request(view, scale, true);
+		}
+		else if (version != this.requestedVersion) {
+			this.requestedVersion = version;
+			this.request(view, scale, false);
+		}
+		synchronized (this) {
+			if (this.front == null) {
+				return 0;
+			}
+			// One pixel of the image onto one pixel of the screen
+			final AffineTransform at = reprojection(this.frontView, view);
+			at.scale(1 / this.frontScale, 1 / this.frontScale);
+			g2d.drawImage(this.front, at, null);
+			return this.frontFrame;
+		}
+	}
+
+	/**
+	 * The transform moving the pixels painted with one view to where the same
+	 * objects are with another view. A point at <code>p</code> in the scene
+	 * is on the screen at <code>t + z * p</code> (the Euclidean transform
+	 * doesn't depend on the view), hence <code>s' = t' + z'/z * (s - t)</code>.
+	 *
+	 * @param from The view the image has been painted with
+	 * @param to The current view
+	 * @return The transform of the image
+	 */
+	private static AffineTransform reprojection(final SceneSnapshot from,
+			final SceneSnapshot to) {
+		final AffineTransform at = new AffineTransform();
+		if (from.euclidean != to.euclidean) {
+			return at;
+		}
+		final double scale = to.zoom / from.zoom;
+		at.translate(to.translateX - scale * from.translateX, to.translateY
+				- scale * from.translateY);
+		at.scale(scale, scale);
+		return at;
+	}
+
+	/**
+	 * Requests a new frame.
+	 *
+	 * @param view The view to be painted
+	 * @param scale The scale of the screen
+	 * @param cancel Whether to cancel the frame being painted, i.e. whether
+	 *            the view has changed
+	 */
+	private void request(final SceneSnapshot view, final double scale,
+			final boolean cancel) {
+		final long gen;
+		if (cancel) {
+			gen = this.generation.incrementAndGet();
+			this.queued.set(true);
+		}
+		else {
+			gen = this.generation.get();
+			// The queued frame will paint the new objects as well
+			if (!this.queued.compareAndSet(false, true)) {
+				return;
+			}
+		}
+		this.renderThread.execute(new Runnable() {
+			@Override
+			public void run() {
+				BackgroundRenderer.this.render(view, scale, gen);
+			}
+		});
+	}
+
+	/**
+	 * Paints one frame on the render thread, unless it's already out of date.
+	 *
+	 * @param view The view to be painted
+	 * @param scale The scale of the screen
+	 * @param gen The generation of the request
+	 */
+	private void render(final SceneSnapshot view, final double scale,
+			final long gen) {
+		// Any objects drawn from now on need another frame
+		this.queued.set(false);
+		// A request with a newer view is waiting behind this one
+		if (this.generation.get() != gen) {
+			return;
+		}
+		final int w = Math.max(1, (int) Math.ceil(view.viewWidth * scale));
+		final int h = Math.max(1, (int) Math.ceil(view.viewHeight * scale));
+		if (this.back == null || this.back.getWidth() != w
+				|| this.back.getHeight() != h) {
+			this.back = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+		}
+		final RenderProgressListener l = this.listener;
+		final Graphics2D g2d = this.back.createGraphics();
+		final long frame;
+		try {
+			g2d.setBackground(new Color(0, true));
+			g2d.clearRect(0, 0, w, h);
+			g2d.scale(scale, scale);
+			frame = this.canvas.paintOffscreen(g2d, view,
+					new ExportProgressListener() {
+						@Override
+						public void exportProgress(final double progress) {
+							if (BackgroundRenderer.this.generation.get() != gen) {
+								throw new CancellationException();
+							}
+							if (l != null) {
+								l.renderProgress(progress);
+							}
+						}
+					});
+		}
+		catch (final CancellationException e) {
+			this.stats.recordCancelledFrame();
+			if (l != null) {
+				l.renderCancelled();
+			}
+			return;
+		}
+		finally {
+			g2d.dispose();
+		}
+		synchronized (this) {
+			final BufferedImage finished = this.back;
+			this.back = this.front;
+			this.front = finished;
+			this.frontView = view;
+			this.frontScale = scale;
+			this.frontFrame = frame;
+		}
+		// Present the new frame
+		this.canvas.repaint();
+	}
+
+	/**
+	 * Cancels the frame being painted and stops the render thread.
+	 */
+	void stop() {
+		this.generation.incrementAndGet();
+		this.renderThread.shutdown();
+	}
+}
@@ -1,7 +1,6 @@
 package eu.zidek.augustin.minuscule;
 
 import static eu.zidek.augustin.minuscule.Constants.DEFAULT_GRID_THICKNESS;
-import static eu.zidek.augustin.minuscule.Constants.DEFAULT_REPAINT_INTERVAL_MS;
 import static eu.zidek.augustin.minuscule.Constants.ERROR_MESSAGE_NO_PAINTER;
 
 import java.awt.BasicStroke;
@@ -9,14 +8,30 @@ import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Line2D;
 import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-import javax.imageio.ImageIO;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 /**
  * A canvas which supports easy drawing of elementary geometric objects. As it
@@ -32,6 +47,27 @@ public class Canvas extends JPanel {
 	// A data structure that holds the objects and hides things like buffering,
 	// synchronization and sorting only if necessary
 	private final GeometricObjectQueue objects = new GeometricObjectQueue();
+	// Rendering metrics, the queue reports into them as well
+	private final RenderStats stats = new RenderStats(this.objects);
+	// Applies the ingestion policy and tracks the presented frames
+	private final IngestionGate ingestion = new IngestionGate(this,
+			this.objects, this.stats);
+	// Performance overlay, null when hidden
+	private volatile PerformanceHUD hud;
+	// Detects long frames, null when disabled
+	private volatile StallWatchdog watchdog;
+	// Paints the frames on its own thread, null unless in the background mode
+	private volatile BackgroundRenderer backgroundRenderer;
+	private RenderProgressListener renderProgressListener;
+	// Incremented by every change of the objects, so that the background
+	// renderer can tell that its frame is out of date
+	private final AtomicLong sceneVersion = new AtomicLong();
+	// Incremented by the EDT whenever it starts painting, before the scene
+	// version is taken
+	private volatile long paintsStarted = 0;
+	// Incremented by every change other than drawing new objects, i.e. by
+	// the changes after which the objects painted already may look different
+	private final AtomicLong changes = new AtomicLong();
 	// Must be stored to make the grid work (this.getHeight() doesn't work)
 	private final int width;
 	private final int height;
@@ -44,6 +80,36 @@ public class Canvas extends JPanel {
 	private double translateX = 0;
 	private double translateY = 0;
 	private final PainterManager painterMgr;
+	// Rasterizes and encodes the screenshots
+	private final ImageExporter exporter;
+	// Paces the repaints and measures the frames
+	private final FrameScheduler scheduler;
+	// Held for writing by a producer thread while a transaction is open and
+	// for reading by the renderer while painting
+	private final ReentrantReadWriteLock sceneLock = new ReentrantReadWriteLock();
+	// Once the first transaction begins, the renderer keeps the last
+	// committed frame, so that it can show it while a transaction is open
+	private volatile boolean transactionsUsed = false;
+	// The frame painted on the EDT if transactions are used or the painting
+	// is incremental, in the device pixels of the screen, i.e. scaled by the
+	// scale of the screen. Kept between the frames, only the EDT accesses it.
+	private BufferedImage backBuffer;
+	private double backBufferScale = 1;
+	// If true, the objects appended since the last frame are painted onto
+	// the back buffer, as long as nothing else changed
+	private volatile boolean incrementalPainting = false;
+	// The view painted into the back buffer (null if it must be painted
+	// anew), the mark of the objects painted into it, the changes counted
+	// when it was painted and whether any of its objects has a label
+	// attached. Accessed only by the EDT.
+	private SceneSnapshot bufferedView;
+	private final long[] bufferedMark = new long[1];
+	private long bufferedChanges;
+	private boolean bufferedLabels;
+	// Repaints the canvas when the next object gets older than the maximum
+	// age of its retention policy, created on first use. Guarded by this.
+	private Timer expiryTimer;
+	private long expiryDeadline;
 
 	/**
 	 * Creates a new Canvas with the given width and weight.
@@ -55,6 +121,8 @@ public class Canvas extends JPanel {
 		this.width = width;
 		this.height = height;
 		this.painterMgr = new PainterManager(this);
+		this.exporter = new ImageExporter(this);
+		this.scheduler = new FrameScheduler(this);
 	}
 
 	/**
@@ -67,41 +135,56 @@ public class Canvas extends JPanel {
 		return this.eucledian;
 	}
 
+	/**
+	 * @return The painter manager of this canvas. Use it to register painters
+	 *         of your own geometric objects.
+	 */
+	public PainterManager getPainterManager() {
+		return this.painterMgr;
+	}
+
+	/**
+	 * @return The rendering metrics of this canvas (frame times, objects
+	 *         drawn, time spent in the painters etc.). Call
+	 *         <code>registerMBean()</code> on them to watch them over JMX.
+	 */
+	public RenderStats getRenderStats() {
+		return this.stats;
+	}
+
+	/**
+	 * @return The current width of the canvas, or the width given in the
+	 *         constructor if the canvas is not displayed yet
+	 */
+	int getViewWidth() {
+		return this.getWidth() > 0 ? this.getWidth() : this.width;
+	}
+
+	/**
+	 * @return The current height of the canvas, or the height given in the
+	 *         constructor if the canvas is not displayed yet
+	 */
+	int getViewHeight() {
+		return this.getHeight() > 0 ? this.getHeight() : this.height;
+	}
+
 	/**
 	 * Draws the grid directly to the Graphics object, so that if window size
 	 * changed, the grid changes appropriately.
 	 * 
 	 * @param g2d The 2D graphics object
-	 * @param dynamicWidth The current width of the canvas
-	 * @param dynamicHeight The current height of the canvas
+	 * @param s The snapshot of the scene holding the grid and the view
 	 */
-	private void drawGrid(final Graphics2D g2d, final double dynamicWidth,
-			final double dynamicHeight) {
-		final double colSize = this.gridProperties.getColSize();
-		final double rowSize = this.gridProperties.getRowSize();
-		// The grid always goes through the origin (0,0), hence translation
-		// and zoom must be taken into account
-		final double xmin;
-		final double ymin;
-		if (this.eucledian) {
-			// Translate & zoom, add the grid offset
-			xmin = -this.translateX / this.zoom
-					+ (this.width / 2 + this.translateX / this.zoom) % colSize;
-			ymin = -this.translateY / this.zoom
-					+ (this.height / 2 + this.translateY / this.zoom) % rowSize;
-		}
-		else {
-			// Translate and zoom: (-x/z). Align axes with origin ((x/z) % c)
-			xmin = -this.translateX / this.zoom + (this.translateX / this.zoom)
-					% colSize;
-			ymin = -this.translateY / this.zoom + (this.translateY / this.zoom)
-					% rowSize;
-		}
-		// Translate and scale, since we only care about boundary value
-		final double xmax = (dynamicWidth - this.translateX) / this.zoom;
-		final double ymax = (dynamicHeight - this.translateY) / this.zoom;
-		g2d.setColor(this.gridProperties.getColor());
-		g2d.setStroke(new BasicStroke(this.gridProperties.getThickness()));
+	private static void drawGrid(final Graphics2D g2d, final SceneSnapshot s) {
+		final double colSize = s.grid.getColSize();
+		final double rowSize = s.grid.getRowSize();
+		final double[] bounds = getGridBounds(s);
+		final double xmin = bounds[0];
+		final double ymin = bounds[1];
+		final double xmax = bounds[2];
+		final double ymax = bounds[3];
+		g2d.setColor(s.grid.getColor());
+		g2d.setStroke(new BasicStroke(s.grid.getThickness()));
 
 		// Draw vertical lines
 		for (double x = xmin; x < xmax; x += colSize) {
@@ -115,6 +198,40 @@ public class Canvas extends JPanel {
 		}
 	}
 
+	/**
+	 * Finds where the grid lines of the snapshot go, in the coordinates
+	 * translated and zoomed by the view, but not transformed to the Euclidean
+	 * ones.
+	 * 
+	 * @param s The snapshot of the scene holding the grid and the view
+	 * @return The first vertical and horizontal line and the right and bottom
+	 *         edge of the view, as <code>{xmin, ymin, xmax, ymax}</code>
+	 */
+	static double[] getGridBounds(final SceneSnapshot s) {
+		final double colSize = s.grid.getColSize();
+		final double rowSize = s.grid.getRowSize();
+		// The grid always goes through the origin (0,0), hence translation
+		// and zoom must be taken into account
+		final double xmin;
+		final double ymin;
+		if (s.euclidean) {
+			// Translate & zoom, add the grid offset
+			xmin = -s.translateX / s.zoom
+					+ (s.width / 2 + s.translateX / s.zoom) % colSize;
+			ymin = -s.translateY / s.zoom
+					+ (s.height / 2 + s.translateY / s.zoom) % rowSize;
+		}
+		else {
+			// Translate and zoom: (-x/z). Align axes with origin ((x/z) % c)
+			xmin = -s.translateX / s.zoom + (s.translateX / s.zoom) % colSize;
+			ymin = -s.translateY / s.zoom + (s.translateY / s.zoom) % rowSize;
+		}
+		// Translate and scale, since we only care about boundary value
+		final double xmax = (s.viewWidth - s.translateX) / s.zoom;
+		final double ymax = (s.viewHeight - s.translateY) / s.zoom;
+		return new double[] { xmin, ymin, xmax, ymax };
+	}
+
 	/**
 	 * Turns on the anti-aliasing for shapes and texts on the given graphics 2d
 	 * object.
@@ -129,74 +246,963 @@ public class Canvas extends JPanel {
 	}
 
 	/**
-	 * Draws all the objects which are in the objects list onto the given 2d
-	 * graphics object.
+	 * Draws all the objects of the draw list onto the given 2d graphics
+	 * object. This is the serial stage of painting a frame, see
+	 * {@link DrawList}.
 	 * 
 	 * @param g2d The 2D graphics object
+	 * @param drawList The objects to be drawn with their painters
+	 * @param listener The listener notified about the fraction of objects
+	 *            painted, may be <code>null</code>
+	 * @return The number of objects drawn, i.e. not skipped
 	 */
-	private void displayObjects(final Graphics2D g2d) {
+	private int displayObjects(final Graphics2D g2d, final DrawList drawList,
+			final ExportProgressListener listener) {
+		final int count = drawList.size;
+		int painted = 0;
+		// Objects without a painter
+		int skipped = 0;
+		// The painters are timed per run of objects of the same class
+		Class<?> runClass = null;
+		int runCount = 0;
+		long runStart = System.nanoTime();
+		// Checked once per frame, so that no events are allocated in the loop
+		// if the painter runs are not recorded
+		final boolean runEvents = new RenderEvents.PainterRun().isEnabled();
+		RenderEvents.PainterRun runEvent = null;
+		// Only the frames on the screen are watched
+		final StallWatchdog dog = SwingUtilities.isEventDispatchThread() ? this.watchdog
+				: null;
 		// Go through all objects
-		for (final MGeometricObject object : this.objects.getSortedList()) {
-			// Retrieve the painter for the given object
-			final MGeometricObjectPainter painter;
-			try {
-				painter = this.painterMgr.getPainter(object.getClass());
+		for (int i = 0; i < count; i++) {
+			// The attached labels go over the objects up to their layer. The
+			// current painter run ends, so that the labels are timed apart.
+			if (i == drawList.labelPassIndex && drawList.labelCount > 0) {
+				if (runClass != null) {
+					this.stats.recordPainter(runClass, runCount,
+							System.nanoTime() - runStart);
+					commitRunEvent(runEvent, runClass, runCount);
+					runClass = null;
+				}
+				this.paintLabels(g2d, drawList);
 			}
-			// No painter for this type of object, display error notice
-			catch (final NoPainterException e) {
-				JOptionPane.showMessageDialog(this, ERROR_MESSAGE_NO_PAINTER
-						+ object.getClass().getName(), "No Painter found",
-						JOptionPane.ERROR_MESSAGE);
+			final MGeometricObject object = drawList.objects[i];
+			// Report the progress once per a batch of objects, the end is
+			// reported below
+			if (listener != null
+					&& ++painted % Constants.RENDER_PROGRESS_STEP == 0
+					&& painted < count) {
+				listener.exportProgress(painted / (double) count);
+			}
+			if (object.getClass() != runClass) {
+				final long now = System.nanoTime();
+				if (runClass != null) {
+					this.stats.recordPainter(runClass, runCount, now - runStart);
+					commitRunEvent(runEvent, runClass, runCount);
+				}
+				runClass = object.getClass();
+				runCount = 0;
+				runStart = now;
+				if (runEvents) {
+					runEvent = new RenderEvents.PainterRun();
+					runEvent.begin();
+				}
+			}
+			runCount++;
+			if (dog != null) {
+				dog.objectStarted(object);
+			}
+			// The painter has been retrieved when preparing the frame
+			final MGeometricObjectPainter painter = drawList.painters[i];
+			// No painter for this type of object, display error notice (only
+			// when painting on the screen, off-screen renders skip the object)
+			if (painter == DrawList.NO_PAINTER) {
+				if (SwingUtilities.isEventDispatchThread()) {
+					JOptionPane.showMessageDialog(this,
+							ERROR_MESSAGE_NO_PAINTER
+									+ object.getClass().getName(),
+							"No Painter found", JOptionPane.ERROR_MESSAGE);
+				}
+				skipped++;
 				continue;
 			}
 
 			// Paint the object using the painter
 			painter.paint(object, g2d);
 		}
+		if (runClass != null) {
+			this.stats.recordPainter(runClass, runCount, System.nanoTime()
+					- runStart);
+			commitRunEvent(runEvent, runClass, runCount);
+		}
+		// No object above the layer of the labels
+		if (drawList.labelPassIndex == count && drawList.labelCount > 0) {
+			this.paintLabels(g2d, drawList);
+		}
+		if (listener != null) {
+			listener.exportProgress(1);
+		}
+		return count - skipped;
 	}
 
-	@Override
-	public void paintComponent(final Graphics g) {
-		super.paintComponent(g);
-		final Graphics2D g2d = (Graphics2D) g;
+	/**
+	 * Paints the labels attached to the objects of the draw list by
+	 * <code>label(String)</code>, in the order of their owners.
+	 * 
+	 * @param g2d The 2D graphics object
+	 * @param drawList The objects being drawn
+	 */
+	private void paintLabels(final Graphics2D g2d, final DrawList drawList) {
+		final long start = System.nanoTime();
+		final MLabelPainter painter = this.painterMgr
+				.getAttachedLabelPainter();
+		for (int i = 0; i < drawList.labelCount; i++) {
+			final MGeometricObject owner = drawList.labelled[i];
+			final AttachedLabel label = owner.getAttachedLabel();
+			if (label != null) {
+				painter.paintAttached(owner, label.getStyle()
+						.isZoomIndifferent(), g2d);
+			}
+		}
+		this.stats.recordPainter(AttachedLabel.class, drawList.labelCount,
+				System.nanoTime() - start);
+	}
+
+	/**
+	 * Commits the JFR event of a finished painter run, if it is recorded.
+	 * 
+	 * @param event The event begun at the start of the run, may be
+	 *            <code>null</code>
+	 * @param objectClass The class of the objects in the run
+	 * @param count The number of objects in the run
+	 */
+	private static void commitRunEvent(final RenderEvents.PainterRun event,
+			final Class<?> objectClass, final int count) {
+		if (event != null && event.shouldCommit()) {
+			event.objectClass = objectClass;
+			event.objectCount = count;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Takes a snapshot of the current scene: the objects sorted by their
+	 * layers and the current view. The snapshot can be painted later on any
+	 * thread.
+	 * 
+	 * @return The snapshot of the scene
+	 */
+	SceneSnapshot snapshot() {
+		return this.viewSnapshot().withObjects(this.sortedObjects());
+	}
+
+	/**
+	 * @return The objects sorted by their layers. The objects over the
+	 *         limits of the retention policies are evicted first, and a
+	 *         repaint is scheduled for when the next one expires.
+	 */
+	private List<MGeometricObject> sortedObjects() {
+		final List<MGeometricObject> sorted = this.objects.getSortedList();
+		this.scheduleNextExpiry();
+		return sorted;
+	}
+
+	/**
+	 * Schedules a repaint for when the next object expires by the retention
+	 * policies, if any.
+	 */
+	private void scheduleNextExpiry() {
+		final long expiry = this.objects.getNextExpiry();
+		if (expiry != Long.MAX_VALUE) {
+			this.scheduleExpiry(expiry);
+		}
+	}
+
+	/**
+	 * Schedules a repaint at the given time, unless an earlier one is
+	 * scheduled already.
+	 * 
+	 * @param deadline The time as of <code>System.nanoTime()</code>
+	 */
+	private synchronized void scheduleExpiry(final long deadline) {
+		if (this.expiryTimer == null) {
+			this.expiryTimer = new Timer(0, new ActionListener() {
+				@Override
+				public void actionPerformed(final ActionEvent e) {
+					Canvas.this.requestRepaint();
+				}
+			});
+			this.expiryTimer.setRepeats(false);
+		}
+		else if (this.expiryTimer.isRunning()
+				&& this.expiryDeadline - deadline <= 0) {
+			return;
+		}
+		this.expiryDeadline = deadline;
+		final long delay = TimeUnit.NANOSECONDS.toMillis(deadline
+				- System.nanoTime()) + 1;
+		this.expiryTimer.setInitialDelay((int) Math.max(0,
+				Math.min(Integer.MAX_VALUE, delay)));
+		this.expiryTimer.restart();
+	}
+
+	/**
+	 * @return Snapshot of the current view without any objects
+	 */
+	private SceneSnapshot viewSnapshot() {
+		return new SceneSnapshot(Collections.<MGeometricObject> emptyList(),
+				this.translateX, this.translateY, this.zoom, this.eucledian,
+				this.width, this.height, this.getViewWidth(),
+				this.getViewHeight(), this.gridProperties, this.getBackground());
+	}
+
+	/**
+	 * Takes the snapshot of the last committed state of the scene. If another
+	 * thread has a transaction open, waits until it is committed.
+	 * 
+	 * @return The snapshot of the scene
+	 */
+	SceneSnapshot committedSnapshot() {
+		this.sceneLock.readLock().lock();
+		try {
+			return this.snapshot();
+		}
+		finally {
+			this.sceneLock.readLock().unlock();
+		}
+	}
 
+	/**
+	 * Paints the given snapshot of the scene onto the given graphics object.
+	 * The background is not painted. Can be called from any thread.
+	 * 
+	 * @param g2d The 2D graphics object
+	 * @param s The snapshot to be painted
+	 * @param listener The listener notified about the fraction of objects
+	 *            painted, may be <code>null</code>
+	 * @return The number of objects drawn
+	 */
+	int paintScene(final Graphics2D g2d, final SceneSnapshot s,
+			final ExportProgressListener listener) {
 		// Turn on the anti-aliasing
 		this.turnOnAntialiasing(g2d);
 
+		// Off-screen images aren't clipped, clip them to the view, so that
+		// the painters can skip what is out of it
+		if (g2d.getClip() == null) {
+			g2d.clipRect(0, 0, Math.max(1, s.viewWidth),
+					Math.max(1, s.viewHeight));
+		}
+
 		// Perform translation
-		g2d.translate(this.translateX, this.translateY);
+		g2d.translate(s.translateX, s.translateY);
 
 		// Perform zooming (if any)
-		g2d.scale(this.zoom, this.zoom);
+		g2d.scale(s.zoom, s.zoom);
 
 		// Draw the grid before anything else (so it is in the background) and
 		// before the Euclidean transform (if any) is applied (easier coordinate
 		// calculations). The grid is drawn directly onto the g2d object, as it
 		// needs to be dynamically redrawn if the window size is changed.
-		if (this.gridProperties != null) {
-			this.drawGrid(g2d, this.getWidth(), this.getHeight());
+		if (s.grid != null) {
+			drawGrid(g2d, s);
 		}
 
 		// Apply the transform to the Euclidean coordinates
-		if (this.eucledian) {
-			g2d.translate(this.width / 2, this.height / 2);
+		if (s.euclidean) {
+			g2d.translate(s.width / 2, s.height / 2);
 			g2d.scale(1, -1);
 		}
 
-		// Go through the list of objects and (re)draw them.
-		this.displayObjects(g2d);
+		// Find the objects in the view in parallel, then (re)draw them
+		final DrawList drawList = DrawList.prepare(s.objects, s,
+				this.painterMgr);
+		return this.displayObjects(g2d, drawList, listener);
+	}
+
+	@Override
+	public void paintComponent(final Graphics g) {
+		this.paintsStarted++;
+		this.scheduler.frameStarted();
+		super.paintComponent(g);
+		final AffineTransform screen = ((Graphics2D) g).getTransform();
+		// In the background mode, the render thread has painted the frame
+		// already, it is only copied onto the screen
+		final BackgroundRenderer background = this.backgroundRenderer;
+		final long frame = background != null ? background.present(
+				(Graphics2D) g, this.viewSnapshot(), this.sceneVersion.get())
+				: this.paintFrame((Graphics2D) g);
+		this.scheduler.frameFinished();
+		this.ingestion.framePresented(frame);
+
+		// The overlay goes over everything, in the screen coordinates
+		final PerformanceHUD overlay = this.hud;
+		if (overlay != null) {
+			((Graphics2D) g).setTransform(screen);
+			overlay.paint((Graphics2D) g);
+		}
+	}
+
+	/**
+	 * Paints the frame on the EDT and records it.
+	 * 
+	 * @param g2d The graphics of the canvas
+	 * @return The number of the frame
+	 */
+	private long paintFrame(final Graphics2D g2d) {
+		final long frame = this.ingestion.frameStarted();
+		final RenderEvents.PaintFrame event = new RenderEvents.PaintFrame();
+		event.begin();
+		final StallWatchdog dog = this.watchdog;
+		if (dog != null) {
+			dog.frameStarted();
+		}
+		final long start = System.nanoTime();
+		// Objects in the scene and objects actually drawn
+		final int[] counts = new int[2];
+		if (!this.paintUncommitted(g2d, counts)) {
+			this.paintCommitted(g2d, counts);
+		}
+		if (dog != null) {
+			dog.frameFinished();
+		}
+		this.recordFrame(event, start, counts[0], counts[1]);
+		return frame;
+	}
+
+	/**
+	 * Paints the last committed state of the scene with the given view off
+	 * the screen and records it as a frame. If another thread has a
+	 * transaction open, waits until it is committed.
+	 * 
+	 * @param g2d The graphics of the offscreen image
+	 * @param view Snapshot of the view to be painted, its objects are ignored
+	 * @param listener The listener notified about the fraction of objects
+	 *            painted. It may throw an unchecked exception to stop the
+	 *            painting, which is then propagated.
+	 * @return The number of the frame
+	 */
+	long paintOffscreen(final Graphics2D g2d, final SceneSnapshot view,
+			final ExportProgressListener listener) {
+		final long frame = this.ingestion.frameStarted();
+		final RenderEvents.PaintFrame event = new RenderEvents.PaintFrame();
+		event.begin();
+		final long start = System.nanoTime();
+		final int count;
+		final int drawn;
+		this.sceneLock.readLock().lock();
+		try {
+			final SceneSnapshot s = view.withObjects(this.sortedObjects());
+			count = s.objects.size();
+			drawn = this.paintScene(g2d, s, listener);
+		}
+		finally {
+			this.sceneLock.readLock().unlock();
+		}
+		this.recordFrame(event, start, count, drawn);
+		return frame;
+	}
+
+	/**
+	 * Records a painted frame into the stats and commits its event.
+	 * 
+	 * @param event The event begun at the start of the frame
+	 * @param start The start of the frame in nanoseconds
+	 * @param count The number of objects in the scene
+	 * @param drawn The number of objects drawn
+	 */
+	private void recordFrame(final RenderEvents.PaintFrame event,
+			final long start, final int count, final int drawn) {
+		this.stats.recordFrame(System.nanoTime() - start, drawn, count - drawn);
+		if (event.shouldCommit()) {
+			event.objectCount = count;
+			event.objectsDrawn = drawn;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Switches the background rendering on or off. In the background mode the
+	 * frames are painted by a dedicated render thread into an offscreen image,
+	 * and the EDT only copies the last finished image onto the screen. A long
+	 * frame then doesn't freeze the menus, buttons and mouse handling.
+	 * <p>
+	 * When the view or the objects change while a frame is being painted, the
+	 * out-of-date frame is cancelled and a new one started. Until it is
+	 * finished, the last finished image is shown, moved and scaled to the
+	 * current translation and zoom.
+	 * </p>
+	 * 
+	 * @param enabled <code>true</code> to paint in the background
+	 */
+	public synchronized void setBackgroundRendering(final boolean enabled) {
+		if (enabled == (this.backgroundRenderer != null)) {
+			return;
+		}
+		if (enabled) {
+			this.backgroundRenderer = new BackgroundRenderer(this, this.stats);
+			this.backgroundRenderer.setListener(this.renderProgressListener);
+		}
+		else {
+			this.backgroundRenderer.stop();
+			this.backgroundRenderer = null;
+		}
+		this.repaint();
+	}
+
+	/**
+	 * @return <code>true</code> if the frames are painted in the background
+	 */
+	public boolean isBackgroundRendering() {
+		return this.backgroundRenderer != null;
+	}
+
+	/**
+	 * Sets the listener notified about the progress of the frames painted in
+	 * the background. It is called from the render thread.
+	 * 
+	 * @param listener The listener, <code>null</code> to remove it
+	 */
+	public synchronized void setRenderProgressListener(
+			final RenderProgressListener listener) {
+		this.renderProgressListener = listener;
+		if (this.backgroundRenderer != null) {
+			this.backgroundRenderer.setListener(listener);
+		}
+	}
+
+	/**
+	 * Shows or hides the performance overlay in the top-left corner of the
+	 * canvas (frame rate, frame times, object counts and heap usage). The
+	 * overlay is updated whenever the canvas is repainted. In the window it is
+	 * toggled by the F3 key.
+	 * 
+	 * @param visible <code>true</code> to show the overlay
+	 */
+	public void setPerformanceOverlay(final boolean visible) {
+		this.hud = visible ? new PerformanceHUD(this) : null;
+		this.repaint();
+	}
+
+	/**
+	 * @return <code>true</code> if the performance overlay is shown
+	 */
+	public boolean isPerformanceOverlay() {
+		return this.hud != null;
+	}
+
+	/**
+	 * Starts watching the frames painted on the EDT. If a frame takes longer
+	 * than the threshold, a report of the object classes, layers and single
+	 * objects which took the time (estimated from samples taken every few
+	 * milliseconds) and of the EDT stack is passed to the listener. Replaces
+	 * the previous watchdog, if any.
+	 * 
+	 * @param thresholdMillis Frames longer than this are reported
+	 * @param listener The listener of the reports. If <code>null</code>, the
+	 *            reports are logged as warnings using
+	 *            <code>java.util.logging</code>.
+	 * @throws IllegalArgumentException If the threshold is not positive
+	 */
+	public synchronized void enableStallWatchdog(final long thresholdMillis,
+			final StallListener listener) {
+		if (thresholdMillis <= 0) {
+			throw new IllegalArgumentException(
+					Constants.ERROR_MESSAGE_WATCHDOG_THRESHOLD);
+		}
+		this.disableStallWatchdog();
+		this.watchdog = new StallWatchdog(thresholdMillis, listener);
+	}
+
+	/**
+	 * Stops watching the frames, see <code>enableStallWatchdog()</code>.
+	 */
+	public synchronized void disableStallWatchdog() {
+		if (this.watchdog != null) {
+			this.watchdog.stop();
+			this.watchdog = null;
+		}
+	}
+
+	/**
+	 * Paints the scene while no transaction has been used yet. The flag is
+	 * checked again holding the scene lock, as the first transaction may be
+	 * just beginning: it sets the flag only once it holds the lock, so the
+	 * frame either finishes before the transaction begins or sees the flag.
+	 * 
+	 * @param g2d The graphics of the canvas
+	 * @param counts Array into which the number of objects in the scene and
+	 *            the number of objects drawn is stored
+	 * @return <code>false</code> if transactions are in use, nothing has
+	 *         been painted then
+	 */
+	private boolean paintUncommitted(final Graphics2D g2d, final int[] counts) {
+		if (this.transactionsUsed || !this.sceneLock.readLock().tryLock()) {
+			return false;
+		}
+		try {
+			if (this.transactionsUsed) {
+				return false;
+			}
+			if (this.incrementalPainting) {
+				this.paintBackBuffer(g2d, counts);
+				this.drawBackBuffer(g2d);
+			}
+			else {
+				final SceneSnapshot s = this.snapshot();
+				counts[0] = s.objects.size();
+				counts[1] = this.paintScene(g2d, s, null);
+			}
+			return true;
+		}
+		finally {
+			this.sceneLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Paints the scene when transactions are in use. If no transaction is
+	 * open, the scene is painted into the back buffer (holding the scene
+	 * lock, so no transaction can begin meanwhile). If a transaction is open,
+	 * the scene may be half-modified, so the last committed frame is shown
+	 * instead. The EDT never waits for the producer.
+	 * 
+	 * @param g The graphics of the canvas
+	 * @param counts Array into which the number of objects in the scene and
+	 *            the number of objects drawn is stored (both 0 if the last
+	 *            committed frame is shown)
+	 */
+	private void paintCommitted(final Graphics2D g, final int[] counts) {
+		if (this.sceneLock.readLock().tryLock()) {
+			try {
+				this.paintBackBuffer(g, counts);
+			}
+			finally {
+				this.sceneLock.readLock().unlock();
+			}
+		}
+		if (this.backBuffer != null) {
+			this.drawBackBuffer(g);
+		}
+	}
+
+	/**
+	 * Copies the back buffer onto the canvas, one pixel of the buffer onto
+	 * one pixel of the screen.
+	 * 
+	 * @param g The graphics of the canvas
+	 */
+	private void drawBackBuffer(final Graphics2D g) {
+		final double unscale = 1 / this.backBufferScale;
+		g.drawImage(this.backBuffer,
+				AffineTransform.getScaleInstance(unscale, unscale), null);
+	}
+
+	/**
+	 * @param g The graphics of the canvas
+	 * @return The scale of the screen, e.g. 2 on a HiDPI screen
+	 */
+	static double getDeviceScale(final Graphics2D g) {
+		final double scale = Math.abs(g.getTransform().getScaleX());
+		return scale > 0 ? scale : 1;
+	}
+
+	/**
+	 * Paints the scene into the back buffer. If the painting is incremental
+	 * and since the last frame only new objects have been drawn, at the end
+	 * of the layer order, only they are painted over the last frame, so that
+	 * the frame costs <i>O(a)</i> for <i>a</i> objects appended. Otherwise,
+	 * i.e. if the view changed, an object has been modified, deleted or
+	 * evicted, or a new object goes below the objects painted, the whole
+	 * scene is painted anew.
+	 * 
+	 * @param g The graphics of the canvas, its scale is the scale of the
+	 *            back buffer
+	 * @param counts Array into which the number of objects painted (or
+	 *            skipped) and the number of objects drawn is stored
+	 */
+	private void paintBackBuffer(final Graphics2D g, final int[] counts) {
+		final double scale = getDeviceScale(g);
+		final int w = Math.max(1, (int) Math.ceil(this.getWidth() * scale));
+		final int h = Math.max(1, (int) Math.ceil(this.getHeight() * scale));
+		if (this.backBuffer == null || this.backBuffer.getWidth() != w
+				|| this.backBuffer.getHeight() != h
+				|| this.backBufferScale != scale) {
+			this.backBuffer = new BufferedImage(w, h,
+					BufferedImage.TYPE_INT_ARGB);
+			this.backBufferScale = scale;
+			this.bufferedView = null;
+		}
+		final SceneSnapshot view = this.viewSnapshot();
+		// Read before taking the objects, so that a change made meanwhile
+		// makes the next frame paint the whole scene
+		final long changed = this.changes.get();
+		List<MGeometricObject> appended = null;
+		if (this.incrementalPainting && this.bufferedView != null
+				&& this.bufferedView.sameView(view)
+				&& this.bufferedChanges == changed) {
+			// Taken from a copy of the mark, kept if they can't be appended
+			final long[] mark = { this.bufferedMark[0] };
+			appended = this.objects.getAppendedList(mark);
+			if (appended != null && this.canAppend(appended)) {
+				this.bufferedMark[0] = mark[0];
+				this.scheduleNextExpiry();
+			}
+			else {
+				appended = null;
+			}
+		}
+
+		final Graphics2D g2d = this.backBuffer.createGraphics();
+		try {
+			g2d.scale(scale, scale);
+			final SceneSnapshot s;
+			if (appended != null) {
+				s = view.withAppendedObjects(appended);
+				this.stats.recordIncrementalFrame();
+			}
+			else {
+				g2d.setBackground(new Color(0, true));
+				g2d.clearRect(0, 0, w, h);
+				s = view.withObjects(this.objects
+						.getSortedList(this.bufferedMark));
+				this.scheduleNextExpiry();
+				this.bufferedView = view;
+				this.bufferedChanges = changed;
+				this.bufferedLabels = false;
+			}
+			for (final MGeometricObject object : s.objects) {
+				this.bufferedLabels |= object.getAttachedLabel() != null;
+			}
+			counts[0] = s.objects.size();
+			counts[1] = this.paintScene(g2d, s, null);
+		}
+		finally {
+			g2d.dispose();
+		}
+	}
+
+	/**
+	 * @param appended The objects appended since the last frame
+	 * @return <code>true</code> if painting the objects over the last frame
+	 *         gives the same image as painting the whole scene. The labels
+	 *         attached to the objects are painted over the objects up to
+	 *         their layer, so the objects can't have any and can't go below
+	 *         the labels painted already.
+	 */
+	private boolean canAppend(final List<MGeometricObject> appended) {
+		for (final MGeometricObject object : appended) {
+			if (object.getAttachedLabel() != null || this.bufferedLabels
+					&& object.getLayer() <= Constants.DEFAULT_LABEL_LAYER) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Switches the incremental painting on or off (default). If on, the
+	 * frames painted on the EDT are kept in a back buffer. While only new
+	 * objects are drawn, each at or above the layer of the objects drawn
+	 * before, the next frame paints just the new objects onto the back
+	 * buffer, i.e. its cost doesn't grow with the number of objects on the
+	 * canvas. This suits e.g. plotting a simulation step by step or a trail
+	 * which is only growing.
+	 * <p>
+	 * Any other change paints the whole scene again: changing the view,
+	 * modifying (and drawing again) or deleting an object, evicting the
+	 * objects by a retention policy, drawing an object below the layer of
+	 * the last one or with a label attached. The number of incremental frames
+	 * is in the render stats. Frames painted in the background mode and
+	 * the images and screenshots are always painted whole.
+	 * </p>
+	 * 
+	 * @param enabled <code>true</code> to paint the appended objects only
+	 */
+	public void setIncrementalPainting(final boolean enabled) {
+		this.incrementalPainting = enabled;
+		this.requestRepaint();
+	}
+
+	/**
+	 * @return <code>true</code> if the frames painted on the EDT paint only
+	 *         the objects appended since the last frame whenever possible
+	 */
+	public boolean isIncrementalPainting() {
+		return this.incrementalPainting;
+	}
+
+	/**
+	 * Requests the canvas to be repainted because its objects changed. In the
+	 * passive rendering mode, the repaint happens after a short delay, so
+	 * that multiple changes done closely after each other are repainted only
+	 * once. In the active rendering mode, the canvas is repainted at the next
+	 * frame. Within a transaction, the repaint is postponed until the commit.
+	 */
+	void requestRepaint() {
+		this.changes.incrementAndGet();
+		this.requestFrame();
+	}
+
+	/**
+	 * @return The number of times the canvas has started painting. A repaint
+	 *         requested while this number stays the same is still to come,
+	 *         and it shows all the changes done before it starts.
+	 */
+	long getPaintsStarted() {
+		return this.paintsStarted;
+	}
+
+	/**
+	 * Requests a frame without any change of the objects painted already,
+	 * e.g. to take in the objects drawn since the last frame. See
+	 * <code>requestRepaint()</code>.
+	 */
+	void requestFrame() {
+		this.sceneVersion.incrementAndGet();
+		// Within a transaction, the commit repaints the canvas
+		if (this.sceneLock.isWriteLockedByCurrentThread()) {
+			return;
+		}
+		this.scheduler.requestRepaint();
+	}
+
+	/**
+	 * Opens a transaction on the calling thread. Until the transaction is
+	 * committed, the changes done by this thread (drawing, deleting and
+	 * modifying the objects) are not shown: the renderer keeps showing the
+	 * last committed state, so viewers never see a half-applied step.
+	 * <p>
+	 * Opening the transaction waits only until the frame being painted (if
+	 * any) is finished; while the transaction is open, the producer never
+	 * waits for the renderer. Transactions can be nested, only the outermost
+	 * commit publishes the changes.
+	 * </p>
+	 * 
+	 * <pre>
+	 * canvas.beginTransaction();
+	 * try {
+	 * 	point.translate(10, 0).color(Color.RED).draw(canvas);
+	 * 	line.delete(canvas);
+	 * }
+	 * finally {
+	 * 	canvas.commit();
+	 * }
+	 * </pre>
+	 */
+	public void beginTransaction() {
+		// The flag is set holding the lock, so that a frame painting without
+		// transactions can't see the half-applied changes, see
+		// paintUncommitted()
+		this.sceneLock.writeLock().lock();
+		this.transactionsUsed = true;
+	}
+
+	/**
+	 * Commits the transaction opened on the calling thread by
+	 * <code>beginTransaction()</code>. The objects are re-indexed once and one
+	 * repaint is requested, after which the renderer shows the new state.
+	 * 
+	 * @throws IllegalStateException If the calling thread has no open
+	 *             transaction
+	 */
+	public void commit() {
+		if (!this.sceneLock.isWriteLockedByCurrentThread()) {
+			throw new IllegalStateException(
+					Constants.ERROR_MESSAGE_NO_TRANSACTION);
+		}
+		boolean publish = false;
+		// Only the outermost commit publishes the changes
+		if (this.sceneLock.writeLock().getHoldCount() == 1) {
+			this.objects.prepare();
+			publish = true;
+		}
+		this.sceneLock.writeLock().unlock();
+		if (publish) {
+			this.scheduler.requestRepaint();
+		}
+	}
+
+	/**
+	 * Runs the given changes of the canvas as one transaction, see
+	 * <code>beginTransaction()</code>.
+	 * 
+	 * @param changes The changes to be applied atomically
+	 */
+	public void runTransaction(final Runnable changes) {
+		this.beginTransaction();
+		try {
+			changes.run();
+		}
+		finally {
+			this.commit();
+		}
+	}
+
+	/**
+	 * Switches the canvas into the active rendering mode. In this mode a
+	 * dedicated render thread repaints the canvas at the given target frame
+	 * rate, but only if something has changed since the last frame (otherwise
+	 * the frame is skipped). This makes animations smooth and doesn't add the
+	 * repaint delay of the passive mode.
+	 * 
+	 * @param framesPerSecond The target frame rate, e.g. 60
+	 */
+	public void setActiveRendering(final double framesPerSecond) {
+		if (framesPerSecond <= 0) {
+			throw new IllegalArgumentException(
+					Constants.ERROR_MESSAGE_FRAME_RATE);
+		}
+		this.scheduler.setTargetFrameRate(framesPerSecond);
+	}
+
+	/**
+	 * Switches the canvas back into the passive rendering mode (default). In
+	 * this mode every change schedules a repaint after a short delay and
+	 * multiple changes within the delay are repainted at once.
+	 */
+	public void setPassiveRendering() {
+		this.scheduler.setTargetFrameRate(0);
+	}
+
+	/**
+	 * @return <code>true</code> if the canvas is in the active rendering mode,
+	 *         <code>false</code> if in the passive rendering mode
+	 */
+	public boolean isActiveRendering() {
+		return this.scheduler.getTargetFrameRate() > 0;
+	}
+
+	/**
+	 * @return The measured number of frames painted per second, averaged over
+	 *         the last frames
+	 */
+	public double getMeasuredFrameRate() {
+		return this.scheduler.getMeasuredFrameRate();
+	}
+
+	/**
+	 * @return The time in milliseconds it takes to paint one frame, averaged
+	 *         over the last frames
+	 */
+	public double getFrameTime() {
+		return this.scheduler.getFrameTimeMillis();
 	}
 
 	/**
-	 * Adds new geometric object into the canvas.
+	 * Adds new geometric object into the canvas, applying the ingestion
+	 * policy first.
 	 * 
 	 * @param object The object to be added
+	 * @return <code>false</code> if the object has been dropped by the
+	 *         ingestion policy
 	 */
-	protected void addGeometricObject(final MGeometricObject object) {
+	protected boolean addGeometricObject(final MGeometricObject object) {
+		if (!this.ingestion.admit()) {
+			return false;
+		}
 		this.objects.add(object);
-		// Repaint the modified object after x ms. This way multiple objects
-		// repainted closely after each other are repainted only once.
-		this.repaint(DEFAULT_REPAINT_INTERVAL_MS);
+		// Repaint the new object. This way multiple objects drawn closely
+		// after each other are repainted only once.
+		this.requestFrame();
+		return true;
+	}
+
+	/**
+	 * Sets what happens when objects are drawn faster than the canvas renders
+	 * them, i.e. when the number of objects drawn since the last frame reaches
+	 * the high-water mark. By default the number is unbounded, which may fill
+	 * the heap and make the next frame very long if a fast producer draws
+	 * millions of objects.
+	 * 
+	 * <pre>
+	 * // Producers wait for the frames once 10000 objects are pending
+	 * canvas.setIngestionPolicy(IngestionPolicy.BLOCK, 10000);
+	 * </pre>
+	 * 
+	 * @param policy The policy, see {@link IngestionPolicy}
+	 * @param highWaterMark The number of pending objects above which the
+	 *            policy applies. Ignored for <code>UNBOUNDED</code>.
+	 * @throws IllegalArgumentException If the high-water mark is not
+	 *             positive
+	 */
+	public void setIngestionPolicy(final IngestionPolicy policy,
+			final int highWaterMark) {
+		if (highWaterMark <= 0 && policy != IngestionPolicy.UNBOUNDED) {
+			throw new IllegalArgumentException(
+					Constants.ERROR_MESSAGE_HIGH_WATER_MARK);
+		}
+		this.ingestion.setPolicy(policy, highWaterMark);
+	}
+
+	/**
+	 * @return The current ingestion policy
+	 */
+	public IngestionPolicy getIngestionPolicy() {
+		return this.ingestion.getPolicy();
+	}
+
+	/**
+	 * @return The number of objects drawn but not taken in by a frame yet.
+	 *         Producers can use it to pace themselves to the rendering. The
+	 *         time producers were blocked and the number of dropped objects
+	 *         are in the render stats.
+	 */
+	public int getPendingObjects() {
+		return this.objects.getBufferSize();
+	}
+
+	/**
+	 * Waits until the objects drawn so far are presented, i.e. until a frame
+	 * which starts after this call is finished. Lets a producer draw at the
+	 * speed of the rendering (e.g. one step of an animation per frame). A
+	 * repaint is requested, so the frame comes even if nothing changed.
+	 * <p>
+	 * The frames are painted only while the canvas is displayed, so use the
+	 * variant with a timeout if the canvas may be hidden.
+	 * </p>
+	 * 
+	 * @throws InterruptedException If interrupted while waiting
+	 * @throws IllegalStateException If called on the event dispatch thread or
+	 *             within a transaction, as the frame would never come
+	 */
+	public void awaitFrame() throws InterruptedException {
+		this.checkCanAwaitFrame();
+		this.requestFrame();
+		this.ingestion.awaitFrame();
+	}
+
+	/**
+	 * Waits until the objects drawn so far are presented, at most for the
+	 * given time. See <code>awaitFrame()</code>.
+	 * 
+	 * @param timeout The maximum time to wait
+	 * @param unit The unit of the timeout
+	 * @return <code>false</code> if the time elapsed before the frame was
+	 *         presented
+	 * @throws InterruptedException If interrupted while waiting
+	 * @throws IllegalStateException If called on the event dispatch thread or
+	 *             within a transaction, as the frame would never come
+	 */
+	public boolean awaitFrame(final long timeout, final TimeUnit unit)
+			throws InterruptedException {
+		this.checkCanAwaitFrame();
+		this.requestFrame();
+		return this.ingestion.awaitFrame(timeout, unit);
+	}
+
+	private void checkCanAwaitFrame() {
+		if (SwingUtilities.isEventDispatchThread() || this.isInTransaction()) {
+			throw new IllegalStateException(
+					Constants.ERROR_MESSAGE_AWAIT_FRAME);
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the calling thread has an open transaction
+	 */
+	boolean isInTransaction() {
+		return this.sceneLock.isWriteLockedByCurrentThread();
 	}
 
 	/**
@@ -206,9 +1212,76 @@ public class Canvas extends JPanel {
 	 */
 	protected void removeGeometricObject(final MGeometricObject object) {
 		this.objects.remove(object);
-		// Repaint the modified object after x ms. This way multiple objects
-		// repainted closely after each other are repainted only once.
-		this.repaint(DEFAULT_REPAINT_INTERVAL_MS);
+		// Repaint the modified object. This way multiple objects repainted
+		// closely after each other are repainted only once.
+		this.requestRepaint();
+	}
+
+	/**
+	 * Called when an object drawn already is drawn again after it has been
+	 * modified, so that the retention policies evicting the least recently
+	 * updated objects keep it longer.
+	 * 
+	 * @param object The modified object
+	 */
+	protected void updateGeometricObject(final MGeometricObject object) {
+		this.objects.update(object);
+	}
+
+	/**
+	 * Sets the retention policy bounding the number, size or age of the
+	 * objects kept by the canvas. The objects over the limits are evicted
+	 * when the next frame is painted, as if they were deleted. The objects
+	 * in the layers with a policy of their own are not affected. By
+	 * default, all the objects are kept, so a simulation drawing new objects
+	 * forever eventually fills the heap.
+	 * 
+	 * <pre>
+	 * // Keep the last 50000 objects
+	 * canvas.setRetentionPolicy(RetentionPolicy.fifo().maxObjects(50000));
+	 * </pre>
+	 * 
+	 * The objects on the canvas already are retained as if drawn now, in
+	 * their order of painting. Evicting an object costs <i>O(1)</i>
+	 * amortized; the number of evicted objects is in the render stats.
+	 * 
+	 * @param policy The policy, see {@link RetentionPolicy}.
+	 *            <code>null</code> to keep all the objects.
+	 */
+	public void setRetentionPolicy(final RetentionPolicy policy) {
+		this.objects.setRetentionPolicy(policy);
+		this.requestRepaint();
+	}
+
+	/**
+	 * Sets the retention policy of the objects in the given layer, replacing
+	 * the policy of the canvas for them. E.g. a trail in its own layer can be
+	 * bounded while the other objects are all kept. See
+	 * <code>setRetentionPolicy(RetentionPolicy)</code>.
+	 * <p>
+	 * An object is retained by the policy of the layer it is in when it is
+	 * drawn. If its layer changes later, it moves to the policy of its new
+	 * layer when it is drawn again.
+	 * </p>
+	 * 
+	 * @param layer The layer
+	 * @param policy The policy, <code>null</code> to use the policy of the
+	 *            canvas in the layer
+	 */
+	public void setRetentionPolicy(final int layer,
+			final RetentionPolicy policy) {
+		this.objects.setRetentionPolicy(layer, policy);
+		this.requestRepaint();
+	}
+
+	/**
+	 * @param layer The layer
+	 * @return The retention policy of the objects in the given layer, i.e.
+	 *         its own policy or the policy of the canvas. <code>null</code>
+	 *         if all the objects are kept.
+	 */
+	public RetentionPolicy getRetentionPolicy(final int layer) {
+		return this.objects.getRetentionPolicy(layer);
 	}
 
 	/**
@@ -238,6 +1311,7 @@ public class Canvas extends JPanel {
 	 */
 	public void clearAllButGrid() {
 		this.objects.clear();
+		this.sceneVersion.incrementAndGet();
 		this.repaint();
 	}
 
@@ -397,32 +1471,99 @@ public class Canvas extends JPanel {
 	 * @return The screenshot of the current canvas screen
 	 */
 	public BufferedImage getImage() {
-		// Create buffered image from the canvas
-		final BufferedImage image = (BufferedImage) this.createImage(
-				this.getWidth(), this.getHeight());
-
-		// Get the graphics of the image
-		final Graphics2D g2dimg = image.createGraphics();
-
-		// Paint into it using the canvas's method
-		this.paintComponent(g2dimg);
+		// Rasterize the current scene on this thread
+		return this.exporter.rasterize(this.committedSnapshot(), null);
+	}
 
-		return image;
+	/**
+	 * Takes a snapshot of the current canvas screen and rasterizes it in the
+	 * background. The snapshot is taken on the calling thread, which is cheap,
+	 * the rest happens on a worker thread.
+	 * 
+	 * @return The future completed with the screenshot
+	 */
+	public CompletableFuture<BufferedImage> getImageAsync() {
+		return this.exporter.rasterizeAsync(this.committedSnapshot(), null);
 	}
 
 	/**
 	 * Saves a screenshot in the given format of the current canvas screen into
-	 * the given file.
+	 * the given file. The calling thread waits until the image is written.
 	 * 
 	 * @param file The file into which the image should be saved.
 	 * @throws IOException If an error occurs during writing.
 	 */
 	public void saveScreenShot(final File file) throws IOException {
-		// Get the image from the canvas
-		final BufferedImage img = this.getImage();
+		try {
+			this.saveScreenShotAsync(file, null).join();
+		}
+		catch (final CompletionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Saves a screenshot of the current canvas screen into the given file in
+	 * the background. Only the snapshot of the scene is taken on the calling
+	 * thread, the rasterization and the encoding happen on worker threads, so
+	 * calling this method from the EDT keeps the UI responsive.
+	 * 
+	 * @param file The file into which the image should be saved.
+	 * @param listener The listener notified about the progress of the export
+	 *            (called from a worker thread), may be <code>null</code>
+	 * @return The future completed with the file once the image is written,
+	 *         or completed exceptionally with the {@link IOException}
+	 */
+	public CompletableFuture<File> saveScreenShotAsync(final File file,
+			final ExportProgressListener listener) {
+		return this.exporter.saveAsync(this.committedSnapshot(), file,
+				Constants.DEFAULT_SCREENSHOT_FILE_FORMAT, listener);
+	}
+
+	/**
+	 * Creates a recorder of this canvas, which captures the canvas screen as
+	 * frames of an animation (at a fixed rate or on demand) and encodes them
+	 * in the background. Configure the recorder and call its
+	 * <code>start()</code> method to start the recording.
+	 * 
+	 * @param output The output file (animated GIF) or directory (PNG
+	 *            sequence)
+	 * @return The new, not yet started, recorder
+	 */
+	public FrameRecorder createRecorder(final File output) {
+		return new FrameRecorder(this, output);
+	}
 
-		// Write the image to the given file
-		ImageIO.write(img, Constants.DEFAULT_SCREENSHOT_FILE_FORMAT, file);
+	/**
+	 * Writes the current canvas screen as SVG vector graphics into the given
+	 * writer. The objects are streamed into the writer one by one, hence even
+	 * very large scenes can be exported. The writer is flushed but not closed.
+	 * 
+	 * @param writer The writer into which the SVG document should be written.
+	 *            Should be buffered.
+	 * @throws IOException If an error occurs during writing.
+	 * @see SVGPainter
+	 */
+	public void exportSVG(final Writer writer) throws IOException {
+		new SVGExporter(this, this.painterMgr).export(writer);
+	}
+
+	/**
+	 * Saves the current canvas screen as SVG vector graphics into the given
+	 * file.
+	 * 
+	 * @param file The file into which the SVG should be saved.
+	 * @throws IOException If an error occurs during writing.
+	 * @see SVGPainter
+	 */
+	public void saveSVG(final File file) throws IOException {
+		try (final Writer writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(file), StandardCharsets.UTF_8))) {
+			this.exportSVG(writer);
+		}
 	}
 
 }
@@ -42,6 +42,11 @@ class CanvasKeyboardListener implements KeyListener {
 			this.canvas.resetTranslationAndZoom();
 			this.zoomSlider.setValue(Constants.ZOOM_1_VALUE);
 		}
+		// Show/hide the performance overlay
+		else if (keyCode == KeyEvent.VK_F3) {
+			this.canvas.setPerformanceOverlay(!this.canvas
+					.isPerformanceOverlay());
+		}
 	}
 
 	@Override
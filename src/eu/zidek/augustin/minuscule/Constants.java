@@ -51,6 +51,7 @@ class Constants {
 	static final MStroke DEFAULT_POLYGON_STROKE = new MBasicStroke(1);
 	static final int DEFAULT_POLYGON_LAYER = 0;
 	static final boolean DEFAULT_POLYGON_ZOOM_INDIFFERENCE = false;
+	static final int POLYGON_INITIAL_CAPACITY = 16;
 
 	// Label
 	static final Color DEFAULT_LABEL_COLOR = Color.BLACK;
@@ -59,6 +60,9 @@ class Constants {
 	static final double DEFAULT_LABEL2LABEL_SPACING = 1;
 	static final int DEFAULT_LABEL_LAYER = 2;
 	static final boolean DEFAULT_LABEL_ZOOM_INDIFFERENCE = false;
+	static final MStyle DEFAULT_LABEL_STYLE = MStyle.of(DEFAULT_LABEL_COLOR,
+			DEFAULT_LABEL_FILL, DEFAULT_LABEL_STROKE, DEFAULT_FONT,
+			DEFAULT_LABEL_ZOOM_INDIFFERENCE);
 
 	// Rectangle
 	static final Color DEFAULT_RECTANGLE_COLOR = Color.BLACK;
@@ -79,6 +83,48 @@ class Constants {
 	static final int DEFAULT_SHAPE_LAYER = 0;
 	static final boolean DEFAULT_SHAPE_ZOOM_INDIFFERENCE = false;
 
+	// Compact scene
+	static final int COMPACT_SCENE_INITIAL_CAPACITY = 64;
+	static final int DEFAULT_COMPACT_SCENE_LAYER = 0;
+	static final String ERROR_MESSAGE_ELEMENT_DELETED = "The element of the handle has been deleted.";
+
+	// Mapped points
+	static final int DEFAULT_MAPPED_POINTS_RECORD_SIZE = 16;
+	static final double DEFAULT_MAPPED_POINTS_RADIUS = 1;
+	static final int DEFAULT_MAPPED_POINTS_LAYER = 0;
+	static final int MAPPED_POINTS_BLOCK_RECORDS = 4096;
+	static final long MAPPED_POINTS_CHUNK_BYTES = 1L << 30;
+	static final String MAPPED_POINTS_INDEX_SUFFIX = ".mbi";
+	static final long MAPPED_POINTS_INDEX_MAGIC = 0x4D4D50_4249_0001L;
+	static final String ERROR_MESSAGE_RECORD_SIZE = "The record must have at least 16 bytes for the x and y coordinates.";
+	static final String ERROR_MESSAGE_COLOR_ATTRIBUTE = "The offset is out of the attributes of the record: ";
+	static final String ERROR_MESSAGE_MAPPED_POINTS_CLOSED = "The mapped points have been closed.";
+
+	// Point pyramid
+	static final int DEFAULT_PYRAMID_NODE_CAPACITY = 4096;
+	static final int DEFAULT_PYRAMID_MAX_DEPTH = 20;
+	static final long DEFAULT_PYRAMID_CACHE_POINTS = 2000000;
+	static final double DEFAULT_PYRAMID_POINT_SPACING = 2;
+	static final long PYRAMID_MAGIC = 0x4D505950_5241_0001L;
+	static final String PYRAMID_LOADER_THREAD_NAME = "Minuscule pyramid loader";
+	static final String ERROR_MESSAGE_NOT_PYRAMID = "The file is not a point pyramid: ";
+
+	// Series
+	static final int DEFAULT_SERIES_LAYER = 0;
+	static final int SERIES_GUARD_SAMPLES = 1024;
+	static final int SERIES_READ_ATTEMPTS = 3;
+	static final String ERROR_MESSAGE_SERIES_CAPACITY = "The capacity of the series must be positive.";
+	static final String ERROR_MESSAGE_SERIES_LENGTHS = "The arrays of the x and y coordinates must have the same length.";
+	static final String ERROR_MESSAGE_SERIES_ORDER = "The samples must be appended in the ascending order of their x coordinates.";
+
+	// Polyline
+	static final int DEFAULT_POLYLINE_LAYER = 0;
+	static final int POLYLINE_INITIAL_CAPACITY = 16;
+	static final int POLYLINE_DOWNSAMPLING_THRESHOLD = 4096;
+	static final int POLYLINE_CACHED_LEVELS = 4;
+	static final int POLYLINE_SEGMENTS_PER_PATH = 4096;
+	static final String ERROR_MESSAGE_POLYLINE_LENGTHS = "The arrays of the x and y coordinates must have the same length.";
+
 	// Canvas
 	static final String ERROR_MESSAGE_NO_PAINTER = "ERROR: No painter has been found for the geometric object ";
 	static final long DEFAULT_REPAINT_INTERVAL_MS = 100;
@@ -86,6 +132,56 @@ class Constants {
 	static final String DEFAULT_SCREENSHOT_FILE_FORMAT = "png";
 	static final double DEFAULT_ZOOM_IN_FACTOR = 1.1;
 	static final double DEFAULT_ZOOM_OUT_FACTOR = 0.9;
+	static final String RENDER_THREAD_NAME = "Minuscule render";
+	static final double FRAME_STATS_SMOOTHING = 0.1;
+	static final String ERROR_MESSAGE_NO_TRANSACTION = "No transaction is open on this thread.";
+	static final String ERROR_MESSAGE_FRAME_RATE = "The frame rate must be positive.";
+	static final int RENDER_PROGRESS_STEP = 1000;
+	static final int PREPARE_CHUNK_SIZE = 8192;
+	static final String BACKGROUND_RENDER_THREAD_NAME = "Minuscule background render";
+	static final long INGESTION_BLOCK_POLL_MS = 100;
+	static final String ERROR_MESSAGE_HIGH_WATER_MARK = "The high-water mark must be positive.";
+	static final String ERROR_MESSAGE_RETENTION_LIMIT = "The limit of the retention policy must be positive.";
+	// Rough heap size of an object with its coordinates and references
+	static final long OBJECT_SIZE_ESTIMATE = 96;
+	static final String ERROR_MESSAGE_AWAIT_FRAME = "Can't wait for a frame on the event dispatch thread or within a transaction.";
+
+	// Image export
+	static final int EXPORT_THREADS = 2;
+	static final String EXPORT_THREAD_NAME = "Minuscule export ";
+	static final String ERROR_MESSAGE_NO_IMAGE_WRITER = "No ImageIO writer found for the format ";
+
+	// Frame recorder
+	static final FrameRecorder.Format DEFAULT_RECORDER_FORMAT = FrameRecorder.Format.ANIMATED_GIF;
+	static final FrameRecorder.OverflowPolicy DEFAULT_RECORDER_POLICY = FrameRecorder.OverflowPolicy.BLOCK;
+	static final double DEFAULT_RECORDER_FRAME_RATE = 25;
+	static final int DEFAULT_RECORDER_BUFFER_SIZE = 32;
+	static final String RECORDER_ENCODER_THREAD_NAME = "Minuscule recorder encoder";
+	static final String RECORDER_CAPTURE_THREAD_NAME = "Minuscule recorder capture";
+	static final String RECORDER_FRAME_FILE_NAME = "frame-%06d.png";
+	static final String ERROR_MESSAGE_RECORDER_STARTED = "The recorder has already been started.";
+	static final String ERROR_MESSAGE_RECORDER_NOT_STARTED = "The recorder has not been started.";
+	static final String ERROR_MESSAGE_RECORDER_BUFFER = "The recorder buffer must hold at least one frame.";
+	static final String ERROR_MESSAGE_RECORDER_DIRECTORY = "Can't create the directory for the frames: ";
+	static final String ERROR_MESSAGE_RECORDER_FILE = "Can't write the recording into the file: ";
+
+	// Render stats
+	static final String MBEAN_NAME = "eu.zidek.augustin.minuscule:type=RenderStats,name=Canvas";
+	static final Font HUD_FONT = new Font(Font.MONOSPACED, Font.PLAIN, 11);
+	static final Color HUD_COLOR = Color.WHITE;
+	static final Color HUD_BACKGROUND = new Color(0, 0, 0, 160);
+	static final int HUD_PADDING = 4;
+
+	// Stall watchdog
+	static final String WATCHDOG_THREAD_NAME = "Minuscule stall watchdog";
+	static final long WATCHDOG_SAMPLE_INTERVAL_MS = 2;
+	static final int WATCHDOG_REPORTED_OBJECTS = 10;
+	static final String ERROR_MESSAGE_WATCHDOG_THRESHOLD = "The stall threshold must be positive.";
+
+	// SVG export
+	static final String ERROR_MESSAGE_NO_SVG_PAINTER = "No SVG painter for the geometric object ";
+	static final int SVG_MAX_STYLE_CLASSES = 4096;
+	static final double SVG_PRECISION = 1000;
 
 	// Window
 	static final String DEFAULT_WINDOW_TITLE = "Minuscule Canvas";
@@ -95,6 +191,7 @@ class Constants {
 	static final String INFO_PATH = "http://www.augustin.zidek.eu/minuscule/info-20.html";
 	static final Object INFO_NO_WEB = "Minuscule Java Graphics Library v 2.0. More details at www.augustin.zidek.eu/minuscule";
 	static final String ERROR_MESSAGE_SAVE_IMAGE = "There was an error saving the image to the disk. Do you have sufficent access right?";
+	static final String BTN_SAVE_PROGRESS = "Saving %.0f%%";
 	static final String TLT_ZOOM_LABEL = "Click the - and + to adjust the zoom.";
 	static final String TLT_ZOOM_VALUE = "Click to reset to 100%.";
 	static final String BTN_ZOOM_IN = "<html><font face='Courier New' size='4'>\u2212</font></html>";
@@ -0,0 +1,264 @@
+package eu.zidek.augustin.minuscule;
+
+import java.awt.BasicStroke;
+import java.awt.Graphics2D;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Compact list of what to draw in one frame: the objects which are in the
+ * view, in the order of their layers, each with its painter resolved.
+ * <p>
+ * Painting a frame has two stages. The preparation stage (this class) goes
+ * over the snapshot of the objects, skips the objects out of the view and
+ * looks up the painters. It touches the objects only, so it runs in
+ * parallel on the common fork-join pool, split into chunks of
+ * <code>PREPARE_CHUNK_SIZE</code> objects. The draw stage then goes over the
+ * draw list serially and issues the <code>Graphics2D</code> calls, which
+ * can't be done concurrently.
+ * </p>
+ * <p>
+ * The labels attached to the objects by <code>label(String)</code> are not
+ * objects in the list. The draw list keeps their owners, so that the labels
+ * are painted in one pass once the objects up to the layer of the labels
+ * are drawn.
+ * </p>
+ *
+ * @author Augustin Zidek
+ *
+ */
+final class DrawList {
+	/**
+	 * Put in place of the painter of objects which have no painter
+	 * registered, never called.
+	 */
+	static final MGeometricObjectPainter NO_PAINTER = new MGeometricObjectPainter() {
+		@Override
+		public void paint(final MGeometricObject object, final Graphics2D g2d) {
+			// Never called
+		}
+	};
+	private static final MGeometricObject[] NO_OBJECTS = new MGeometricObject[0];
+
+	// The objects to be drawn and their painters, in the first size items
+	final MGeometricObject[] objects;
+	final MGeometricObjectPainter[] painters;
+	final int size;
+	// The number of objects skipped as out of the view
+	final int culled;
+	// The objects with attached labels, in the first labelCount items
+	final MGeometricObject[] labelled;
+	final int labelCount;
+	// Index of the first object above the layer of the labels, the labels
+	// are painted before it
+	final int labelPassIndex;
+
+	private DrawList(final MGeometricObject[] objects,
+			final MGeometricObjectPainter[] painters, final int size,
+			final int culled, final MGeometricObject[] labelled,
+			final int labelCount, final int labelPassIndex) {
+		this.objects = objects;
+		this.painters = painters;
+		this.size = size;
+		this.culled = culled;
+		this.labelled = labelled;
+		this.labelCount = labelCount;
+		this.labelPassIndex = labelPassIndex;
+	}
+
+	/**
+	 * Prepares the draw list of the given objects.
+	 *
+	 * @param objects The objects sorted by their layers
+	 * @param s The snapshot whose view is painted
+	 * @param painterMgr The painters of the canvas
+	 * @return The draw list
+	 */
+	static DrawList prepare(final List<MGeometricObject> objects,
+			final SceneSnapshot s, final PainterManager painterMgr) {
+		final MGeometricObject[] array = objects
+				.toArray(new MGeometricObject[objects.size()]);
+		final MGeometricObjectPainter[] painters = new MGeometricObjectPainter[array.length];
+		final PrepareTask task = new PrepareTask(array, painters,
+				visibleArea(s), s.zoom, painterMgr, 0, array.length);
+		// Small scenes are not worth the forking
+		if (array.length <= Constants.PREPARE_CHUNK_SIZE) {
+			task.compute();
+		}
+		else {
+			task.invoke();
+		}
+
+		// Compact the visible objects to the beginning, keeping the order,
+		// and collect the owners of the labels
+		int size = 0;
+		MGeometricObject[] labelled = NO_OBJECTS;
+		int labelCount = 0;
+		int labelPassIndex = -1;
+		for (int i = 0; i < array.length; i++) {
+			if (painters[i] != null) {
+				final MGeometricObject object = array[i];
+				array[size] = object;
+				painters[size] = painters[i];
+				if (labelPassIndex < 0
+						&& object.getLayer() > Constants.DEFAULT_LABEL_LAYER) {
+					labelPassIndex = size;
+				}
+				size++;
+				if (object.getAttachedLabel() != null) {
+					if (labelCount == labelled.length) {
+						labelled = Arrays.copyOf(labelled,
+								Math.max(16, labelCount * 2));
+					}
+					labelled[labelCount++] = object;
+				}
+			}
+		}
+		return new DrawList(array, painters, size, array.length - size,
+				labelled, labelCount, labelPassIndex < 0 ? size
+						: labelPassIndex);
+	}
+
+	/**
+	 * @return The visible area of the scene as
+	 *         <code>{minX, minY, maxX, maxY}</code>, i.e. the view rectangle
+	 *         transformed back by the inverse of the transform applied by
+	 *         <code>paintScene()</code>, grown by a pixel as the antialiasing
+	 *         may touch the pixel next to the outline
+	 */
+	private static double[] visibleArea(final SceneSnapshot s) {
+		// Screen is t + z * p, hence p = (screen - t) / z
+		final double x1 = -s.translateX / s.zoom;
+		final double x2 = (s.viewWidth - s.translateX) / s.zoom;
+		double y1 = -s.translateY / s.zoom;
+		double y2 = (s.viewHeight - s.translateY) / s.zoom;
+		double xOffset = 0;
+		// Euclidean origin in the middle and the y axis flipped
+		if (s.euclidean) {
+			xOffset = -s.width / 2;
+			final double flipped1 = s.height / 2 - y1;
+			y1 = s.height / 2 - y2;
+			y2 = flipped1;
+		}
+		final double pixel = 1 / Math.abs(s.zoom);
+		return new double[] { Math.min(x1, x2) + xOffset - pixel,
+				Math.min(y1, y2) - pixel, Math.max(x1, x2) + xOffset + pixel,
+				Math.max(y1, y2) + pixel };
+	}
+
+	/**
+	 * Gets how far the stroke may paint out of the outline of a shape. That's
+	 * half of the thickness, but square caps stick out diagonally at the ends
+	 * of lines and miter joins up to the miter limit at sharp corners.
+	 * 
+	 * @param stroke The stroke
+	 * @return The distance, infinite for unknown strokes
+	 */
+	static double getStrokeReach(final MStroke stroke) {
+		if (stroke == null) {
+			return 0;
+		}
+		if (!(stroke instanceof BasicStroke)) {
+			return Double.POSITIVE_INFINITY;
+		}
+		final BasicStroke basic = (BasicStroke) stroke;
+		double factor = 1;
+		if (basic.getEndCap() == BasicStroke.CAP_SQUARE) {
+			factor = Math.sqrt(2);
+		}
+		if (basic.getLineJoin() == BasicStroke.JOIN_MITER) {
+			factor = Math.max(factor, basic.getMiterLimit());
+		}
+		return factor * stroke.getThickness() / 2;
+	}
+
+	/**
+	 * Culls a chunk of the objects and looks up their painters, forking into
+	 * halves while the chunk is large.
+	 */
+	private static final class PrepareTask extends RecursiveAction {
+		private static final long serialVersionUID = 42L;
+		private final MGeometricObject[] objects;
+		private final MGeometricObjectPainter[] painters;
+		private final double[] area;
+		private final double zoom;
+		private final PainterManager painterMgr;
+		private final int from;
+		private final int to;
+
+		PrepareTask(final MGeometricObject[] objects,
+				final MGeometricObjectPainter[] painters, final double[] area,
+				final double zoom, final PainterManager painterMgr,
+				final int from, final int to) {
+			this.objects = objects;
+			this.painters = painters;
+			this.area = area;
+			this.zoom = zoom;
+			this.painterMgr = painterMgr;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.to - this.from > Constants.PREPARE_CHUNK_SIZE) {
+				final int middle = (this.from + this.to) >>> 1;
+				invokeAll(new PrepareTask(this.objects, this.painters,
+						this.area, this.zoom, this.painterMgr, this.from,
+						middle), new PrepareTask(this.objects, this.painters,
+						this.area, this.zoom, this.painterMgr, middle, this.to));
+				return;
+			}
+			// Objects mostly come in runs of the same class, so the painter
+			// is looked up only when the class changes
+			Class<?> lastClass = null;
+			MGeometricObjectPainter lastPainter = null;
+			for (int i = this.from; i < this.to; i++) {
+				final MGeometricObject object = this.objects[i];
+				if (!this.isVisible(object)) {
+					continue;
+				}
+				if (object.getClass() != lastClass) {
+					lastClass = object.getClass();
+					try {
+						lastPainter = this.painterMgr.getPainter(lastClass);
+					}
+					catch (final NoPainterException e) {
+						lastPainter = NO_PAINTER;
+					}
+				}
+				this.painters[i] = lastPainter;
+			}
+		}
+
+		/**
+		 * @return <code>false</code> if the object is surely out of the view
+		 */
+		private boolean isVisible(final MGeometricObject object) {
+			final MBoundingBox bounds = object.getCullingBounds();
+			// The bounds don't include the label, which may stick out
+			if (bounds == null || object.getAttachedLabel() != null) {
+				return true;
+			}
+			double margin = getStrokeReach(object.getStroke());
+			double halfWidth = bounds.width / 2;
+			double halfHeight = bounds.height / 2;
+			// Zoom indifferent sizes don't shrink when zoomed out, so the
+			// bounds grow instead (more than needed for lines and polygons).
+			// The zoom is negative when the view is mirrored.
+			final double scale = Math.abs(this.zoom);
+			if (object.isZoomIndifferent() && scale < 1) {
+				margin /= scale;
+				halfWidth /= scale;
+				halfHeight /= scale;
+			}
+			final double centerX = bounds.x + bounds.width / 2;
+			final double centerY = bounds.y + bounds.height / 2;
+			return centerX + halfWidth + margin >= this.area[0]
+					&& centerY + halfHeight + margin >= this.area[1]
+					&& centerX - halfWidth - margin <= this.area[2]
+					&& centerY - halfHeight - margin <= this.area[3];
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package eu.zidek.augustin.minuscule;
+
+/**
+ * Listener notified about the progress of an image export running in the
+ * background (see {@link Canvas#saveScreenShotAsync(java.io.File,
+ * ExportProgressListener)}).
+ *
+ * Note that the listener is called from the export worker thread, not from
+ * the EDT. If it updates any Swing components, it has to use
+ * <code>SwingUtilities.invokeLater()</code>.
+ *
+ * @author Augustin Zidek
+ *
+ */
+public interface ExportProgressListener {
+
+	/**
+	 * Called when the export has progressed.
+	 *
+	 * @param progress The fraction of the export done, between 0 and 1
+	 */
+	public void exportProgress(final double progress);
+
+}
@@ -0,0 +1,467 @@
+package eu.zidek.augustin.minuscule;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Records the canvas as a sequence of frames, e.g. to capture an animation of
+ * an algorithm. The frames are captured either at a fixed rate or on demand
+ * (by calling <code>capture()</code>, e.g. after every step of the
+ * algorithm). Captured frames go into a bounded ring buffer, from which a
+ * background thread encodes them into a sequence of PNG files or into an
+ * animated GIF.
+ *
+ * FrameRecorder uses the Builder pattern to set its properties, if not
+ * invoked, default values are used. The properties can be set only before the
+ * recording is started:
+ *
+ * <pre>
+ * final FrameRecorder recorder = canvas.createRecorder(new File("anim.gif"))
+ * 		.frameRate(25).start();
+ * // ... animate ...
+ * recorder.stop().join();
+ * </pre>
+ *
+ * @author Augustin Zidek
+ *
+ */
+public class FrameRecorder {
+	/**
+	 * The output format of the recording.
+	 */
+	public static enum Format {
+		/**
+		 * Every frame is written into its own PNG file, the output is a
+		 * directory.
+		 */
+		PNG_SEQUENCE,
+		/**
+		 * All the frames are written into one animated GIF file.
+		 */
+		ANIMATED_GIF
+	}
+
+	/**
+	 * Determines what happens with a captured frame when the encoder falls
+	 * behind and the ring buffer is full.
+	 */
+	public static enum OverflowPolicy {
+		/**
+		 * The thread capturing the frame waits until there is space in the
+		 * buffer. No frames are lost, but the capturing thread is slowed down
+		 * to the speed of the encoder.
+		 */
+		BLOCK,
+		/**
+		 * The newly captured frame is dropped.
+		 */
+		DROP_NEWEST,
+		/**
+		 * The oldest frame waiting in the buffer is dropped to make space for
+		 * the new one.
+		 */
+		DROP_OLDEST
+	}
+
+	private final Canvas canvas;
+	private final File output;
+	private Format format = Constants.DEFAULT_RECORDER_FORMAT;
+	private OverflowPolicy policy = Constants.DEFAULT_RECORDER_POLICY;
+	private double frameRate = Constants.DEFAULT_RECORDER_FRAME_RATE;
+	private int bufferSize = Constants.DEFAULT_RECORDER_BUFFER_SIZE;
+
+	private final AtomicLong framesCaptured = new AtomicLong();
+	private final AtomicLong framesDropped = new AtomicLong();
+	private final AtomicLong framesEncoded = new AtomicLong();
+	private final CompletableFuture<File> result = new CompletableFuture<>();
+	private FrameRingBuffer buffer;
+	private ScheduledExecutorService scheduler;
+	private volatile boolean started = false;
+	private volatile boolean stopped = false;
+	// The error which stopped the automatic capturing, null if none
+	private volatile Throwable captureError;
+
+	/**
+	 * Creates a new recorder of the given canvas. The recording starts only
+	 * after <code>start()</code> is called.
+	 *
+	 * @param canvas The canvas to be recorded
+	 * @param output The output file (animated GIF) or directory (PNG
+	 *            sequence)
+	 */
+	public FrameRecorder(final Canvas canvas, final File output) {
+		this.canvas = canvas;
+		this.output = output;
+	}
+
+	/**
+	 * Sets the output format. The default is animated GIF.
+	 *
+	 * @param format The output format
+	 * @return The recorder with modified format
+	 */
+	public FrameRecorder format(final Format format) {
+		this.checkNotStarted();
+		this.format = format;
+		return this;
+	}
+
+	/**
+	 * Sets the rate at which the frames are captured automatically. If set to
+	 * 0, the frames are captured only on demand by calling
+	 * <code>capture()</code>.
+	 *
+	 * @param framesPerSecond The number of frames captured per second
+	 * @return The recorder with modified frame rate
+	 */
+	public FrameRecorder frameRate(final double framesPerSecond) {
+		this.checkNotStarted();
+		this.frameRate = framesPerSecond;
+		return this;
+	}
+
+	/**
+	 * Sets the capacity of the ring buffer holding the frames waiting for the
+	 * encoder.
+	 *
+	 * @param frames The maximal number of frames waiting for the encoder
+	 * @return The recorder with modified buffer size
+	 */
+	public FrameRecorder bufferSize(final int frames) {
+		this.checkNotStarted();
+		if (frames < 1) {
+			throw new IllegalArgumentException(
+					Constants.ERROR_MESSAGE_RECORDER_BUFFER);
+		}
+		this.bufferSize = frames;
+		return this;
+	}
+
+	/**
+	 * Sets what happens when the encoder falls behind and the buffer is full.
+	 * The default is to block the capturing thread.
+	 *
+	 * @param policy The overflow policy
+	 * @return The recorder with modified overflow policy
+	 */
+	public FrameRecorder overflowPolicy(final OverflowPolicy policy) {
+		this.checkNotStarted();
+		this.policy = policy;
+		return this;
+	}
+
+	/**
+	 * Starts the recording: starts the encoder thread and, if the frame rate
+	 * is positive, the automatic capturing.
+	 *
+	 * @return The started recorder
+	 */
+	public synchronized FrameRecorder start() {
+		this.checkNotStarted();
+		this.started = true;
+		this.buffer = new FrameRingBuffer(this.bufferSize);
+
+		final Thread encoder = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				FrameRecorder.this.encode();
+			}
+		}, Constants.RECORDER_ENCODER_THREAD_NAME);
+		encoder.setDaemon(true);
+		encoder.start();
+
+		if (this.frameRate > 0) {
+			this.scheduler = Executors
+					.newSingleThreadScheduledExecutor(new ThreadFactory() {
+						@Override
+						public Thread newThread(final Runnable r) {
+							final Thread t = new Thread(r,
+									Constants.RECORDER_CAPTURE_THREAD_NAME);
+							t.setDaemon(true);
+							return t;
+						}
+					});
+			final long periodNanos = (long) (1e9 / this.frameRate);
+			this.scheduler.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					// An exception would silently cancel the next captures
+					try {
+						FrameRecorder.this.capture();
+					}
+					catch (final Throwable t) {
+						FrameRecorder.this.captureFailed(t);
+					}
+				}
+			}, 0, periodNanos, TimeUnit.NANOSECONDS);
+		}
+		return this;
+	}
+
+	/**
+	 * Captures the current canvas screen as a new frame. Can be called from
+	 * any thread, e.g. after each step of an animated algorithm. The frame is
+	 * rasterized on the calling thread and handed over to the encoder.
+	 *
+	 * @return <code>true</code> if the frame has been accepted,
+	 *         <code>false</code> if it was dropped (or the recorder is not
+	 *         running)
+	 */
+	public boolean capture() {
+		if (!this.started || this.stopped) {
+			return false;
+		}
+		final long time = System.nanoTime();
+		final BufferedImage frame = this.canvas.getImage();
+		this.framesCaptured.incrementAndGet();
+		try {
+			final boolean dropped = this.buffer.put(frame, time, this.policy);
+			if (dropped) {
+				this.framesDropped.incrementAndGet();
+			}
+			// With DROP_OLDEST the new frame is kept even if one was dropped
+			return !dropped || this.policy == OverflowPolicy.DROP_OLDEST;
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			this.framesDropped.incrementAndGet();
+			return false;
+		}
+	}
+
+	/**
+	 * Stops the recording. No more frames are captured, the frames already in
+	 * the buffer are still encoded.
+	 *
+	 * @return The future completed with the output file (or directory) once
+	 *         all the frames are encoded, or completed exceptionally with the
+	 *         error that stopped the encoder or the automatic capturing
+	 */
+	public synchronized CompletableFuture<File> stop() {
+		if (!this.started) {
+			throw new IllegalStateException(
+					Constants.ERROR_MESSAGE_RECORDER_NOT_STARTED);
+		}
+		if (!this.stopped) {
+			this.stopped = true;
+			if (this.scheduler != null) {
+				this.scheduler.shutdown();
+			}
+			this.buffer.close();
+		}
+		return this.result;
+	}
+
+	/**
+	 * Stops the recording after the automatic capturing failed. The frames
+	 * captured before are still encoded, then the result is completed with
+	 * the error.
+	 *
+	 * @param error The error thrown by the capturing
+	 */
+	private synchronized void captureFailed(final Throwable error) {
+		if (this.captureError == null) {
+			this.captureError = error;
+		}
+		this.stop();
+	}
+
+	/**
+	 * @return The number of frames captured so far (including the dropped
+	 *         ones)
+	 */
+	public long getFramesCaptured() {
+		return this.framesCaptured.get();
+	}
+
+	/**
+	 * @return The number of frames dropped so far because the encoder was
+	 *         falling behind
+	 */
+	public long getFramesDropped() {
+		return this.framesDropped.get();
+	}
+
+	/**
+	 * @return The number of frames encoded so far
+	 */
+	public long getFramesEncoded() {
+		return this.framesEncoded.get();
+	}
+
+	/**
+	 * @return The number of frames waiting in the buffer for the encoder
+	 */
+	public int getFramesPending() {
+		return this.buffer != null ? this.buffer.size() : 0;
+	}
+
+	/**
+	 * Makes sure the properties are not changed after the recording started.
+	 */
+	private void checkNotStarted() {
+		if (this.started) {
+			throw new IllegalStateException(
+					Constants.ERROR_MESSAGE_RECORDER_STARTED);
+		}
+	}
+
+	/**
+	 * The body of the encoder thread: takes the frames from the buffer and
+	 * encodes them until the buffer is closed and empty.
+	 */
+	private void encode() {
+		try {
+			if (this.format == Format.ANIMATED_GIF) {
+				this.encodeGIF();
+			}
+			else {
+				this.encodePNGs();
+			}
+			final Throwable error = this.captureError;
+			if (error != null) {
+				this.result.completeExceptionally(error);
+			}
+			else {
+				this.result.complete(this.output);
+			}
+		}
+		catch (final Throwable t) {
+			// Release the capturing threads, nothing will be encoded any more
+			this.stopped = true;
+			this.buffer.close();
+			this.result.completeExceptionally(t);
+		}
+	}
+
+	/**
+	 * Writes every frame into its own PNG file in the output directory.
+	 */
+	private void encodePNGs() throws IOException, InterruptedException {
+		if (!this.output.isDirectory() && !this.output.mkdirs()) {
+			throw new IOException(Constants.ERROR_MESSAGE_RECORDER_DIRECTORY
+					+ this.output);
+		}
+		final long[] time = new long[1];
+		BufferedImage frame;
+		while ((frame = this.buffer.take(time)) != null) {
+			final File file = new File(this.output, String.format(
+					Constants.RECORDER_FRAME_FILE_NAME,
+					this.framesEncoded.get()));
+			ImageIO.write(frame, Constants.DEFAULT_SCREENSHOT_FILE_FORMAT, file);
+			this.framesEncoded.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Writes all the frames into one looping animated GIF. The display time of
+	 * a frame is the time until the next frame was captured, hence every
+	 * frame is held back until its successor arrives.
+	 */
+	private void encodeGIF() throws IOException, InterruptedException {
+		final ImageWriter writer = ImageIO.getImageWritersByFormatName("gif")
+				.next();
+		// The image stream would otherwise overwrite the file only partially
+		if (this.output.exists() && !this.output.delete()) {
+			throw new IOException(Constants.ERROR_MESSAGE_RECORDER_FILE
+					+ this.output);
+		}
+		try (final ImageOutputStream ios = ImageIO
+				.createImageOutputStream(this.output)) {
+			if (ios == null) {
+				throw new IOException(Constants.ERROR_MESSAGE_RECORDER_FILE
+						+ this.output);
+			}
+			writer.setOutput(ios);
+			writer.prepareWriteSequence(null);
+
+			final long[] time = new long[1];
+			BufferedImage pending = null;
+			long pendingTime = 0;
+			BufferedImage frame;
+			while ((frame = this.buffer.take(time)) != null) {
+				if (pending != null) {
+					this.writeGIFFrame(writer, pending, time[0] - pendingTime);
+				}
+				pending = frame;
+				pendingTime = time[0];
+			}
+			// The last frame is shown for one frame period
+			if (pending != null) {
+				final double rate = this.frameRate > 0 ? this.frameRate
+						: Constants.DEFAULT_RECORDER_FRAME_RATE;
+				this.writeGIFFrame(writer, pending, (long) (1e9 / rate));
+			}
+			writer.endWriteSequence();
+		}
+		finally {
+			writer.dispose();
+		}
+	}
+
+	/**
+	 * Appends one frame to the GIF sequence.
+	 */
+	private void writeGIFFrame(final ImageWriter writer,
+			final BufferedImage frame, final long durationNanos)
+			throws IOException {
+		final IIOMetadata metadata = writer.getDefaultImageMetadata(
+				ImageTypeSpecifier.createFromRenderedImage(frame), null);
+		final String formatName = metadata.getNativeMetadataFormatName();
+		final IIOMetadataNode root = (IIOMetadataNode) metadata
+				.getAsTree(formatName);
+
+		// GIF delays are in hundredths of a second
+		final IIOMetadataNode gce = getChild(root, "GraphicControlExtension");
+		gce.setAttribute("disposalMethod", "none");
+		gce.setAttribute("userInputFlag", "FALSE");
+		gce.setAttribute("transparentColorFlag", "FALSE");
+		gce.setAttribute("transparentColorIndex", "0");
+		gce.setAttribute("delayTime", String.valueOf(Math.max(1,
+				Math.round(durationNanos / 1e7))));
+
+		// The first frame carries the loop-forever extension
+		if (this.framesEncoded.get() == 0) {
+			final IIOMetadataNode appExt = new IIOMetadataNode(
+					"ApplicationExtension");
+			appExt.setAttribute("applicationID", "NETSCAPE");
+			appExt.setAttribute("authenticationCode", "2.0");
+			appExt.setUserObject(new byte[] { 1, 0, 0 });
+			getChild(root, "ApplicationExtensions").appendChild(appExt);
+		}
+		metadata.setFromTree(formatName, root);
+
+		writer.writeToSequence(new IIOImage(frame, null, metadata), null);
+		this.framesEncoded.incrementAndGet();
+	}
+
+	/**
+	 * Returns the child node with the given name, creating it if missing.
+	 */
+	private static IIOMetadataNode getChild(final IIOMetadataNode root,
+			final String name) {
+		for (int i = 0; i < root.getLength(); i++) {
+			if (root.item(i).getNodeName().equalsIgnoreCase(name)) {
+				return (IIOMetadataNode) root.item(i);
+			}
+		}
+		final IIOMetadataNode node = new IIOMetadataNode(name);
+		root.appendChild(node);
+		return node;
+	}
+}
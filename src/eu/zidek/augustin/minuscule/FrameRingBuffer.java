@@ -0,0 +1,146 @@
+package eu.zidek.augustin.minuscule;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded ring buffer of captured frames between the capturing threads and
+ * the encoder thread of the {@link FrameRecorder}. What happens when the
+ * buffer is full is determined by the {@link FrameRecorder.OverflowPolicy}.
+ *
+ * @author Augustin Zidek
+ *
+ */
+class FrameRingBuffer {
+	private final BufferedImage[] images;
+	private final long[] timesNanos;
+	// Index of the oldest frame and the number of frames in the buffer
+	private int head = 0;
+	private int count = 0;
+	private boolean closed = false;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = this.lock.newCondition();
+	private final Condition notFull = this.lock.newCondition();
+
+	/**
+	 * @param capacity The maximal number of frames held by the buffer
+	 */
+	FrameRingBuffer(final int capacity) {
+		this.images = new BufferedImage[capacity];
+		this.timesNanos = new long[capacity];
+	}
+
+	/**
+	 * Puts the frame into the buffer. If the buffer is full, the policy
+	 * decides: the new frame is dropped, the oldest frame is overwritten, or
+	 * the calling thread waits until the encoder makes space.
+	 *
+	 * @param image The frame
+	 * @param timeNanos The time of capture of the frame
+	 * @param policy What to do if the buffer is full
+	 * @return <code>true</code> if a frame (the new or the oldest one) has
+	 *         been dropped, <code>false</code> otherwise
+	 * @throws InterruptedException If interrupted while waiting for space
+	 */
+	boolean put(final BufferedImage image, final long timeNanos,
+			final FrameRecorder.OverflowPolicy policy)
+			throws InterruptedException {
+		this.lock.lock();
+		try {
+			boolean dropped = false;
+			if (this.count == this.images.length) {
+				switch (policy) {
+				case DROP_NEWEST:
+					return true;
+				case DROP_OLDEST:
+					// Forget the oldest frame, its slot is reused below
+					this.images[this.head] = null;
+					this.head = (this.head + 1) % this.images.length;
+					this.count--;
+					dropped = true;
+					break;
+				case BLOCK:
+				default:
+					while (this.count == this.images.length && !this.closed) {
+						this.notFull.await();
+					}
+					break;
+				}
+			}
+			// Closed while waiting, nobody will encode the frame
+			if (this.closed) {
+				return true;
+			}
+			final int tail = (this.head + this.count) % this.images.length;
+			this.images[tail] = image;
+			this.timesNanos[tail] = timeNanos;
+			this.count++;
+			this.notEmpty.signal();
+			return dropped;
+		}
+		finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Takes the oldest frame from the buffer, waiting if there is none.
+	 *
+	 * @param timeNanos Array of length at least 1 into which the capture time
+	 *            of the frame is stored
+	 * @return The oldest frame, or <code>null</code> if the buffer has been
+	 *         closed and all the frames have been taken
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	BufferedImage take(final long[] timeNanos) throws InterruptedException {
+		this.lock.lock();
+		try {
+			while (this.count == 0) {
+				if (this.closed) {
+					return null;
+				}
+				this.notEmpty.await();
+			}
+			final BufferedImage image = this.images[this.head];
+			timeNanos[0] = this.timesNanos[this.head];
+			this.images[this.head] = null;
+			this.head = (this.head + 1) % this.images.length;
+			this.count--;
+			this.notFull.signal();
+			return image;
+		}
+		finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Closes the buffer. The frames already in the buffer can still be taken,
+	 * no new frames are accepted and blocked producers are released.
+	 */
+	void close() {
+		this.lock.lock();
+		try {
+			this.closed = true;
+			this.notEmpty.signalAll();
+			this.notFull.signalAll();
+		}
+		finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * @return The number of frames waiting to be encoded
+	 */
+	int size() {
+		this.lock.lock();
+		try {
+			return this.count;
+		}
+		finally {
+			this.lock.unlock();
+		}
+	}
+}
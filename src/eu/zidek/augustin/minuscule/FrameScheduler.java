@@ -0,0 +1,193 @@
+package eu.zidek.augustin.minuscule;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Paces the repaints of the canvas and measures the frames.
+ * <p>
+ * In the passive mode (default) every change schedules a coalesced Swing
+ * repaint after <code>DEFAULT_REPAINT_INTERVAL_MS</code>. In the active mode a
+ * dedicated render thread ticks at the target frame rate; at every tick it
+ * paints the canvas immediately on the EDT, but only if something has changed
+ * since the last frame and the previous frame has already been presented.
+ * </p>
+ * In both modes the time spent in <code>paintComponent()</code> and the
+ * interval between frames is measured.
+ *
+ * @author Augustin Zidek
+ *
+ */
+class FrameScheduler {
+	private final Canvas canvas;
+	// Set by every change, cleared when a frame is scheduled
+	private final AtomicBoolean dirty = new AtomicBoolean(false);
+	// Set when a frame has been posted to the EDT and not painted yet
+	private final AtomicBoolean frameInFlight = new AtomicBoolean(false);
+	private volatile ScheduledExecutorService renderThread;
+	private volatile double targetFrameRate = 0;
+
+	// Measurements, written by the EDT only
+	private volatile long frameStartNanos = 0;
+	private volatile long lastFrameNanos = 0;
+	private volatile double frameTimeNanos = 0;
+	private volatile double frameIntervalNanos = 0;
+	private volatile long framesPainted = 0;
+	private volatile long framesSkipped = 0;
+
+	/**
+	 * @param canvas The canvas which repaints are scheduled
+	 */
+	FrameScheduler(final Canvas canvas) {
+		this.canvas = canvas;
+	}
+
+	/**
+	 * Requests a repaint of the canvas. In the passive mode the repaint is
+	 * coalesced by Swing, in the active mode the canvas is marked dirty and
+	 * painted at the next tick of the render thread.
+	 */
+	void requestRepaint() {
+		if (this.renderThread != null) {
+			this.dirty.set(true);
+		}
+		else {
+			this.canvas.repaint(Constants.DEFAULT_REPAINT_INTERVAL_MS);
+		}
+	}
+
+	/**
+	 * Switches to the active mode with the given target frame rate, or back
+	 * to the passive mode.
+	 *
+	 * @param framesPerSecond The target frame rate. If not positive, the
+	 *            passive mode is used.
+	 */
+	synchronized void setTargetFrameRate(final double framesPerSecond) {
+		if (this.renderThread != null) {
+			this.renderThread.shutdownNow();
+			this.renderThread = null;
+		}
+		this.targetFrameRate = Math.max(0, framesPerSecond);
+		if (framesPerSecond <= 0) {
+			// Paint whatever changed while in the active mode
+			this.canvas.repaint();
+			return;
+		}
+		this.renderThread = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable r) {
+						final Thread t = new Thread(r,
+								Constants.RENDER_THREAD_NAME);
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		// Paint the first frame at the first tick
+		this.dirty.set(true);
+		this.renderThread.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				FrameScheduler.this.tick();
+			}
+		}, 0, (long) (1e9 / framesPerSecond), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return The target frame rate of the active mode, 0 in the passive mode
+	 */
+	double getTargetFrameRate() {
+		return this.targetFrameRate;
+	}
+
+	/**
+	 * One tick of the render thread: posts a frame to the EDT if the canvas
+	 * is dirty and no frame is in flight. Otherwise the frame is skipped.
+	 */
+	private void tick() {
+		// The EDT hasn't painted the previous frame yet, the canvas stays
+		// dirty and will be painted at one of the next ticks
+		if (this.frameInFlight.get() || !this.dirty.getAndSet(false)) {
+			this.framesSkipped++;
+			return;
+		}
+		this.frameInFlight.set(true);
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					final Canvas c = FrameScheduler.this.canvas;
+					c.paintImmediately(0, 0, c.getWidth(), c.getHeight());
+				}
+				finally {
+					FrameScheduler.this.frameInFlight.set(false);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Called by the canvas when it starts painting a frame.
+	 */
+	void frameStarted() {
+		this.frameStartNanos = System.nanoTime();
+	}
+
+	/**
+	 * Called by the canvas when it has finished painting a frame. Updates the
+	 * exponential moving averages of the frame time and frame interval.
+	 */
+	void frameFinished() {
+		final long now = System.nanoTime();
+		final double alpha = Constants.FRAME_STATS_SMOOTHING;
+		final long frameTime = now - this.frameStartNanos;
+		this.frameTimeNanos = this.framesPainted == 0 ? frameTime : alpha
+				* frameTime + (1 - alpha) * this.frameTimeNanos;
+		if (this.lastFrameNanos != 0) {
+			final long interval = now - this.lastFrameNanos;
+			this.frameIntervalNanos = this.framesPainted == 1 ? interval
+					: alpha * interval + (1 - alpha) * this.frameIntervalNanos;
+		}
+		this.lastFrameNanos = now;
+		this.framesPainted++;
+	}
+
+	/**
+	 * @return The measured frame rate, i.e. the number of frames painted per
+	 *         second (averaged over the last frames). Returns 0 if less than
+	 *         two frames have been painted.
+	 */
+	double getMeasuredFrameRate() {
+		final double interval = this.frameIntervalNanos;
+		return interval > 0 ? 1e9 / interval : 0;
+	}
+
+	/**
+	 * @return The time spent painting a frame in milliseconds (averaged over
+	 *         the last frames)
+	 */
+	double getFrameTimeMillis() {
+		return this.frameTimeNanos / 1e6;
+	}
+
+	/**
+	 * @return The number of frames painted so far
+	 */
+	long getFramesPainted() {
+		return this.framesPainted;
+	}
+
+	/**
+	 * @return The number of ticks of the render thread at which no frame was
+	 *         painted, because nothing changed or the EDT was still busy
+	 */
+	long getFramesSkipped() {
+		return this.framesSkipped;
+	}
+}
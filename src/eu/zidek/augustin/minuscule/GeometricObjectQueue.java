@@ -1,43 +1,159 @@
 package eu.zidek.augustin.minuscule;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Queue storing the geometric objects. It is optimized for frequent inserts and
  * occasional sorted iteration. The geometric objects are sorted by their layer.
- * Moreover, multiple threads can access this queue, but the thread asking for
- * sorted data might not get some data that have been very recently put into the
- * buffer. However, this is sufficient for the current purposes.
- * 
- * This data structure is used in the following scenario: One thread adds new
- * objects into the queue. Once per while EDT schedules repaint on the canvas
- * and objects need to be retrieved sorted by their layer and displayed.
- * 
+ *
+ * This data structure is used in the following scenario: Any number of
+ * producer threads add new objects into the queue. Once per while EDT
+ * schedules repaint on the canvas and objects need to be retrieved sorted by
+ * their layer and displayed.
+ * <p>
+ * Concurrency contract:
+ * </p>
+ * <ul>
+ * <li><code>add()</code> is lock-free: the object is put into a non-blocking
+ * buffer, so producers never wait for each other nor for the renderer. It
+ * takes effect at the moment the object is put into the buffer.</li>
+ * <li>All the other operations hold the lock of the queue and take effect
+ * atomically at some point while holding it. In particular,
+ * <code>remove()</code> never misses an object which has already been added,
+ * even if it is just being moved from the buffer.</li>
+ * <li><code>getSortedList()</code> returns a consistent snapshot: it contains
+ * exactly the objects added (and not removed or cleared) before the snapshot
+ * was taken. Objects added by one thread appear in the snapshot in the order
+ * they were added (within a layer), and if an object is in the snapshot, so
+ * are all the objects added by the same thread before it.</li>
+ * <li>The dirty flag set by <code>markDirty()</code> is atomic: a layer
+ * change followed by <code>markDirty()</code> is either seen by the sort
+ * currently running or causes the next snapshot to be sorted again.</li>
+ * </ul>
+ * <p>
+ * Retention: if a retention policy is set, the objects are evicted when
+ * <code>prepare()</code> is called, in <i>O(1)</i> amortized per object.
+ * Every policy keeps its objects in a linked hash map in the order of
+ * eviction. The evicted entries are only counted by their objects and
+ * skipped by the snapshots, the list is compacted once they are the
+ * majority. An object drawn again after its eviction gets a new entry at the
+ * end of the list, its stale entries precede it.
+ * </p>
+ * <p>
+ * Appending: every change of the sorted list other than appending objects
+ * at its end (removing, evicting, sorting, clearing) is counted, so that
+ * <code>getAppendedList()</code> can tell whether the objects in a
+ * snapshot taken before are still the beginning of the list, and return
+ * only the objects appended after them.
+ * </p>
+ *
  * @author Augustin Zidek
  *
  */
 public class GeometricObjectQueue {
+	// Sorted by the layers unless dirty, guarded by this
 	private List<MGeometricObject> objects = new ArrayList<>();
-	private List<MGeometricObject> buffer = new ArrayList<>();
-	private boolean mustBeSorted = false;
+	// Objects added since the last flush, in the order of adding
+	private final ConcurrentLinkedQueue<MGeometricObject> buffer = new ConcurrentLinkedQueue<>();
+	// Approximate number of objects in the buffer, as the size of the buffer
+	// itself is O(n). An adder, so that the producers don't contend on it.
+	private final LongAdder pending = new LongAdder();
+	private final AtomicBoolean dirty = new AtomicBoolean(false);
+	// Layer of the last object of the sorted list, guarded by this. Objects
+	// flushed in a lower layer make the list dirty.
+	private int tailLayer = Integer.MIN_VALUE;
+	// Stats of the canvas owning this queue, null if not owned by a canvas
+	private RenderStats stats;
+	// The objects retained by the policy of the whole queue (null if none)
+	// and by the policies of the layers, guarded by this
+	private Retention retention;
+	private final Map<Integer, Retention> layerRetention = new HashMap<>();
+	// Number of the evicted entries still in the sorted list, guarded by this
+	private int evictedCount = 0;
+	// Objects updated since the last flush, collected only if a policy
+	// evicts the least recently updated objects or the layers have policies.
+	// Counted as the buffer.
+	private final ConcurrentLinkedQueue<MGeometricObject> updated = new ConcurrentLinkedQueue<>();
+	private final LongAdder pendingUpdates = new LongAdder();
+	private volatile boolean trackUpdates = false;
+	// Number of the changes of the sorted list other than appending, guarded
+	// by this
+	private int rewrites = 0;
+
+	/**
+	 * The objects retained by one policy, in the order of their eviction.
+	 */
+	private static final class Retention {
+		final RetentionPolicy policy;
+		// The time the object was taken in and its estimated size
+		final LinkedHashMap<MGeometricObject, long[]> entries = new LinkedHashMap<>();
+		long bytes = 0;
+
+		Retention(final RetentionPolicy policy) {
+			this.policy = policy;
+		}
+
+		void add(final MGeometricObject object, final long now) {
+			final long size = object.getEstimatedSize();
+			final long[] old = this.entries.put(object, new long[] { now,
+					size });
+			this.bytes += size - (old != null ? old[1] : 0);
+		}
+
+		boolean remove(final MGeometricObject object) {
+			final long[] entry = this.entries.remove(object);
+			if (entry != null) {
+				this.bytes -= entry[1];
+			}
+			return entry != null;
+		}
+
+		/**
+		 * @return <code>true</code> if the eldest object is over any of the
+		 *         limits
+		 */
+		boolean isOverLimit(final long[] eldest, final long now) {
+			return this.entries.size() > this.policy.getMaxObjects()
+					|| this.bytes > this.policy.getMaxBytes()
+					|| now - eldest[0] >= this.policy.getMaxAgeNanos();
+		}
+	}
+
+	/**
+	 * Sets the stats into which the cost of sorting and flushing is recorded.
+	 *
+	 * @param stats The render stats of the canvas owning this queue
+	 */
+	void setStats(final RenderStats stats) {
+		this.stats = stats;
+	}
 
 	/**
 	 * Adds the given object into the queue. The cost of this operation is
-	 * amortized <i>O(1)</i>.
+	 * <i>O(1)</i> and it never blocks.
 	 * <p>
-	 * Implementation note: The object is added into a internal buffer (in block
-	 * synchronized on the buffer), which is copied into the whole queue only
-	 * when <code>getSortedList()</code> executed.
+	 * Implementation note: The object is added into a internal lock-free
+	 * buffer, which is moved into the whole queue only when
+	 * <code>getSortedList()</code> is executed.
 	 * </p>
-	 * 
+	 *
 	 * @param object The object to be added.
 	 */
 	public void add(final MGeometricObject object) {
-		synchronized (this.buffer) {
-			this.buffer.add(object);
-		}
+		// Counted before it is added, so the count is never lower than the
+		// number of objects in the buffer
+		this.pending.increment();
+		this.buffer.offer(object);
 	}
 
 	/**
@@ -45,84 +161,565 @@ public class GeometricObjectQueue {
 	 * of this operation is amortized <i>O(n)</i> where <i>n</i> is the size of
 	 * the buffer.
 	 */
-	public void flushBuffer() {
-		synchronized (this.buffer) {
-			// Buffer empty
-			if (this.buffer.size() == 0) {
-				return;
-			}
-			synchronized (this.objects) {
-				this.objects.addAll(this.buffer);
-			}
-			this.buffer.clear();
+	public synchronized void flushBuffer() {
+		// At most the objects counted now are flushed, so that fast producers
+		// can't keep the flush running forever
+		final long count = this.pending.sum();
+		if (count <= 0) {
+			return;
+		}
+		final RenderEvents.BufferFlush event = new RenderEvents.BufferFlush();
+		event.begin();
+		final long start = System.nanoTime();
+		final boolean retaining = this.isRetaining();
+		int flushed = 0;
+		MGeometricObject object;
+		while (flushed < count && (object = this.buffer.poll()) != null) {
+			this.append(object, retaining, start);
+			flushed++;
+		}
+		this.pending.add(-flushed);
+		if (this.stats != null) {
+			this.stats.recordFlush(System.nanoTime() - start);
 		}
+		if (event.shouldCommit()) {
+			event.batchSize = flushed;
+			event.commit();
+		}
+	}
 
+	/**
+	 * Appends the object at the end of the sorted list. If it has been
+	 * drawn again after it was evicted, the stale entries stay until the
+	 * list is compacted.
+	 */
+	private void append(final MGeometricObject object, final boolean retaining,
+			final long now) {
+		this.objects.add(object);
+		object.queued = true;
+		if (retaining) {
+			this.retain(object, now);
+		}
+		// Appending in a lower layer breaks the order
+		final int layer = object.getLayer();
+		if (layer < this.tailLayer) {
+			this.dirty.set(true);
+		}
+		else {
+			this.tailLayer = layer;
+		}
 	}
 
 	/**
 	 * Gets the sorted list of the elements in the queue, sorted by the object's
 	 * layers. The cost of this operation is <i>O(n*log(n))</i> if objects have
-	 * been added/modified in the queue, <i>O(1)</i> if not.
+	 * been added out of the layer order or their layers have been modified,
+	 * <i>O(n)</i> (for the copy) if not.
 	 * <p>
 	 * Implementation note: <code>flushBuffer()</code> is called and then if
-	 * modified, internal list holding the objects gets sorted using the
-	 * built-in Java sort. If objects not modified, internal list returned
-	 * without sorting.
+	 * dirty, internal list holding the objects gets sorted. The dirty flag is
+	 * cleared before sorting.
 	 * </p>
-	 * 
+	 *
 	 * @return The sorted list of the objects in the queue, sorted by their
 	 *         layers. A copy of the queue is actually returned, so that it can
 	 *         be modified without any risk of illegal concurrent access to the
 	 *         queue's internal structure.
 	 */
-	public synchronized List<MGeometricObject> getSortedList() {
-		this.flushBuffer();
+	public List<MGeometricObject> getSortedList() {
+		return this.getSortedList(null);
+	}
 
-		if (this.mustBeSorted) {
-			Collections.sort(this.objects);
+	/**
+	 * Gets the sorted list of the elements in the queue, see
+	 * <code>getSortedList()</code>, and marks its end for
+	 * <code>getAppendedList()</code>.
+	 *
+	 * @param mark Array into which the mark of the end of the list is stored,
+	 *            may be <code>null</code>
+	 * @return The sorted list of the objects in the queue
+	 */
+	synchronized List<MGeometricObject> getSortedList(final long[] mark) {
+		this.prepare();
+		if (mark != null) {
+			mark[0] = this.mark();
 		}
 		// Return a copy, so that it can be safely manipulated
-		final List<MGeometricObject> objCopy = new ArrayList<>(this.objects);
+		if (this.evictedCount == 0) {
+			return new ArrayList<>(this.objects);
+		}
+		final List<MGeometricObject> objCopy = new ArrayList<>(
+				this.objects.size() - this.evictedCount);
+		// The stale entries of an object are its first ones
+		final Map<MGeometricObject, Integer> skipped = new IdentityHashMap<>();
+		for (final MGeometricObject object : this.objects) {
+			if (object.staleEntries > 0) {
+				final Integer n = skipped.get(object);
+				final int k = n == null ? 0 : n;
+				if (k < object.staleEntries) {
+					skipped.put(object, k + 1);
+					continue;
+				}
+			}
+			objCopy.add(object);
+		}
 		return objCopy;
 	}
 
+	/**
+	 * Gets the objects appended at the end of the sorted list since the given
+	 * mark, i.e. since the list it marks was taken. The cost of this
+	 * operation is <i>O(a)</i> for <i>a</i> objects appended, unless the list
+	 * needs to be sorted. If the list has changed otherwise meanwhile (an
+	 * object has been removed or evicted, or an object has been added or
+	 * moved to a lower layer than the end of the list), the objects marked
+	 * are not the beginning of the list anymore and <code>null</code> is
+	 * returned.
+	 *
+	 * @param mark Array holding the mark stored by <code>getSortedList()</code>
+	 *            or this method. If the objects are returned, the mark of the
+	 *            new end of the list is stored into it.
+	 * @return The objects appended since the mark, in the order of the sorted
+	 *         list, <code>null</code> if the list has changed otherwise
+	 */
+	synchronized List<MGeometricObject> getAppendedList(final long[] mark) {
+		this.prepare();
+		final int from = (int) mark[0];
+		if ((int) (mark[0] >>> 32) != this.rewrites
+				|| from > this.objects.size()) {
+			return null;
+		}
+		mark[0] = this.mark();
+		return new ArrayList<>(this.objects.subList(from, this.objects.size()));
+	}
+
+	/**
+	 * @return The mark of the current end of the sorted list: the number of
+	 *         the changes other than appending and the size of the list
+	 */
+	private long mark() {
+		return (long) this.rewrites << 32 | this.objects.size();
+	}
+
+	/**
+	 * Flushes the buffer, evicts the objects over the limits of the retention
+	 * policies and sorts the queue if needed, so that the next
+	 * <code>getSortedList()</code> only copies the list. Used to do the whole
+	 * re-index at once when a transaction is committed.
+	 */
+	public synchronized void prepare() {
+		this.flushBuffer();
+		if (this.isRetaining()) {
+			final long now = System.nanoTime();
+			this.flushUpdates(now);
+			this.evict(now);
+		}
+
+		// Cleared before sorting: a layer change marked during the sort makes
+		// the next snapshot sorted again
+		if (this.dirty.getAndSet(false)) {
+			this.sort();
+			this.rewrites++;
+		}
+	}
+
+	/**
+	 * Sorts the objects by their layers, keeping the order of adding within a
+	 * layer, and records the time spent.
+	 * <p>
+	 * Implementation note: the layers are read once into an array of keys
+	 * <code>(layer, index)</code> which is sorted. Unlike sorting with the
+	 * comparator of the objects, this can't fail if another thread changes a
+	 * layer during the sort.
+	 * </p>
+	 */
+	private void sort() {
+		final RenderEvents.LayerSort event = new RenderEvents.LayerSort();
+		event.begin();
+		final long start = System.nanoTime();
+		final int n = this.objects.size();
+		final long[] keys = new long[n];
+		boolean ordered = true;
+		for (int i = 0; i < n; i++) {
+			keys[i] = ((long) this.objects.get(i).getLayer() << 32) | i;
+			ordered &= i == 0 || keys[i - 1] < keys[i];
+		}
+		// Often the layer change didn't break the order, then the objects
+		// stay as they are
+		if (!ordered) {
+			Arrays.sort(keys);
+			final List<MGeometricObject> sorted = new ArrayList<>(n);
+			for (final long key : keys) {
+				sorted.add(this.objects.get((int) key));
+			}
+			this.objects = sorted;
+		}
+		this.tailLayer = n > 0 ? (int) (keys[n - 1] >> 32) : Integer.MIN_VALUE;
+		if (this.stats != null) {
+			this.stats.recordSort(System.nanoTime() - start);
+		}
+		if (event.shouldCommit()) {
+			event.objectCount = n;
+			event.commit();
+		}
+	}
+
+	/**
+	 * @return The number of objects in the queue, not counting the objects
+	 *         waiting in the buffer
+	 */
+	public synchronized int size() {
+		return this.objects.size() - this.evictedCount;
+	}
+
+	/**
+	 * @return The number of objects waiting in the buffer to be flushed into
+	 *         the queue. May be slightly higher than the exact number while
+	 *         objects are being added.
+	 */
+	public int getBufferSize() {
+		return (int) Math.max(0, this.pending.sum());
+	}
+
 	/**
 	 * Removes the given object.
 	 * <p>
 	 * Implementation note: the method tries to remove the object from the
-	 * internal queue. If successful <code>remove(object) == true</code>, then
-	 * done. Otherwise it attempts to remove it from the buffer.
+	 * internal queue, together with its entries evicted before. If it had a
+	 * live entry there, then done. Otherwise it attempts to remove it from
+	 * the buffer, where it may be also after being evicted and drawn again.
+	 * The buffer is only flushed while holding the lock, so the object can't
+	 * be missed.
 	 * </p>
-	 * 
+	 *
 	 * @param object The object to be removed. If it doesn't exist within the
 	 *            queue, nothing happens.
+	 * @return <code>true</code> if the object has been in the queue or in the
+	 *         buffer
 	 */
-	public synchronized void remove(final MGeometricObject object) {
-		final boolean success = this.objects.remove(object);
+	public synchronized boolean remove(final MGeometricObject object) {
+		int removed = 0;
+		if (object.staleEntries > 0) {
+			final Iterator<MGeometricObject> it = this.objects.iterator();
+			while (it.hasNext()) {
+				if (it.next() == object) {
+					it.remove();
+					removed++;
+				}
+			}
+		}
+		else if (this.objects.remove(object)) {
+			removed = 1;
+		}
+		// Found besides the stale entries
+		final boolean live = removed > object.staleEntries;
+		this.evictedCount -= removed - (live ? 1 : 0);
+		object.staleEntries = 0;
+		object.queued = false;
+		if (removed > 0) {
+			this.rewrites++;
+		}
 		// Try removing from the buffer only if not removed from objects
-		if (!success) {
-			this.buffer.remove(object);
+		boolean buffered = false;
+		if (!live && this.buffer.remove(object)) {
+			this.pending.decrement();
+			buffered = true;
+		}
+		if (live && this.isRetaining()) {
+			this.release(object);
+		}
+		return live || buffered;
+	}
+
+	/**
+	 * Tells the queue that the given object has been updated, so that a
+	 * retention policy evicting the least recently updated objects evicts it
+	 * later. The cost of this operation is <i>O(1)</i> and it never blocks.
+	 *
+	 * @param object The updated object
+	 */
+	public void update(final MGeometricObject object) {
+		if (this.trackUpdates) {
+			this.pendingUpdates.increment();
+			this.updated.offer(object);
+		}
+	}
+
+	/**
+	 * Sets the retention policy of the whole queue, i.e. of the objects in
+	 * the layers without a policy of their own. The objects in the queue are
+	 * retained from now on, in their order in the queue, and the objects
+	 * over the limits are evicted by the next <code>prepare()</code>.
+	 *
+	 * @param policy The policy, <code>null</code> to keep all the objects
+	 */
+	public synchronized void setRetentionPolicy(final RetentionPolicy policy) {
+		this.retention = policy != null ? new Retention(policy) : null;
+		this.retainAll();
+	}
+
+	/**
+	 * Sets the retention policy of the given layer, replacing the policy of
+	 * the whole queue for the objects in the layer. See
+	 * <code>setRetentionPolicy(RetentionPolicy)</code>.
+	 *
+	 * @param layer The layer
+	 * @param policy The policy, <code>null</code> to use the policy of the
+	 *            whole queue
+	 */
+	public synchronized void setRetentionPolicy(final int layer,
+			final RetentionPolicy policy) {
+		if (policy != null) {
+			this.layerRetention.put(layer, new Retention(policy));
+		}
+		else {
+			this.layerRetention.remove(layer);
+		}
+		this.retainAll();
+	}
+
+	/**
+	 * @param layer The layer
+	 * @return The retention policy of the objects in the given layer,
+	 *         <code>null</code> if they are all kept
+	 */
+	public synchronized RetentionPolicy getRetentionPolicy(final int layer) {
+		final Retention r = this.getRetention(layer);
+		return r != null ? r.policy : null;
+	}
+
+	/**
+	 * @return The time (as of <code>System.nanoTime()</code>) when the next
+	 *         object gets older than the maximum age of its policy,
+	 *         <code>Long.MAX_VALUE</code> if never
+	 */
+	public synchronized long getNextExpiry() {
+		long next = Long.MAX_VALUE;
+		for (final Retention r : this.retentions()) {
+			final long maxAge = r.policy.getMaxAgeNanos();
+			if (maxAge != Long.MAX_VALUE && !r.entries.isEmpty()) {
+				final long expiry = r.entries.values().iterator().next()[0]
+						+ maxAge;
+				if (next == Long.MAX_VALUE || expiry - next < 0) {
+					next = expiry;
+				}
+			}
 		}
+		return next;
+	}
+
+	/**
+	 * @return <code>true</code> if any retention policy is set
+	 */
+	private boolean isRetaining() {
+		return this.retention != null || !this.layerRetention.isEmpty();
+	}
+
+	/**
+	 * @return The retention of the objects in the given layer, null if none
+	 */
+	private Retention getRetention(final int layer) {
+		final Retention r = this.layerRetention.isEmpty() ? null
+				: this.layerRetention.get(layer);
+		return r != null ? r : this.retention;
+	}
+
+	/**
+	 * @return All the retentions, of the whole queue and of the layers
+	 */
+	private List<Retention> retentions() {
+		final List<Retention> all = new ArrayList<>(this.layerRetention.values());
+		if (this.retention != null) {
+			all.add(this.retention);
+		}
+		return all;
+	}
+
+	/**
+	 * Retains the object by the policy of its layer, if any.
+	 */
+	private void retain(final MGeometricObject object, final long now) {
+		final Retention r = this.getRetention(object.getLayer());
+		if (r != null) {
+			r.add(object, now);
+		}
+	}
+
+	/**
+	 * Stops retaining the object by whichever policy retained it. The layer
+	 * of the object may have changed since, so the policy of its current
+	 * layer is only tried first.
+	 *
+	 * @return <code>true</code> if the object was retained
+	 */
+	private boolean release(final MGeometricObject object) {
+		final Retention r = this.getRetention(object.getLayer());
+		if (r != null && r.remove(object)) {
+			return true;
+		}
+		for (final Retention other : this.retentions()) {
+			if (other != r && other.remove(object)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Retains all the objects in the queue anew, after a policy has changed.
+	 */
+	private void retainAll() {
+		// Updates move the objects whose layer changed to another policy
+		this.trackUpdates = !this.layerRetention.isEmpty();
+		final long now = System.nanoTime();
+		for (final Retention r : this.retentions()) {
+			r.entries.clear();
+			r.bytes = 0;
+			this.trackUpdates |= r.policy.isLeastRecentlyUpdated();
+		}
+		for (final MGeometricObject object : this.objects) {
+			if (object.queued) {
+				this.retain(object, now);
+			}
+		}
+	}
+
+	/**
+	 * Moves the objects updated since the last flush to the end of the order
+	 * of eviction of their policies, if the policies evict the least
+	 * recently updated objects. An object whose layer has changed moves to
+	 * the policy of its new layer. An object drawn again while it was being
+	 * evicted is added back, as drawing it after the eviction would.
+	 */
+	private void flushUpdates(final long now) {
+		final long count = this.pendingUpdates.sum();
+		int flushed = 0;
+		MGeometricObject object;
+		while (flushed < count && (object = this.updated.poll()) != null) {
+			flushed++;
+			// Deleted, evicted or not flushed yet, it is not retained
+			if (!object.queued) {
+				if (object.readdEvicted()) {
+					this.append(object, true, now);
+				}
+				continue;
+			}
+			final Retention r = this.getRetention(object.getLayer());
+			if (r != null && r.entries.containsKey(object)) {
+				if (r.policy.isLeastRecentlyUpdated()) {
+					r.remove(object);
+					r.add(object, now);
+				}
+			}
+			else if (this.release(object)) {
+				this.retain(object, now);
+			}
+		}
+		this.pendingUpdates.add(-flushed);
+	}
+
+	/**
+	 * Evicts the eldest objects of every policy over any of its limits and
+	 * compacts the sorted list if the evicted objects are the majority.
+	 */
+	private void evict(final long now) {
+		int count = 0;
+		for (final Retention r : this.retentions()) {
+			// A new iterator every time, as evicting the label of an object
+			// may remove it from the same policy
+			while (!r.entries.isEmpty()) {
+				final Map.Entry<MGeometricObject, long[]> entry = r.entries
+						.entrySet().iterator().next();
+				if (!r.isOverLimit(entry.getValue(), now)) {
+					break;
+				}
+				r.remove(entry.getKey());
+				count += this.markEvicted(entry.getKey());
+			}
+		}
+		if (count > 0) {
+			this.rewrites++;
+			if (this.evictedCount > this.objects.size() / 2) {
+				this.compact();
+			}
+			if (this.stats != null) {
+				this.stats.recordEvictions(count);
+			}
+		}
+	}
+
+	/**
+	 * Marks the object and its label (drawn as a separate object) as
+	 * evicted. The label goes with its owner, even if it is in a layer
+	 * without any policy.
+	 *
+	 * @return The number of objects evicted
+	 */
+	private int markEvicted(final MGeometricObject object) {
+		final MLabel label = object.evict();
+		this.evictedCount++;
+		if (label != null && label.queued) {
+			this.release(label);
+			label.evict();
+			this.evictedCount++;
+			return 2;
+		}
+		return 1;
+	}
+
+	/**
+	 * Removes the evicted entries from the sorted list, keeping the order.
+	 */
+	private void compact() {
+		final List<MGeometricObject> live = new ArrayList<>(this.objects.size()
+				- this.evictedCount);
+		for (final MGeometricObject object : this.objects) {
+			// The stale entries of an object are its first ones
+			if (object.staleEntries > 0) {
+				object.staleEntries--;
+			}
+			else {
+				live.add(object);
+			}
+		}
+		this.objects = live;
+		this.evictedCount = 0;
+		this.rewrites++;
 	}
 
 	/**
 	 * Tells the queue that layer of one of its elements has been modified.
+	 * Must be called after the layer has been changed.
 	 */
 	public void markDirty() {
-		this.mustBeSorted = true;
+		this.dirty.set(true);
 	}
 
 	/**
 	 * Clears the queue, i.e. removes all elements from the buffer and from the
-	 * internal list.
+	 * internal list. Objects added concurrently with the clear may or may not
+	 * be removed.
 	 */
-	public void clear() {
-		synchronized (this.buffer) {
-			this.buffer.clear();
+	public synchronized void clear() {
+		for (final MGeometricObject object : this.objects) {
+			object.queued = false;
+			object.staleEntries = 0;
+		}
+		this.evictedCount = 0;
+		this.objects = new ArrayList<>();
+		for (final Retention r : this.retentions()) {
+			r.entries.clear();
+			r.bytes = 0;
 		}
-		synchronized (this.objects) {
-			this.objects.clear();
+		final long count = this.pending.sum();
+		int removed = 0;
+		while (removed < count && this.buffer.poll() != null) {
+			removed++;
 		}
+		this.pending.add(-removed);
+		this.dirty.set(false);
+		this.tailLayer = Integer.MIN_VALUE;
+		this.rewrites++;
 	}
 
 }
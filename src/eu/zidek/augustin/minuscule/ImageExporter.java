@@ -0,0 +1,291 @@
+package eu.zidek.augustin.minuscule;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.BiConsumer;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.event.IIOWriteProgressListener;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Background pipeline that rasterizes scene snapshots and encodes them into
+ * image files. Both stages run on worker threads, the caller only takes the
+ * snapshot (which is cheap) and gets a {@link CompletableFuture} back.
+ *
+ * @author Augustin Zidek
+ *
+ */
+class ImageExporter {
+	// Shared by all the canvases, created when the first export is requested
+	private static ExecutorService executor;
+	private final Canvas canvas;
+
+	/**
+	 * @param canvas The canvas which snapshots this exporter rasterizes
+	 */
+	ImageExporter(final Canvas canvas) {
+		this.canvas = canvas;
+	}
+
+	/**
+	 * @return The executor running the export stages. Its threads are daemon
+	 *         threads, so they never prevent the JVM from exiting.
+	 */
+	static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(Constants.EXPORT_THREADS,
+					new ThreadFactory() {
+						private int count = 0;
+
+						@Override
+						public synchronized Thread newThread(final Runnable r) {
+							final Thread t = new Thread(r,
+									Constants.EXPORT_THREAD_NAME + this.count++);
+							t.setDaemon(true);
+							return t;
+						}
+					});
+		}
+		return executor;
+	}
+
+	/**
+	 * Rasterizes the given snapshot into a new image on the calling thread.
+	 *
+	 * @param snapshot The snapshot to be rasterized
+	 * @param listener The listener notified about the progress (from 0 to 1),
+	 *            may be <code>null</code>
+	 * @return The rasterized image
+	 */
+	BufferedImage rasterize(final SceneSnapshot snapshot,
+			final ExportProgressListener listener) {
+		final RenderEvents.ImageExport event = new RenderEvents.ImageExport();
+		event.begin();
+		// No alpha channel needed if the background is opaque
+		final int type = snapshot.background != null
+				&& snapshot.background.getAlpha() == 255 ? BufferedImage.TYPE_INT_RGB
+				: BufferedImage.TYPE_INT_ARGB;
+		final BufferedImage image = new BufferedImage(
+				Math.max(1, snapshot.viewWidth),
+				Math.max(1, snapshot.viewHeight), type);
+		final Graphics2D g2d = image.createGraphics();
+		try {
+			// The canvas paints its background in paintComponent(), here it
+			// has to be done manually
+			if (snapshot.background != null) {
+				g2d.setColor(snapshot.background);
+				g2d.fillRect(0, 0, image.getWidth(), image.getHeight());
+			}
+			this.canvas.paintScene(g2d, snapshot, listener);
+		}
+		finally {
+			g2d.dispose();
+		}
+		if (event.shouldCommit()) {
+			event.stage = "rasterize";
+			event.width = image.getWidth();
+			event.height = image.getHeight();
+			event.commit();
+		}
+		return image;
+	}
+
+	/**
+	 * Rasterizes the given snapshot on a worker thread.
+	 *
+	 * @param snapshot The snapshot to be rasterized
+	 * @param listener The listener notified about the progress, may be
+	 *            <code>null</code>
+	 * @return The future completed with the image
+	 */
+	CompletableFuture<BufferedImage> rasterizeAsync(
+			final SceneSnapshot snapshot, final ExportProgressListener listener) {
+		final CompletableFuture<BufferedImage> result = new CompletableFuture<>();
+		getExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					result.complete(ImageExporter.this.rasterize(snapshot,
+							listener));
+				}
+				catch (final Throwable t) {
+					result.completeExceptionally(t);
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Rasterizes the given snapshot and encodes it into the given file, both
+	 * on worker threads. The first half of the progress is the
+	 * rasterization, the second half the encoding.
+	 *
+	 * @param snapshot The snapshot to be saved
+	 * @param file The file into which the image should be saved
+	 * @param format The informal name of the image format (e.g. "png")
+	 * @param listener The listener notified about the progress, may be
+	 *            <code>null</code>
+	 * @return The future completed with the file once it has been written, or
+	 *         completed exceptionally with the {@link IOException}
+	 */
+	CompletableFuture<File> saveAsync(final SceneSnapshot snapshot,
+			final File file, final String format,
+			final ExportProgressListener listener) {
+		final CompletableFuture<File> result = new CompletableFuture<>();
+		// Stage 1: rasterize, reporting 0--50 %
+		this.rasterizeAsync(snapshot, scaled(listener, 0, 0.5)).whenComplete(
+				new BiConsumer<BufferedImage, Throwable>() {
+					@Override
+					public void accept(final BufferedImage image,
+							final Throwable error) {
+						if (error != null) {
+							result.completeExceptionally(error);
+							return;
+						}
+						// Stage 2: encode on a worker again, reporting 50--100 %
+						getExecutor().execute(new Runnable() {
+							@Override
+							public void run() {
+								try {
+									encode(image, file, format,
+											scaled(listener, 0.5, 0.5));
+									if (listener != null) {
+										listener.exportProgress(1);
+									}
+									result.complete(file);
+								}
+								catch (final Throwable t) {
+									result.completeExceptionally(t);
+								}
+							}
+						});
+					}
+				});
+		return result;
+	}
+
+	/**
+	 * Encodes the image into the given file using the ImageIO writer of the
+	 * given format.
+	 */
+	private static void encode(final BufferedImage image, final File file,
+			final String format, final ExportProgressListener listener)
+			throws IOException {
+		final RenderEvents.ImageExport event = new RenderEvents.ImageExport();
+		event.begin();
+		final Iterator<ImageWriter> writers = ImageIO
+				.getImageWritersByFormatName(format);
+		if (!writers.hasNext()) {
+			throw new IOException(Constants.ERROR_MESSAGE_NO_IMAGE_WRITER
+					+ format);
+		}
+		final ImageWriter writer = writers.next();
+		try (final OutputStream os = new BufferedOutputStream(
+				new FileOutputStream(file));
+				final ImageOutputStream ios = ImageIO
+						.createImageOutputStream(os)) {
+			writer.setOutput(ios);
+			if (listener != null) {
+				writer.addIIOWriteProgressListener(new ProgressAdapter(listener));
+			}
+			writer.write(image);
+		}
+		finally {
+			writer.dispose();
+		}
+		if (event.shouldCommit()) {
+			event.stage = "encode";
+			event.format = format;
+			event.width = image.getWidth();
+			event.height = image.getHeight();
+			event.fileSize = file.length();
+			event.commit();
+		}
+	}
+
+	/**
+	 * Wraps the listener so that the progress 0--1 is mapped into the range
+	 * <code>offset</code>--<code>offset + share</code>.
+	 */
+	private static ExportProgressListener scaled(
+			final ExportProgressListener listener, final double offset,
+			final double share) {
+		if (listener == null) {
+			return null;
+		}
+		return new ExportProgressListener() {
+			@Override
+			public void exportProgress(final double progress) {
+				listener.exportProgress(offset + progress * share);
+			}
+		};
+	}
+
+	/**
+	 * Forwards the progress reported by the ImageIO writer. The writers report
+	 * very often (e.g. per row), so only whole percents are forwarded.
+	 */
+	private static class ProgressAdapter implements IIOWriteProgressListener {
+		private final ExportProgressListener listener;
+		private int lastPercent = -1;
+
+		ProgressAdapter(final ExportProgressListener listener) {
+			this.listener = listener;
+		}
+
+		@Override
+		public void imageProgress(final ImageWriter source,
+				final float percentageDone) {
+			final int percent = (int) percentageDone;
+			if (percent != this.lastPercent) {
+				this.lastPercent = percent;
+				this.listener.exportProgress(percentageDone / 100D);
+			}
+		}
+
+		@Override
+		public void imageStarted(final ImageWriter source, final int imageIndex) {
+			this.listener.exportProgress(0);
+		}
+
+		@Override
+		public void imageComplete(final ImageWriter source) {
+			this.listener.exportProgress(1);
+		}
+
+		@Override
+		public void thumbnailStarted(final ImageWriter source,
+				final int imageIndex, final int thumbnailIndex) {
+			// Thumbnails are not written
+		}
+
+		@Override
+		public void thumbnailProgress(final ImageWriter source,
+				final float percentageDone) {
+			// Thumbnails are not written
+		}
+
+		@Override
+		public void thumbnailComplete(final ImageWriter source) {
+			// Thumbnails are not written
+		}
+
+		@Override
+		public void writeAborted(final ImageWriter source) {
+			// Abort is reported as an exception by write()
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package eu.zidek.augustin.minuscule;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Applies the ingestion policy of the canvas to the newly drawn objects and
+ * lets the producers wait for the frames to be presented.
+ * <p>
+ * The frames are numbered as they start. A producer waiting for a frame
+ * waits until a frame which started after the producer began waiting has
+ * been finished, as only such a frame is guaranteed to contain the objects
+ * drawn by the producer before.
+ * </p>
+ *
+ * @author Augustin Zidek
+ *
+ */
+class IngestionGate {
+	private final Canvas canvas;
+	private final GeometricObjectQueue objects;
+	private final RenderStats stats;
+	private volatile IngestionPolicy policy = IngestionPolicy.UNBOUNDED;
+	private volatile int highWaterMark = Integer.MAX_VALUE;
+	// Number of the last frame started and of the last frame finished,
+	// guarded by this
+	private long framesStarted = 0;
+	private long framesPresented = 0;
+
+	/**
+	 * @param canvas The canvas whose objects are admitted
+	 * @param objects The queue of the objects of the canvas
+	 * @param stats The stats into which the stalls and drops are recorded
+	 */
+	IngestionGate(final Canvas canvas, final GeometricObjectQueue objects,
+			final RenderStats stats) {
+		this.canvas = canvas;
+		this.objects = objects;
+		this.stats = stats;
+	}
+
+	/**
+	 * Sets the policy applied once the buffer holds the given number of
+	 * objects.
+	 */
+	void setPolicy(final IngestionPolicy policy, final int highWaterMark) {
+		this.highWaterMark = policy == IngestionPolicy.UNBOUNDED ? Integer.MAX_VALUE
+				: highWaterMark;
+		this.policy = policy;
+	}
+
+	/**
+	 * @return The current ingestion policy
+	 */
+	IngestionPolicy getPolicy() {
+		return this.policy;
+	}
+
+	/**
+	 * @return The current high-water mark
+	 */
+	int getHighWaterMark() {
+		return this.highWaterMark;
+	}
+
+	/**
+	 * Applies the policy before an object is added into the queue. Blocks the
+	 * calling thread if the policy says so.
+	 *
+	 * @return <code>false</code> if the object should be dropped
+	 */
+	boolean admit() {
+		final IngestionPolicy p = this.policy;
+		// Cheap check first, the policy applies only above the mark
+		if (p == IngestionPolicy.UNBOUNDED
+				|| this.objects.getBufferSize() < this.highWaterMark) {
+			return true;
+		}
+		switch (p) {
+		case DROP:
+			this.stats.recordDrop();
+			return false;
+		case BLOCK:
+			this.block();
+			return true;
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * Waits until the buffer drops below the high-water mark, i.e. until a
+	 * frame takes the objects in. Gives up if no frame can come.
+	 */
+	private void block() {
+		final long start = System.nanoTime();
+		try {
+			while (this.canBlock()
+					&& this.objects.getBufferSize() >= this.highWaterMark) {
+				this.canvas.requestFrame();
+				// Bounded wait, so that closing the window releases the
+				// producer
+				this.awaitFrame(Constants.INGESTION_BLOCK_POLL_MS,
+						TimeUnit.MILLISECONDS);
+			}
+		}
+		catch (final InterruptedException e) {
+			// Let the producer handle the interrupt, the object is added
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			this.stats.recordIngestionStall(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if a frame can be painted while the calling
+	 *         thread waits
+	 */
+	boolean canBlock() {
+		return this.canvas.isShowing()
+				&& !SwingUtilities.isEventDispatchThread()
+				&& !this.canvas.isInTransaction();
+	}
+
+	/**
+	 * Called when a frame starts.
+	 *
+	 * @return The number of the frame
+	 */
+	synchronized long frameStarted() {
+		return ++this.framesStarted;
+	}
+
+	/**
+	 * Called when the frame has been finished. Wakes up the producers waiting
+	 * for it.
+	 *
+	 * @param frame The number of the frame returned by
+	 *            <code>frameStarted()</code>
+	 */
+	synchronized void framePresented(final long frame) {
+		this.framesPresented = Math.max(this.framesPresented, frame);
+		this.notifyAll();
+	}
+
+	/**
+	 * Waits until a frame which starts after this call is finished.
+	 *
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	synchronized void awaitFrame() throws InterruptedException {
+		final long target = this.framesStarted + 1;
+		while (this.framesPresented < target) {
+			this.wait();
+		}
+	}
+
+	/**
+	 * Waits until a frame which starts after this call is finished.
+	 *
+	 * @param timeout The maximum time to wait
+	 * @param unit The unit of the timeout
+	 * @return <code>false</code> if the time elapsed before the frame was
+	 *         presented
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	synchronized boolean awaitFrame(final long timeout, final TimeUnit unit)
+			throws InterruptedException {
+		final long target = this.framesStarted + 1;
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (this.framesPresented < target) {
+			final long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return false;
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return true;
+	}
+}
@@ -0,0 +1,31 @@
+package eu.zidek.augustin.minuscule;
+
+/**
+ * What the canvas does when objects are drawn faster than they are rendered,
+ * i.e. when the number of objects waiting in the buffer for the next frame
+ * reaches the high-water mark. See
+ * <code>Canvas.setIngestionPolicy()</code>.
+ *
+ * @author Augustin Zidek
+ *
+ */
+public enum IngestionPolicy {
+	/**
+	 * The buffer grows without any limit (default). The producers are never
+	 * slowed down, but the next frame has to take in all the objects.
+	 */
+	UNBOUNDED,
+	/**
+	 * The producer drawing an object waits until a frame takes in the
+	 * buffer, so the producers are slowed down to the speed of the rendering.
+	 * The producer doesn't wait if the canvas is not displayed, if it draws
+	 * from the event dispatch thread or within its own transaction, as no
+	 * frame could come then.
+	 */
+	BLOCK,
+	/**
+	 * The newly drawn object is dropped and not added into the canvas.
+	 * Drawing the object again later adds it.
+	 */
+	DROP
+}
@@ -39,8 +39,26 @@ public class LabelPositioningUtils {
 	 */
 	public static MCoordinate getAutoPlacementToCircle(final double angleDeg,
 			final Font font, final String text, final double baseDistance) {
-		// Get label bounding dimensions
-		final MCoordinate labelDim = getLabelDimensions(text, font);
+		return getAutoPlacementToCircle(angleDeg,
+				getLabelDimensions(text, font), baseDistance);
+	}
+
+	/**
+	 * Determines relative coordinates of a label of the given dimensions
+	 * placed within certain distance from the base and at the given angle.
+	 * 
+	 * @param angleDeg The angle in degrees relative to the x-axis in the
+	 *            positive direction with the origin in the label base
+	 *            coordinates
+	 * @param labelDim The dimensions of the label as returned by
+	 *            <code>getLabelDimensions()</code>
+	 * @param baseDistance The distance at which the label should be from the
+	 *            base coordinate
+	 * @return The 2D coordinate of the left bottom corner of the label
+	 * @see #getAutoPlacementToCircle(double, Font, String, double)
+	 */
+	public static MCoordinate getAutoPlacementToCircle(final double angleDeg,
+			final MCoordinate labelDim, final double baseDistance) {
 		final double width = labelDim.x;
 		final double height = labelDim.y;
 
@@ -73,6 +91,26 @@ public class LabelPositioningUtils {
 	public static MCoordinate getAutoPlacementToRectangle(
 			final double angleDeg, final MBoundingBox rectangle,
 			final Font font, final String text) {
+		return getAutoPlacementToRectangle(angleDeg, rectangle,
+				getLabelDimensions(text, font));
+	}
+
+	/**
+	 * Determines relative coordinates of a label of the given dimensions
+	 * placed on a circumference of a (bounding) rectangle at the given angle.
+	 * 
+	 * @param angleDeg The angle in degrees relative to the x-axis in the
+	 *            positive direction with the origin in the label base
+	 *            coordinates
+	 * @param rectangle The rectangle to which the label should be aligned
+	 * @param labelDim The dimensions of the label as returned by
+	 *            <code>getLabelDimensions()</code>
+	 * @return The 2D coordinate of the left bottom corner of the label
+	 * @see #getAutoPlacementToRectangle(double, MBoundingBox, Font, String)
+	 */
+	public static MCoordinate getAutoPlacementToRectangle(
+			final double angleDeg, final MBoundingBox rectangle,
+			final MCoordinate labelDim) {
 		// Make sure the angle is in range 0--360
 		final double angleDg = (angleDeg % 360 + 360) % 360;
 
@@ -113,11 +151,9 @@ public class LabelPositioningUtils {
 			labelY = yBaseDst + DEFAULT_LABEL2LABEL_SPACING;
 		}
 
-		final MCoordinate childLabelDim = getLabelDimensions(text, font);
-
 		// Return them shifted by label's bounding rectangle
 		return LabelPositioningUtils.alignAccordingToAngle(new MBoundingBox(
-				labelX, labelY, childLabelDim.x, childLabelDim.y), angleDg);
+				labelX, labelY, labelDim.x, labelDim.y), angleDg);
 	}
 
 	/**
@@ -132,6 +168,8 @@ public class LabelPositioningUtils {
 	 */
 	public static MCoordinate getLabelDimensions(final String text,
 			final Font font) {
+		final RenderEvents.LabelMetrics event = new RenderEvents.LabelMetrics();
+		event.begin();
 		// Create a canvas to get the font metrics
 		final java.awt.Canvas c = new java.awt.Canvas();
 		// If font == null use default font instead
@@ -140,6 +178,11 @@ public class LabelPositioningUtils {
 		// Get label width and height. If text == null use "" instead
 		final double height = fM.getMaxAscent() + fM.getMaxDescent();
 		final double width = fM.stringWidth(text != null ? text : "");
+		if (event.shouldCommit()) {
+			event.textLength = text != null ? text.length() : 0;
+			event.font = fM.getFont().toString();
+			event.commit();
+		}
 		return new MCoordinate(width, height);
 	}
 
@@ -0,0 +1,134 @@
+package eu.zidek.augustin.minuscule;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in nanoseconds with a fixed relative precision, in
+ * the style of HDR histograms. The buckets are log-linear: every power of two
+ * is split into <code>2^SUB_BUCKET_BITS</code> equal buckets, so the relative
+ * error of the percentiles is about 3 %. Recording a value is allocation-free
+ * and lock-free, so it can be done from the EDT on every frame.
+ *
+ * @author Augustin Zidek
+ *
+ */
+class LatencyHistogram {
+	// 32 sub-buckets per power of two
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// Longer durations (about 9 hours) are recorded as this value
+	private static final int MAX_MAGNITUDE = 45;
+	private static final long MAX_VALUE = (1L << (MAX_MAGNITUDE + 1)) - 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(
+			(MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private volatile long max = 0;
+
+	/**
+	 * Records the given duration.
+	 *
+	 * @param nanos The duration in nanoseconds
+	 */
+	void record(final long nanos) {
+		final long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+		this.counts.incrementAndGet(index(value));
+		this.count.increment();
+		this.sum.add(value);
+		// Racy, but only the maximum can be lost when two threads record a
+		// new maximum at the same moment
+		if (value > this.max) {
+			this.max = value;
+		}
+	}
+
+	/**
+	 * @return The index of the bucket of the given value
+	 */
+	private static int index(final long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		final int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		final int shift = magnitude - SUB_BUCKET_BITS;
+		// The sub-bucket is in the range SUB_BUCKETS -- 2 * SUB_BUCKETS - 1
+		final int subBucket = (int) (value >>> shift);
+		return (shift + 1) * SUB_BUCKETS + subBucket - SUB_BUCKETS;
+	}
+
+	/**
+	 * @return The largest value which falls into the bucket of the given index
+	 */
+	private static long highestValue(final int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		final int shift = index / SUB_BUCKETS - 1;
+		final long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+	/**
+	 * @return The number of recorded values
+	 */
+	long getCount() {
+		return this.count.sum();
+	}
+
+	/**
+	 * @return The mean of the recorded values in nanoseconds, 0 if none
+	 */
+	double getMean() {
+		final long n = this.count.sum();
+		return n == 0 ? 0 : this.sum.sum() / (double) n;
+	}
+
+	/**
+	 * @return The largest recorded value in nanoseconds
+	 */
+	long getMax() {
+		return this.max;
+	}
+
+	/**
+	 * Gets the value below which the given fraction of the recorded values
+	 * lies. The result is the upper bound of the bucket, i.e. it is never
+	 * smaller than the exact percentile.
+	 *
+	 * @param fraction The fraction, between 0 and 1 (e.g. 0.99)
+	 * @return The percentile in nanoseconds, 0 if no values have been recorded
+	 */
+	long getPercentile(final double fraction) {
+		long total = 0;
+		for (int i = 0; i < this.counts.length(); i++) {
+			total += this.counts.get(i);
+		}
+		if (total == 0) {
+			return 0;
+		}
+		final long rank = Math.max(1, (long) Math.ceil(fraction * total));
+		long seen = 0;
+		for (int i = 0; i < this.counts.length(); i++) {
+			seen += this.counts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestValue(i), this.max);
+			}
+		}
+		return this.max;
+	}
+
+	/**
+	 * Forgets all the recorded values. Values recorded concurrently with the
+	 * reset may or may not be forgotten.
+	 */
+	void reset() {
+		for (int i = 0; i < this.counts.length(); i++) {
+			this.counts.set(i, 0);
+		}
+		this.count.reset();
+		this.sum.reset();
+		this.max = 0;
+	}
+}
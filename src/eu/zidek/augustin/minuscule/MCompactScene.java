@@ -0,0 +1,1084 @@
+package eu.zidek.augustin.minuscule;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact store of many points, lines and rectangles, drawn onto the canvas
+ * as one geometric object. Instead of an object per element, the elements are
+ * kept in parallel primitive arrays (coordinates, style index, layer and
+ * flags), about 50 bytes per element and no objects for the garbage
+ * collector to trace. The painter goes through the arrays directly.
+ * <p>
+ * An element is added by <code>addPoint()</code>, <code>addLine()</code> or
+ * <code>addRectangle()</code>, which return a small handle. The handle
+ * modifies the element in the arrays using the same builder style as the
+ * geometric objects, the changes are repainted automatically:
+ * </p>
+ *
+ * <pre>
+ * MCompactScene scene = new MCompactScene().draw(canvas);
+ * for (int i = 0; i &lt; 1000000; i++) {
+ * 	scene.addPoint(x[i], y[i]).diameter(2).color(Color.RED);
+ * }
+ * MCompactScene.LineHandle l = scene.addLine(0, 0, 100, 100);
+ * l.end(200, 100).layer(1);
+ * </pre>
+ *
+ * The elements are painted in the order of their layers, which order them
+ * within the scene only; the whole scene is in the canvas at the layer of
+ * the scene. Elements of the same layer are painted in the order of their
+ * slots, the slots of deleted elements are reused by the new ones. The
+ * elements can't have labels, the scene as a whole can. All the methods are
+ * thread-safe, the elements are modified and painted holding the lock of
+ * the scene.
+ *
+ * @author Augustin Zidek
+ *
+ */
+public class MCompactScene extends MGeometricObject {
+	// Kinds of the elements
+	static final byte POINT = 0;
+	static final byte LINE = 1;
+	static final byte RECTANGLE = 2;
+	// Bits of the flags of the elements
+	static final byte FILL = 1;
+	static final byte ZOOM_INDIFFERENT = 2;
+	static final byte DELETED = 4;
+
+	// The elements, one per slot, guarded by this. Points have the center in
+	// (a, b) and the radius in c. Lines go from (a, b) to (c, d). Rectangles
+	// have the corner in (a, b), the width in c and the height in d.
+	byte[] kinds = new byte[Constants.COMPACT_SCENE_INITIAL_CAPACITY];
+	double[] a = new double[Constants.COMPACT_SCENE_INITIAL_CAPACITY];
+	double[] b = new double[Constants.COMPACT_SCENE_INITIAL_CAPACITY];
+	double[] c = new double[Constants.COMPACT_SCENE_INITIAL_CAPACITY];
+	double[] d = new double[Constants.COMPACT_SCENE_INITIAL_CAPACITY];
+	int[] styles = new int[Constants.COMPACT_SCENE_INITIAL_CAPACITY];
+	int[] layers = new int[Constants.COMPACT_SCENE_INITIAL_CAPACITY];
+	byte[] flags = new byte[Constants.COMPACT_SCENE_INITIAL_CAPACITY];
+	// Incremented when the slot is freed, so that old handles are detected
+	private int[] generations = new int[Constants.COMPACT_SCENE_INITIAL_CAPACITY];
+	// Number of slots used (including the deleted ones)
+	int slots = 0;
+	private int count = 0;
+	// Slots of the deleted elements, reused first
+	private int[] free = new int[0];
+	private int freeCount = 0;
+
+	// The styles referenced by the style indices, never removed. Only their
+	// colors and strokes are used, the rest is in the flags.
+	final List<MStyle> styleTable = new ArrayList<>();
+	private final Map<MStyle, Integer> styleIndices = new HashMap<>();
+
+	// The order of painting, null if it is the order of the slots
+	private int[] order = null;
+	private boolean orderDirty = false;
+	// Layer of the last slot, slots added in a lower layer break the order
+	private int tailLayer = Integer.MIN_VALUE;
+
+	// The canvas the scene is drawn on, repainted when an element changes
+	private volatile Canvas canvas;
+
+	/**
+	 * Creates a new empty compact scene.
+	 */
+	public MCompactScene() {
+		super(Constants.DEFAULT_POINT_COLOR, Constants.DEFAULT_POINT_FILL,
+				null, Constants.DEFAULT_POINT_STROKE,
+				Constants.DEFAULT_COMPACT_SCENE_LAYER, false);
+	}
+
+	/**
+	 * Handle of one element of the scene. The handle is only a reference to
+	 * the slot of the element, all the properties are stored in the scene.
+	 * Once the element is deleted, using the handle throws an
+	 * <code>IllegalStateException</code>.
+	 */
+	public abstract static class Handle {
+		final MCompactScene scene;
+		final int slot;
+		final int generation;
+
+		Handle(final MCompactScene scene, final int slot, final int generation) {
+			this.scene = scene;
+			this.slot = slot;
+			this.generation = generation;
+		}
+
+		/**
+		 * Sets the element's color.
+		 *
+		 * @param color The color
+		 * @return The handle
+		 */
+		public Handle color(final Color color) {
+			this.scene.setStyle(this, color, null);
+			return this;
+		}
+
+		/**
+		 * Sets the element's stroke.
+		 *
+		 * @param stroke The stroke
+		 * @return The handle
+		 */
+		public Handle stroke(final MStroke stroke) {
+			this.scene.setStyle(this, null, stroke);
+			return this;
+		}
+
+		/**
+		 * Sets the layer of the element within the scene.
+		 *
+		 * @param layer The layer
+		 * @return The handle
+		 */
+		public Handle layer(final int layer) {
+			this.scene.setLayer(this, layer);
+			return this;
+		}
+
+		/**
+		 * Sets whether the element keeps its size when zooming.
+		 *
+		 * @param value <code>true</code> if zoom indifferent
+		 * @return The handle
+		 */
+		public Handle zoomIndifferent(final boolean value) {
+			this.scene.setFlag(this, ZOOM_INDIFFERENT, value);
+			return this;
+		}
+
+		/**
+		 * Moves the element by the given vector.
+		 *
+		 * @param dx The x coordinate of the vector
+		 * @param dy The y coordinate of the vector
+		 * @return The handle
+		 */
+		public abstract Handle translate(final double dx, final double dy);
+
+		/**
+		 * @return The element's color
+		 */
+		public Color getColor() {
+			synchronized (this.scene) {
+				this.scene.check(this);
+				return this.scene.styleTable.get(this.scene.styles[this.slot])
+						.getColor();
+			}
+		}
+
+		/**
+		 * @return The element's stroke
+		 */
+		public MStroke getStroke() {
+			synchronized (this.scene) {
+				this.scene.check(this);
+				return this.scene.styleTable.get(this.scene.styles[this.slot])
+						.getStroke();
+			}
+		}
+
+		/**
+		 * @return The layer of the element within the scene
+		 */
+		public int getLayer() {
+			synchronized (this.scene) {
+				this.scene.check(this);
+				return this.scene.layers[this.slot];
+			}
+		}
+
+		/**
+		 * Deletes the element from the scene. Deleting it again does nothing.
+		 */
+		public void delete() {
+			this.scene.delete(this);
+		}
+
+		/**
+		 * @return <code>true</code> if the element has been deleted
+		 */
+		public boolean isDeleted() {
+			synchronized (this.scene) {
+				return this.scene.generations[this.slot] != this.generation;
+			}
+		}
+
+		/**
+		 * @return The coordinate stored in the first array
+		 */
+		double getA() {
+			synchronized (this.scene) {
+				this.scene.check(this);
+				return this.scene.a[this.slot];
+			}
+		}
+
+		double getB() {
+			synchronized (this.scene) {
+				this.scene.check(this);
+				return this.scene.b[this.slot];
+			}
+		}
+
+		double getC() {
+			synchronized (this.scene) {
+				this.scene.check(this);
+				return this.scene.c[this.slot];
+			}
+		}
+
+		double getD() {
+			synchronized (this.scene) {
+				this.scene.check(this);
+				return this.scene.d[this.slot];
+			}
+		}
+	}
+
+	/**
+	 * Handle of a point of the scene.
+	 */
+	public static final class PointHandle extends Handle {
+		PointHandle(final MCompactScene scene, final int slot,
+				final int generation) {
+			super(scene, slot, generation);
+		}
+
+		/**
+		 * Sets the position of the point's center.
+		 *
+		 * @param x The x coordinate
+		 * @param y The y coordinate
+		 * @return The handle
+		 */
+		public PointHandle pos(final double x, final double y) {
+			this.scene.set(this, x, y, Double.NaN, Double.NaN);
+			return this;
+		}
+
+		/**
+		 * Sets the point's diameter.
+		 *
+		 * @param diameter The diameter
+		 * @return The handle
+		 */
+		public PointHandle diameter(final double diameter) {
+			this.scene.set(this, Double.NaN, Double.NaN, diameter / 2,
+					Double.NaN);
+			return this;
+		}
+
+		/**
+		 * Sets whether the point is filled.
+		 *
+		 * @param value <code>true</code> if filled
+		 * @return The handle
+		 */
+		public PointHandle fill(final boolean value) {
+			this.scene.setFlag(this, FILL, value);
+			return this;
+		}
+
+		@Override
+		public PointHandle color(final Color color) {
+			super.color(color);
+			return this;
+		}
+
+		@Override
+		public PointHandle stroke(final MStroke stroke) {
+			super.stroke(stroke);
+			return this;
+		}
+
+		@Override
+		public PointHandle layer(final int layer) {
+			super.layer(layer);
+			return this;
+		}
+
+		@Override
+		public PointHandle zoomIndifferent(final boolean value) {
+			super.zoomIndifferent(value);
+			return this;
+		}
+
+		@Override
+		public PointHandle translate(final double dx, final double dy) {
+			this.scene.translate(this, dx, dy, false);
+			return this;
+		}
+
+		/**
+		 * @return The x coordinate of the point's center
+		 */
+		public double getX() {
+			return this.getA();
+		}
+
+		/**
+		 * @return The y coordinate of the point's center
+		 */
+		public double getY() {
+			return this.getB();
+		}
+
+		/**
+		 * @return The point's radius
+		 */
+		public double getRadius() {
+			return this.getC();
+		}
+	}
+
+	/**
+	 * Handle of a line of the scene.
+	 */
+	public static final class LineHandle extends Handle {
+		LineHandle(final MCompactScene scene, final int slot,
+				final int generation) {
+			super(scene, slot, generation);
+		}
+
+		/**
+		 * Sets the start of the line.
+		 *
+		 * @param x The x coordinate
+		 * @param y The y coordinate
+		 * @return The handle
+		 */
+		public LineHandle start(final double x, final double y) {
+			this.scene.set(this, x, y, Double.NaN, Double.NaN);
+			return this;
+		}
+
+		/**
+		 * Sets the end of the line.
+		 *
+		 * @param x The x coordinate
+		 * @param y The y coordinate
+		 * @return The handle
+		 */
+		public LineHandle end(final double x, final double y) {
+			this.scene.set(this, Double.NaN, Double.NaN, x, y);
+			return this;
+		}
+
+		@Override
+		public LineHandle color(final Color color) {
+			super.color(color);
+			return this;
+		}
+
+		@Override
+		public LineHandle stroke(final MStroke stroke) {
+			super.stroke(stroke);
+			return this;
+		}
+
+		@Override
+		public LineHandle layer(final int layer) {
+			super.layer(layer);
+			return this;
+		}
+
+		@Override
+		public LineHandle zoomIndifferent(final boolean value) {
+			super.zoomIndifferent(value);
+			return this;
+		}
+
+		@Override
+		public LineHandle translate(final double dx, final double dy) {
+			this.scene.translate(this, dx, dy, true);
+			return this;
+		}
+
+		/**
+		 * @return The x coordinate of the start
+		 */
+		public double getStartX() {
+			return this.getA();
+		}
+
+		/**
+		 * @return The y coordinate of the start
+		 */
+		public double getStartY() {
+			return this.getB();
+		}
+
+		/**
+		 * @return The x coordinate of the end
+		 */
+		public double getEndX() {
+			return this.getC();
+		}
+
+		/**
+		 * @return The y coordinate of the end
+		 */
+		public double getEndY() {
+			return this.getD();
+		}
+	}
+
+	/**
+	 * Handle of a rectangle of the scene.
+	 */
+	public static final class RectangleHandle extends Handle {
+		RectangleHandle(final MCompactScene scene, final int slot,
+				final int generation) {
+			super(scene, slot, generation);
+		}
+
+		/**
+		 * Sets the position of the rectangle's top left (in Euclidean
+		 * coordinates lower left) corner.
+		 *
+		 * @param x The x coordinate
+		 * @param y The y coordinate
+		 * @return The handle
+		 */
+		public RectangleHandle pos(final double x, final double y) {
+			this.scene.set(this, x, y, Double.NaN, Double.NaN);
+			return this;
+		}
+
+		/**
+		 * Sets the rectangle's dimensions.
+		 *
+		 * @param width The width
+		 * @param height The height
+		 * @return The handle
+		 */
+		public RectangleHandle dimensions(final double width,
+				final double height) {
+			this.scene.set(this, Double.NaN, Double.NaN, width, height);
+			return this;
+		}
+
+		/**
+		 * Sets whether the rectangle is filled.
+		 *
+		 * @param value <code>true</code> if filled
+		 * @return The handle
+		 */
+		public RectangleHandle fill(final boolean value) {
+			this.scene.setFlag(this, FILL, value);
+			return this;
+		}
+
+		@Override
+		public RectangleHandle color(final Color color) {
+			super.color(color);
+			return this;
+		}
+
+		@Override
+		public RectangleHandle stroke(final MStroke stroke) {
+			super.stroke(stroke);
+			return this;
+		}
+
+		@Override
+		public RectangleHandle layer(final int layer) {
+			super.layer(layer);
+			return this;
+		}
+
+		@Override
+		public RectangleHandle zoomIndifferent(final boolean value) {
+			super.zoomIndifferent(value);
+			return this;
+		}
+
+		@Override
+		public RectangleHandle translate(final double dx, final double dy) {
+			this.scene.translate(this, dx, dy, false);
+			return this;
+		}
+
+		/**
+		 * @return The x coordinate of the corner
+		 */
+		public double getX() {
+			return this.getA();
+		}
+
+		/**
+		 * @return The y coordinate of the corner
+		 */
+		public double getY() {
+			return this.getB();
+		}
+
+		/**
+		 * @return The rectangle's width
+		 */
+		public double getWidth() {
+			return this.getC();
+		}
+
+		/**
+		 * @return The rectangle's height
+		 */
+		public double getHeight() {
+			return this.getD();
+		}
+	}
+
+	/**
+	 * Adds a point with the default properties of <code>MPoint</code>.
+	 *
+	 * @param x The x coordinate of the center
+	 * @param y The y coordinate of the center
+	 * @return The handle of the point
+	 */
+	public PointHandle addPoint(final double x, final double y) {
+		final PointHandle handle;
+		synchronized (this) {
+			final int slot = this.allocate(POINT, x, y,
+					Constants.DEFAULT_POINT_RADIUS, 0,
+					Constants.DEFAULT_POINT_COLOR,
+					Constants.DEFAULT_POINT_STROKE,
+					Constants.DEFAULT_POINT_FILL);
+			handle = new PointHandle(this, slot, this.generations[slot]);
+		}
+		this.changed();
+		return handle;
+	}
+
+	/**
+	 * Adds a line with the default properties of <code>MLine</code>.
+	 *
+	 * @param x1 The x coordinate of the start
+	 * @param y1 The y coordinate of the start
+	 * @param x2 The x coordinate of the end
+	 * @param y2 The y coordinate of the end
+	 * @return The handle of the line
+	 */
+	public LineHandle addLine(final double x1, final double y1,
+			final double x2, final double y2) {
+		final LineHandle handle;
+		synchronized (this) {
+			final int slot = this.allocate(LINE, x1, y1, x2, y2,
+					Constants.DEFAULT_LINE_COLOR,
+					Constants.DEFAULT_LINE_STROKE, false);
+			handle = new LineHandle(this, slot, this.generations[slot]);
+		}
+		this.changed();
+		return handle;
+	}
+
+	/**
+	 * Adds a rectangle with the default properties of
+	 * <code>MRectangle</code>.
+	 *
+	 * @param x The x coordinate of the top left (in Euclidean coordinates
+	 *            lower left) corner
+	 * @param y The y coordinate of the corner
+	 * @param width The width
+	 * @param height The height
+	 * @return The handle of the rectangle
+	 */
+	public RectangleHandle addRectangle(final double x, final double y,
+			final double width, final double height) {
+		final RectangleHandle handle;
+		synchronized (this) {
+			final int slot = this.allocate(RECTANGLE, x, y, width, height,
+					Constants.DEFAULT_RECTANGLE_COLOR,
+					Constants.DEFAULT_RECTANGLE_STROKE,
+					Constants.DEFAULT_RECTANGLE_FILL);
+			handle = new RectangleHandle(this, slot, this.generations[slot]);
+		}
+		this.changed();
+		return handle;
+	}
+
+	/**
+	 * @return The number of elements in the scene
+	 */
+	public synchronized int size() {
+		return this.count;
+	}
+
+	/**
+	 * Counts the arrays of the slots, i.e. about 50 bytes per slot.
+	 */
+	@Override
+	public synchronized long getEstimatedSize() {
+		// Four doubles, the style, layer and generation and two bytes
+		final long slot = 4 * 8 + 3 * 4 + 2;
+		return super.getEstimatedSize() + slot * this.kinds.length
+				+ (this.order != null ? 4L * this.order.length : 0) + 4L
+				* this.free.length;
+	}
+
+	/**
+	 * Deletes all the elements. All the handles become invalid.
+	 */
+	public void clear() {
+		synchronized (this) {
+			for (int i = 0; i < this.slots; i++) {
+				this.generations[i]++;
+			}
+			this.slots = 0;
+			this.count = 0;
+			this.freeCount = 0;
+			this.order = null;
+			this.orderDirty = false;
+			this.tailLayer = Integer.MIN_VALUE;
+		}
+		this.changed();
+	}
+
+	/**
+	 * Puts a new element into a free slot, growing the arrays if needed.
+	 *
+	 * @return The slot
+	 */
+	private int allocate(final byte kind, final double a, final double b,
+			final double c, final double d, final Color color,
+			final MStroke stroke, final boolean fill) {
+		final int slot;
+		if (this.freeCount > 0) {
+			slot = this.free[--this.freeCount];
+			// A reused slot is out of the order of adding
+			this.orderDirty = true;
+		}
+		else {
+			if (this.slots == this.kinds.length) {
+				this.grow();
+			}
+			slot = this.slots++;
+			if (this.tailLayer > 0) {
+				this.orderDirty = true;
+			}
+			else {
+				this.tailLayer = 0;
+			}
+			// A new slot past the order must be added into it
+			if (this.order != null) {
+				this.orderDirty = true;
+			}
+		}
+		this.kinds[slot] = kind;
+		this.a[slot] = a;
+		this.b[slot] = b;
+		this.c[slot] = c;
+		this.d[slot] = d;
+		this.styles[slot] = this.styleIndex(color, stroke);
+		this.layers[slot] = 0;
+		this.flags[slot] = fill ? FILL : 0;
+		this.count++;
+		return slot;
+	}
+
+	/**
+	 * Doubles the capacity of the arrays.
+	 */
+	private void grow() {
+		final int capacity = this.kinds.length * 2;
+		this.kinds = Arrays.copyOf(this.kinds, capacity);
+		this.a = Arrays.copyOf(this.a, capacity);
+		this.b = Arrays.copyOf(this.b, capacity);
+		this.c = Arrays.copyOf(this.c, capacity);
+		this.d = Arrays.copyOf(this.d, capacity);
+		this.styles = Arrays.copyOf(this.styles, capacity);
+		this.layers = Arrays.copyOf(this.layers, capacity);
+		this.flags = Arrays.copyOf(this.flags, capacity);
+		this.generations = Arrays.copyOf(this.generations, capacity);
+	}
+
+	/**
+	 * @return The index of the style with the given color and stroke, added
+	 *         if it's not used yet
+	 */
+	private int styleIndex(final Color color, final MStroke stroke) {
+		final MStyle style = MStyle.of(color, false, stroke, null, false);
+		final Integer index = this.styleIndices.get(style);
+		if (index != null) {
+			return index;
+		}
+		this.styleTable.add(style);
+		this.styleIndices.put(style, this.styleTable.size() - 1);
+		return this.styleTable.size() - 1;
+	}
+
+	/**
+	 * @throws IllegalStateException If the element of the handle has been
+	 *             deleted
+	 */
+	private void check(final Handle handle) {
+		if (this.generations[handle.slot] != handle.generation) {
+			throw new IllegalStateException(
+					Constants.ERROR_MESSAGE_ELEMENT_DELETED);
+		}
+	}
+
+	/**
+	 * Sets the coordinates of the element, the NaN ones are not changed.
+	 */
+	private void set(final Handle handle, final double a, final double b,
+			final double c, final double d) {
+		synchronized (this) {
+			this.check(handle);
+			final int slot = handle.slot;
+			if (!Double.isNaN(a)) {
+				this.a[slot] = a;
+			}
+			if (!Double.isNaN(b)) {
+				this.b[slot] = b;
+			}
+			if (!Double.isNaN(c)) {
+				this.c[slot] = c;
+			}
+			if (!Double.isNaN(d)) {
+				this.d[slot] = d;
+			}
+		}
+		this.changed();
+	}
+
+	/**
+	 * Moves the element, the end of lines as well.
+	 */
+	private void translate(final Handle handle, final double dx,
+			final double dy, final boolean moveEnd) {
+		synchronized (this) {
+			this.check(handle);
+			this.a[handle.slot] += dx;
+			this.b[handle.slot] += dy;
+			if (moveEnd) {
+				this.c[handle.slot] += dx;
+				this.d[handle.slot] += dy;
+			}
+		}
+		this.changed();
+	}
+
+	/**
+	 * Sets the color or the stroke of the element, <code>null</code> is not
+	 * changed.
+	 */
+	private void setStyle(final Handle handle, final Color color,
+			final MStroke stroke) {
+		synchronized (this) {
+			this.check(handle);
+			final int old = this.styles[handle.slot];
+			this.styles[handle.slot] = this.styleIndex(
+					color != null ? color : this.styleTable.get(old).getColor(),
+					stroke != null ? stroke : this.styleTable.get(old)
+							.getStroke());
+		}
+		this.changed();
+	}
+
+	private void setLayer(final Handle handle, final int layer) {
+		synchronized (this) {
+			this.check(handle);
+			this.layers[handle.slot] = layer;
+			this.orderDirty = true;
+		}
+		this.changed();
+	}
+
+	private void setFlag(final Handle handle, final byte flag,
+			final boolean value) {
+		synchronized (this) {
+			this.check(handle);
+			if (value) {
+				this.flags[handle.slot] |= flag;
+			}
+			else {
+				this.flags[handle.slot] &= ~flag;
+			}
+		}
+		this.changed();
+	}
+
+	private void delete(final Handle handle) {
+		synchronized (this) {
+			if (this.generations[handle.slot] != handle.generation) {
+				return;
+			}
+			this.flags[handle.slot] = DELETED;
+			this.generations[handle.slot]++;
+			if (this.freeCount == this.free.length) {
+				this.free = Arrays.copyOf(this.free,
+						Math.max(16, this.free.length * 2));
+			}
+			this.free[this.freeCount++] = handle.slot;
+			this.count--;
+		}
+		this.changed();
+	}
+
+	/**
+	 * Gets the order in which the slots are painted, sorting them by the
+	 * layers if needed. Must be called holding the lock of the scene.
+	 *
+	 * @return The slots in the order of painting, <code>null</code> if it is
+	 *         the order of the slots
+	 */
+	int[] getPaintOrder() {
+		if (!this.orderDirty) {
+			return this.order;
+		}
+		this.orderDirty = false;
+		final long[] keys = new long[this.slots];
+		boolean ordered = true;
+		for (int i = 0; i < this.slots; i++) {
+			keys[i] = ((long) this.layers[i] << 32) | i;
+			ordered &= i == 0 || keys[i - 1] < keys[i];
+		}
+		this.tailLayer = this.slots > 0 ? this.layers[this.slots - 1]
+				: Integer.MIN_VALUE;
+		if (ordered) {
+			this.order = null;
+			return null;
+		}
+		Arrays.sort(keys);
+		this.order = new int[this.slots];
+		for (int i = 0; i < this.slots; i++) {
+			this.order[i] = (int) keys[i];
+		}
+		return this.order;
+	}
+
+	/**
+	 * Called after an element changed, repaints the canvas.
+	 */
+	private void changed() {
+		final Canvas c = this.canvas;
+		if (c != null) {
+			c.requestRepaint();
+		}
+	}
+
+	@Override
+	public MCompactScene draw(final Canvas canvas) {
+		this.canvas = canvas;
+		super.doDraw(canvas);
+		return this;
+	}
+
+	/**
+	 * Sets the color of all the elements.
+	 */
+	@Override
+	public MCompactScene color(final Color color) {
+		super.setColor(color);
+		synchronized (this) {
+			for (int i = 0; i < this.slots; i++) {
+				this.styles[i] = this.styleIndex(color,
+						this.styleTable.get(this.styles[i]).getStroke());
+			}
+		}
+		this.changed();
+		return this;
+	}
+
+	/**
+	 * Sets whether all the points and rectangles are filled.
+	 */
+	@Override
+	public MCompactScene fill(final boolean value) {
+		super.setFill(value);
+		synchronized (this) {
+			for (int i = 0; i < this.slots; i++) {
+				if (this.kinds[i] != LINE && (this.flags[i] & DELETED) == 0) {
+					this.flags[i] = (byte) (value ? this.flags[i] | FILL
+							: this.flags[i] & ~FILL);
+				}
+			}
+		}
+		this.changed();
+		return this;
+	}
+
+	/**
+	 * Sets the stroke of all the elements.
+	 */
+	@Override
+	public MCompactScene stroke(final MStroke stroke) {
+		super.setStroke(stroke);
+		synchronized (this) {
+			for (int i = 0; i < this.slots; i++) {
+				this.styles[i] = this.styleIndex(
+						this.styleTable.get(this.styles[i]).getColor(), stroke);
+			}
+		}
+		this.changed();
+		return this;
+	}
+
+	/**
+	 * Sets the color, stroke, filling and zoom indifference of all the
+	 * elements. Lines are never filled.
+	 */
+	@Override
+	public MCompactScene style(final MStyle style) {
+		super.setStyle(style);
+		synchronized (this) {
+			final int index = this.styleIndex(style.getColor(),
+					style.getStroke());
+			for (int i = 0; i < this.slots; i++) {
+				if ((this.flags[i] & DELETED) != 0) {
+					continue;
+				}
+				this.styles[i] = index;
+				byte flags = (byte) (this.flags[i] & ~(FILL | ZOOM_INDIFFERENT));
+				if (style.isFill() && this.kinds[i] != LINE) {
+					flags |= FILL;
+				}
+				if (style.isZoomIndifferent()) {
+					flags |= ZOOM_INDIFFERENT;
+				}
+				this.flags[i] = flags;
+			}
+		}
+		this.changed();
+		return this;
+	}
+
+	/**
+	 * Sets the layer of the whole scene in the canvas.
+	 */
+	@Override
+	public MCompactScene layer(final int layer) {
+		super.setLayer(layer);
+		return this;
+	}
+
+	@Override
+	public MCompactScene label(final String labelText) {
+		return this.label(labelText, Constants.DEFAULT_RECTANGLE_LABEL_POSITION);
+	}
+
+	@Override
+	public MCompactScene label(final String labelText, final double angleDeg) {
+		super.setLabel(labelText, angleDeg);
+		return this;
+	}
+
+	@Override
+	public MCompactScene label(final MLabel label) {
+		label.parent(this);
+		super.setLabel(label);
+		return this;
+	}
+
+	@Override
+	public MCompactScene labelStyle(final MStyle style) {
+		super.setLabelStyle(style);
+		return this;
+	}
+
+	/**
+	 * Moves all the elements by the given vector.
+	 */
+	@Override
+	public MCompactScene translate(final double dx, final double dy) {
+		synchronized (this) {
+			for (int i = 0; i < this.slots; i++) {
+				this.a[i] += dx;
+				this.b[i] += dy;
+				if (this.kinds[i] == LINE) {
+					this.c[i] += dx;
+					this.d[i] += dy;
+				}
+			}
+		}
+		this.changed();
+		return this;
+	}
+
+	/**
+	 * Sets whether all the elements keep their size when zooming.
+	 */
+	@Override
+	public MCompactScene zoomIndifferent(final boolean value) {
+		super.setZoomIndifference(value);
+		synchronized (this) {
+			for (int i = 0; i < this.slots; i++) {
+				if ((this.flags[i] & DELETED) == 0) {
+					this.flags[i] = (byte) (value ? this.flags[i]
+							| ZOOM_INDIFFERENT : this.flags[i]
+							& ~ZOOM_INDIFFERENT);
+				}
+			}
+		}
+		this.changed();
+		return this;
+	}
+
+	@Override
+	public MCoordinate getLabelBaseCoordinate() {
+		final MBoundingBox bb = this.getBoundingRectangle();
+		return new MCoordinate(bb.x + bb.width / 2, bb.y + bb.height / 2);
+	}
+
+	@Override
+	public MCoordinate getLabelCoordinates(final double angleDeg) {
+		final MBoundingBox bb = this.getBoundingRectangle();
+		return LabelPositioningUtils.getAutoPlacementToRectangle(angleDeg, bb,
+				super.getLabelDimensions());
+	}
+
+	/**
+	 * Calculates the bounding rectangle of all the elements, in <i>O(n)</i>.
+	 */
+	@Override
+	public synchronized MBoundingBox getBoundingRectangle() {
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < this.slots; i++) {
+			if ((this.flags[i] & DELETED) != 0) {
+				continue;
+			}
+			final double x1;
+			final double y1;
+			final double x2;
+			final double y2;
+			if (this.kinds[i] == POINT) {
+				x1 = this.a[i] - this.c[i];
+				y1 = this.b[i] - this.c[i];
+				x2 = this.a[i] + this.c[i];
+				y2 = this.b[i] + this.c[i];
+			}
+			else if (this.kinds[i] == LINE) {
+				x1 = Math.min(this.a[i], this.c[i]);
+				y1 = Math.min(this.b[i], this.d[i]);
+				x2 = Math.max(this.a[i], this.c[i]);
+				y2 = Math.max(this.b[i], this.d[i]);
+			}
+			else {
+				x1 = this.a[i];
+				y1 = this.b[i];
+				x2 = this.a[i] + this.c[i];
+				y2 = this.b[i] + this.d[i];
+			}
+			minX = Math.min(minX, x1);
+			minY = Math.min(minY, y1);
+			maxX = Math.max(maxX, x2);
+			maxY = Math.max(maxY, y2);
+		}
+		if (this.count == 0) {
+			return new MBoundingBox(0, 0, 0, 0);
+		}
+		return new MBoundingBox(minX, minY, maxX - minX, maxY - minY);
+	}
+
+}
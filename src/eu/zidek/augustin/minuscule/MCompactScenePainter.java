@@ -0,0 +1,173 @@
+package eu.zidek.augustin.minuscule;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Shape;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+
+/**
+ * A Painter for MCompactScenes. It goes through the arrays of the scene
+ * directly: one shape of each kind is reused for all the elements, the
+ * elements out of the clip are skipped and the color and stroke are set only
+ * when the style changes. The elements are painted the same way as the
+ * equivalent points, lines and rectangles by their painters.
+ *
+ * @author Augustin Zidek
+ *
+ */
+public class MCompactScenePainter implements SVGPainter {
+
+	@Override
+	public void paint(final MGeometricObject sceneObject, final Graphics2D g2d) {
+		final MCompactScene scene = (MCompactScene) sceneObject;
+		final double scale = g2d.getTransform().getScaleX();
+		final Ellipse2D.Double ellipse = new Ellipse2D.Double();
+		final Line2D.Double line = new Line2D.Double();
+		final Rectangle2D.Double rectangle = new Rectangle2D.Double();
+
+		synchronized (scene) {
+			// The clip in the scene coordinates, grown by the thickest stroke
+			// (zoom indifferent ones get thicker when zoomed out) and a pixel
+			// touched by the antialiasing
+			final Shape clipShape = g2d.getClip();
+			Rectangle2D clip = clipShape != null ? clipShape.getBounds2D()
+					: null;
+			if (clip != null) {
+				double margin = 0;
+				for (final MStyle style : scene.styleTable) {
+					margin = Math.max(margin,
+							DrawList.getStrokeReach(style.getStroke()));
+				}
+				margin = margin / Math.min(1, Math.abs(scale)) + 1
+						/ Math.abs(scale);
+				// Unknown strokes may paint anywhere
+				if (Double.isInfinite(margin)) {
+					clip = null;
+				}
+				else {
+					clip.setRect(clip.getX() - margin, clip.getY() - margin,
+							clip.getWidth() + 2 * margin, clip.getHeight() + 2
+									* margin);
+				}
+			}
+
+			final int[] order = scene.getPaintOrder();
+			final int n = order != null ? order.length : scene.slots;
+			int lastStyle = -1;
+			boolean lastScaled = false;
+			for (int k = 0; k < n; k++) {
+				final int i = order != null ? order[k] : k;
+				final byte flags = scene.flags[i];
+				if ((flags & MCompactScene.DELETED) != 0) {
+					continue;
+				}
+				final boolean indifferent = (flags & MCompactScene.ZOOM_INDIFFERENT) != 0;
+				final byte kind = scene.kinds[i];
+				final Shape shape;
+				if (kind == MCompactScene.POINT) {
+					final double radius = indifferent ? scene.c[i] / scale
+							: scene.c[i];
+					ellipse.setFrame(scene.a[i] - radius, scene.b[i] - radius,
+							radius * 2, radius * 2);
+					shape = ellipse;
+				}
+				else if (kind == MCompactScene.LINE) {
+					line.setLine(scene.a[i], scene.b[i], scene.c[i],
+							scene.d[i]);
+					shape = line;
+				}
+				else {
+					rectangle.setRect(scene.a[i], scene.b[i], scene.c[i],
+							scene.d[i]);
+					shape = rectangle;
+				}
+				if (clip != null && !intersects(clip, shape, kind)) {
+					continue;
+				}
+
+				// Zoom indifferent lines have the thickness divided by zoom
+				final int style = scene.styles[i];
+				final boolean scaled = indifferent
+						&& kind == MCompactScene.LINE;
+				if (style != lastStyle || scaled != lastScaled) {
+					final MStyle s = scene.styleTable.get(style);
+					MStyle.apply(g2d, s.getColor(), scaled ? new BasicStroke(
+							(float) (s.getStroke().getThickness() / scale)) : s
+							.getStroke());
+					lastStyle = style;
+					lastScaled = scaled;
+				}
+				// Lines can't be filled
+				if ((flags & MCompactScene.FILL) != 0
+						&& kind != MCompactScene.LINE) {
+					g2d.fill(shape);
+				}
+				else {
+					g2d.draw(shape);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the bounds of the shape intersect the clip.
+	 *         Lines may be horizontal or vertical, so their bounds may be
+	 *         empty.
+	 */
+	private static boolean intersects(final Rectangle2D clip,
+			final Shape shape, final byte kind) {
+		if (kind == MCompactScene.LINE) {
+			final Line2D line = (Line2D) shape;
+			return Math.max(line.getX1(), line.getX2()) >= clip.getMinX()
+					&& Math.min(line.getX1(), line.getX2()) <= clip.getMaxX()
+					&& Math.max(line.getY1(), line.getY2()) >= clip.getMinY()
+					&& Math.min(line.getY1(), line.getY2()) <= clip.getMaxY();
+		}
+		final Rectangle2D r = (Rectangle2D) ((kind == MCompactScene.POINT) ? ((Ellipse2D) shape)
+				.getFrame() : shape);
+		return r.getMaxX() >= clip.getMinX() && r.getMinX() <= clip.getMaxX()
+				&& r.getMaxY() >= clip.getMinY()
+				&& r.getMinY() <= clip.getMaxY();
+	}
+
+	@Override
+	public void paintSVG(final MGeometricObject sceneObject,
+			final SVGWriter svg) throws IOException {
+		final MCompactScene scene = (MCompactScene) sceneObject;
+		synchronized (scene) {
+			final int[] order = scene.getPaintOrder();
+			final int n = order != null ? order.length : scene.slots;
+			for (int k = 0; k < n; k++) {
+				final int i = order != null ? order[k] : k;
+				final byte flags = scene.flags[i];
+				if ((flags & MCompactScene.DELETED) != 0) {
+					continue;
+				}
+				final boolean indifferent = (flags & MCompactScene.ZOOM_INDIFFERENT) != 0;
+				final boolean fill = (flags & MCompactScene.FILL) != 0;
+				final int style = scene.styles[i];
+				final MStroke stroke = scene.styleTable.get(style).getStroke();
+				final Color color = scene.styleTable.get(style).getColor();
+				if (scene.kinds[i] == MCompactScene.POINT) {
+					svg.circle(scene.a[i], scene.b[i],
+							indifferent ? scene.c[i] / svg.getScale()
+									: scene.c[i], color, stroke, fill);
+				}
+				else if (scene.kinds[i] == MCompactScene.LINE) {
+					svg.line(scene.a[i], scene.b[i], scene.c[i], scene.d[i],
+							color, indifferent ? new MBasicStroke(
+									(float) (stroke.getThickness() / svg
+											.getScale())) : stroke);
+				}
+				else {
+					svg.rect(scene.a[i], scene.b[i], scene.c[i], scene.d[i],
+							color, stroke, fill);
+				}
+			}
+		}
+	}
+}
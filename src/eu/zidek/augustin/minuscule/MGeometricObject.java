@@ -1,6 +1,7 @@
 package eu.zidek.augustin.minuscule;
 
 import java.awt.Color;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * The most general interface for all geometric objects the canvas supports.
@@ -15,18 +16,36 @@ import java.awt.Color;
  * 
  */
 public abstract class MGeometricObject implements Comparable<MGeometricObject> {
-	private Color color;
-	private boolean fill;
+	// Color, filling, stroke and zoom indifference, shared with the objects
+	// of the same style
+	private MStyle style;
+	// Either a custom label, which is an object of its own in the canvas, or
+	// a label attached by label(String), painted in the label pass
 	private MLabel label;
-	private MStroke stroke;
+	private AttachedLabel attachedLabel;
 	private int layer;
-	private boolean zoomIndifferent;
 
-	// Determines if the object should be added to canvas, or just repainted
-	private boolean shouldBeAddedToCanvas = true;
+	// Whether the object is in the canvas: not added yet (or deleted), added,
+	// or evicted by the retention policy of the canvas. If not added or
+	// evicted, drawing the object adds it, otherwise it is just repainted.
+	// Changed atomically, as the eviction runs on the painting thread.
+	private static final int NOT_ADDED = 0;
+	private static final int ADDED = 1;
+	private static final int EVICTED = 2;
+	private static final AtomicIntegerFieldUpdater<MGeometricObject> CANVAS_STATE = AtomicIntegerFieldUpdater
+			.newUpdater(MGeometricObject.class, "canvasState");
+	private volatile int canvasState = NOT_ADDED;
 	// Determines if the layer has been changed since the last draw and the
 	// canvas objects needs to be resorted
 	private boolean shouldBeLayerUpdated = false;
+	// The object has a live entry in the sorted list of the queue of the
+	// canvas, i.e. it has been flushed and not deleted or evicted since
+	boolean queued = false;
+	// The number of the entries of the object evicted by the retention
+	// policy of the canvas, but still in the sorted list of its queue until
+	// the queue is compacted. They precede the live entry, if any. Both
+	// guarded by the queue.
+	int staleEntries = 0;
 
 	/**
 	 * Constructor for the classes that extend MGeometricObject.
@@ -43,12 +62,22 @@ public abstract class MGeometricObject implements Comparable<MGeometricObject> {
 	protected MGeometricObject(final Color color, final boolean fill,
 			final MLabel label, final MStroke stroke, final int layer,
 			final boolean zoomIndifferent) {
-		this.color = color;
-		this.fill = fill;
+		this(MStyle.of(color, fill, stroke, null, zoomIndifferent), label,
+				layer);
+	}
+
+	/**
+	 * Constructor for the classes that extend MGeometricObject.
+	 * 
+	 * @param style The style of the object
+	 * @param label The label of the object
+	 * @param layer The layer at which the object is located
+	 */
+	protected MGeometricObject(final MStyle style, final MLabel label,
+			final int layer) {
+		this.style = style;
 		this.label = label;
-		this.stroke = stroke;
 		this.layer = layer;
-		this.zoomIndifferent = zoomIndifferent;
 	}
 
 	// PUBLIC GETTERS: To be used mostly by Canvas
@@ -58,7 +87,7 @@ public abstract class MGeometricObject implements Comparable<MGeometricObject> {
 	 *         concrete object's default color.
 	 */
 	public Color getColor() {
-		return this.color;
+		return this.style.getColor();
 	}
 
 	/**
@@ -66,23 +95,58 @@ public abstract class MGeometricObject implements Comparable<MGeometricObject> {
 	 *         <code>false</code> otherwise
 	 */
 	public boolean isFill() {
-		return this.fill;
+		return this.style.isFill();
 	}
 
 	/**
 	 * @return The label of this geometric object. If none, returns
-	 *         <code>null</code>.
+	 *         <code>null</code>. A label set by <code>label(String)</code> is
+	 *         turned into a custom label on the first call, see
+	 *         <code>label(String)</code>.
 	 */
 	public MLabel getLabel() {
+		final AttachedLabel attached = this.attachedLabel;
+		if (this.label == null && attached != null) {
+			this.label = attached.toMLabel(this);
+			// If in the canvas, painted as the attached label until the object
+			// is drawn again, which draws the new label
+			if (this.canvasState != ADDED) {
+				this.attachedLabel = null;
+			}
+		}
 		return this.label;
 	}
 
+	/**
+	 * @return The label set by <code>label(String)</code>, <code>null</code>
+	 *         if none
+	 */
+	AttachedLabel getAttachedLabel() {
+		return this.attachedLabel;
+	}
+
+	/**
+	 * @return <code>true</code> if the object has any label, without turning
+	 *         an attached label into a custom one, unlike <code>getLabel()</code>
+	 */
+	boolean hasLabel() {
+		return this.label != null || this.attachedLabel != null;
+	}
+
 	/**
 	 * @return The stroke used by this object. If none set returns the concrete
 	 *         object's default stroke.
 	 */
 	public MStroke getStroke() {
-		return this.stroke;
+		return this.style.getStroke();
+	}
+
+	/**
+	 * @return The style of the object, shared with all the objects of the same
+	 *         color, filling, stroke and zoom indifference
+	 */
+	public MStyle getStyle() {
+		return this.style;
 	}
 
 	/**
@@ -102,20 +166,21 @@ public abstract class MGeometricObject implements Comparable<MGeometricObject> {
 	 *         zoom indifferent, <code>false</code> otherwise
 	 */
 	public boolean isZoomIndifferent() {
-		return this.zoomIndifferent;
+		return this.style.isZoomIndifferent();
 	}
 
 	// PROTECTED SETTERS AND OTHER METHODS: To be used only by extending classes
 
 	protected void setColor(final Color color) {
-		this.color = color;
+		this.style = this.style.color(color);
 	}
 
 	protected void setFill(final boolean fill) {
-		this.fill = fill;
+		this.style = this.style.fill(fill);
 	}
 
 	protected void setLabel(final MLabel label) {
+		this.attachedLabel = null;
 		// If no label, create a new one
 		if (this.label == null) {
 			this.label = label;
@@ -126,8 +191,65 @@ public abstract class MGeometricObject implements Comparable<MGeometricObject> {
 		}
 	}
 
+	/**
+	 * Sets the label with the given text placed at the given angle around the
+	 * object, in the default style of labels. The label is attached
+	 * to the object rather than being an object of its own in the canvas,
+	 * unless the object has a custom label already, which is then modified.
+	 * 
+	 * @param text The text of the label
+	 * @param angleDeg The angle between the positive x-axis and the label
+	 */
+	protected void setLabel(final String text, final double angleDeg) {
+		if (this.label != null) {
+			final MLabel label = new MLabel(text);
+			label.parent(this);
+			label.positionSetByParent(true, angleDeg);
+			this.label.copy(label);
+			return;
+		}
+		this.attachedLabel = new AttachedLabel(text, angleDeg,
+				Constants.DEFAULT_LABEL_STYLE);
+	}
+
+	/**
+	 * Copies the label of the given object into this object.
+	 * 
+	 * @param object The object which label should be copied
+	 */
+	void copyLabel(final MGeometricObject object) {
+		if (object.label != null) {
+			this.setLabel(object.label);
+		}
+		else if (object.attachedLabel != null) {
+			this.label = null;
+			this.attachedLabel = object.attachedLabel;
+		}
+	}
+
+	/**
+	 * Sets the style of the object's label. Styles without a font keep the
+	 * font of the label.
+	 * 
+	 * @param style The style of the label
+	 */
+	protected void setLabelStyle(final MStyle style) {
+		if (this.label != null) {
+			this.label.style(style);
+		}
+		else if (this.attachedLabel != null) {
+			this.attachedLabel = this.attachedLabel
+					.withStyle(style.getFont() != null ? style : style
+							.font(this.attachedLabel.getStyle().getFont()));
+		}
+	}
+
 	protected void setStroke(final MStroke stroke) {
-		this.stroke = stroke;
+		this.style = this.style.stroke(stroke);
+	}
+
+	protected void setStyle(final MStyle style) {
+		this.style = style;
 	}
 
 	protected void setLayer(final int layer) {
@@ -137,20 +259,23 @@ public abstract class MGeometricObject implements Comparable<MGeometricObject> {
 	}
 
 	protected void setZoomIndifference(final boolean value) {
-		this.zoomIndifferent = value;
+		this.style = this.style.zoomIndifferent(value);
 	}
 
 	protected void doDraw(final Canvas c) {
-		// If any, draw the objects's label
+		// If any, draw the objects's label, it replaces the attached label
+		// it has been made of by getLabel()
 		if (this.label != null) {
+			this.attachedLabel = null;
 			this.label.draw(c);
 		}
 		// If the object hasn't been drawn yet, draw it
-		if (this.shouldBeAddedToCanvas) {
-			// Add the object itself, will do repaint
-			c.addGeometricObject(this);
-			// Make sure object is from this moment only repainted
-			this.shouldBeAddedToCanvas = false;
+		if (this.claimAdd()) {
+			// Add the object itself, will do repaint. Make sure object is from
+			// this moment only repainted, unless the canvas dropped it.
+			if (!c.addGeometricObject(this)) {
+				CANVAS_STATE.compareAndSet(this, ADDED, NOT_ADDED);
+			}
 			return;
 		}
 		// Object only needs to be redrawn as its properties have been changed
@@ -160,10 +285,54 @@ public abstract class MGeometricObject implements Comparable<MGeometricObject> {
 				c.updateObjectsLayer(this);
 				this.shouldBeLayerUpdated = false;
 			}
-			// Repaint the modified object after x ms. This way multiple objects
-			// repainted closely after each other are repainted only once.
-			c.repaint(Constants.DEFAULT_REPAINT_INTERVAL_MS);
+			c.updateGeometricObject(this);
+			// Repaint the modified object. This way multiple objects repainted
+			// closely after each other are repainted only once.
+			c.requestRepaint();
+		}
+	}
+
+	/**
+	 * Called by the queue of the canvas when the object is evicted by the
+	 * retention policy. As after deleting the object, drawing it again adds
+	 * it back.
+	 * 
+	 * @return The custom label of the object, which is an object of its own
+	 *         in the canvas, <code>null</code> if none
+	 */
+	MLabel evict() {
+		this.queued = false;
+		this.staleEntries++;
+		CANVAS_STATE.compareAndSet(this, ADDED, EVICTED);
+		return this.label;
+	}
+
+	/**
+	 * Marks the object as added to the canvas, unless it has been added
+	 * already. Only one of the threads drawing the object at once adds it.
+	 * 
+	 * @return <code>true</code> if the object should be added
+	 */
+	private boolean claimAdd() {
+		int state;
+		while ((state = this.canvasState) != ADDED) {
+			if (CANVAS_STATE.compareAndSet(this, state, ADDED)) {
+				return true;
+			}
 		}
+		return false;
+	}
+
+	/**
+	 * Called by the queue of the canvas when the object has been updated
+	 * (drawn again) but evicted meanwhile, i.e. the update raced with the
+	 * eviction. Marks the object as added, unless it has been deleted or
+	 * drawn again since.
+	 * 
+	 * @return <code>true</code> if the queue should add the object back
+	 */
+	boolean readdEvicted() {
+		return CANVAS_STATE.compareAndSet(this, EVICTED, ADDED);
 	}
 
 	/**
@@ -180,14 +349,28 @@ public abstract class MGeometricObject implements Comparable<MGeometricObject> {
 	 */
 	protected MCoordinate getLabelCoordinate(final double angleDeg,
 			final double distanceFromBase) {
-		// If null return position for a default label
-		if (this.label == null) {
-			return LabelPositioningUtils.getAutoPlacementToCircle(angleDeg,
-					Constants.DEFAULT_FONT, "", distanceFromBase);
-		}
-		// Determine the actual font size of the label and get its text
 		return LabelPositioningUtils.getAutoPlacementToCircle(angleDeg,
-				this.label.getFont(), this.label.getText(), distanceFromBase);
+				this.getLabelDimensions(), distanceFromBase);
+	}
+
+	/**
+	 * @return The dimensions of the object's label, see
+	 *         <code>LabelPositioningUtils.getLabelDimensions()</code>. The
+	 *         dimensions of labels set by <code>label(String)</code> are
+	 *         measured only once. If there is no label, the dimensions of an
+	 *         empty label are returned.
+	 */
+	protected MCoordinate getLabelDimensions() {
+		final AttachedLabel attached = this.attachedLabel;
+		if (attached != null) {
+			return attached.getDimensions();
+		}
+		if (this.label != null) {
+			return LabelPositioningUtils.getLabelDimensions(
+					this.label.getText(), this.label.getFont());
+		}
+		return LabelPositioningUtils.getLabelDimensions("",
+				Constants.DEFAULT_FONT);
 	}
 
 	// ABSTRACT METHODS: To be implemented by extending objects
@@ -237,6 +420,20 @@ public abstract class MGeometricObject implements Comparable<MGeometricObject> {
 	 */
 	public abstract MGeometricObject stroke(final MStroke stroke);
 
+	/**
+	 * Sets the object's color, filling, stroke and zoom indifference at once
+	 * from the given style. The font of the style is used by labels only.
+	 * Subclasses override it only to return their own type.
+	 * 
+	 * @param style The style to be used when drawing this object
+	 * @return The object with the given style
+	 * @see MStyle
+	 */
+	public MGeometricObject style(final MStyle style) {
+		this.setStyle(style);
+		return this;
+	}
+
 	/**
 	 * Sets the object's layer to the given value. The layer determines when the
 	 * object is drawn - the higher layer, the later the object will be drawn.
@@ -250,6 +447,14 @@ public abstract class MGeometricObject implements Comparable<MGeometricObject> {
 	 * Adds a label with default color, default font family and default font
 	 * size located northeast relative to the object. If the object already has
 	 * any label, it will be replaced by this label.
+	 * <p>
+	 * Unless the object has a custom label already, the label is attached to
+	 * the object rather than being an object of its own in the canvas. The
+	 * first call of <code>getLabel()</code> turns it into a custom
+	 * {@link MLabel}, which can be modified as any other label. If the object
+	 * is in the canvas already, the canvas keeps painting the attached label
+	 * until the object is drawn again.
+	 * </p>
 	 * 
 	 * @param labelText The label string value
 	 * @return The object with the label set
@@ -259,7 +464,8 @@ public abstract class MGeometricObject implements Comparable<MGeometricObject> {
 	/**
 	 * Adds a label with default color, default font family and default font
 	 * size located according to the location parameter. If the object already
-	 * has any label, it will be replaced by this label.
+	 * has any label, it will be replaced by this label. See
+	 * <code>label(String)</code> for how the label is kept.
 	 * 
 	 * @param labelText The label string value
 	 * @param angleDeg The angle relative to the x-axis in positive direction at
@@ -278,13 +484,28 @@ public abstract class MGeometricObject implements Comparable<MGeometricObject> {
 	 * 
 	 * If you want the object to determine the label position for you
 	 * automatically, use either <code>label(String s)</code> method or
-	 * <code>label(String s, int pos)</code> method.
+	 * <code>label(String s, int pos)</code> method. These labels are lighter,
+	 * as they are not objects of their own in the canvas, their style is set
+	 * by <code>labelStyle()</code>.
 	 * 
 	 * @param label The label to be added to the object
 	 * @return The object with the label set
 	 */
 	public abstract MGeometricObject label(final MLabel label);
 
+	/**
+	 * Sets the style of the object's label, e.g. its color or font. Styles
+	 * without a font keep the font of the label. If the object has no label,
+	 * nothing happens. Subclasses override it only to return their own type.
+	 * 
+	 * @param style The style of the label
+	 * @return The object with the label's style set
+	 */
+	public MGeometricObject labelStyle(final MStyle style) {
+		this.setLabelStyle(style);
+		return this;
+	}
+
 	/**
 	 * Translates the object by the given translation vector.
 	 * 
@@ -350,7 +571,21 @@ public abstract class MGeometricObject implements Comparable<MGeometricObject> {
 			canvas.removeGeometricObject(this.label);
 		}
 		// If one wants to add the object again after deleting it
-		this.shouldBeAddedToCanvas = true;
+		this.canvasState = NOT_ADDED;
+	}
+
+	/**
+	 * Estimates the heap size of the object, used by the retention policies
+	 * limiting the bytes kept by the canvas. The styles shared with other
+	 * objects are not counted. Objects holding arrays or other data should
+	 * add their size.
+	 * 
+	 * @return The estimated size of the object in bytes
+	 */
+	public long getEstimatedSize() {
+		final AttachedLabel attached = this.attachedLabel;
+		return Constants.OBJECT_SIZE_ESTIMATE
+				+ (attached != null ? 2L * attached.getText().length() : 0);
 	}
 
 	/**
@@ -362,6 +597,20 @@ public abstract class MGeometricObject implements Comparable<MGeometricObject> {
 	 */
 	public abstract MBoundingBox getBoundingRectangle();
 
+	/**
+	 * Gets the bounds used to skip the object when it is out of the view. The
+	 * stroke and the zoom indifference don't have to be included, the canvas
+	 * adds them. By default the object is never skipped, as the bounding
+	 * rectangle of an unknown object may not cover everything its painter
+	 * paints.
+	 * 
+	 * @return The bounds of what the painter paints, or <code>null</code> if
+	 *         the object should always be painted
+	 */
+	MBoundingBox getCullingBounds() {
+		return null;
+	}
+
 	@Override
 	public int compareTo(final MGeometricObject obj) {
 		// The higher layer, the greater the object is.
@@ -1,12 +1,8 @@
 package eu.zidek.augustin.minuscule;
 
-import static eu.zidek.augustin.minuscule.Constants.DEFAULT_FONT;
-import static eu.zidek.augustin.minuscule.Constants.DEFAULT_LABEL_COLOR;
-import static eu.zidek.augustin.minuscule.Constants.DEFAULT_LABEL_FILL;
 import static eu.zidek.augustin.minuscule.Constants.DEFAULT_LABEL_IS_UNMOVABLE;
 import static eu.zidek.augustin.minuscule.Constants.DEFAULT_LABEL_LAYER;
-import static eu.zidek.augustin.minuscule.Constants.DEFAULT_LABEL_STROKE;
-import static eu.zidek.augustin.minuscule.Constants.DEFAULT_LABEL_ZOOM_INDIFFERENCE;
+import static eu.zidek.augustin.minuscule.Constants.DEFAULT_LABEL_STYLE;
 import static eu.zidek.augustin.minuscule.Constants.DEFAULT_POINT_LABEL_POSITION;
 
 import java.awt.Color;
@@ -25,7 +21,6 @@ public class MLabel extends MGeometricObject {
 	private String labelText = "";
 	private double x = 0;
 	private double y = 0;
-	private Font font = DEFAULT_FONT;
 	private MGeometricObject parent = null;
 	private boolean isPosSetByParent = DEFAULT_LABEL_IS_UNMOVABLE;
 	private double angleToParent = DEFAULT_POINT_LABEL_POSITION;
@@ -36,9 +31,7 @@ public class MLabel extends MGeometricObject {
 	 * @param text The text of the label
 	 */
 	public MLabel(final String text) {
-		super(DEFAULT_LABEL_COLOR, DEFAULT_LABEL_FILL, null,
-				DEFAULT_LABEL_STROKE, DEFAULT_LABEL_LAYER,
-				DEFAULT_LABEL_ZOOM_INDIFFERENCE);
+		super(DEFAULT_LABEL_STYLE, null, DEFAULT_LABEL_LAYER);
 		this.labelText = text;
 	}
 
@@ -54,15 +47,14 @@ public class MLabel extends MGeometricObject {
 		this.labelText = label.getText();
 		this.x = label.getX();
 		this.y = label.getY();
-		this.font = label.getFont();
 		this.parent = label.getParent();
 		this.isPosSetByParent = label.isPositionSetByParent();
 		this.angleToParent = label.getAngleToParent();
 
-		super.setColor(label.getColor());
-		super.setFill(label.isFill());
-		super.setLabel(label.getLabel());
-		super.setStroke(label.getStroke());
+		// The zoom indifference of this label is kept
+		super.setStyle(label.getStyle().zoomIndifferent(
+				super.isZoomIndifferent()));
+		super.copyLabel(label);
 	}
 
 	/**
@@ -90,7 +82,7 @@ public class MLabel extends MGeometricObject {
 	 * @return The font of the label. Default font is Arial.
 	 */
 	public Font getFont() {
-		return this.font;
+		return super.getStyle().getFont();
 	}
 
 	/**
@@ -105,7 +97,7 @@ public class MLabel extends MGeometricObject {
 	 * @return the size of the label's font
 	 */
 	public int getFontSize() {
-		return this.font.getSize();
+		return this.getFont().getSize();
 	}
 
 	/**
@@ -185,7 +177,8 @@ public class MLabel extends MGeometricObject {
 	 * @return The label with changed font size
 	 */
 	public MLabel fontSize(final float size) {
-		this.font = this.font.deriveFont(size);
+		final Font font = this.getFont().deriveFont(size);
+		super.setStyle(super.getStyle().font(font));
 		return this;
 	}
 
@@ -196,7 +189,7 @@ public class MLabel extends MGeometricObject {
 	 * @return The label with the new font set
 	 */
 	public MLabel font(final Font font) {
-		this.font = font;
+		super.setStyle(super.getStyle().font(font));
 		return this;
 	}
 
@@ -207,13 +200,7 @@ public class MLabel extends MGeometricObject {
 
 	@Override
 	public MLabel label(final String labelText, final double angleDeg) {
-		final MLabel label = new MLabel(labelText);
-		// Set text, parent and position set by parent to true. Since position
-		// set by parent set, no need to set coordinates.
-		label.text(labelText);
-		label.parent(this);
-		label.positionSetByParent(true, angleDeg);
-		super.setLabel(label);
+		super.setLabel(labelText, angleDeg);
 		return this;
 	}
 
@@ -225,6 +212,12 @@ public class MLabel extends MGeometricObject {
 		return this;
 	}
 
+	@Override
+	public MLabel labelStyle(final MStyle style) {
+		super.setLabelStyle(style);
+		return this;
+	}
+
 	@Override
 	public MLabel color(final Color color) {
 		super.setColor(color);
@@ -243,6 +236,14 @@ public class MLabel extends MGeometricObject {
 		return this;
 	}
 
+	@Override
+	public MLabel style(final MStyle style) {
+		// Styles without a font keep the font of the label
+		super.setStyle(style.getFont() != null ? style : style.font(this
+				.getFont()));
+		return this;
+	}
+
 	@Override
 	public MLabel layer(final int layer) {
 		super.setLayer(layer);
@@ -335,14 +336,19 @@ public class MLabel extends MGeometricObject {
 	public MCoordinate getLabelCoordinates(final double angleDeg) {
 		final MBoundingBox bb = this.getBoundingRectangle();
 		return LabelPositioningUtils.getAutoPlacementToRectangle(angleDeg, bb,
-				super.getLabel().getFont(), super.getLabel().getText());
+				super.getLabelDimensions());
+	}
+
+	@Override
+	public long getEstimatedSize() {
+		return super.getEstimatedSize() + 2L * this.labelText.length();
 	}
 
 	@Override
 	public MBoundingBox getBoundingRectangle() {
 		// Get label width and height
 		final MCoordinate labelDim = LabelPositioningUtils.getLabelDimensions(
-				this.labelText, this.font);
+				this.labelText, this.getFont());
 		final double width = labelDim.x;
 		final double height = labelDim.y;
 
@@ -1,7 +1,10 @@
 package eu.zidek.augustin.minuscule;
 
+import java.awt.Color;
+import java.awt.Font;
 import java.awt.Graphics2D;
 import java.awt.geom.AffineTransform;
+import java.io.IOException;
 
 /**
  * A Painter for MLabels.
@@ -9,7 +12,7 @@ import java.awt.geom.AffineTransform;
  * @author Augustin Zidek
  *
  */
-public class MLabelPainter implements MGeometricObjectPainter {
+public class MLabelPainter implements SVGPainter {
 
 	private final Canvas canvas;
 
@@ -28,9 +31,6 @@ public class MLabelPainter implements MGeometricObjectPainter {
 	public void paint(final MGeometricObject labelObject, Graphics2D g2d) {
 		final MLabel label = (MLabel) labelObject;
 
-		// Get the label text and coordinates, makes code below more readable
-		final String text = label.getText();
-
 		final MGeometricObject parent = label.getParent();
 
 		float x = 0;
@@ -48,9 +48,42 @@ public class MLabelPainter implements MGeometricObjectPainter {
 			y = (float) label.getY();
 		}
 
-		g2d.setColor(label.getColor());
-		g2d.setStroke(label.getStroke());
+		MStyle.apply(g2d, label.getColor(), label.getStroke());
+		this.drawText(g2d, label.getText(), label.getFont(),
+				label.isZoomIndifferent(), parent, x, y);
+	}
 
+	/**
+	 * Paints the label attached to the given object by
+	 * <code>label(String)</code>.
+	 * 
+	 * @param owner The object which has the label
+	 * @param zoomIndifferent <code>true</code> if the label should be zoom
+	 *            indifferent
+	 * @param g2d The graphics on which to draw
+	 */
+	void paintAttached(final MGeometricObject owner,
+			final boolean zoomIndifferent, final Graphics2D g2d) {
+		final AttachedLabel label = owner.getAttachedLabel();
+		// The label may have been replaced by a custom one meanwhile
+		if (label == null) {
+			return;
+		}
+		final MCoordinate labelCoord = owner.getLabelCoordinates(label
+				.getAngle());
+		final MStyle style = label.getStyle();
+		MStyle.apply(g2d, style.getColor(), style.getStroke());
+		this.drawText(g2d, label.getText(), style.getFont(), zoomIndifferent,
+				owner, (float) labelCoord.x, (float) labelCoord.y);
+	}
+
+	/**
+	 * Draws the text of a label at the given coordinates, relative to the
+	 * parent if any.
+	 */
+	private void drawText(final Graphics2D g2d, final String text,
+			final Font font, final boolean zoomIndifferent,
+			final MGeometricObject parent, final float x, final float y) {
 		// Handle cases when the label is positioned relative to the parent
 		// (i.e. not relative to the origin). Then the parent's coordinates need
 		// to be added.
@@ -68,7 +101,7 @@ public class MLabelPainter implements MGeometricObjectPainter {
 			// labels as well. c depends on scaling indifference
 			final AffineTransform euclideanScale;
 			// If zoom indifferent, divide scale-factor by the current zoom
-			if (label.isZoomIndifferent()) {
+			if (zoomIndifferent) {
 				euclideanScale = AffineTransform.getScaleInstance(1 / g2d
 						.getTransform().getScaleX(), 1 / g2d.getTransform()
 						.getScaleY());
@@ -76,7 +109,7 @@ public class MLabelPainter implements MGeometricObjectPainter {
 			else {
 				euclideanScale = AffineTransform.getScaleInstance(1, -1);
 			}
-			g2d.setFont(label.getFont().deriveFont(euclideanScale));
+			g2d.setFont(font.deriveFont(euclideanScale));
 
 			// If label has no parent use its x, y coordinates instead of offset
 			if (parent == null) {
@@ -95,4 +128,90 @@ public class MLabelPainter implements MGeometricObjectPainter {
 		}
 	}
 
+	@Override
+	public void paintSVG(final MGeometricObject labelObject,
+			final SVGWriter svg) throws IOException {
+		final MLabel label = (MLabel) labelObject;
+		final MGeometricObject parent = label.getParent();
+
+		// The same positioning as in paint()
+		double x;
+		double y;
+		if (parent != null && label.isPositionSetByParent()) {
+			final MCoordinate labelCoord = parent.getLabelCoordinates(label
+					.getAngleToParent());
+			x = labelCoord.x;
+			y = labelCoord.y;
+		}
+		else {
+			x = label.getX();
+			y = label.getY();
+		}
+		writeText(svg, label.getText(), label.getFont(), label.getColor(),
+				label.isZoomIndifferent(), parent, x, y);
+	}
+
+	/**
+	 * Writes the label attached to the given object by
+	 * <code>label(String)</code> into the SVG.
+	 * 
+	 * @param owner The object which has the label
+	 * @param zoomIndifferent <code>true</code> if the label should be zoom
+	 *            indifferent
+	 * @param svg The SVG writer
+	 * @throws IOException If an error occurs during writing
+	 */
+	void paintAttachedSVG(final MGeometricObject owner,
+			final boolean zoomIndifferent, final SVGWriter svg)
+			throws IOException {
+		final AttachedLabel label = owner.getAttachedLabel();
+		if (label == null) {
+			return;
+		}
+		final MCoordinate labelCoord = owner.getLabelCoordinates(label
+				.getAngle());
+		final MStyle style = label.getStyle();
+		writeText(svg, label.getText(), style.getFont(), style.getColor(),
+				zoomIndifferent, owner, labelCoord.x, labelCoord.y);
+	}
+
+	/**
+	 * Writes the text of a label at the given coordinates, relative to the
+	 * parent if any.
+	 */
+	private static void writeText(final SVGWriter svg, final String text,
+			final Font font, final Color color, final boolean zoomIndifferent,
+			final MGeometricObject parent, double x, double y)
+			throws IOException {
+		double xOffset = 0;
+		double yOffset = 0;
+		if (parent != null) {
+			final MCoordinate labelBaseCoord = parent.getLabelBaseCoordinate();
+			xOffset = labelBaseCoord.x;
+			yOffset = labelBaseCoord.y;
+		}
+
+		// If Euclidean, the glyphs have to be flipped back
+		if (svg.isEuclidean()) {
+			final double scaleX;
+			final double scaleY;
+			if (zoomIndifferent) {
+				scaleX = 1 / svg.getScale();
+				scaleY = -1 / svg.getScale();
+			}
+			else {
+				scaleX = 1;
+				scaleY = -1;
+			}
+			if (parent != null) {
+				x += xOffset;
+				y = -y + yOffset;
+			}
+			svg.text(text, x, y, font, color, scaleX, scaleY);
+		}
+		else {
+			svg.text(text, x + xOffset, y + yOffset, font, color, 1, 1);
+		}
+	}
+
 }
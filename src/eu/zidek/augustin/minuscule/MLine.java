@@ -179,6 +179,12 @@ public class MLine extends MGeometricObject {
 		return this;
 	}
 
+	@Override
+	public MLine style(final MStyle style) {
+		super.setStyle(style);
+		return this;
+	}
+
 	@Override
 	public MLine layer(final int layer) {
 		super.setLayer(layer);
@@ -192,13 +198,7 @@ public class MLine extends MGeometricObject {
 
 	@Override
 	public MLine label(final String labelText, final double angleDeg) {
-		final MLabel label = new MLabel(labelText);
-		// Set text, parent and position set by parent to true. Since position
-		// set by parent set, no need to set coordinates.
-		label.text(labelText);
-		label.parent(this);
-		label.positionSetByParent(true, angleDeg);
-		super.setLabel(label);
+		super.setLabel(labelText, angleDeg);
 		return this;
 	}
 
@@ -210,6 +210,12 @@ public class MLine extends MGeometricObject {
 		return this;
 	}
 
+	@Override
+	public MLine labelStyle(final MStyle style) {
+		super.setLabelStyle(style);
+		return this;
+	}
+
 	@Override
 	public MLine zoomIndifferent(final boolean value) {
 		super.setZoomIndifference(value);
@@ -246,11 +252,16 @@ public class MLine extends MGeometricObject {
 	@Override
 	public MBoundingBox getBoundingRectangle() {
 		final double boundX = Math.min(this.x1, this.x2);
-		final double boundY = (boundX == this.x1) ? this.y1 : this.y2;
+		final double boundY = Math.min(this.y1, this.y2);
 		final double width = Math.abs(this.x1 - this.x2);
 		final double height = Math.abs(this.y1 - this.y2);
 
 		return new MBoundingBox(boundX, boundY, width, height);
 	}
 
+	@Override
+	MBoundingBox getCullingBounds() {
+		return this.getBoundingRectangle();
+	}
+
 }
@@ -3,6 +3,7 @@ package eu.zidek.augustin.minuscule;
 import java.awt.BasicStroke;
 import java.awt.Graphics2D;
 import java.awt.geom.Line2D;
+import java.io.IOException;
 
 /**
  * A Painter for MLines.
@@ -10,7 +11,7 @@ import java.awt.geom.Line2D;
  * @author Augustin Zidek
  *
  */
-public class MLinePainter implements MGeometricObjectPainter {
+public class MLinePainter implements SVGPainter {
 
 	@Override
 	public void paint(final MGeometricObject lineObject, final Graphics2D g2d) {
@@ -20,17 +21,35 @@ public class MLinePainter implements MGeometricObjectPainter {
 				object.getStartY(), object.getEndX(), object.getEndY());
 		// If zoom indifferent, divide thickness by the zoom
 		if (object.isZoomIndifferent()) {
-			g2d.setStroke(new BasicStroke((float) (object.getThickness() / g2d
-					.getTransform().getScaleX())));
+			MStyle.apply(g2d, object.getColor(), new BasicStroke(
+					(float) (object.getThickness() / g2d.getTransform()
+							.getScaleX())));
 		}
 		else {
-			g2d.setStroke(object.getStroke());
+			MStyle.apply(g2d, object.getColor(), object.getStroke());
 		}
-		g2d.setColor(object.getColor());
 
 		// Line can't be filled, filling modified using Stroke
 		g2d.draw(line);
 
 	}
 
+	@Override
+	public void paintSVG(final MGeometricObject lineObject, final SVGWriter svg)
+			throws IOException {
+		final MLine object = (MLine) lineObject;
+
+		// If zoom indifferent, divide thickness by the zoom
+		final MStroke stroke;
+		if (object.isZoomIndifferent()) {
+			stroke = new MBasicStroke(
+					(float) (object.getThickness() / svg.getScale()));
+		}
+		else {
+			stroke = object.getStroke();
+		}
+		svg.line(object.getStartX(), object.getStartY(), object.getEndX(),
+				object.getEndY(), object.getColor(), stroke);
+	}
+
 }
@@ -0,0 +1,543 @@
+package eu.zidek.augustin.minuscule;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Points stored in a file, drawn onto the canvas as one geometric object. The
+ * file is memory-mapped and never loaded onto the heap, so point sets of
+ * hundreds of millions of points can be browsed with constant heap use. The
+ * painter streams over the mapped records of the visible part of the scene.
+ * <p>
+ * The file is a sequence of fixed-width records. Every record starts with the
+ * x and the y coordinate as doubles, the rest of the record is free for the
+ * attributes of the point. An <code>int</code> attribute can be used as the
+ * ARGB color of the point by <code>colorAttribute()</code>:
+ * </p>
+ *
+ * <pre>
+ * // Records of x, y, ARGB color and 4 bytes of padding
+ * MMappedPoints points = new MMappedPoints(file, 24, ByteOrder.BIG_ENDIAN)
+ * 		.colorAttribute(16).draw(canvas);
+ * </pre>
+ *
+ * The records are grouped into blocks of consecutive records and the bounds
+ * of every block are kept in a coarse index next to the file (with the
+ * <code>.mbi</code> suffix). Blocks out of the view are skipped as a whole,
+ * so the points should be ordered spatially, e.g. along a space-filling
+ * curve. The index is built by one pass through the file when it is missing
+ * or older than the file. If it can't be written next to the file, a
+ * temporary one is used.
+ * <p>
+ * The file must not be changed while it is mapped, i.e. until
+ * <code>close()</code>. The coordinates are only
+ * read, moving the points by <code>translate()</code> moves the way they are
+ * painted.
+ * </p>
+ *
+ * @author Augustin Zidek
+ *
+ */
+public class MMappedPoints extends MGeometricObject {
+	// Layout of the header of the index, the bounds of the blocks follow
+	private static final int INDEX_RECORD_SIZE = 8;
+	private static final int INDEX_BLOCK_RECORDS = 12;
+	private static final int INDEX_RECORD_COUNT = 16;
+	private static final int INDEX_LAST_MODIFIED = 24;
+	private static final int INDEX_BYTE_ORDER = 32;
+	private static final int INDEX_BOUNDS = 40;
+	static final int INDEX_HEADER = 72;
+	static final int INDEX_BLOCK = 32;
+
+	private final File file;
+	private final int recordSize;
+	final long recordCount;
+	final int blockRecords;
+	final int blockCount;
+	final long recordsPerChunk;
+	private final ByteOrder order;
+	// The file mapped in chunks of whole blocks, each below 2 GB. Both the
+	// chunks and the index are null once closed.
+	volatile MappedByteBuffer[] chunks;
+	// The bounds of the blocks, {minX, minY, maxX, maxY} each
+	volatile MappedByteBuffer index;
+	private final double minX;
+	private final double minY;
+	private final double maxX;
+	private final double maxY;
+
+	// Guarded by this
+	private double radius = Constants.DEFAULT_MAPPED_POINTS_RADIUS;
+	private int colorOffset = -1;
+	private double translateX = 0;
+	private double translateY = 0;
+
+	/**
+	 * Maps the file of points having 16 bytes records of the x and y
+	 * coordinate in the big-endian byte order, as written by
+	 * <code>DataOutputStream.writeDouble()</code>.
+	 *
+	 * @param file The file of the points
+	 * @throws IOException If the file can't be mapped or the index can't be
+	 *             built
+	 */
+	public MMappedPoints(final File file) throws IOException {
+		this(file, Constants.DEFAULT_MAPPED_POINTS_RECORD_SIZE,
+				ByteOrder.BIG_ENDIAN);
+	}
+
+	/**
+	 * Maps the file of points.
+	 *
+	 * @param file The file of the points
+	 * @param recordSize The size of a record in bytes, at least 16. A trailing
+	 *            incomplete record is ignored.
+	 * @param order The byte order of the records
+	 * @throws IOException If the file can't be mapped or the index can't be
+	 *             built
+	 */
+	public MMappedPoints(final File file, final int recordSize,
+			final ByteOrder order) throws IOException {
+		super(Constants.DEFAULT_POINT_COLOR, Constants.DEFAULT_POINT_FILL,
+				null, Constants.DEFAULT_POINT_STROKE,
+				Constants.DEFAULT_MAPPED_POINTS_LAYER, false);
+		if (recordSize < 16) {
+			throw new IllegalArgumentException(
+					Constants.ERROR_MESSAGE_RECORD_SIZE);
+		}
+		this.file = file;
+		this.recordSize = recordSize;
+		this.order = order;
+		this.blockRecords = Constants.MAPPED_POINTS_BLOCK_RECORDS;
+
+		try (final FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ)) {
+			this.recordCount = channel.size() / recordSize;
+			this.blockCount = (int) ((this.recordCount + this.blockRecords - 1) / this.blockRecords);
+			this.recordsPerChunk = Constants.MAPPED_POINTS_CHUNK_BYTES
+					/ recordSize / this.blockRecords * this.blockRecords;
+			final int chunkCount = (int) ((this.recordCount
+					+ this.recordsPerChunk - 1) / this.recordsPerChunk);
+			final MappedByteBuffer[] mapped = new MappedByteBuffer[chunkCount];
+			for (int i = 0; i < chunkCount; i++) {
+				final long first = i * this.recordsPerChunk;
+				final long records = Math.min(this.recordsPerChunk,
+						this.recordCount - first);
+				mapped[i] = channel.map(FileChannel.MapMode.READ_ONLY, first
+						* recordSize, records * recordSize);
+				mapped[i].order(order);
+			}
+			this.chunks = mapped;
+		}
+
+		final MappedByteBuffer mappedIndex = this.openIndex(order);
+		this.index = mappedIndex;
+		this.minX = mappedIndex.getDouble(INDEX_BOUNDS);
+		this.minY = mappedIndex.getDouble(INDEX_BOUNDS + 8);
+		this.maxX = mappedIndex.getDouble(INDEX_BOUNDS + 16);
+		this.maxY = mappedIndex.getDouble(INDEX_BOUNDS + 24);
+	}
+
+	/**
+	 * Releases the mapped file and its index. The points are no longer
+	 * painted or exported and reading them throws an exception. The mapping
+	 * itself is unmapped by the garbage collector, once a painting that has
+	 * already started is over.
+	 */
+	public void close() {
+		this.chunks = null;
+		this.index = null;
+	}
+
+	/**
+	 * Maps the index of the file, building it first if it is missing or out
+	 * of date.
+	 */
+	private MappedByteBuffer openIndex(final ByteOrder order)
+			throws IOException {
+		File indexFile = new File(this.file.getPath()
+				+ Constants.MAPPED_POINTS_INDEX_SUFFIX);
+		if (indexFile.isFile()) {
+			final MappedByteBuffer index = mapIndex(indexFile);
+			if (index != null && this.isIndexValid(index, order)) {
+				return index;
+			}
+		}
+		try {
+			this.buildIndex(indexFile, order);
+		}
+		catch (final IOException e) {
+			// The directory may be read-only
+			indexFile = File.createTempFile(this.file.getName(),
+					Constants.MAPPED_POINTS_INDEX_SUFFIX);
+			indexFile.deleteOnExit();
+			this.buildIndex(indexFile, order);
+		}
+		return mapIndex(indexFile);
+	}
+
+	/**
+	 * @return The mapped index, <code>null</code> if it is too short to be an
+	 *         index
+	 */
+	private static MappedByteBuffer mapIndex(final File indexFile)
+			throws IOException {
+		try (final FileChannel channel = FileChannel.open(indexFile.toPath(),
+				StandardOpenOption.READ)) {
+			if (channel.size() < INDEX_HEADER) {
+				return null;
+			}
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the index has been built for this file in
+	 *         its current state
+	 */
+	private boolean isIndexValid(final ByteBuffer index, final ByteOrder order) {
+		return index.getLong(0) == Constants.MAPPED_POINTS_INDEX_MAGIC
+				&& index.getInt(INDEX_RECORD_SIZE) == this.recordSize
+				&& index.getInt(INDEX_BLOCK_RECORDS) == this.blockRecords
+				&& index.getLong(INDEX_RECORD_COUNT) == this.recordCount
+				&& index.getLong(INDEX_LAST_MODIFIED) == this.file
+						.lastModified()
+				&& index.getInt(INDEX_BYTE_ORDER) == (order == ByteOrder.BIG_ENDIAN ? 1
+						: 0)
+				&& index.capacity() == INDEX_HEADER + (long) this.blockCount
+						* INDEX_BLOCK;
+	}
+
+	/**
+	 * Builds the index by one pass through the file, writing the bounds of
+	 * the blocks as they are found. Points with NaN coordinates don't count
+	 * into the bounds. The header is written last, so an interrupted build
+	 * leaves an invalid index.
+	 */
+	private void buildIndex(final File indexFile, final ByteOrder order)
+			throws IOException {
+		double allMinX = Double.POSITIVE_INFINITY;
+		double allMinY = Double.POSITIVE_INFINITY;
+		double allMaxX = Double.NEGATIVE_INFINITY;
+		double allMaxY = Double.NEGATIVE_INFINITY;
+		try (final FileChannel channel = FileChannel.open(indexFile.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			final ByteBuffer blocks = ByteBuffer.allocate(1024 * INDEX_BLOCK);
+			channel.position(INDEX_HEADER);
+			for (int b = 0; b < this.blockCount; b++) {
+				double bMinX = Double.POSITIVE_INFINITY;
+				double bMinY = Double.POSITIVE_INFINITY;
+				double bMaxX = Double.NEGATIVE_INFINITY;
+				double bMaxY = Double.NEGATIVE_INFINITY;
+				final long first = (long) b * this.blockRecords;
+				final long last = Math.min(first + this.blockRecords,
+						this.recordCount);
+				final ByteBuffer chunk = this.chunks[(int) (first / this.recordsPerChunk)];
+				int offset = (int) (first % this.recordsPerChunk)
+						* this.recordSize;
+				for (long i = first; i < last; i++) {
+					final double x = chunk.getDouble(offset);
+					final double y = chunk.getDouble(offset + 8);
+					offset += this.recordSize;
+					// NaN fails all the comparisons
+					if (x < bMinX) {
+						bMinX = x;
+					}
+					if (x > bMaxX) {
+						bMaxX = x;
+					}
+					if (y < bMinY) {
+						bMinY = y;
+					}
+					if (y > bMaxY) {
+						bMaxY = y;
+					}
+				}
+				blocks.putDouble(bMinX).putDouble(bMinY).putDouble(bMaxX)
+						.putDouble(bMaxY);
+				if (!blocks.hasRemaining()) {
+					writeFully(channel, blocks);
+				}
+				allMinX = Math.min(allMinX, bMinX);
+				allMinY = Math.min(allMinY, bMinY);
+				allMaxX = Math.max(allMaxX, bMaxX);
+				allMaxY = Math.max(allMaxY, bMaxY);
+			}
+			writeFully(channel, blocks);
+
+			// No points at all
+			if (allMinX > allMaxX) {
+				allMinX = allMinY = allMaxX = allMaxY = 0;
+			}
+			final ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER);
+			header.putLong(Constants.MAPPED_POINTS_INDEX_MAGIC)
+					.putInt(this.recordSize).putInt(this.blockRecords)
+					.putLong(this.recordCount)
+					.putLong(this.file.lastModified())
+					.putInt(order == ByteOrder.BIG_ENDIAN ? 1 : 0).putInt(0)
+					.putDouble(allMinX).putDouble(allMinY).putDouble(allMaxX)
+					.putDouble(allMaxY);
+			channel.position(0);
+			writeFully(channel, header);
+		}
+	}
+
+	private static void writeFully(final FileChannel channel,
+			final ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * @return The number of points
+	 */
+	public long size() {
+		return this.recordCount;
+	}
+
+	/**
+	 * @return The mapped file
+	 */
+	public File getFile() {
+		return this.file;
+	}
+
+	/**
+	 * @param i The number of the point
+	 * @return The x coordinate of the point, translated
+	 */
+	public double getX(final long i) {
+		return this.getChunk((int) (i / this.recordsPerChunk)).getDouble(
+				this.offset(i))
+				+ this.getTranslateX();
+	}
+
+	/**
+	 * @param i The number of the point
+	 * @return The y coordinate of the point, translated
+	 */
+	public double getY(final long i) {
+		return this.getChunk((int) (i / this.recordsPerChunk)).getDouble(
+				this.offset(i) + 8)
+				+ this.getTranslateY();
+	}
+
+	/**
+	 * @param c The number of the chunk
+	 * @return The mapped chunk
+	 * @throws IllegalStateException If the points have been closed
+	 */
+	MappedByteBuffer getChunk(final int c) {
+		final MappedByteBuffer[] mapped = this.chunks;
+		if (mapped == null) {
+			throw new IllegalStateException(
+					Constants.ERROR_MESSAGE_MAPPED_POINTS_CLOSED);
+		}
+		return mapped[c];
+	}
+
+	/**
+	 * @return The offset of the record in its chunk
+	 */
+	int offset(final long i) {
+		if (i < 0 || i >= this.recordCount) {
+			throw new IndexOutOfBoundsException("Point " + i + ", points: "
+					+ this.recordCount);
+		}
+		return (int) (i % this.recordsPerChunk) * this.recordSize;
+	}
+
+	/**
+	 * @return The size of a record in bytes
+	 */
+	int getRecordSize() {
+		return this.recordSize;
+	}
+
+	/**
+	 * @return The byte order of the records
+	 */
+	ByteOrder getByteOrder() {
+		return this.order;
+	}
+
+	/**
+	 * @return The bounds of the points as stored in the file, not translated
+	 */
+	MBoundingBox getFileBounds() {
+		return new MBoundingBox(this.minX, this.minY, this.maxX - this.minX,
+				this.maxY - this.minY);
+	}
+
+	/**
+	 * @return The radius of the points
+	 */
+	public synchronized double getRadius() {
+		return this.radius;
+	}
+
+	/**
+	 * @return The offset of the ARGB color within the record, negative if the
+	 *         points have the color of this object
+	 */
+	public synchronized int getColorAttribute() {
+		return this.colorOffset;
+	}
+
+	synchronized double getTranslateX() {
+		return this.translateX;
+	}
+
+	synchronized double getTranslateY() {
+		return this.translateY;
+	}
+
+	/**
+	 * Sets the radius of all the points.
+	 *
+	 * @param radius The new radius
+	 * @return The points with modified radius
+	 */
+	public synchronized MMappedPoints radius(final double radius) {
+		this.radius = radius;
+		return this;
+	}
+
+	/**
+	 * Colors every point by an ARGB <code>int</code> attribute of its record
+	 * instead of the color of this object.
+	 *
+	 * @param offset The offset of the attribute from the start of the record,
+	 *            negative to use the color of this object again
+	 * @return The points colored by the attribute
+	 */
+	public synchronized MMappedPoints colorAttribute(final int offset) {
+		if (offset > this.recordSize - 4 || offset >= 0 && offset < 16) {
+			throw new IllegalArgumentException(
+					Constants.ERROR_MESSAGE_COLOR_ATTRIBUTE + offset);
+		}
+		this.colorOffset = offset;
+		return this;
+	}
+
+	@Override
+	public MMappedPoints draw(final Canvas canvas) {
+		super.doDraw(canvas);
+		return this;
+	}
+
+	@Override
+	public MMappedPoints color(final Color color) {
+		super.setColor(color);
+		return this;
+	}
+
+	@Override
+	public MMappedPoints fill(final boolean value) {
+		super.setFill(value);
+		return this;
+	}
+
+	@Override
+	public MMappedPoints stroke(final MStroke stroke) {
+		super.setStroke(stroke);
+		return this;
+	}
+
+	@Override
+	public MMappedPoints style(final MStyle style) {
+		super.setStyle(style);
+		return this;
+	}
+
+	@Override
+	public MMappedPoints layer(final int layer) {
+		super.setLayer(layer);
+		return this;
+	}
+
+	@Override
+	public MMappedPoints label(final String labelText) {
+		return this.label(labelText, Constants.DEFAULT_RECTANGLE_LABEL_POSITION);
+	}
+
+	@Override
+	public MMappedPoints label(final String labelText, final double angleDeg) {
+		super.setLabel(labelText, angleDeg);
+		return this;
+	}
+
+	@Override
+	public MMappedPoints label(final MLabel label) {
+		label.parent(this);
+		super.setLabel(label);
+		return this;
+	}
+
+	@Override
+	public MMappedPoints labelStyle(final MStyle style) {
+		super.setLabelStyle(style);
+		return this;
+	}
+
+	/**
+	 * Moves all the points by the given vector. The file is not modified.
+	 */
+	@Override
+	public synchronized MMappedPoints translate(final double dx,
+			final double dy) {
+		this.translateX += dx;
+		this.translateY += dy;
+		return this;
+	}
+
+	@Override
+	public MMappedPoints zoomIndifferent(final boolean value) {
+		super.setZoomIndifference(value);
+		return this;
+	}
+
+	@Override
+	public MCoordinate getLabelBaseCoordinate() {
+		final MBoundingBox bb = this.getBoundingRectangle();
+		return new MCoordinate(bb.x + bb.width / 2, bb.y + bb.height / 2);
+	}
+
+	@Override
+	public MCoordinate getLabelCoordinates(final double angleDeg) {
+		final MBoundingBox bb = this.getBoundingRectangle();
+		return LabelPositioningUtils.getAutoPlacementToRectangle(angleDeg, bb,
+				super.getLabelDimensions());
+	}
+
+	/**
+	 * The bounds of the centers of the points, known from the index.
+	 */
+	@Override
+	public synchronized MBoundingBox getBoundingRectangle() {
+		return new MBoundingBox(this.minX + this.translateX, this.minY
+				+ this.translateY, this.maxX - this.minX, this.maxY - this.minY);
+	}
+
+	@Override
+	synchronized MBoundingBox getCullingBounds() {
+		if (this.recordCount == 0) {
+			return null;
+		}
+		final MBoundingBox bounds = this.getBoundingRectangle();
+		return new MBoundingBox(bounds.x - this.radius, bounds.y - this.radius,
+				bounds.width + 2 * this.radius, bounds.height + 2 * this.radius);
+	}
+
+}
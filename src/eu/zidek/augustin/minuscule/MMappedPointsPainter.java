@@ -0,0 +1,137 @@
+package eu.zidek.augustin.minuscule;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Shape;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A Painter for MMappedPoints. It streams over the mapped records: the
+ * blocks whose bounds are out of the clip are skipped by the index, the
+ * points of the other blocks are read one by one and painted the same way as
+ * the points by their painter, reusing one shape. Nothing is allocated per point, unless the points have their own
+ * colors, which are then created only when the color changes.
+ *
+ * @author Augustin Zidek
+ *
+ */
+public class MMappedPointsPainter implements SVGPainter {
+
+	@Override
+	public void paint(final MGeometricObject object, final Graphics2D g2d) {
+		final MMappedPoints points = (MMappedPoints) object;
+		final double scale = Math.abs(g2d.getTransform().getScaleX());
+		final double radius = points.isZoomIndifferent() ? points.getRadius()
+				/ scale : points.getRadius();
+		final int colorOffset = points.getColorAttribute();
+		final double tx = points.getTranslateX();
+		final double ty = points.getTranslateY();
+		final boolean fill = points.isFill();
+		// Kept for the whole painting, even if the points are closed meanwhile
+		final ByteBuffer index = points.index;
+		final ByteBuffer[] chunks = points.chunks;
+		if (index == null || chunks == null) {
+			return;
+		}
+
+		// The clip in the file coordinates, grown by the point and a pixel
+		// touched by the antialiasing
+		final Shape clip = g2d.getClip();
+		final Rectangle2D view = clip != null ? clip.getBounds2D() : null;
+		if (view != null) {
+			final double margin = radius
+					+ DrawList.getStrokeReach(points.getStroke()) + 1 / scale;
+			view.setRect(view.getX() - tx - margin, view.getY() - ty - margin,
+					view.getWidth() + 2 * margin, view.getHeight() + 2 * margin);
+		}
+
+		MStyle.apply(g2d, points.getColor(), points.getStroke());
+		final Ellipse2D.Double point = new Ellipse2D.Double();
+		int lastArgb = 0;
+		Color lastColor = null;
+		for (int b = 0; b < points.blockCount; b++) {
+			if (view != null && !intersects(index, b, view)) {
+				continue;
+			}
+			final long first = (long) b * points.blockRecords;
+			final long last = Math.min(first + points.blockRecords,
+					points.recordCount);
+			final ByteBuffer chunk = chunks[(int) (first / points.recordsPerChunk)];
+			final int recordSize = points.getRecordSize();
+			int offset = points.offset(first);
+			for (long i = first; i < last; i++, offset += recordSize) {
+				final double x = chunk.getDouble(offset);
+				final double y = chunk.getDouble(offset + 8);
+				if (view != null && !view.contains(x, y)) {
+					continue;
+				}
+				if (colorOffset >= 0) {
+					final int argb = chunk.getInt(offset + colorOffset);
+					if (lastColor == null || argb != lastArgb) {
+						lastColor = new Color(argb, true);
+						lastArgb = argb;
+						g2d.setColor(lastColor);
+					}
+				}
+				point.setFrame(x + tx - radius, y + ty - radius, radius * 2,
+						radius * 2);
+				if (fill) {
+					g2d.fill(point);
+				}
+				else {
+					g2d.draw(point);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the bounds of the block intersect the view.
+	 *         Blocks with no points have inverted bounds, so they never do.
+	 */
+	private static boolean intersects(final ByteBuffer index, final int block,
+			final Rectangle2D view) {
+		final int at = MMappedPoints.INDEX_HEADER + block
+				* MMappedPoints.INDEX_BLOCK;
+		return index.getDouble(at + 16) >= view.getMinX()
+				&& index.getDouble(at) <= view.getMaxX()
+				&& index.getDouble(at + 24) >= view.getMinY()
+				&& index.getDouble(at + 8) <= view.getMaxY();
+	}
+
+	/**
+	 * Exports all the points, streaming them into the writer.
+	 */
+	@Override
+	public void paintSVG(final MGeometricObject object, final SVGWriter svg)
+			throws IOException {
+		final MMappedPoints points = (MMappedPoints) object;
+		final double radius = points.isZoomIndifferent() ? points.getRadius()
+				/ svg.getScale() : points.getRadius();
+		final int colorOffset = points.getColorAttribute();
+		final double tx = points.getTranslateX();
+		final double ty = points.getTranslateY();
+		final ByteBuffer[] chunks = points.chunks;
+		if (chunks == null) {
+			return;
+		}
+		int lastArgb = 0;
+		Color color = points.getColor();
+		for (long i = 0; i < points.recordCount; i++) {
+			final ByteBuffer chunk = chunks[(int) (i / points.recordsPerChunk)];
+			final int offset = points.offset(i);
+			if (colorOffset >= 0) {
+				final int argb = chunk.getInt(offset + colorOffset);
+				if (i == 0 || argb != lastArgb) {
+					color = new Color(argb, true);
+					lastArgb = argb;
+				}
+			}
+			svg.circle(chunk.getDouble(offset) + tx, chunk.getDouble(offset + 8)
+					+ ty, radius, color, points.getStroke(), points.isFill());
+		}
+	}
+}
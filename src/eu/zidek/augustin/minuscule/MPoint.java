@@ -109,13 +109,7 @@ public class MPoint extends MGeometricObject {
 
 	@Override
 	public MPoint label(final String labelText, final double angleDeg) {
-		final MLabel label = new MLabel(labelText);
-		// Set text, parent and position set by parent to true. Since position
-		// set by parent set, no need to set coordinates.
-		label.text(labelText);
-		label.parent(this);
-		label.positionSetByParent(true, angleDeg);
-		super.setLabel(label);
+		super.setLabel(labelText, angleDeg);
 		return this;
 	}
 
@@ -127,6 +121,12 @@ public class MPoint extends MGeometricObject {
 		return this;
 	}
 
+	@Override
+	public MPoint labelStyle(final MStyle style) {
+		super.setLabelStyle(style);
+		return this;
+	}
+
 	@Override
 	public MPoint color(final Color color) {
 		super.setColor(color);
@@ -145,6 +145,12 @@ public class MPoint extends MGeometricObject {
 		return this;
 	}
 
+	@Override
+	public MPoint style(final MStyle style) {
+		super.setStyle(style);
+		return this;
+	}
+
 	@Override
 	public MPoint layer(final int layer) {
 		super.setLayer(layer);
@@ -192,4 +198,9 @@ public class MPoint extends MGeometricObject {
 		return new MBoundingBox(x, y, this.radius * 2, this.radius * 2);
 	}
 
+	@Override
+	MBoundingBox getCullingBounds() {
+		return this.getBoundingRectangle();
+	}
+
 }
@@ -2,6 +2,7 @@ package eu.zidek.augustin.minuscule;
 
 import java.awt.Graphics2D;
 import java.awt.geom.Ellipse2D;
+import java.io.IOException;
 
 /**
  * A Painter for points.
@@ -9,7 +10,7 @@ import java.awt.geom.Ellipse2D;
  * @author Augustin Zidek
  *
  */
-public class MPointPainter implements MGeometricObjectPainter {
+public class MPointPainter implements SVGPainter {
 
 	@Override
 	public void paint(final MGeometricObject pointObject, final Graphics2D g2d) {
@@ -29,8 +30,7 @@ public class MPointPainter implements MGeometricObjectPainter {
 		// upper-left corner of the bounding rectangle
 		final Ellipse2D point = new Ellipse2D.Double(object.getX() - radius,
 				object.getY() - radius, diameter, diameter);
-		g2d.setStroke(object.getStroke());
-		g2d.setColor(object.getColor());
+		MStyle.apply(g2d, object.getColor(), object.getStroke());
 
 		// Fill or draw
 		if (object.isFill()) {
@@ -40,4 +40,21 @@ public class MPointPainter implements MGeometricObjectPainter {
 			g2d.draw(point);
 		}
 	}
+
+	@Override
+	public void paintSVG(final MGeometricObject pointObject,
+			final SVGWriter svg) throws IOException {
+		final MPoint object = (MPoint) pointObject;
+
+		// If zoom indifferent, divide the radius by the zoom
+		final double radius;
+		if (object.isZoomIndifferent()) {
+			radius = object.getRadius() / svg.getScale();
+		}
+		else {
+			radius = object.getRadius();
+		}
+		svg.circle(object.getX(), object.getY(), radius, object.getColor(),
+				object.getStroke(), object.isFill());
+	}
 }
@@ -0,0 +1,533 @@
+package eu.zidek.augustin.minuscule;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Points of a point pyramid built by {@link PointPyramidBuilder}, drawn onto
+ * the canvas as one geometric object. Only the nodes of the pyramid in the
+ * view and detailed enough for the current zoom are painted, so the cost of a
+ * frame depends on the size of the view, not on the number of points.
+ * <p>
+ * The nodes are loaded on a background thread into a cache of a bounded
+ * number of points, from which the least recently painted nodes are evicted.
+ * A node not loaded yet is requested and the frame is painted without it
+ * (and its children), so the coarse levels are shown until the finer ones
+ * arrive. Every arriving node repaints the canvas.
+ * </p>
+ *
+ * <pre>
+ * MPointPyramid points = new MPointPyramid(pyramid).cacheCapacity(4000000)
+ * 		.draw(canvas);
+ * ...
+ * points.close();
+ * </pre>
+ *
+ * @author Augustin Zidek
+ *
+ */
+public class MPointPyramid extends MGeometricObject {
+	private final File file;
+	private final FileChannel channel;
+	private final int recordSize;
+	private final ByteOrder order;
+	final int nodeCount;
+	final int gridSize;
+	private final long pointCount;
+	// The table of the nodes, see PointPyramidBuilder for the layout
+	final MappedByteBuffer table;
+	private final double minX;
+	private final double minY;
+	private final double maxX;
+	private final double maxY;
+
+	// The loaded nodes in the order of their use, guarded by itself
+	private final LinkedHashMap<Integer, Node> cache = new LinkedHashMap<>(16,
+			0.75f, true);
+	// Nodes being loaded, guarded by the cache
+	private final Set<Integer> pending = new HashSet<>();
+	// Points in the cache, guarded by the cache
+	private long cachedPoints = 0;
+	private final ExecutorService loader;
+	// The canvas the points are drawn on, repainted when a node is loaded
+	private volatile Canvas canvas;
+
+	// Guarded by this
+	private long cacheCapacity = Constants.DEFAULT_PYRAMID_CACHE_POINTS;
+	private double pointSpacing = Constants.DEFAULT_PYRAMID_POINT_SPACING;
+	private double radius = Constants.DEFAULT_MAPPED_POINTS_RADIUS;
+	private int colorOffset = -1;
+	private double translateX = 0;
+	private double translateY = 0;
+
+	/**
+	 * Points of one loaded node.
+	 */
+	static final class Node {
+		// x and y interleaved
+		final double[] coords;
+		// ARGB colors, null if the points have the color of the pyramid
+		final int[] colors;
+		// The offset of the colors in the records, negative if none
+		final int colorOffset;
+
+		Node(final double[] coords, final int[] colors, final int colorOffset) {
+			this.coords = coords;
+			this.colors = colors;
+			this.colorOffset = colorOffset;
+		}
+	}
+
+	/**
+	 * Opens the pyramid. The file stays open until <code>close()</code>.
+	 *
+	 * @param file The file of the pyramid
+	 * @throws IOException If the file can't be read or is not a pyramid
+	 */
+	public MPointPyramid(final File file) throws IOException {
+		super(Constants.DEFAULT_POINT_COLOR, Constants.DEFAULT_POINT_FILL,
+				null, Constants.DEFAULT_POINT_STROKE,
+				Constants.DEFAULT_MAPPED_POINTS_LAYER, false);
+		this.file = file;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			final ByteBuffer header = ByteBuffer
+					.allocate(PointPyramidBuilder.HEADER);
+			while (header.hasRemaining()
+					&& this.channel.read(header, header.position()) >= 0) {
+				// Reading the whole header
+			}
+			if (header.hasRemaining()
+					|| header.getLong(0) != Constants.PYRAMID_MAGIC) {
+				throw new IOException(Constants.ERROR_MESSAGE_NOT_PYRAMID
+						+ file);
+			}
+			this.recordSize = header
+					.getInt(PointPyramidBuilder.HEADER_RECORD_SIZE);
+			this.order = header.getInt(PointPyramidBuilder.HEADER_BYTE_ORDER) == 1 ? ByteOrder.BIG_ENDIAN
+					: ByteOrder.LITTLE_ENDIAN;
+			this.nodeCount = header
+					.getInt(PointPyramidBuilder.HEADER_NODE_COUNT);
+			this.gridSize = header
+					.getInt(PointPyramidBuilder.HEADER_GRID_SIZE);
+			this.pointCount = header
+					.getLong(PointPyramidBuilder.HEADER_POINT_COUNT);
+			final int bounds = PointPyramidBuilder.HEADER_BOUNDS;
+			this.minX = header.getDouble(bounds);
+			this.minY = header.getDouble(bounds + 8);
+			this.maxX = header.getDouble(bounds + 16);
+			this.maxY = header.getDouble(bounds + 24);
+			this.table = this.channel.map(FileChannel.MapMode.READ_ONLY,
+					header.getLong(PointPyramidBuilder.HEADER_TABLE_OFFSET),
+					(long) this.nodeCount * PointPyramidBuilder.NODE);
+		}
+		catch (final IOException | RuntimeException e) {
+			this.channel.close();
+			throw e;
+		}
+		this.loader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r,
+						Constants.PYRAMID_LOADER_THREAD_NAME);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Stops the loading and closes the file. The loaded nodes are still
+	 * painted.
+	 *
+	 * @throws IOException If the file can't be closed
+	 */
+	public void close() throws IOException {
+		this.loader.shutdownNow();
+		this.channel.close();
+	}
+
+	/**
+	 * @return The number of points in the pyramid
+	 */
+	public long size() {
+		return this.pointCount;
+	}
+
+	/**
+	 * @return The file of the pyramid
+	 */
+	public File getFile() {
+		return this.file;
+	}
+
+	/**
+	 * @return The number of points in the loaded nodes
+	 */
+	public long getCachedPoints() {
+		synchronized (this.cache) {
+			return this.cachedPoints;
+		}
+	}
+
+	// The table of the nodes
+
+	double nodeMinX(final int node) {
+		return this.table.getDouble(node * PointPyramidBuilder.NODE);
+	}
+
+	double nodeMinY(final int node) {
+		return this.table.getDouble(node * PointPyramidBuilder.NODE + 8);
+	}
+
+	double nodeSide(final int node) {
+		return this.table.getDouble(node * PointPyramidBuilder.NODE
+				+ PointPyramidBuilder.NODE_SIDE);
+	}
+
+	int nodePoints(final int node) {
+		return this.table.getInt(node * PointPyramidBuilder.NODE
+				+ PointPyramidBuilder.NODE_POINTS);
+	}
+
+	/**
+	 * @return The child in the quadrant <code>q</code> (x + 2y), negative if
+	 *         none
+	 */
+	int nodeChild(final int node, final int q) {
+		return this.table.getInt(node * PointPyramidBuilder.NODE
+				+ PointPyramidBuilder.NODE_CHILDREN + 4 * q);
+	}
+
+	/**
+	 * Gets the loaded node, marking it as recently used. If not loaded, the
+	 * node is requested to be loaded in the background.
+	 *
+	 * @param node The number of the node
+	 * @return The node, <code>null</code> if not loaded yet
+	 */
+	Node getNode(final int node) {
+		final Integer key = Integer.valueOf(node);
+		synchronized (this.cache) {
+			final Node loaded = this.cache.get(key);
+			if (loaded != null || !this.pending.add(key)) {
+				return loaded;
+			}
+		}
+		try {
+			this.loader.execute(new Runnable() {
+				@Override
+				public void run() {
+					MPointPyramid.this.loadInBackground(key);
+				}
+			});
+		}
+		catch (final RejectedExecutionException e) {
+			// Closed, nothing more is loaded
+		}
+		return null;
+	}
+
+	/**
+	 * Loads the node into the cache, evicting the least recently used nodes
+	 * over the capacity, and repaints the canvas.
+	 */
+	private void loadInBackground(final Integer key) {
+		Node node = null;
+		try {
+			node = this.loadNode(key.intValue());
+		}
+		catch (final IOException e) {
+			// Closed or unreadable, the node is requested again by the next
+			// frame if still open
+		}
+		final long capacity = this.getCacheCapacity();
+		final int colors = this.getColorAttribute();
+		synchronized (this.cache) {
+			this.pending.remove(key);
+			// Loaded with the colors changed meanwhile
+			if (node == null || node.colorOffset != colors) {
+				return;
+			}
+			this.cache.put(key, node);
+			this.cachedPoints += node.coords.length / 2;
+			final Iterator<Node> eldest = this.cache.values().iterator();
+			while (this.cachedPoints > capacity && eldest.hasNext()) {
+				final Node evicted = eldest.next();
+				// The node just loaded stays
+				if (evicted == node) {
+					break;
+				}
+				this.cachedPoints -= evicted.coords.length / 2;
+				eldest.remove();
+			}
+		}
+		final Canvas c = this.canvas;
+		if (c != null) {
+			c.requestRepaint();
+		}
+	}
+
+	/**
+	 * Reads the points of the node from the file.
+	 *
+	 * @param node The number of the node
+	 * @return The points of the node
+	 * @throws IOException If the node can't be read
+	 */
+	Node loadNode(final int node) throws IOException {
+		final int colors = this.getColorAttribute();
+		final int points = this.nodePoints(node);
+		final long offset = this.table.getLong(node * PointPyramidBuilder.NODE
+				+ PointPyramidBuilder.NODE_OFFSET);
+		final ByteBuffer data = ByteBuffer.allocate(points * this.recordSize)
+				.order(this.order);
+		while (data.hasRemaining()) {
+			if (this.channel.read(data, offset + data.position()) < 0) {
+				throw new IOException(Constants.ERROR_MESSAGE_NOT_PYRAMID
+						+ this.file);
+			}
+		}
+		final double[] coords = new double[2 * points];
+		final int[] argb = colors >= 0 ? new int[points] : null;
+		for (int i = 0; i < points; i++) {
+			final int at = i * this.recordSize;
+			coords[2 * i] = data.getDouble(at);
+			coords[2 * i + 1] = data.getDouble(at + 8);
+			if (argb != null) {
+				argb[i] = data.getInt(at + colors);
+			}
+		}
+		return new Node(coords, argb, colors);
+	}
+
+	/**
+	 * Evicts all the nodes, they are loaded again when needed.
+	 */
+	private void clearCache() {
+		synchronized (this.cache) {
+			this.cache.clear();
+			this.cachedPoints = 0;
+		}
+	}
+
+	/**
+	 * @return The maximum number of points in the loaded nodes
+	 */
+	public synchronized long getCacheCapacity() {
+		return this.cacheCapacity;
+	}
+
+	/**
+	 * @return The distance in pixels between the points of a level above
+	 *         which the finer level is painted
+	 */
+	public synchronized double getPointSpacing() {
+		return this.pointSpacing;
+	}
+
+	/**
+	 * @return The radius of the points
+	 */
+	public synchronized double getRadius() {
+		return this.radius;
+	}
+
+	/**
+	 * @return The offset of the ARGB color within the record, negative if the
+	 *         points have the color of this object
+	 */
+	public synchronized int getColorAttribute() {
+		return this.colorOffset;
+	}
+
+	synchronized double getTranslateX() {
+		return this.translateX;
+	}
+
+	synchronized double getTranslateY() {
+		return this.translateY;
+	}
+
+	/**
+	 * Sets the maximum number of points in the loaded nodes. A frame paints
+	 * at most half of them, so that the nodes of one frame don't evict each
+	 * other. The default is 2 000 000, about 40 MB.
+	 *
+	 * @param points The capacity of the cache in points
+	 * @return The pyramid with modified cache capacity
+	 */
+	public synchronized MPointPyramid cacheCapacity(final long points) {
+		this.cacheCapacity = Math.max(1, points);
+		return this;
+	}
+
+	/**
+	 * Sets the detail of the painted levels: a finer level is painted when
+	 * the points of the coarser one are further apart than the given number
+	 * of pixels. The default is 2.
+	 *
+	 * @param pixels The spacing of the points in pixels
+	 * @return The pyramid with modified spacing
+	 */
+	public synchronized MPointPyramid pointSpacing(final double pixels) {
+		this.pointSpacing = pixels;
+		return this;
+	}
+
+	/**
+	 * Sets the radius of all the points.
+	 *
+	 * @param radius The new radius
+	 * @return The points with modified radius
+	 */
+	public synchronized MPointPyramid radius(final double radius) {
+		this.radius = radius;
+		return this;
+	}
+
+	/**
+	 * Colors every point by an ARGB <code>int</code> attribute of its record
+	 * instead of the color of this object. The loaded nodes are loaded again.
+	 *
+	 * @param offset The offset of the attribute from the start of the record,
+	 *            negative to use the color of this object again
+	 * @return The points colored by the attribute
+	 */
+	public MPointPyramid colorAttribute(final int offset) {
+		if (offset > this.recordSize - 4 || offset >= 0 && offset < 16) {
+			throw new IllegalArgumentException("Offset " + offset
+					+ " is out of the attributes of the record.");
+		}
+		synchronized (this) {
+			this.colorOffset = offset;
+		}
+		this.clearCache();
+		return this;
+	}
+
+	@Override
+	public MPointPyramid draw(final Canvas canvas) {
+		this.canvas = canvas;
+		super.doDraw(canvas);
+		return this;
+	}
+
+	@Override
+	public MPointPyramid color(final Color color) {
+		super.setColor(color);
+		return this;
+	}
+
+	@Override
+	public MPointPyramid fill(final boolean value) {
+		super.setFill(value);
+		return this;
+	}
+
+	@Override
+	public MPointPyramid stroke(final MStroke stroke) {
+		super.setStroke(stroke);
+		return this;
+	}
+
+	@Override
+	public MPointPyramid style(final MStyle style) {
+		super.setStyle(style);
+		return this;
+	}
+
+	@Override
+	public MPointPyramid layer(final int layer) {
+		super.setLayer(layer);
+		return this;
+	}
+
+	@Override
+	public MPointPyramid label(final String labelText) {
+		return this.label(labelText, Constants.DEFAULT_RECTANGLE_LABEL_POSITION);
+	}
+
+	@Override
+	public MPointPyramid label(final String labelText, final double angleDeg) {
+		super.setLabel(labelText, angleDeg);
+		return this;
+	}
+
+	@Override
+	public MPointPyramid label(final MLabel label) {
+		label.parent(this);
+		super.setLabel(label);
+		return this;
+	}
+
+	@Override
+	public MPointPyramid labelStyle(final MStyle style) {
+		super.setLabelStyle(style);
+		return this;
+	}
+
+	/**
+	 * Moves all the points by the given vector. The file is not modified.
+	 */
+	@Override
+	public synchronized MPointPyramid translate(final double dx,
+			final double dy) {
+		this.translateX += dx;
+		this.translateY += dy;
+		return this;
+	}
+
+	@Override
+	public MPointPyramid zoomIndifferent(final boolean value) {
+		super.setZoomIndifference(value);
+		return this;
+	}
+
+	@Override
+	public MCoordinate getLabelBaseCoordinate() {
+		final MBoundingBox bb = this.getBoundingRectangle();
+		return new MCoordinate(bb.x + bb.width / 2, bb.y + bb.height / 2);
+	}
+
+	@Override
+	public MCoordinate getLabelCoordinates(final double angleDeg) {
+		final MBoundingBox bb = this.getBoundingRectangle();
+		return LabelPositioningUtils.getAutoPlacementToRectangle(angleDeg, bb,
+				super.getLabelDimensions());
+	}
+
+	/**
+	 * The bounds of the centers of the points, known from the header.
+	 */
+	@Override
+	public synchronized MBoundingBox getBoundingRectangle() {
+		return new MBoundingBox(this.minX + this.translateX, this.minY
+				+ this.translateY, this.maxX - this.minX, this.maxY - this.minY);
+	}
+
+	@Override
+	synchronized MBoundingBox getCullingBounds() {
+		if (this.pointCount == 0) {
+			return null;
+		}
+		final MBoundingBox bounds = this.getBoundingRectangle();
+		return new MBoundingBox(bounds.x - this.radius, bounds.y - this.radius,
+				bounds.width + 2 * this.radius, bounds.height + 2 * this.radius);
+	}
+
+}
@@ -0,0 +1,176 @@
+package eu.zidek.augustin.minuscule;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Shape;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A Painter for MPointPyramids. It goes through the pyramid breadth first,
+ * i.e. from the coarse levels to the fine ones: the nodes out of the clip are
+ * skipped, the loaded nodes are painted and their children are visited only
+ * if the points of the node are too far apart on the screen. At most half of
+ * the cache capacity is painted per frame, the finest levels are left out
+ * beyond it. The points are painted the same way as the points by their
+ * painter, reusing one shape.
+ *
+ * @author Augustin Zidek
+ *
+ */
+public class MPointPyramidPainter implements SVGPainter {
+
+	@Override
+	public void paint(final MGeometricObject object, final Graphics2D g2d) {
+		final MPointPyramid pyramid = (MPointPyramid) object;
+		final double scale = Math.abs(g2d.getTransform().getScaleX());
+		final double radius = pyramid.isZoomIndifferent() ? pyramid
+				.getRadius() / scale : pyramid.getRadius();
+		final double tx = pyramid.getTranslateX();
+		final double ty = pyramid.getTranslateY();
+		final boolean fill = pyramid.isFill();
+		final double spacing = pyramid.getPointSpacing();
+		long budget = pyramid.getCacheCapacity() / 2;
+
+		// The clip in the file coordinates, grown by the point and a pixel
+		// touched by the antialiasing
+		final Shape clip = g2d.getClip();
+		final Rectangle2D view = clip != null ? clip.getBounds2D() : null;
+		if (view != null) {
+			final double margin = radius
+					+ DrawList.getStrokeReach(pyramid.getStroke()) + 1 / scale;
+			view.setRect(view.getX() - tx - margin, view.getY() - ty - margin,
+					view.getWidth() + 2 * margin, view.getHeight() + 2 * margin);
+		}
+
+		final Color color = pyramid.getColor();
+		MStyle.apply(g2d, color, pyramid.getStroke());
+		final Ellipse2D.Double point = new Ellipse2D.Double();
+		int lastArgb = 0;
+		boolean ownColor = true;
+		int[] queue = new int[16];
+		int head = 0;
+		int tail = 0;
+		if (pyramid.nodeCount > 0) {
+			queue[tail++] = 0;
+		}
+		while (head < tail) {
+			final int n = queue[head++];
+			if (view != null && !intersects(pyramid, n, view)) {
+				continue;
+			}
+			// Not loaded yet, the coarser levels are shown meanwhile
+			final MPointPyramid.Node node = pyramid.getNode(n);
+			if (node == null) {
+				continue;
+			}
+			final double[] coords = node.coords;
+			final int[] colors = node.colors;
+			for (int i = 0; i < coords.length; i += 2) {
+				final double x = coords[i];
+				final double y = coords[i + 1];
+				if (view != null && !view.contains(x, y)) {
+					continue;
+				}
+				if (colors != null) {
+					final int argb = colors[i / 2];
+					if (ownColor || argb != lastArgb) {
+						g2d.setColor(new Color(argb, true));
+						lastArgb = argb;
+						ownColor = false;
+					}
+				}
+				else if (!ownColor) {
+					g2d.setColor(color);
+					ownColor = true;
+				}
+				point.setFrame(x + tx - radius, y + ty - radius, radius * 2,
+						radius * 2);
+				if (fill) {
+					g2d.fill(point);
+				}
+				else {
+					g2d.draw(point);
+				}
+			}
+
+			// Refine while the points of the node are too sparse
+			budget -= coords.length / 2;
+			if (budget <= 0
+					|| pyramid.nodeSide(n) / pyramid.gridSize * scale <= spacing) {
+				continue;
+			}
+			for (int q = 0; q < 4; q++) {
+				final int child = pyramid.nodeChild(n, q);
+				if (child >= 0) {
+					if (tail == queue.length) {
+						queue = Arrays.copyOf(queue, queue.length * 2);
+					}
+					queue[tail++] = child;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the square of the node intersects the view
+	 */
+	private static boolean intersects(final MPointPyramid pyramid,
+			final int node, final Rectangle2D view) {
+		final double x = pyramid.nodeMinX(node);
+		final double y = pyramid.nodeMinY(node);
+		final double side = pyramid.nodeSide(node);
+		return x + side >= view.getMinX() && x <= view.getMaxX()
+				&& y + side >= view.getMinY() && y <= view.getMaxY();
+	}
+
+	/**
+	 * Exports the levels detailed enough for the scale of the export. The
+	 * nodes are read directly, bypassing the cache, as the export waits for
+	 * them.
+	 */
+	@Override
+	public void paintSVG(final MGeometricObject object, final SVGWriter svg)
+			throws IOException {
+		final MPointPyramid pyramid = (MPointPyramid) object;
+		final double scale = Math.abs(svg.getScale());
+		final double radius = pyramid.isZoomIndifferent() ? pyramid
+				.getRadius() / scale : pyramid.getRadius();
+		final double tx = pyramid.getTranslateX();
+		final double ty = pyramid.getTranslateY();
+		final double spacing = pyramid.getPointSpacing();
+		long budget = pyramid.getCacheCapacity() / 2;
+		int[] queue = new int[16];
+		int head = 0;
+		int tail = 0;
+		if (pyramid.nodeCount > 0) {
+			queue[tail++] = 0;
+		}
+		while (head < tail) {
+			final int n = queue[head++];
+			final MPointPyramid.Node node = pyramid.loadNode(n);
+			for (int i = 0; i < node.coords.length; i += 2) {
+				svg.circle(node.coords[i] + tx, node.coords[i + 1] + ty, radius,
+						node.colors != null ? new Color(node.colors[i / 2], true)
+								: pyramid.getColor(), pyramid.getStroke(),
+						pyramid.isFill());
+			}
+			budget -= node.coords.length / 2;
+			if (budget <= 0
+					|| pyramid.nodeSide(n) / pyramid.gridSize * scale <= spacing) {
+				continue;
+			}
+			for (int q = 0; q < 4; q++) {
+				final int child = pyramid.nodeChild(n, q);
+				if (child >= 0) {
+					if (tail == queue.length) {
+						queue = Arrays.copyOf(queue, queue.length * 2);
+					}
+					queue[tail++] = child;
+				}
+			}
+		}
+	}
+}
@@ -1,7 +1,8 @@
 package eu.zidek.augustin.minuscule;
 
 import java.awt.Color;
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -9,12 +10,40 @@ import java.util.List;
  * edges (lines) to the two neighbor points. To construct a polygon use the
  * method <code>addVertex()</code> to add new vertices. All the edges will be
  * added automatically (which can be turned off).
+ * <p>
+ * The coordinates of the vertices are kept in a primitive array, so that
+ * polygons with millions of vertices are cheap to build and to paint. Vertices
+ * added by <code>addVertex(x, y)</code> are plain, painted as default points.
+ * Only the vertices added as an <code>MPoint</code> or obtained by
+ * <code>getVertex()</code> or <code>decorateVertex()</code> keep their point,
+ * which can be decorated (color, radius, label) and moved. The bounds of the
+ * polygon are maintained as the vertices are added. All the methods are thread-safe, the vertices are
+ * modified and painted holding the lock of the polygon.
+ * </p>
  * 
  * @author Augustin Zidek
  *
  */
 public class MPolygon extends MGeometricObject {
-	private List<MPoint> vertices = new ArrayList<>();
+	private static final int[] NO_INDICES = new int[0];
+	private static final MPoint[] NO_POINTS = new MPoint[0];
+
+	// The vertices, x and y interleaved, guarded by this
+	double[] coords = new double[2 * Constants.POLYGON_INITIAL_CAPACITY];
+	int vertexCount = 0;
+	// Indices of the vertices having their own point in ascending order and
+	// the points, guarded by this. The points are the authority on the
+	// coordinates of these vertices, the coords follow them.
+	int[] decoratedIndices = NO_INDICES;
+	MPoint[] decorated = NO_POINTS;
+	int decoratedCount = 0;
+	// The bounds of the vertices, guarded by this. Stale when a vertex on the
+	// bounds is deleted or moved, they are found again when needed.
+	private double minX;
+	private double minY;
+	private double maxX;
+	private double maxY;
+	private boolean boundsStale = false;
 	private Color fillColor = Constants.DEFAULT_POLYGON_FILL_COLOR;
 
 	/**
@@ -28,14 +57,119 @@ public class MPolygon extends MGeometricObject {
 	}
 
 	/**
+	 * Gets the vertices as a list of points. The list is backed by the
+	 * polygon: getting a vertex from it is the same as
+	 * <code>getVertex()</code> and adding, replacing or removing vertices
+	 * changes the polygon. Large polygons should be read by
+	 * <code>getVertexX()</code> and <code>getVertexY()</code> instead, which
+	 * don't give the plain vertices their own points.
+	 * 
 	 * @return The list of vertices of this polygon
 	 */
 	public List<MPoint> getVertices() {
-		return this.vertices;
+		return new AbstractList<MPoint>() {
+			@Override
+			public MPoint get(final int index) {
+				final MPoint vertex = MPolygon.this.getVertex(index);
+				if (vertex == null) {
+					throw new IndexOutOfBoundsException("Vertex " + index);
+				}
+				return vertex;
+			}
+
+			@Override
+			public int size() {
+				return MPolygon.this.getVertexCount();
+			}
+
+			@Override
+			public void add(final int index, final MPoint vertex) {
+				synchronized (MPolygon.this) {
+					if (index < 0 || index > MPolygon.this.vertexCount) {
+						throw new IndexOutOfBoundsException("Vertex " + index);
+					}
+					MPolygon.this.insertVertex(index, vertex);
+				}
+				this.modCount++;
+			}
+
+			@Override
+			public MPoint set(final int index, final MPoint vertex) {
+				synchronized (MPolygon.this) {
+					final MPoint previous = this.get(index);
+					MPolygon.this.syncDecorated();
+					MPolygon.this.removeVertex(index);
+					MPolygon.this.insertVertex(index, vertex);
+					return previous;
+				}
+			}
+
+			@Override
+			public MPoint remove(final int index) {
+				final MPoint vertex;
+				synchronized (MPolygon.this) {
+					vertex = this.get(index);
+					MPolygon.this.syncDecorated();
+					MPolygon.this.removeVertex(index);
+				}
+				this.modCount++;
+				return vertex;
+			}
+		};
+	}
+
+	/**
+	 * @return The number of vertices
+	 */
+	public synchronized int getVertexCount() {
+		return this.vertexCount;
+	}
+
+	/**
+	 * @param vertexNo The number of the vertex, determined by the order of
+	 *            addition of the vertices.
+	 * @return The x coordinate of the vertex
+	 * @throws IndexOutOfBoundsException If the vertex doesn't exist
+	 */
+	public synchronized double getVertexX(final int vertexNo) {
+		this.checkIndex(vertexNo);
+		final int k = this.findDecorated(vertexNo);
+		return k >= 0 ? this.decorated[k].getX() : this.coords[2 * vertexNo];
+	}
+
+	/**
+	 * @param vertexNo The number of the vertex, determined by the order of
+	 *            addition of the vertices.
+	 * @return The y coordinate of the vertex
+	 * @throws IndexOutOfBoundsException If the vertex doesn't exist
+	 */
+	public synchronized double getVertexY(final int vertexNo) {
+		this.checkIndex(vertexNo);
+		final int k = this.findDecorated(vertexNo);
+		return k >= 0 ? this.decorated[k].getY()
+				: this.coords[2 * vertexNo + 1];
+	}
+
+	private void checkIndex(final int vertexNo) {
+		if (vertexNo < 0 || vertexNo >= this.vertexCount) {
+			throw new IndexOutOfBoundsException("Vertex " + vertexNo
+					+ ", vertices: " + this.vertexCount);
+		}
 	}
 
 	/**
-	 * Gets the n-th vertex.
+	 * @return The position of the vertex in the decorated vertices, negative
+	 *         if it is plain
+	 */
+	private int findDecorated(final int vertexNo) {
+		return Arrays.binarySearch(this.decoratedIndices, 0,
+				this.decoratedCount, vertexNo);
+	}
+
+	/**
+	 * Gets the n-th vertex. The vertex is the point of the polygon, i.e.
+	 * modifying it changes the polygon. The same as
+	 * <code>decorateVertex()</code>, a plain vertex gets its own point.
 	 * 
 	 * @param vertexNo The number of the vertex, determined by the order of
 	 *            addition of the vertices.
@@ -43,10 +177,55 @@ public class MPolygon extends MGeometricObject {
 	 *         the argument is negative or greater than the vertices amount.
 	 */
 	public MPoint getVertex(final int vertexNo) {
-		if (vertexNo < 0 || vertexNo >= this.vertices.size()) {
+		return this.decorateVertex(vertexNo);
+	}
+
+	/**
+	 * Gets the point of the n-th vertex, which can be decorated (color,
+	 * radius, label) or moved. A plain vertex gets its own point, which is
+	 * then painted instead of the default point. Decorating the vertices in
+	 * the order of their numbers costs <i>O(1)</i> per vertex, otherwise
+	 * <i>O(d)</i> where <i>d</i> is the number of decorated vertices.
+	 * 
+	 * @param vertexNo The number of the vertex, determined by the order of
+	 *            addition of the vertices.
+	 * @return The point of the vertex with the given number. Returns
+	 *         <code>null</code> if the argument is negative or greater than
+	 *         the vertices amount.
+	 */
+	public synchronized MPoint decorateVertex(final int vertexNo) {
+		if (vertexNo < 0 || vertexNo >= this.vertexCount) {
 			return null;
 		}
-		return this.vertices.get(vertexNo);
+		final int k = this.findDecorated(vertexNo);
+		if (k >= 0) {
+			return this.decorated[k];
+		}
+		final MPoint vertex = new MPoint().x(this.coords[2 * vertexNo]).y(
+				this.coords[2 * vertexNo + 1]);
+		this.insertDecorated(-k - 1, vertexNo, vertex);
+		return vertex;
+	}
+
+	/**
+	 * Inserts the point of a vertex at the given position of the decorated
+	 * vertices.
+	 */
+	private void insertDecorated(final int k, final int vertexNo,
+			final MPoint vertex) {
+		if (this.decoratedCount == this.decorated.length) {
+			final int capacity = Math.max(4, this.decoratedCount * 2);
+			this.decoratedIndices = Arrays.copyOf(this.decoratedIndices,
+					capacity);
+			this.decorated = Arrays.copyOf(this.decorated, capacity);
+		}
+		System.arraycopy(this.decoratedIndices, k, this.decoratedIndices,
+				k + 1, this.decoratedCount - k);
+		System.arraycopy(this.decorated, k, this.decorated, k + 1,
+				this.decoratedCount - k);
+		this.decoratedIndices[k] = vertexNo;
+		this.decorated[k] = vertex;
+		this.decoratedCount++;
 	}
 
 	/**
@@ -63,8 +242,9 @@ public class MPolygon extends MGeometricObject {
 	 * @param vertex The vertex to be added
 	 * @return The polygon with added vertex
 	 */
-	public MPolygon addVertex(final MPoint vertex) {
-		this.vertices.add(vertex);
+	public synchronized MPolygon addVertex(final MPoint vertex) {
+		this.insertDecorated(this.decoratedCount, this.vertexCount, vertex);
+		this.appendVertex(vertex.getX(), vertex.getY());
 		return this;
 	}
 
@@ -76,12 +256,102 @@ public class MPolygon extends MGeometricObject {
 	 * @param y The y coordinate of the new vertex
 	 * @return The polygon with added vertex
 	 */
-	public MPolygon addVertex(final double x, final double y) {
-		final MPoint vertex = new MPoint().x(x).y(y);
-		this.vertices.add(vertex);
+	public synchronized MPolygon addVertex(final double x, final double y) {
+		this.appendVertex(x, y);
 		return this;
 	}
 
+	/**
+	 * Inserts the vertex before the vertex with the given number, shifting
+	 * the following ones.
+	 */
+	private void insertVertex(final int vertexNo, final MPoint vertex) {
+		// The following decorated vertices move one position up
+		final int k = this.findDecorated(vertexNo);
+		final int from = k >= 0 ? k : -k - 1;
+		for (int j = from; j < this.decoratedCount; j++) {
+			this.decoratedIndices[j]++;
+		}
+		this.insertDecorated(from, vertexNo, vertex);
+		if (vertexNo == this.vertexCount) {
+			this.appendVertex(vertex.getX(), vertex.getY());
+			return;
+		}
+		if (2 * this.vertexCount == this.coords.length) {
+			this.coords = Arrays.copyOf(this.coords, this.coords.length * 2);
+		}
+		System.arraycopy(this.coords, 2 * vertexNo, this.coords,
+				2 * vertexNo + 2, 2 * (this.vertexCount - vertexNo));
+		this.coords[2 * vertexNo] = vertex.getX();
+		this.coords[2 * vertexNo + 1] = vertex.getY();
+		this.extendBounds(vertex.getX(), vertex.getY());
+		this.vertexCount++;
+	}
+
+	/**
+	 * Appends the coordinates of a new vertex and extends the bounds.
+	 */
+	private void appendVertex(final double x, final double y) {
+		if (2 * this.vertexCount == this.coords.length) {
+			this.coords = Arrays.copyOf(this.coords, this.coords.length * 2);
+		}
+		this.coords[2 * this.vertexCount] = x;
+		this.coords[2 * this.vertexCount + 1] = y;
+		if (this.vertexCount == 0) {
+			this.minX = this.maxX = x;
+			this.minY = this.maxY = y;
+		}
+		else {
+			this.extendBounds(x, y);
+		}
+		this.vertexCount++;
+	}
+
+	private void extendBounds(final double x, final double y) {
+		if (x < this.minX) {
+			this.minX = x;
+		}
+		else if (x > this.maxX) {
+			this.maxX = x;
+		}
+		if (y < this.minY) {
+			this.minY = y;
+		}
+		else if (y > this.maxY) {
+			this.maxY = y;
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the point lies on the bounds, so the
+	 *         bounds may shrink without it
+	 */
+	private boolean isOnBounds(final double x, final double y) {
+		return x == this.minX || x == this.maxX || y == this.minY
+				|| y == this.maxY;
+	}
+
+	/**
+	 * Copies the coordinates of the decorated vertices, which may have been
+	 * moved, into the coords. The cost is <i>O(d)</i> where <i>d</i> is the
+	 * number of decorated vertices.
+	 */
+	void syncDecorated() {
+		for (int k = 0; k < this.decoratedCount; k++) {
+			final int i = 2 * this.decoratedIndices[k];
+			final double x = this.decorated[k].getX();
+			final double y = this.decorated[k].getY();
+			if (x != this.coords[i] || y != this.coords[i + 1]) {
+				if (this.isOnBounds(this.coords[i], this.coords[i + 1])) {
+					this.boundsStale = true;
+				}
+				this.coords[i] = x;
+				this.coords[i + 1] = y;
+				this.extendBounds(x, y);
+			}
+		}
+	}
+
 	/**
 	 * Deletes the n-th vertex of the polygon. The order is given by the order
 	 * in which the vertices have been added.
@@ -91,16 +361,45 @@ public class MPolygon extends MGeometricObject {
 	 * @return The polygon with deleted vertex. The edges are reconnected
 	 *         automatically.
 	 */
-	public MPolygon deleteVertex(final int vertexNo) {
+	public synchronized MPolygon deleteVertex(final int vertexNo) {
 		// Check if within the range
-		if (vertexNo < 0 || vertexNo >= this.vertices.size()) {
+		if (vertexNo < 0 || vertexNo >= this.vertexCount) {
 			return this;
 		}
 		// Within range, delete
-		this.vertices.remove(vertexNo);
+		this.syncDecorated();
+		this.removeVertex(vertexNo);
 		return this;
 	}
 
+	/**
+	 * Removes the vertex, shifting the following ones.
+	 */
+	private void removeVertex(final int vertexNo) {
+		if (this.isOnBounds(this.coords[2 * vertexNo],
+				this.coords[2 * vertexNo + 1])) {
+			this.boundsStale = true;
+		}
+		System.arraycopy(this.coords, 2 * vertexNo + 2, this.coords,
+				2 * vertexNo, 2 * (this.vertexCount - vertexNo - 1));
+		this.vertexCount--;
+		// The following decorated vertices move one position down
+		final int k = this.findDecorated(vertexNo);
+		int from = -k - 1;
+		if (k >= 0) {
+			System.arraycopy(this.decoratedIndices, k + 1,
+					this.decoratedIndices, k, this.decoratedCount - k - 1);
+			System.arraycopy(this.decorated, k + 1, this.decorated, k,
+					this.decoratedCount - k - 1);
+			this.decoratedCount--;
+			this.decorated[this.decoratedCount] = null;
+			from = k;
+		}
+		for (int j = from; j < this.decoratedCount; j++) {
+			this.decoratedIndices[j]--;
+		}
+	}
+
 	/**
 	 * Deletes the vertex with the given coordinates. If no such vertex exists,
 	 * nothing happens.
@@ -110,13 +409,14 @@ public class MPolygon extends MGeometricObject {
 	 * @return The polygon with deleted vertex. The edges are reconnected
 	 *         automatically.
 	 */
-	public MPolygon deleteVertex(final double x, final double y) {
-		// Go through all vertices and find the one with the given coordinates
-		for (int i = 0; i < this.vertices.size(); i++) {
-			final MPoint p = this.vertices.get(i);
+	public synchronized MPolygon deleteVertex(final double x, final double y) {
+		this.syncDecorated();
+		// Go through all vertices and find the one with the given coordinates,
+		// backwards, so that the deletion doesn't shift the ones to be visited
+		for (int i = this.vertexCount - 1; i >= 0; i--) {
 			// If coordinates match, delete the vertex
-			if (p.getX() == x && p.getY() == y) {
-				this.vertices.remove(i);
+			if (this.coords[2 * i] == x && this.coords[2 * i + 1] == y) {
+				this.removeVertex(i);
 			}
 		}
 		return this;
@@ -165,6 +465,12 @@ public class MPolygon extends MGeometricObject {
 		return this;
 	}
 
+	@Override
+	public MPolygon style(final MStyle style) {
+		super.setStyle(style);
+		return this;
+	}
+
 	@Override
 	public MPolygon layer(final int layer) {
 		super.setLayer(layer);
@@ -177,16 +483,17 @@ public class MPolygon extends MGeometricObject {
 	 * <code>Base = (x1 + x2 + ... + xk) / k</code>.
 	 */
 	@Override
-	public MCoordinate getLabelBaseCoordinate() {
+	public synchronized MCoordinate getLabelBaseCoordinate() {
+		this.syncDecorated();
 		double xSum = 0;
 		double ySum = 0;
 		// Sum all x coordinates and y coordinates
-		for (final MPoint p : this.vertices) {
-			xSum += p.getX();
-			ySum += p.getY();
+		for (int i = 0; i < 2 * this.vertexCount; i += 2) {
+			xSum += this.coords[i];
+			ySum += this.coords[i + 1];
 		}
 		// Calculate average of these x coordinates and y coordinates
-		final double vertexCount = this.vertices.size();
+		final double vertexCount = this.vertexCount;
 		return new MCoordinate(xSum / vertexCount, ySum / vertexCount);
 	}
 
@@ -197,13 +504,7 @@ public class MPolygon extends MGeometricObject {
 
 	@Override
 	public MPolygon label(final String labelText, final double angleDeg) {
-		final MLabel label = new MLabel(labelText);
-		// Set text, parent and position set by parent to true. Since position
-		// set by parent set, no need to set coordinates.
-		label.text(labelText);
-		label.parent(this);
-		label.positionSetByParent(true, angleDeg);
-		super.setLabel(label);
+		super.setLabel(labelText, angleDeg);
 		return this;
 	}
 
@@ -215,6 +516,12 @@ public class MPolygon extends MGeometricObject {
 		return this;
 	}
 
+	@Override
+	public MPolygon labelStyle(final MStyle style) {
+		super.setLabelStyle(style);
+		return this;
+	}
+
 	@Override
 	public MPolygon zoomIndifferent(final boolean value) {
 		super.setZoomIndifference(value);
@@ -222,11 +529,20 @@ public class MPolygon extends MGeometricObject {
 	}
 
 	@Override
-	public MPolygon translate(final double dx, final double dy) {
-		// Translate the polygon
-		for (final MPoint p : this.vertices) {
-			p.translate(dx, dy);
+	public synchronized MPolygon translate(final double dx, final double dy) {
+		// Translate the polygon, the decorated vertices as well
+		this.syncDecorated();
+		for (int i = 0; i < 2 * this.vertexCount; i += 2) {
+			this.coords[i] += dx;
+			this.coords[i + 1] += dy;
 		}
+		for (int k = 0; k < this.decoratedCount; k++) {
+			this.decorated[k].translate(dx, dy);
+		}
+		this.minX += dx;
+		this.maxX += dx;
+		this.minY += dy;
+		this.maxY += dy;
 		// Note that if the polygon has label, it will be translated
 		// automatically as it uses polygon's coordinates
 		return this;
@@ -237,34 +553,73 @@ public class MPolygon extends MGeometricObject {
 		return new MCoordinate(0, 0);
 	}
 
+	/**
+	 * Counts the array of the coordinates and the decorated vertices.
+	 */
 	@Override
-	public MBoundingBox getBoundingRectangle() {
-		// Find min/max x/y coordinates
-		double minX = this.vertices.get(0).getX();
-		double maxX = this.vertices.get(0).getX();
-		double minY = this.vertices.get(0).getY();
-		double maxY = this.vertices.get(0).getY();
-
-		for (final MPoint p : this.vertices) {
-			final double px = p.getX();
-			final double py = p.getY();
-			// Search for vertical min/max
-			if (px < minX) {
-				minX = px;
-			}
-			else if (px > maxX) {
-				maxX = px;
-			}
-			// Search for horizontal min/max
-			if (py < minY) {
-				minY = py;
-			}
-			else if (py > maxY) {
-				maxY = py;
-			}
+	public synchronized long getEstimatedSize() {
+		return super.getEstimatedSize() + 8L * this.coords.length
+				+ 8L * this.decorated.length + this.decoratedCount
+				* Constants.OBJECT_SIZE_ESTIMATE;
+	}
+
+	/**
+	 * The bounds are maintained as the vertices are added, so the cost is
+	 * <i>O(d)</i> where <i>d</i> is the number of decorated vertices. Only if
+	 * a vertex lying on the bounds has been deleted or moved, the bounds are
+	 * found again in <i>O(n)</i>.
+	 */
+	@Override
+	public synchronized MBoundingBox getBoundingRectangle() {
+		this.syncDecorated();
+		if (this.boundsStale) {
+			this.findBounds();
+		}
+		return new MBoundingBox(this.minX, this.minY, this.maxX - this.minX,
+				this.maxY - this.minY);
+	}
+
+	/**
+	 * Finds the min/max x/y coordinates of all the vertices.
+	 */
+	private void findBounds() {
+		this.boundsStale = false;
+		if (this.vertexCount == 0) {
+			this.minX = this.maxX = this.minY = this.maxY = 0;
+			return;
+		}
+		this.minX = this.maxX = this.coords[0];
+		this.minY = this.maxY = this.coords[1];
+		for (int i = 2; i < 2 * this.vertexCount; i += 2) {
+			this.extendBounds(this.coords[i], this.coords[i + 1]);
 		}
+	}
 
-		return new MBoundingBox(minX, minY, maxX - minX, maxY - minY);
+	@Override
+	synchronized MBoundingBox getCullingBounds() {
+		if (this.vertexCount == 0) {
+			return null;
+		}
+		double margin = 0;
+		// The plain vertices are painted as default points
+		if (this.decoratedCount < this.vertexCount) {
+			margin = Constants.DEFAULT_POINT_RADIUS
+					+ Constants.DEFAULT_POINT_STROKE.getThickness() / 2;
+		}
+		for (int k = 0; k < this.decoratedCount; k++) {
+			final MPoint vertex = this.decorated[k];
+			// The labels of the vertices are painted by the polygon painter,
+			// their bounds are not known without the font metrics
+			if (vertex.hasLabel()) {
+				return null;
+			}
+			margin = Math.max(margin, vertex.getRadius()
+					+ vertex.getStroke().getThickness() / 2);
+		}
+		// The vertices are painted as points, so they stick out of the edges
+		final MBoundingBox bounds = this.getBoundingRectangle();
+		return new MBoundingBox(bounds.x - margin, bounds.y - margin,
+				bounds.width + 2 * margin, bounds.height + 2 * margin);
 	}
 
 }
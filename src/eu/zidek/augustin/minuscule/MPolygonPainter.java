@@ -2,17 +2,23 @@ package eu.zidek.augustin.minuscule;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Shape;
+import java.awt.geom.Ellipse2D;
 import java.awt.geom.Line2D;
 import java.awt.geom.Path2D;
-import java.util.List;
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
 
 /**
- * A Painter for MPolygons.
+ * A Painter for MPolygons. It goes through the coordinates of the polygon
+ * directly: one line and one circle are reused for all the edges and plain
+ * vertices, the ones out of the clip are skipped. Only the decorated vertices
+ * are painted by the point painter.
  * 
  * @author Augustin Zidek
  *
  */
-public class MPolygonPainter implements MGeometricObjectPainter {
+public class MPolygonPainter implements SVGPainter {
 	private final MPointPainter pointPainter;
 	private final MLabelPainter labelPainter;
 
@@ -32,83 +38,209 @@ public class MPolygonPainter implements MGeometricObjectPainter {
 	}
 
 	/**
-	 * Draw the filling of the polygon
+	 * Constructs the closed path going through all the vertices of the
+	 * polygon.
 	 * 
-	 * @param fillColor The color of the fill
-	 * @param g2d The graphics object on which to draw
-	 * @param vertices The vertices of the polygon
+	 * @param polygon The polygon, its lock must be held
+	 * @return The path of the polygon's edges
 	 */
-	private void drawFilling(final Color fillColor, final Graphics2D g2d,
-			final List<MPoint> vertices) {
-		// The edges of the polygon form a 2D path (which can be also filled)
-		final Path2D polygonFilling = new Path2D.Double();
-		// Move the pen to the first vertex of the polygon
-		polygonFilling.moveTo(vertices.get(0).getX(), vertices.get(0).getY());
-
-		// Construct the path
-		for (int i = 0; i < vertices.size(); i++) {
-			final MPoint vertex1 = vertices.get(i);
-			polygonFilling.lineTo(vertex1.getX(), vertex1.getY());
+	private static Path2D getPath(final MPolygon polygon) {
+		final double[] coords = polygon.coords;
+		final int n = polygon.vertexCount;
+		final Path2D path = new Path2D.Double(Path2D.WIND_NON_ZERO, n + 1);
+		path.moveTo(coords[0], coords[1]);
+		for (int i = 1; i < n; i++) {
+			path.lineTo(coords[2 * i], coords[2 * i + 1]);
 		}
+		path.closePath();
+		return path;
+	}
 
-		// Fill the polygon with the same color but add alpha
-		polygonFilling.closePath();
-		g2d.setColor(fillColor);
-		g2d.fill(polygonFilling);
+	/**
+	 * Gets the stroke of the edges. If zoom indifferent the thickness is
+	 * divided by the scale.
+	 */
+	private static MStroke getEdgeStroke(final MPolygon polygon,
+			final double scale) {
+		if (polygon.isZoomIndifferent()) {
+			return polygon.getStroke().setThickness(
+					(float) (polygon.getStroke().getThickness() / scale));
+		}
+		return polygon.getStroke();
+	}
+
+	/**
+	 * Gets the clip of the graphics in the polygon coordinates, grown by the
+	 * given margin and a pixel touched by the antialiasing.
+	 * 
+	 * @return The clip, <code>null</code> if not clipped
+	 */
+	private static Rectangle2D getClip(final Graphics2D g2d,
+			final double margin, final double scale) {
+		final Shape clipShape = g2d.getClip();
+		if (clipShape == null || Double.isInfinite(margin)) {
+			return null;
+		}
+		final Rectangle2D clip = clipShape.getBounds2D();
+		final double grow = margin + 1 / Math.abs(scale);
+		clip.setRect(clip.getX() - grow, clip.getY() - grow, clip.getWidth()
+				+ 2 * grow, clip.getHeight() + 2 * grow);
+		return clip;
 	}
 
 	@Override
 	public void paint(final MGeometricObject object, final Graphics2D g2d) {
 		final MPolygon polygon = (MPolygon) object;
 
-		// Get vertices and use them to construct edges
-		final List<MPoint> vertices = polygon.getVertices();
+		synchronized (polygon) {
+			final int n = polygon.vertexCount;
+			// If no vertices present, nothing to be drawn
+			if (n == 0) {
+				return;
+			}
+			polygon.syncDecorated();
+
+			// If wanted, draw the filling first (so it is in the lowest layer)
+			if (polygon.isFill()) {
+				g2d.setColor(polygon.getFillColor());
+				g2d.fill(getPath(polygon));
+			}
+
+			// Check if the polygon is zoom indifferent
+			final boolean zoomIndifferent = polygon.isZoomIndifferent();
+			final double scale = g2d.getTransform().getScaleX();
+			final MStroke stroke = getEdgeStroke(polygon, scale);
+			final Color color = polygon.getColor();
+			// The plain vertices are painted as default points
+			final double radius = zoomIndifferent ? Constants.DEFAULT_POINT_RADIUS
+					/ scale
+					: Constants.DEFAULT_POINT_RADIUS;
+			final Rectangle2D edgeClip = getClip(g2d,
+					DrawList.getStrokeReach(stroke), scale);
+			final Rectangle2D vertexClip = getClip(g2d, radius
+					+ DrawList.getStrokeReach(Constants.DEFAULT_POINT_STROKE),
+					scale);
+			final Line2D.Double line = new Line2D.Double();
+			final Ellipse2D.Double point = new Ellipse2D.Double();
+
+			final double[] coords = polygon.coords;
+			int k = 0;
+			for (int i = 0; i < n; i++) {
+				// Get two consecutive vertices
+				final double x1 = coords[2 * i];
+				final double y1 = coords[2 * i + 1];
+				final int j = i + 1 < n ? i + 1 : 0;
+				final double x2 = coords[2 * j];
+				final double y2 = coords[2 * j + 1];
 
-		// If no vertices present, nothing to be drawn
-		if (vertices.size() == 0) {
-			return;
+				// Draw the edge first, so it is under the points
+				// Edges may be horizontal or vertical, so their bounds may be
+				// empty
+				if (edgeClip == null
+						|| (Math.max(x1, x2) >= edgeClip.getMinX()
+								&& Math.min(x1, x2) <= edgeClip.getMaxX()
+								&& Math.max(y1, y2) >= edgeClip.getMinY() && Math
+								.min(y1, y2) <= edgeClip.getMaxY())) {
+					// The vertices change the color and stroke, set them back
+					MStyle.apply(g2d, color, stroke);
+					line.setLine(x1, y1, x2, y2);
+					g2d.draw(line);
+				}
+
+				// Draw the first vertex (the other one drawn in the next
+				// iteration)
+				if (k < polygon.decoratedCount
+						&& polygon.decoratedIndices[k] == i) {
+					this.paintDecorated(polygon.decorated[k++],
+							zoomIndifferent, g2d);
+				}
+				else if (vertexClip == null || vertexClip.contains(x1, y1)) {
+					point.setFrame(x1 - radius, y1 - radius, radius * 2,
+							radius * 2);
+					MStyle.apply(g2d, Constants.DEFAULT_POINT_COLOR,
+							Constants.DEFAULT_POINT_STROKE);
+					if (Constants.DEFAULT_POINT_FILL) {
+						g2d.fill(point);
+					}
+					else {
+						g2d.draw(point);
+					}
+				}
+			}
 		}
+	}
 
-		// If wanted, draw the filling first (so it is in the lowest layer)
-		if (polygon.isFill()) {
-			this.drawFilling(polygon.getFillColor(), g2d, vertices);
+	/**
+	 * Paints the point of a decorated vertex and its label.
+	 */
+	private void paintDecorated(final MPoint vertex,
+			final boolean zoomIndifferent, final Graphics2D g2d) {
+		this.pointPainter.paint(vertex.zoomIndifferent(zoomIndifferent), g2d);
+		if (vertex.getAttachedLabel() != null) {
+			this.labelPainter.paintAttached(vertex, zoomIndifferent, g2d);
 		}
+		else if (vertex.getLabel() != null) {
+			this.labelPainter.paint(
+					vertex.getLabel().zoomIndifferent(zoomIndifferent), g2d);
+		}
+	}
 
-		// Check if the polygon is zoom indifferent
-		final boolean zoomIndifferent = polygon.isZoomIndifferent();
-
-		for (int i = 0; i < vertices.size(); i++) {
-			// Get two consecutive vertices
-			final MPoint vertex1 = vertices.get(i).zoomIndifferent(
-					zoomIndifferent);
-			final MPoint vertex2 = vertices.get((i + 1) % vertices.size());
-
-			// If zoom indifferent change the stroke's thickness
-			if (zoomIndifferent) {
-				final double oldThickness = polygon.getStroke().getThickness();
-				final double dx = g2d.getTransform().getScaleX();
-				final MStroke newStroke = polygon.getStroke().setThickness(
-						(float) (oldThickness / dx));
-				g2d.setStroke(newStroke);
+	@Override
+	public void paintSVG(final MGeometricObject object, final SVGWriter svg)
+			throws IOException {
+		final MPolygon polygon = (MPolygon) object;
+
+		synchronized (polygon) {
+			// If no vertices present, nothing to be exported
+			if (polygon.vertexCount == 0) {
+				return;
 			}
-			else {
-				g2d.setStroke(polygon.getStroke());
+			polygon.syncDecorated();
+			final Path2D path = getPath(polygon);
+
+			// The filling first, so it is in the lowest layer
+			if (polygon.isFill()) {
+				svg.shape(path, polygon.getFillColor(), null, true);
 			}
-			g2d.setColor(polygon.getColor());
-
-			// Draw the edge first, so it is under the points
-			final Line2D line = new Line2D.Double(vertex1.getX(),
-					vertex1.getY(), vertex2.getX(), vertex2.getY());
-			g2d.draw(line);
-
-			// Draw the first vertex (the other one drawn in the next iteration)
-			this.pointPainter.paint(vertex1, g2d);
-			// If vertex has a label, paint it as well
-			if (vertex1.getLabel() != null) {
-				this.labelPainter.paint(
-						vertex1.getLabel().zoomIndifferent(zoomIndifferent),
-						g2d);
+
+			// All the edges form one closed path
+			svg.shape(path, polygon.getColor(),
+					getEdgeStroke(polygon, svg.getScale()), false);
+
+			// The vertices and their labels on top of the edges
+			final boolean zoomIndifferent = polygon.isZoomIndifferent();
+			final double radius = zoomIndifferent ? Constants.DEFAULT_POINT_RADIUS
+					/ svg.getScale() : Constants.DEFAULT_POINT_RADIUS;
+			int k = 0;
+			for (int i = 0; i < polygon.vertexCount; i++) {
+				if (k < polygon.decoratedCount
+						&& polygon.decoratedIndices[k] == i) {
+					this.paintDecoratedSVG(polygon.decorated[k++],
+							zoomIndifferent, svg);
+					continue;
+				}
+				svg.circle(polygon.coords[2 * i], polygon.coords[2 * i + 1],
+						radius, Constants.DEFAULT_POINT_COLOR,
+						Constants.DEFAULT_POINT_STROKE,
+						Constants.DEFAULT_POINT_FILL);
 			}
 		}
 	}
+
+	/**
+	 * Exports the point of a decorated vertex and its label.
+	 */
+	private void paintDecoratedSVG(final MPoint vertex,
+			final boolean zoomIndifferent, final SVGWriter svg)
+			throws IOException {
+		this.pointPainter.paintSVG(vertex.zoomIndifferent(zoomIndifferent),
+				svg);
+		if (vertex.getAttachedLabel() != null) {
+			this.labelPainter.paintAttachedSVG(vertex, zoomIndifferent, svg);
+		}
+		else if (vertex.getLabel() != null) {
+			this.labelPainter.paintSVG(
+					vertex.getLabel().zoomIndifferent(zoomIndifferent), svg);
+		}
+	}
 }
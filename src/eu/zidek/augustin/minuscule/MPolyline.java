@@ -0,0 +1,507 @@
+package eu.zidek.augustin.minuscule;
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Minuscule polyline: an open chain of vertices connected by segments. Unlike
+ * a polygon, the last vertex is not connected to the first one and the
+ * vertices are not painted as points.
+ * <p>
+ * The coordinates of the vertices are kept in a primitive array, so that
+ * polylines with tens of millions of vertices (e.g. long traces of a
+ * simulation) are cheap to build. Long polylines are painted downsampled to
+ * the resolution of the screen by the M4 aggregation: the vertices are
+ * grouped into runs of consecutive vertices falling into the same column, and
+ * of every run only the first, the last, the lowest and the highest vertex
+ * are kept. This is visually lossless for a line one pixel wide, and a trace
+ * of any length is painted as at most four vertices per column.
+ * </p>
+ * <p>
+ * The downsampled vertices are cached per zoom level. The levels have columns
+ * of a power of two wide, at most one pixel, so zooming in and out by the
+ * mouse wheel reuses the levels and panning doesn't invalidate them. Adding
+ * vertices only extends the cached levels, any other change drops them. All
+ * the methods are thread-safe, the vertices are modified and painted holding
+ * the lock of the polyline.
+ * </p>
+ *
+ * <pre>
+ * MPolyline trace = new MPolyline().color(Color.BLUE).draw(canvas);
+ * for (int i = 0; i &lt; 50000000; i++) {
+ * 	trace.addVertex(x[i], y[i]);
+ * }
+ * trace.draw(canvas);
+ * </pre>
+ *
+ * @author Augustin Zidek
+ *
+ */
+public class MPolyline extends MGeometricObject {
+	// The vertices, x and y interleaved, guarded by this
+	double[] coords = new double[2 * Constants.POLYLINE_INITIAL_CAPACITY];
+	int vertexCount = 0;
+	// Incremented by every change other than adding vertices, guarded by
+	// this. The cached levels made before are rebuilt.
+	int changes = 0;
+	// The bounds of the vertices, guarded by this. Stale when a vertex has
+	// been moved, they are found again when needed.
+	private double minX;
+	private double minY;
+	private double maxX;
+	private double maxY;
+	private boolean boundsStale = false;
+	private double translateX = 0;
+	private double translateY = 0;
+	// The downsampled vertices by their level, least recently used first,
+	// guarded by this
+	private final Map<Integer, Level> levels = new LinkedHashMap<Integer, Level>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 42L;
+
+		@Override
+		protected boolean removeEldestEntry(
+				final Map.Entry<Integer, Level> eldest) {
+			return this.size() > Constants.POLYLINE_CACHED_LEVELS;
+		}
+	};
+
+	/**
+	 * The vertices downsampled to the columns of one zoom level by M4. The
+	 * vertices are consumed as they are added, the run of the last column is
+	 * kept open until a vertex in another column comes.
+	 */
+	static final class Level {
+		// The width of the columns
+		private final double width;
+		// The changes of the polyline the level was built for
+		private final int changes;
+		// The kept vertices, x and y interleaved. The vertices of the open
+		// run follow the closed ones, they are rewritten as it grows.
+		double[] coords = new double[2 * Constants.POLYLINE_INITIAL_CAPACITY];
+		int closed = 0;
+		int count = 0;
+		// The number of the vertices of the polyline consumed
+		private int consumed = 0;
+		// The open run: its column and its first, lowest, highest and last
+		// vertex
+		private long column;
+		private int first = -1;
+		private int lowest;
+		private int highest;
+		private int last;
+		// The vertices are kept as they are, too few of them are left out
+		boolean raw = false;
+
+		Level(final int level, final int changes) {
+			this.width = Math.scalb(1.0, level);
+			this.changes = changes;
+		}
+
+		/**
+		 * Consumes the vertices added to the polyline since the last update.
+		 * Gives up if the level doesn't leave out at least a half of them.
+		 */
+		void update(final MPolyline polyline) {
+			final double[] vertices = polyline.coords;
+			final int n = polyline.vertexCount;
+			if (this.raw || this.consumed == n) {
+				return;
+			}
+			for (int i = this.consumed; i < n; i++) {
+				final double y = vertices[2 * i + 1];
+				final long c = (long) Math.floor(vertices[2 * i] / this.width);
+				if (this.first < 0 || c != this.column) {
+					if (this.first >= 0) {
+						this.close(vertices);
+					}
+					this.column = c;
+					this.first = this.lowest = this.highest = i;
+				}
+				else if (y < vertices[2 * this.lowest + 1]) {
+					this.lowest = i;
+				}
+				else if (y > vertices[2 * this.highest + 1]) {
+					this.highest = i;
+				}
+				this.last = i;
+			}
+			this.consumed = n;
+			if (n >= Constants.POLYLINE_DOWNSAMPLING_THRESHOLD
+					&& this.closed > n / 2) {
+				this.raw = true;
+				this.coords = null;
+				return;
+			}
+			// The open run goes after the closed ones, but stays open
+			final int closed = this.closed;
+			this.close(vertices);
+			this.count = this.closed;
+			this.closed = closed;
+		}
+
+		/**
+		 * Appends the distinct vertices of the open run in the order of the
+		 * polyline.
+		 */
+		private void close(final double[] vertices) {
+			final int a = Math.min(this.lowest, this.highest);
+			final int b = Math.max(this.lowest, this.highest);
+			this.keep(vertices, this.first);
+			if (a != this.first) {
+				this.keep(vertices, a);
+			}
+			if (b != a && b != this.first) {
+				this.keep(vertices, b);
+			}
+			if (this.last != b && this.last != this.first) {
+				this.keep(vertices, this.last);
+			}
+		}
+
+		private void keep(final double[] vertices, final int i) {
+			if (2 * this.closed == this.coords.length) {
+				this.coords = Arrays.copyOf(this.coords, 2 * this.coords.length);
+			}
+			this.coords[2 * this.closed] = vertices[2 * i];
+			this.coords[2 * this.closed + 1] = vertices[2 * i + 1];
+			this.closed++;
+		}
+	}
+
+	/**
+	 * Creates a new polyline with default properties.
+	 */
+	public MPolyline() {
+		super(Constants.DEFAULT_LINE_COLOR, Constants.DEFAULT_LINE_FILL, null,
+				Constants.DEFAULT_LINE_STROKE, Constants.DEFAULT_POLYLINE_LAYER,
+				Constants.DEFAULT_LINE_ZOOM_INDIFFERENCE);
+	}
+
+	/**
+	 * @return The number of vertices
+	 */
+	public synchronized int getVertexCount() {
+		return this.vertexCount;
+	}
+
+	/**
+	 * @param vertexNo The number of the vertex
+	 * @return The x coordinate of the vertex
+	 * @throws IndexOutOfBoundsException If there is no such vertex
+	 */
+	public synchronized double getVertexX(final int vertexNo) {
+		this.checkIndex(vertexNo);
+		return this.coords[2 * vertexNo] + this.translateX;
+	}
+
+	/**
+	 * @param vertexNo The number of the vertex
+	 * @return The y coordinate of the vertex
+	 * @throws IndexOutOfBoundsException If there is no such vertex
+	 */
+	public synchronized double getVertexY(final int vertexNo) {
+		this.checkIndex(vertexNo);
+		return this.coords[2 * vertexNo + 1] + this.translateY;
+	}
+
+	private void checkIndex(final int vertexNo) {
+		if (vertexNo < 0 || vertexNo >= this.vertexCount) {
+			throw new IndexOutOfBoundsException("Vertex " + vertexNo
+					+ ", vertices: " + this.vertexCount);
+		}
+	}
+
+	/**
+	 * Adds a new vertex, connected by a segment to the previously added one.
+	 *
+	 * @param x The x coordinate of the new vertex
+	 * @param y The y coordinate of the new vertex
+	 * @return The polyline with the vertex added
+	 */
+	public synchronized MPolyline addVertex(final double x, final double y) {
+		this.ensureCapacity(this.vertexCount + 1);
+		this.appendVertex(x - this.translateX, y - this.translateY);
+		return this;
+	}
+
+	/**
+	 * Adds the vertices at once.
+	 *
+	 * @param x The x coordinates of the new vertices
+	 * @param y The y coordinates of the new vertices
+	 * @return The polyline with the vertices added
+	 * @throws IllegalArgumentException If the arrays differ in length
+	 */
+	public synchronized MPolyline addVertices(final double[] x,
+			final double[] y) {
+		if (x.length != y.length) {
+			throw new IllegalArgumentException(
+					Constants.ERROR_MESSAGE_POLYLINE_LENGTHS);
+		}
+		this.ensureCapacity(this.vertexCount + x.length);
+		for (int i = 0; i < x.length; i++) {
+			this.appendVertex(x[i] - this.translateX, y[i] - this.translateY);
+		}
+		return this;
+	}
+
+	/**
+	 * Moves the given vertex.
+	 *
+	 * @param vertexNo The number of the vertex
+	 * @param x The new x coordinate
+	 * @param y The new y coordinate
+	 * @return The polyline with the vertex moved
+	 * @throws IndexOutOfBoundsException If there is no such vertex
+	 */
+	public synchronized MPolyline setVertex(final int vertexNo, final double x,
+			final double y) {
+		this.checkIndex(vertexNo);
+		this.coords[2 * vertexNo] = x - this.translateX;
+		this.coords[2 * vertexNo + 1] = y - this.translateY;
+		this.boundsStale = true;
+		this.changed();
+		return this;
+	}
+
+	/**
+	 * Deletes all the vertices.
+	 *
+	 * @return The empty polyline
+	 */
+	public synchronized MPolyline clear() {
+		this.coords = new double[2 * Constants.POLYLINE_INITIAL_CAPACITY];
+		this.vertexCount = 0;
+		this.boundsStale = false;
+		this.changed();
+		return this;
+	}
+
+	private void ensureCapacity(final int vertices) {
+		if (2L * vertices > this.coords.length) {
+			final long capacity = Math.max(2L * vertices,
+					2L * this.coords.length);
+			this.coords = Arrays.copyOf(this.coords,
+					(int) Math.min(Integer.MAX_VALUE - 8, capacity));
+		}
+	}
+
+	/**
+	 * Appends the coordinates of a new vertex and extends the bounds.
+	 */
+	private void appendVertex(final double x, final double y) {
+		this.coords[2 * this.vertexCount] = x;
+		this.coords[2 * this.vertexCount + 1] = y;
+		if (this.vertexCount++ == 0) {
+			this.minX = this.maxX = x;
+			this.minY = this.maxY = y;
+		}
+		else {
+			this.extendBounds(x, y);
+		}
+	}
+
+	private void extendBounds(final double x, final double y) {
+		if (x < this.minX) {
+			this.minX = x;
+		}
+		if (x > this.maxX) {
+			this.maxX = x;
+		}
+		if (y < this.minY) {
+			this.minY = y;
+		}
+		if (y > this.maxY) {
+			this.maxY = y;
+		}
+	}
+
+	/**
+	 * Drops the cached levels after a change other than adding vertices.
+	 */
+	private void changed() {
+		this.changes++;
+		this.levels.clear();
+	}
+
+	/**
+	 * Gets the vertices downsampled for the given scale, updated with the
+	 * vertices added since. Called while holding the lock of the polyline.
+	 *
+	 * @param scale The scale of the view
+	 * @return The level, <code>null</code> if the polyline should be painted
+	 *         as it is
+	 */
+	Level getLevel(final double scale) {
+		if (this.vertexCount < Constants.POLYLINE_DOWNSAMPLING_THRESHOLD) {
+			return null;
+		}
+		// The widest columns of a power of two not wider than a pixel
+		final int level = Math.getExponent(1 / scale);
+		Level l = this.levels.get(level);
+		if (l == null || l.changes != this.changes) {
+			l = new Level(level, this.changes);
+			this.levels.put(level, l);
+		}
+		l.update(this);
+		return l.raw ? null : l;
+	}
+
+	/**
+	 * @return The translation of the vertices in the x axis
+	 */
+	synchronized double getTranslateX() {
+		return this.translateX;
+	}
+
+	/**
+	 * @return The translation of the vertices in the y axis
+	 */
+	synchronized double getTranslateY() {
+		return this.translateY;
+	}
+
+	@Override
+	public MPolyline draw(final Canvas canvas) {
+		super.doDraw(canvas);
+		return this;
+	}
+
+	@Override
+	public MPolyline color(final Color color) {
+		super.setColor(color);
+		return this;
+	}
+
+	/**
+	 * The polyline is open, it is never filled.
+	 */
+	@Override
+	public MPolyline fill(final boolean value) {
+		return this;
+	}
+
+	@Override
+	public MPolyline stroke(final MStroke stroke) {
+		super.setStroke(stroke);
+		return this;
+	}
+
+	@Override
+	public MPolyline style(final MStyle style) {
+		super.setStyle(style);
+		return this;
+	}
+
+	@Override
+	public MPolyline layer(final int layer) {
+		super.setLayer(layer);
+		return this;
+	}
+
+	@Override
+	public MPolyline label(final String labelText) {
+		return this.label(labelText, Constants.DEFAULT_POINT_LABEL_POSITION);
+	}
+
+	@Override
+	public MPolyline label(final String labelText, final double angleDeg) {
+		super.setLabel(labelText, angleDeg);
+		return this;
+	}
+
+	@Override
+	public MPolyline label(final MLabel label) {
+		label.parent(this);
+		super.setLabel(label);
+		return this;
+	}
+
+	@Override
+	public MPolyline labelStyle(final MStyle style) {
+		super.setLabelStyle(style);
+		return this;
+	}
+
+	/**
+	 * Moves all the vertices by the given vector. The cost is <i>O(1)</i>,
+	 * the cached levels are kept.
+	 */
+	@Override
+	public synchronized MPolyline translate(final double dx, final double dy) {
+		this.translateX += dx;
+		this.translateY += dy;
+		return this;
+	}
+
+	@Override
+	public MPolyline zoomIndifferent(final boolean value) {
+		super.setZoomIndifference(value);
+		return this;
+	}
+
+	/**
+	 * The label is at the first vertex.
+	 */
+	@Override
+	public synchronized MCoordinate getLabelBaseCoordinate() {
+		if (this.vertexCount == 0) {
+			return new MCoordinate(this.translateX, this.translateY);
+		}
+		return new MCoordinate(this.coords[0] + this.translateX,
+				this.coords[1] + this.translateY);
+	}
+
+	@Override
+	public MCoordinate getLabelCoordinates(final double angleDeg) {
+		return super.getLabelCoordinate(angleDeg, 0);
+	}
+
+	@Override
+	public synchronized long getEstimatedSize() {
+		long size = super.getEstimatedSize() + 8L * this.coords.length;
+		for (final Level l : this.levels.values()) {
+			size += l.coords != null ? 8L * l.coords.length : 0;
+		}
+		return size;
+	}
+
+	@Override
+	public synchronized MBoundingBox getBoundingRectangle() {
+		if (this.boundsStale) {
+			this.findBounds();
+		}
+		if (this.vertexCount == 0) {
+			return new MBoundingBox(this.translateX, this.translateY, 0, 0);
+		}
+		return new MBoundingBox(this.minX + this.translateX, this.minY
+				+ this.translateY, this.maxX - this.minX, this.maxY - this.minY);
+	}
+
+	/**
+	 * Finds the min/max x/y coordinates of all the vertices.
+	 */
+	private void findBounds() {
+		this.boundsStale = false;
+		if (this.vertexCount == 0) {
+			return;
+		}
+		this.minX = this.maxX = this.coords[0];
+		this.minY = this.maxY = this.coords[1];
+		for (int i = 2; i < 2 * this.vertexCount; i += 2) {
+			this.extendBounds(this.coords[i], this.coords[i + 1]);
+		}
+	}
+
+	@Override
+	synchronized MBoundingBox getCullingBounds() {
+		if (this.vertexCount == 0) {
+			return null;
+		}
+		return this.getBoundingRectangle();
+	}
+
+}
@@ -0,0 +1,186 @@
+package eu.zidek.augustin.minuscule;
+
+import java.awt.BasicStroke;
+import java.awt.Graphics2D;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+
+/**
+ * A Painter for MPolyline. Long polylines are painted downsampled to the
+ * current zoom level (see <code>MPolyline</code>). The segments lying
+ * entirely on one side of the clip are left out, the rest are stroked as
+ * paths of at most <code>POLYLINE_SEGMENTS_PER_PATH</code> segments, as
+ * Java2D strokes long paths much slower than short ones. Each path starts
+ * again at the last segment of the previous one, so that the joins are drawn
+ * in between, and dashed strokes continue with the dash phase of the length
+ * of the polyline before the path.
+ *
+ * @author Augustin Zidek
+ *
+ */
+public class MPolylinePainter implements SVGPainter {
+
+	@Override
+	public void paint(final MGeometricObject object, final Graphics2D g2d) {
+		final MPolyline polyline = (MPolyline) object;
+		final double scale = Math.abs(g2d.getTransform().getScaleX());
+		final MStroke stroke = getStroke(polyline, scale);
+		MStyle.apply(g2d, polyline.getColor(), stroke);
+		final BasicStroke dashed = stroke instanceof BasicStroke
+				&& ((BasicStroke) stroke).getDashArray() != null ? (BasicStroke) stroke
+				: null;
+
+		synchronized (polyline) {
+			final double tx = polyline.getTranslateX();
+			final double ty = polyline.getTranslateY();
+			// The visible area in the coordinates of the vertices, grown by
+			// the stroke
+			double minX = Double.NEGATIVE_INFINITY;
+			double minY = Double.NEGATIVE_INFINITY;
+			double maxX = Double.POSITIVE_INFINITY;
+			double maxY = Double.POSITIVE_INFINITY;
+			final Shape clip = g2d.getClip();
+			if (clip != null) {
+				final Rectangle2D view = clip.getBounds2D();
+				final double reach = DrawList.getStrokeReach(polyline
+						.getStroke());
+				final double margin = (polyline.isZoomIndifferent() ? reach
+						/ scale : reach) + 1 / scale;
+				minX = view.getMinX() - tx - margin;
+				minY = view.getMinY() - ty - margin;
+				maxX = view.getMaxX() - tx + margin;
+				maxY = view.getMaxY() - ty + margin;
+			}
+
+			final MPolyline.Level level = polyline.getLevel(scale);
+			final double[] coords = level != null ? level.coords
+					: polyline.coords;
+			final int count = level != null ? level.count
+					: polyline.vertexCount;
+			Path2D.Double path = new Path2D.Double();
+			int segments = 0;
+			boolean pen = false;
+			// The length of the polyline up to the current vertex and of the
+			// previous segment, measured for dashed strokes only
+			double distance = 0;
+			double previousLength = 0;
+			for (int i = 1; i < count; i++) {
+				final double x1 = coords[2 * i - 2];
+				final double y1 = coords[2 * i - 1];
+				final double x2 = coords[2 * i];
+				final double y2 = coords[2 * i + 1];
+				final double length = dashed != null ? Math.hypot(x2 - x1, y2
+						- y1) : 0;
+				if (x1 < minX && x2 < minX || x1 > maxX && x2 > maxX
+						|| y1 < minY && y2 < minY || y1 > maxY && y2 > maxY) {
+					pen = false;
+					distance += length;
+					continue;
+				}
+				if (!pen) {
+					// Java2D restarts the dashes at every move, so a dashed
+					// path is continued by a new one
+					if (segments > 0
+							&& (dashed != null || segments >= Constants.POLYLINE_SEGMENTS_PER_PATH)) {
+						g2d.draw(path);
+						path = new Path2D.Double();
+						segments = 0;
+					}
+					if (dashed != null) {
+						g2d.setStroke(getDashedStroke(dashed, distance));
+					}
+					path.moveTo(x1 + tx, y1 + ty);
+					pen = true;
+				}
+				else if (segments >= Constants.POLYLINE_SEGMENTS_PER_PATH) {
+					g2d.draw(path);
+					path = new Path2D.Double();
+					// Start again at the previous segment, so that the join
+					// at its end is drawn
+					if (dashed != null) {
+						g2d.setStroke(getDashedStroke(dashed, distance
+								- previousLength));
+					}
+					path.moveTo(coords[2 * i - 4] + tx, coords[2 * i - 3] + ty);
+					path.lineTo(x1 + tx, y1 + ty);
+					segments = 1;
+				}
+				path.lineTo(x2 + tx, y2 + ty);
+				segments++;
+				distance += length;
+				previousLength = length;
+			}
+			if (segments > 0) {
+				g2d.draw(path);
+			}
+		}
+	}
+
+	/**
+	 * @return The stroke of the polyline, its thickness divided by the scale
+	 *         if it is zoom indifferent
+	 */
+	private static MStroke getStroke(final MPolyline polyline,
+			final double scale) {
+		final MStroke stroke = polyline.getStroke();
+		if (!polyline.isZoomIndifferent()) {
+			return stroke;
+		}
+		return stroke.setThickness((float) (stroke.getThickness() / scale));
+	}
+
+	/**
+	 * @return The dashed stroke continuing the dashes after the given length
+	 *         of the polyline
+	 */
+	private static Stroke getDashedStroke(final BasicStroke stroke,
+			final double distance) {
+		if (distance == 0) {
+			return stroke;
+		}
+		double period = 0;
+		for (final float dash : stroke.getDashArray()) {
+			period += dash;
+		}
+		final double phase = stroke.getDashPhase() + distance;
+		return new BasicStroke(stroke.getLineWidth(), stroke.getEndCap(),
+				stroke.getLineJoin(), stroke.getMiterLimit(),
+				stroke.getDashArray(), (float) (period > 0 ? phase % period
+						: phase));
+	}
+
+	/**
+	 * Exports the polyline downsampled to the scale of the exported view.
+	 */
+	@Override
+	public void paintSVG(final MGeometricObject object, final SVGWriter svg)
+			throws IOException {
+		final MPolyline polyline = (MPolyline) object;
+		final double scale = Math.abs(svg.getScale());
+		final MStroke stroke = getStroke(polyline, scale);
+		final Path2D.Double path = new Path2D.Double();
+		synchronized (polyline) {
+			final double tx = polyline.getTranslateX();
+			final double ty = polyline.getTranslateY();
+			final MPolyline.Level level = polyline.getLevel(scale);
+			final double[] coords = level != null ? level.coords
+					: polyline.coords;
+			final int count = level != null ? level.count
+					: polyline.vertexCount;
+			for (int i = 0; i < count; i++) {
+				if (i == 0) {
+					path.moveTo(coords[0] + tx, coords[1] + ty);
+				}
+				else {
+					path.lineTo(coords[2 * i] + tx, coords[2 * i + 1] + ty);
+				}
+			}
+		}
+		if (path.getCurrentPoint() != null) {
+			svg.shape(path, polyline.getColor(), stroke, false);
+		}
+	}
+}
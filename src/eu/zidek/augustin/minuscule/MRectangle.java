@@ -154,6 +154,12 @@ public class MRectangle extends MGeometricObject {
 		return this;
 	}
 
+	@Override
+	public MRectangle style(final MStyle style) {
+		super.setStyle(style);
+		return this;
+	}
+
 	@Override
 	public MRectangle layer(final int layer) {
 		super.setLayer(layer);
@@ -168,13 +174,7 @@ public class MRectangle extends MGeometricObject {
 
 	@Override
 	public MRectangle label(final String labelText, final double angleDeg) {
-		final MLabel label = new MLabel(labelText);
-		// Set text, parent and position set by parent to true. Since position
-		// set by parent set, no need to set coordinates.
-		label.text(labelText);
-		label.parent(this);
-		label.positionSetByParent(true, angleDeg);
-		super.setLabel(label);
+		super.setLabel(labelText, angleDeg);
 		return this;
 	}
 
@@ -186,6 +186,12 @@ public class MRectangle extends MGeometricObject {
 		return this;
 	}
 
+	@Override
+	public MRectangle labelStyle(final MStyle style) {
+		super.setLabelStyle(style);
+		return this;
+	}
+
 	@Override
 	public MRectangle zoomIndifferent(final boolean value) {
 		super.setZoomIndifference(value);
@@ -210,7 +216,7 @@ public class MRectangle extends MGeometricObject {
 	public MCoordinate getLabelCoordinates(final double angleDeg) {
 		final MBoundingBox bb = this.getBoundingRectangle();
 		return LabelPositioningUtils.getAutoPlacementToRectangle(angleDeg, bb,
-				super.getLabel().getFont(), super.getLabel().getText());
+				super.getLabelDimensions());
 	}
 
 	@Override
@@ -218,4 +224,9 @@ public class MRectangle extends MGeometricObject {
 		return new MBoundingBox(this.x, this.y, this.width, this.height);
 	}
 
+	@Override
+	MBoundingBox getCullingBounds() {
+		return this.getBoundingRectangle();
+	}
+
 }
@@ -2,6 +2,7 @@ package eu.zidek.augustin.minuscule;
 
 import java.awt.Graphics2D;
 import java.awt.geom.Rectangle2D;
+import java.io.IOException;
 
 /**
  * A Painter for MRectangles.
@@ -9,7 +10,7 @@ import java.awt.geom.Rectangle2D;
  * @author Augustin Zidek
  *
  */
-public class MRectanglePainter implements MGeometricObjectPainter {
+public class MRectanglePainter implements SVGPainter {
 
 	@Override
 	public void paint(final MGeometricObject rectangleObject,
@@ -20,8 +21,7 @@ public class MRectanglePainter implements MGeometricObjectPainter {
 		final Rectangle2D rectangle = new Rectangle2D.Double(object.getX(),
 				object.getY(), object.getWidth(), object.getHeight());
 		// Set stroke and color
-		g2d.setStroke(object.getStroke());
-		g2d.setColor(object.getColor());
+		MStyle.apply(g2d, object.getColor(), object.getStroke());
 
 		// Fill or draw
 		if (object.isFill()) {
@@ -32,4 +32,13 @@ public class MRectanglePainter implements MGeometricObjectPainter {
 		}
 
 	}
+
+	@Override
+	public void paintSVG(final MGeometricObject rectangleObject,
+			final SVGWriter svg) throws IOException {
+		final MRectangle object = (MRectangle) rectangleObject;
+		svg.rect(object.getX(), object.getY(), object.getWidth(),
+				object.getHeight(), object.getColor(), object.getStroke(),
+				object.isFill());
+	}
 }
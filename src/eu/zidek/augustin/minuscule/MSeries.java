@@ -0,0 +1,430 @@
+package eu.zidek.augustin.minuscule;
+
+import java.awt.Color;
+
+/**
+ * A live time series: a line through the samples appended so far, kept in a
+ * ring buffer of a fixed capacity. Appending a sample costs <i>O(1)</i> and
+ * allocates nothing; once the buffer is full, every new sample overwrites the
+ * oldest one, so a signal can be plotted forever in a constant memory.
+ * <p>
+ * The samples are appended in the order of their x coordinate (e.g. the
+ * time). A sample with the y coordinate <code>NaN</code> makes a gap in the
+ * line.
+ * </p>
+ *
+ * <pre>
+ * MSeries signal = new MSeries(1000000).color(Color.RED).draw(canvas);
+ * // On the producer thread
+ * signal.append(t, value);
+ * </pre>
+ *
+ * The producers never wait for the renderer: the samples are published by a
+ * volatile counter and the painter reads them without any lock. The ring
+ * buffer has a few more slots than the capacity, so that the producers write
+ * ahead of the oldest sample kept; if they overwrite a sample while it is
+ * being read, the painter notices it from the counter and reads the samples
+ * again. Producers appending concurrently wait only for each other.
+ * <p>
+ * The painter draws the line decimated to the columns of pixels: for every
+ * column only the lowest and the highest sample in it are connected, so a
+ * frame costs <i>O(v)</i> for <i>v</i> visible samples, but draws only about
+ * twice as many segments as there are columns.
+ * </p>
+ *
+ * @author Augustin Zidek
+ *
+ */
+public class MSeries extends MGeometricObject {
+	private final int capacity;
+	// Number of slots beyond the capacity, written ahead by the producers
+	final int guard;
+	// Maximum number of samples written and not published by a producer
+	final int lag;
+	// The samples, the i-th sample appended is in the slot i % (capacity +
+	// guard)
+	final double[] xs;
+	final double[] ys;
+	// The number of samples appended so far. Written after the sample, so
+	// the samples below it are complete when it is read.
+	volatile long count = 0;
+	// Held by the producers while appending
+	private final Object appendLock = new Object();
+	// Guarded by the append lock, published by the count
+	private double lastX = Double.NEGATIVE_INFINITY;
+	private double firstX = Double.NaN;
+	private double minY = Double.POSITIVE_INFINITY;
+	private double maxY = Double.NEGATIVE_INFINITY;
+	// The number of paints started by the canvas when a repaint was last
+	// requested. No other repaint is requested until the canvas starts
+	// painting, so that a producer appending at a high rate doesn't request
+	// a repaint per sample.
+	private volatile long repaintRequestedAt = -1;
+	// The canvas the series is drawn on, repainted when a sample is appended
+	private volatile Canvas canvas;
+
+	// Guarded by this
+	private double translateX = 0;
+	private double translateY = 0;
+
+	/**
+	 * Creates a new empty series.
+	 *
+	 * @param capacity The maximum number of samples kept
+	 * @throws IllegalArgumentException If the capacity is not positive
+	 */
+	public MSeries(final int capacity) {
+		super(Constants.DEFAULT_LINE_COLOR, Constants.DEFAULT_LINE_FILL, null,
+				Constants.DEFAULT_LINE_STROKE, Constants.DEFAULT_SERIES_LAYER,
+				Constants.DEFAULT_LINE_ZOOM_INDIFFERENCE);
+		if (capacity <= 0) {
+			throw new IllegalArgumentException(
+					Constants.ERROR_MESSAGE_SERIES_CAPACITY);
+		}
+		this.capacity = capacity;
+		this.guard = Math.min(capacity, Constants.SERIES_GUARD_SAMPLES);
+		this.lag = Math.max(1, this.guard / 2);
+		this.xs = new double[capacity + this.guard];
+		this.ys = new double[capacity + this.guard];
+	}
+
+	/**
+	 * Appends a sample. If the series is full, the oldest sample is
+	 * overwritten. Can be called from any thread.
+	 *
+	 * @param x The x coordinate, not lower than the x coordinate of the last
+	 *            sample
+	 * @param y The y coordinate, <code>NaN</code> for a gap
+	 * @return The series with the sample appended
+	 * @throws IllegalArgumentException If the x coordinate is lower than the
+	 *             x coordinate of the last sample, or it is <code>NaN</code>
+	 */
+	public MSeries append(final double x, final double y) {
+		synchronized (this.appendLock) {
+			final long n = this.count;
+			this.put(n, x, y);
+			this.count = n + 1;
+		}
+		this.requestRepaint();
+		return this;
+	}
+
+	/**
+	 * Appends the samples at once. They are published in batches of several
+	 * hundred samples, so the painter doesn't see every single one being
+	 * appended.
+	 *
+	 * @param x The x coordinates of the samples, in ascending order
+	 * @param y The y coordinates of the samples
+	 * @return The series with the samples appended
+	 * @throws IllegalArgumentException If the arrays differ in length or the
+	 *             x coordinates are not in ascending order
+	 */
+	public MSeries append(final double[] x, final double[] y) {
+		if (x.length != y.length) {
+			throw new IllegalArgumentException(
+					Constants.ERROR_MESSAGE_SERIES_LENGTHS);
+		}
+		synchronized (this.appendLock) {
+			long n = this.count;
+			for (int i = 0; i < x.length; i++) {
+				this.put(n, x[i], y[i]);
+				n++;
+				// Published before writing further than the painter expects
+				if (i % this.lag == this.lag - 1) {
+					this.count = n;
+				}
+			}
+			this.count = n;
+		}
+		this.requestRepaint();
+		return this;
+	}
+
+	/**
+	 * Writes the sample into its slot. Called while holding the append lock.
+	 *
+	 * @param i The number of the sample
+	 */
+	private void put(final long i, final double x, final double y) {
+		// Fails for NaN as well
+		if (!(x >= this.lastX)) {
+			throw new IllegalArgumentException(
+					Constants.ERROR_MESSAGE_SERIES_ORDER);
+		}
+		final int slot = (int) (i % this.xs.length);
+		this.xs[slot] = x;
+		this.ys[slot] = y;
+		if (i == 0) {
+			this.firstX = x;
+		}
+		this.lastX = x;
+		if (y < this.minY) {
+			this.minY = y;
+		}
+		if (y > this.maxY) {
+			this.maxY = y;
+		}
+	}
+
+	private void requestRepaint() {
+		final Canvas c = this.canvas;
+		if (c == null) {
+			return;
+		}
+		final long paints = c.getPaintsStarted();
+		if (paints != this.repaintRequestedAt) {
+			this.repaintRequestedAt = paints;
+			c.requestRepaint();
+		}
+	}
+
+	/**
+	 * Removes all the samples.
+	 *
+	 * @return The empty series
+	 */
+	public MSeries clear() {
+		synchronized (this.appendLock) {
+			this.count = 0;
+			this.lastX = Double.NEGATIVE_INFINITY;
+			this.firstX = Double.NaN;
+			this.minY = Double.POSITIVE_INFINITY;
+			this.maxY = Double.NEGATIVE_INFINITY;
+		}
+		this.repaintRequestedAt = -1;
+		this.requestRepaint();
+		return this;
+	}
+
+	/**
+	 * @return The maximum number of samples kept
+	 */
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * @return The number of samples appended so far, including the ones
+	 *         overwritten
+	 */
+	public long getCount() {
+		return this.count;
+	}
+
+	/**
+	 * @return The number of samples kept, i.e. the samples appended so far up
+	 *         to the capacity
+	 */
+	public int size() {
+		return (int) Math.min(this.count, this.capacity);
+	}
+
+	/**
+	 * @param i The number of the sample appended, between
+	 *            <code>getCount() - size()</code> and <code>getCount()</code>
+	 * @return The x coordinate of the sample, translated
+	 * @throws IndexOutOfBoundsException If the sample is not kept
+	 */
+	public double getX(final long i) {
+		final double x = this.xs[this.slot(i)];
+		return x + this.getTranslateX();
+	}
+
+	/**
+	 * @param i The number of the sample appended, between
+	 *            <code>getCount() - size()</code> and <code>getCount()</code>
+	 * @return The y coordinate of the sample, translated
+	 * @throws IndexOutOfBoundsException If the sample is not kept
+	 */
+	public double getY(final long i) {
+		final double y = this.ys[this.slot(i)];
+		return y + this.getTranslateY();
+	}
+
+	private int slot(final long i) {
+		final long n = this.count;
+		if (i < n - this.capacity || i < 0 || i >= n) {
+			throw new IndexOutOfBoundsException("Sample " + i + ", samples: "
+					+ Math.max(0, n - this.capacity) + " to " + n);
+		}
+		return (int) (i % this.xs.length);
+	}
+
+	/**
+	 * @return The translation of the samples in the x axis
+	 */
+	synchronized double getTranslateX() {
+		return this.translateX;
+	}
+
+	/**
+	 * @return The translation of the samples in the y axis
+	 */
+	synchronized double getTranslateY() {
+		return this.translateY;
+	}
+
+	@Override
+	public MSeries draw(final Canvas canvas) {
+		this.canvas = canvas;
+		this.repaintRequestedAt = -1;
+		super.doDraw(canvas);
+		return this;
+	}
+
+	@Override
+	public MSeries color(final Color color) {
+		super.setColor(color);
+		return this;
+	}
+
+	/**
+	 * The series is a line, it is never filled.
+	 */
+	@Override
+	public MSeries fill(final boolean value) {
+		return this;
+	}
+
+	@Override
+	public MSeries stroke(final MStroke stroke) {
+		super.setStroke(stroke);
+		return this;
+	}
+
+	@Override
+	public MSeries style(final MStyle style) {
+		super.setStyle(style);
+		return this;
+	}
+
+	@Override
+	public MSeries layer(final int layer) {
+		super.setLayer(layer);
+		return this;
+	}
+
+	@Override
+	public MSeries label(final String labelText) {
+		return this.label(labelText, Constants.DEFAULT_POINT_LABEL_POSITION);
+	}
+
+	@Override
+	public MSeries label(final String labelText, final double angleDeg) {
+		super.setLabel(labelText, angleDeg);
+		return this;
+	}
+
+	@Override
+	public MSeries label(final MLabel label) {
+		label.parent(this);
+		super.setLabel(label);
+		return this;
+	}
+
+	@Override
+	public MSeries labelStyle(final MStyle style) {
+		super.setLabelStyle(style);
+		return this;
+	}
+
+	/**
+	 * Moves all the samples by the given vector.
+	 */
+	@Override
+	public synchronized MSeries translate(final double dx, final double dy) {
+		this.translateX += dx;
+		this.translateY += dy;
+		return this;
+	}
+
+	@Override
+	public MSeries zoomIndifferent(final boolean value) {
+		super.setZoomIndifference(value);
+		return this;
+	}
+
+	/**
+	 * The label is at the last sample.
+	 */
+	@Override
+	public MCoordinate getLabelBaseCoordinate() {
+		final long n = this.count;
+		if (n == 0) {
+			return new MCoordinate(this.getTranslateX(), this.getTranslateY());
+		}
+		return new MCoordinate(this.getX(n - 1), this.getY(n - 1));
+	}
+
+	@Override
+	public MCoordinate getLabelCoordinates(final double angleDeg) {
+		return super.getLabelCoordinate(angleDeg, 0);
+	}
+
+	/**
+	 * The bounds of the samples kept. The cost is <i>O(n)</i>, the producers
+	 * wait meanwhile.
+	 */
+	@Override
+	public MBoundingBox getBoundingRectangle() {
+		double minY = Double.POSITIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		final double minX;
+		final double maxX;
+		synchronized (this.appendLock) {
+			final long n = this.count;
+			if (n == 0) {
+				return new MBoundingBox(this.getTranslateX(),
+						this.getTranslateY(), 0, 0);
+			}
+			final long first = Math.max(0, n - this.capacity);
+			for (long i = first; i < n; i++) {
+				final double y = this.ys[(int) (i % this.ys.length)];
+				if (y < minY) {
+					minY = y;
+				}
+				if (y > maxY) {
+					maxY = y;
+				}
+			}
+			minX = this.xs[(int) (first % this.xs.length)];
+			maxX = this.lastX;
+		}
+		// Only gaps
+		if (minY > maxY) {
+			minY = maxY = 0;
+		}
+		return new MBoundingBox(minX + this.getTranslateX(), minY
+				+ this.getTranslateY(), maxX - minX, maxY - minY);
+	}
+
+	/**
+	 * The bounds of all the samples appended so far, including the ones
+	 * overwritten, so that they are known without going through the samples.
+	 */
+	@Override
+	MBoundingBox getCullingBounds() {
+		final double x1;
+		final double x2;
+		final double y1;
+		final double y2;
+		synchronized (this.appendLock) {
+			if (this.count == 0 || this.minY > this.maxY) {
+				return null;
+			}
+			x1 = this.firstX;
+			x2 = this.lastX;
+			y1 = this.minY;
+			y2 = this.maxY;
+		}
+		return new MBoundingBox(x1 + this.getTranslateX(), y1
+				+ this.getTranslateY(), x2 - x1, y2 - y1);
+	}
+
+	@Override
+	public long getEstimatedSize() {
+		return super.getEstimatedSize() + 16L * this.xs.length;
+	}
+
+}
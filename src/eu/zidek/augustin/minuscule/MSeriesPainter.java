@@ -0,0 +1,242 @@
+package eu.zidek.augustin.minuscule;
+
+import java.awt.Graphics2D;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+
+/**
+ * A Painter for MSeries. The visible samples are found by a binary search, as
+ * they are sorted by their x coordinate, and decimated to the columns of
+ * pixels: of the samples falling into one column only the lowest and the
+ * highest one are kept, in the order they were appended. The kept samples
+ * are connected by one path, which has at most two points per column.
+ * <p>
+ * The samples are read without any lock. If the producers have overwritten
+ * any of them meanwhile, they are read again, at most
+ * <code>SERIES_READ_ATTEMPTS</code> times.
+ * </p>
+ *
+ * @author Augustin Zidek
+ *
+ */
+public class MSeriesPainter implements SVGPainter {
+
+	@Override
+	public void paint(final MGeometricObject object, final Graphics2D g2d) {
+		final MSeries series = (MSeries) object;
+		final AffineTransform transform = g2d.getTransform();
+		final double scale = Math.abs(transform.getScaleX());
+		final double tx = series.getTranslateX();
+		final double ty = series.getTranslateY();
+		final MStroke stroke = getStroke(series, scale);
+
+		// The visible range of the x coordinates, grown by the stroke
+		double minX = Double.NEGATIVE_INFINITY;
+		double maxX = Double.POSITIVE_INFINITY;
+		final Shape clip = g2d.getClip();
+		if (clip != null) {
+			final Rectangle2D view = clip.getBounds2D();
+			final double reach = DrawList.getStrokeReach(series.getStroke());
+			final double margin = (series.isZoomIndifferent() ? reach / scale
+					: reach) + 1 / scale;
+			minX = view.getMinX() - tx - margin;
+			maxX = view.getMaxX() - tx + margin;
+		}
+
+		// The columns of pixels in the device space
+		final double columnScale = transform.getScaleX();
+		final double columnOffset = transform.getTranslateX() + columnScale
+				* tx;
+		Path2D.Double path = null;
+		for (int attempt = 0; attempt < Constants.SERIES_READ_ATTEMPTS; attempt++) {
+			final long end = series.count;
+			final long start = Math.max(0, end - series.getCapacity());
+			path = decimate(series, start, end, minX, maxX, columnScale,
+					columnOffset, tx, ty);
+			// Nothing overwritten, unless the producers got further than the
+			// guard slots
+			final long now = series.count;
+			if (now >= end && now - end <= series.guard - series.lag) {
+				break;
+			}
+		}
+		MStyle.apply(g2d, series.getColor(), stroke);
+		g2d.draw(path);
+	}
+
+	/**
+	 * @return The stroke of the series, its thickness divided by the scale if
+	 *         it is zoom indifferent
+	 */
+	private static MStroke getStroke(final MSeries series, final double scale) {
+		final MStroke stroke = series.getStroke();
+		if (!series.isZoomIndifferent()) {
+			return stroke;
+		}
+		return stroke.setThickness((float) (stroke.getThickness() / scale));
+	}
+
+	/**
+	 * Decimates the samples in the given x range to the given columns.
+	 *
+	 * @param series The series
+	 * @param start The first sample kept
+	 * @param end The sample after the last one appended
+	 * @param minX The lowest visible x coordinate of the samples
+	 * @param maxX The highest visible x coordinate of the samples
+	 * @param columnScale The width of a unit in the columns
+	 * @param columnOffset The column of the x coordinate 0
+	 * @param tx The translation of the series in the x axis
+	 * @param ty The translation of the series in the y axis
+	 * @return The path through the kept samples
+	 */
+	static Path2D.Double decimate(final MSeries series, final long start,
+			final long end, final double minX, final double maxX,
+			final double columnScale, final double columnOffset,
+			final double tx, final double ty) {
+		final double[] xs = series.xs;
+		final double[] ys = series.ys;
+		final int slots = xs.length;
+		final Path2D.Double path = new Path2D.Double();
+		// One sample out of the view on both sides, so that the line leaves
+		// the view where it should
+		final long from = Math.max(start, search(series, start, end, minX) - 1);
+		final long to = Math.min(end, search(series, start, end, maxX) + 1);
+
+		boolean pen = false;
+		long column = Long.MIN_VALUE;
+		// The lowest and the highest sample of the column, by their numbers
+		long low = -1;
+		long high = -1;
+		double lowX = 0;
+		double lowY = 0;
+		double highX = 0;
+		double highY = 0;
+		int slot = (int) (from % slots);
+		for (long i = from; i < to; i++, slot++) {
+			if (slot == slots) {
+				slot = 0;
+			}
+			final double x = xs[slot];
+			final double y = ys[slot];
+			final long c = (long) Math.floor(x * columnScale + columnOffset);
+			// Gaps and new columns emit the column
+			if (y != y || c != column) {
+				if (low >= 0) {
+					pen = emit(path, pen, low, lowX + tx, lowY + ty, high,
+							highX + tx, highY + ty);
+				}
+				low = high = -1;
+				column = c;
+				if (y != y) {
+					pen = false;
+					continue;
+				}
+			}
+			if (low < 0 || y < lowY) {
+				low = i;
+				lowX = x;
+				lowY = y;
+			}
+			if (high < 0 || y > highY) {
+				high = i;
+				highX = x;
+				highY = y;
+			}
+		}
+		if (low >= 0) {
+			emit(path, pen, low, lowX + tx, lowY + ty, high, highX + tx, highY
+					+ ty);
+		}
+		return path;
+	}
+
+	/**
+	 * Continues the path to the lowest and the highest sample of a column, in
+	 * the order they were appended.
+	 *
+	 * @return <code>true</code>, the pen is down
+	 */
+	private static boolean emit(final Path2D.Double path, final boolean pen,
+			final long low, final double lowX, final double lowY,
+			final long high, final double highX, final double highY) {
+		if (high < low) {
+			lineTo(path, pen, highX, highY);
+			lineTo(path, true, lowX, lowY);
+		}
+		else {
+			lineTo(path, pen, lowX, lowY);
+			if (low < high) {
+				lineTo(path, true, highX, highY);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Continues the path to the given point, or starts it there if the pen is
+	 * up.
+	 *
+	 * @return <code>true</code>, the pen is down
+	 */
+	private static boolean lineTo(final Path2D.Double path, final boolean pen,
+			final double x, final double y) {
+		if (pen) {
+			path.lineTo(x, y);
+		}
+		else {
+			path.moveTo(x, y);
+		}
+		return true;
+	}
+
+	/**
+	 * @return The number of the first sample between the start and the end
+	 *         with the x coordinate not lower than the given one, the end if
+	 *         none
+	 */
+	private static long search(final MSeries series, final long start,
+			final long end, final double x) {
+		final double[] xs = series.xs;
+		long lo = start;
+		long hi = end;
+		while (lo < hi) {
+			final long mid = (lo + hi) >>> 1;
+			if (xs[(int) (mid % xs.length)] < x) {
+				lo = mid + 1;
+			}
+			else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Exports the samples decimated to the columns of the exported view.
+	 */
+	@Override
+	public void paintSVG(final MGeometricObject object, final SVGWriter svg)
+			throws IOException {
+		final MSeries series = (MSeries) object;
+		final double scale = Math.abs(svg.getScale());
+		final MStroke stroke = getStroke(series, scale);
+		final double tx = series.getTranslateX();
+		Path2D.Double path = null;
+		for (int attempt = 0; attempt < Constants.SERIES_READ_ATTEMPTS; attempt++) {
+			final long end = series.count;
+			final long start = Math.max(0, end - series.getCapacity());
+			path = decimate(series, start, end, Double.NEGATIVE_INFINITY,
+					Double.POSITIVE_INFINITY, scale, scale * tx, tx,
+					series.getTranslateY());
+			final long now = series.count;
+			if (now >= end && now - end <= series.guard - series.lag) {
+				break;
+			}
+		}
+		svg.shape(path, series.getColor(), stroke, false);
+	}
+}
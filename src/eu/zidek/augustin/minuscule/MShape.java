@@ -58,6 +58,12 @@ public class MShape extends MGeometricObject {
 		return this;
 	}
 
+	@Override
+	public MShape style(final MStyle style) {
+		super.setStyle(style);
+		return this;
+	}
+
 	@Override
 	public MShape layer(final int layer) {
 		super.setLayer(layer);
@@ -89,13 +95,7 @@ public class MShape extends MGeometricObject {
 
 	@Override
 	public MShape label(final String labelText, final double angleDeg) {
-		final MLabel label = new MLabel(labelText);
-		// Set text, parent and position set by parent to true. Since position
-		// set by parent set, no need to set coordinates.
-		label.text(labelText);
-		label.parent(this);
-		label.positionSetByParent(true, angleDeg);
-		super.setLabel(label);
+		super.setLabel(labelText, angleDeg);
 		return this;
 	}
 
@@ -107,6 +107,12 @@ public class MShape extends MGeometricObject {
 		return this;
 	}
 
+	@Override
+	public MShape labelStyle(final MStyle style) {
+		super.setLabelStyle(style);
+		return this;
+	}
+
 	@Override
 	public MShape zoomIndifferent(final boolean value) {
 		super.setZoomIndifference(value);
@@ -150,4 +156,9 @@ public class MShape extends MGeometricObject {
 				bB.getHeight());
 	}
 
+	@Override
+	MBoundingBox getCullingBounds() {
+		return this.getBoundingRectangle();
+	}
+
 }
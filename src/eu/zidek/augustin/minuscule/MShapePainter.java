@@ -1,6 +1,7 @@
 package eu.zidek.augustin.minuscule;
 
 import java.awt.Graphics2D;
+import java.io.IOException;
 
 /**
  * A Painter for MSahpe.
@@ -8,15 +9,14 @@ import java.awt.Graphics2D;
  * @author Augustin Zidek
  *
  */
-public class MShapePainter implements MGeometricObjectPainter {
+public class MShapePainter implements SVGPainter {
 
 	@Override
 	public void paint(final MGeometricObject object, final Graphics2D g2d) {
 		final MShape shape = (MShape) object;
 
 		// Set the color and stroke
-		g2d.setColor(shape.getColor());
-		g2d.setStroke(shape.getStroke());
+		MStyle.apply(g2d, shape.getColor(), shape.getStroke());
 
 		// Fill or draw according to the fill property of the object
 		if (shape.isFill()) {
@@ -28,4 +28,13 @@ public class MShapePainter implements MGeometricObjectPainter {
 
 	}
 
+	@Override
+	public void paintSVG(final MGeometricObject object, final SVGWriter svg)
+			throws IOException {
+		final MShape shape = (MShape) object;
+		// The path is streamed from the shape's path iterator
+		svg.shape(shape.getShape(), shape.getColor(), shape.getStroke(),
+				shape.isFill());
+	}
+
 }
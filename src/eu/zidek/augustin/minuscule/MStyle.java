@@ -0,0 +1,230 @@
+package eu.zidek.augustin.minuscule;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Stroke;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+
+/**
+ * Immutable style of a geometric object: its color, filling, stroke, font
+ * (used by labels only) and zoom indifference. Styles are interned, i.e. there
+ * is only one instance of every style and all the objects with the same style
+ * share it. Objects built in a loop with <code>new MBasicStroke(2)</code> thus
+ * keep only one stroke between them, the others are garbage collected.
+ * <p>
+ * Styles are created by <code>MStyle.of()</code> and modified by the builder
+ * methods, which return the interned style with the given property changed:
+ * </p>
+ *
+ * <pre>
+ * MStyle red = MStyle.of(Color.RED, true, new MBasicStroke(2), null, false);
+ * MStyle blue = red.color(Color.BLUE);
+ * new MPoint().pos(10, 10).style(red).draw(canvas);
+ * </pre>
+ *
+ * As the objects sharing a style share its color and stroke, the painters set
+ * them only if they differ from the ones set already. Interned styles no
+ * longer used by any object are garbage collected.
+ *
+ * @author Augustin Zidek
+ *
+ */
+public final class MStyle {
+	// The interned styles, weakly referenced, guarded by itself
+	private static final Map<MStyle, WeakReference<MStyle>> INTERNED = new WeakHashMap<>();
+
+	private final Color color;
+	private final boolean fill;
+	private final MStroke stroke;
+	private final Font font;
+	private final boolean zoomIndifferent;
+	private final int hash;
+
+	private MStyle(final Color color, final boolean fill,
+			final MStroke stroke, final Font font,
+			final boolean zoomIndifferent) {
+		this.color = color;
+		this.fill = fill;
+		this.stroke = stroke;
+		this.font = font;
+		this.zoomIndifferent = zoomIndifferent;
+		this.hash = Objects.hash(color, fill, stroke, font, zoomIndifferent);
+	}
+
+	/**
+	 * Gets the style with the given properties. If such a style exists
+	 * already, it is returned instead of a new one.
+	 *
+	 * @param color The color
+	 * @param fill <code>true</code> if the objects should be filled
+	 * @param stroke The stroke
+	 * @param font The font of the labels, may be <code>null</code> for styles
+	 *            of the other objects
+	 * @param zoomIndifferent <code>true</code> if the objects should be zoom
+	 *            indifferent
+	 * @return The interned style
+	 */
+	public static MStyle of(final Color color, final boolean fill,
+			final MStroke stroke, final Font font,
+			final boolean zoomIndifferent) {
+		final MStyle style = new MStyle(color, fill, stroke, font,
+				zoomIndifferent);
+		synchronized (INTERNED) {
+			final WeakReference<MStyle> ref = INTERNED.get(style);
+			final MStyle interned = ref != null ? ref.get() : null;
+			if (interned != null) {
+				return interned;
+			}
+			INTERNED.put(style, new WeakReference<>(style));
+			return style;
+		}
+	}
+
+	/**
+	 * @return The color
+	 */
+	public Color getColor() {
+		return this.color;
+	}
+
+	/**
+	 * @return <code>true</code> if the objects are filled
+	 */
+	public boolean isFill() {
+		return this.fill;
+	}
+
+	/**
+	 * @return The stroke
+	 */
+	public MStroke getStroke() {
+		return this.stroke;
+	}
+
+	/**
+	 * @return The font of the labels, <code>null</code> if not set
+	 */
+	public Font getFont() {
+		return this.font;
+	}
+
+	/**
+	 * @return <code>true</code> if the objects are zoom indifferent
+	 */
+	public boolean isZoomIndifferent() {
+		return this.zoomIndifferent;
+	}
+
+	/**
+	 * @param color The new color
+	 * @return The style with the given color
+	 */
+	public MStyle color(final Color color) {
+		if (Objects.equals(this.color, color)) {
+			return this;
+		}
+		return of(color, this.fill, this.stroke, this.font,
+				this.zoomIndifferent);
+	}
+
+	/**
+	 * @param value <code>true</code> if the objects should be filled
+	 * @return The style with the given filling
+	 */
+	public MStyle fill(final boolean value) {
+		if (this.fill == value) {
+			return this;
+		}
+		return of(this.color, value, this.stroke, this.font,
+				this.zoomIndifferent);
+	}
+
+	/**
+	 * @param stroke The new stroke
+	 * @return The style with the given stroke
+	 */
+	public MStyle stroke(final MStroke stroke) {
+		if (Objects.equals(this.stroke, stroke)) {
+			return this;
+		}
+		return of(this.color, this.fill, stroke, this.font,
+				this.zoomIndifferent);
+	}
+
+	/**
+	 * @param font The new font
+	 * @return The style with the given font
+	 */
+	public MStyle font(final Font font) {
+		if (Objects.equals(this.font, font)) {
+			return this;
+		}
+		return of(this.color, this.fill, this.stroke, font,
+				this.zoomIndifferent);
+	}
+
+	/**
+	 * @param value <code>true</code> if the objects should be zoom
+	 *            indifferent
+	 * @return The style with the given zoom indifference
+	 */
+	public MStyle zoomIndifferent(final boolean value) {
+		if (this.zoomIndifferent == value) {
+			return this;
+		}
+		return of(this.color, this.fill, this.stroke, this.font, value);
+	}
+
+	/**
+	 * Sets the color and the stroke of the graphics, skipping the ones which
+	 * are set already. Objects sharing a style share the same instances, so
+	 * comparing the references is enough. The paint is compared rather than
+	 * the color, as setting a gradient or texture paint leaves the color as
+	 * it was.
+	 *
+	 * @param g2d The graphics
+	 * @param color The color to be set
+	 * @param stroke The stroke to be set
+	 */
+	static void apply(final Graphics2D g2d, final Color color,
+			final Stroke stroke) {
+		if (g2d.getPaint() != color) {
+			g2d.setColor(color);
+		}
+		if (g2d.getStroke() != stroke) {
+			g2d.setStroke(stroke);
+		}
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof MStyle)) {
+			return false;
+		}
+		final MStyle other = (MStyle) obj;
+		return this.hash == other.hash && this.fill == other.fill
+				&& this.zoomIndifferent == other.zoomIndifferent
+				&& Objects.equals(this.color, other.color)
+				&& Objects.equals(this.stroke, other.stroke)
+				&& Objects.equals(this.font, other.font);
+	}
+
+	@Override
+	public int hashCode() {
+		return this.hash;
+	}
+
+	@Override
+	public String toString() {
+		return "MStyle[color=" + this.color + ", fill=" + this.fill
+				+ ", stroke=" + this.stroke + ", font=" + this.font
+				+ ", zoomIndifferent=" + this.zoomIndifferent + "]";
+	}
+}
@@ -12,10 +12,9 @@ import java.awt.event.KeyListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseWheelListener;
-import java.awt.image.BufferedImage;
-import java.io.IOException;
+import java.io.File;
+import java.util.function.BiConsumer;
 
-import javax.imageio.ImageIO;
 import javax.swing.JButton;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
@@ -23,6 +22,7 @@ import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JSlider;
+import javax.swing.SwingUtilities;
 import javax.swing.border.EmptyBorder;
 import javax.swing.filechooser.FileFilter;
 import javax.swing.filechooser.FileNameExtensionFilter;
@@ -157,10 +157,6 @@ public class MinusculeWindow {
 		btnSaveImage.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				// Get the image from the canvas
-				final BufferedImage img = MinusculeWindow.this.canvas
-						.getImage();
-
 				final JFileChooser fc = new JFileChooser();
 				// Set up the filter for .png files
 				final FileFilter filter = new FileNameExtensionFilter(
@@ -172,23 +168,8 @@ public class MinusculeWindow {
 
 				// If file selected, save the canvas image into the given path
 				if (returnVal == JFileChooser.APPROVE_OPTION) {
-					try {
-						// Write the image to the given file
-						ImageIO.write(img, "png", fc.getSelectedFile());
-						// Show a message confirming success
-						JOptionPane.showMessageDialog(
-								MinusculeWindow.this.frame, "Image "
-										+ fc.getSelectedFile().toString()
-										+ " saved successfully.");
-					}
-					catch (final IOException e1) {
-						// On error, show error message
-						JOptionPane
-								.showMessageDialog(MinusculeWindow.this.frame,
-										Constants.ERROR_MESSAGE_SAVE_IMAGE,
-										"Error saving image",
-										JOptionPane.ERROR_MESSAGE);
-					}
+					MinusculeWindow.this.saveImage(btnSaveImage,
+							fc.getSelectedFile());
 				}
 			}
 		});
@@ -290,6 +271,62 @@ public class MinusculeWindow {
 		this.canvas.addKeyListener(keyListener);
 	}
 
+	/**
+	 * Saves the canvas image into the given file in the background. The save
+	 * button shows the progress and is disabled until the image is written,
+	 * the rest of the UI stays responsive.
+	 * 
+	 * @param btnSave The save button
+	 * @param file The file into which the image should be saved
+	 */
+	private void saveImage(final JButton btnSave, final File file) {
+		final String btnText = btnSave.getText();
+		btnSave.setEnabled(false);
+
+		// The progress is reported from the worker thread
+		final ExportProgressListener progress = new ExportProgressListener() {
+			@Override
+			public void exportProgress(final double value) {
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						btnSave.setText(String.format(
+								Constants.BTN_SAVE_PROGRESS, value * 100));
+					}
+				});
+			}
+		};
+
+		this.canvas.saveScreenShotAsync(file, progress).whenComplete(
+				new BiConsumer<File, Throwable>() {
+					@Override
+					public void accept(final File saved, final Throwable error) {
+						SwingUtilities.invokeLater(new Runnable() {
+							@Override
+							public void run() {
+								btnSave.setText(btnText);
+								btnSave.setEnabled(true);
+								// Show a message confirming success
+								if (error == null) {
+									JOptionPane.showMessageDialog(
+											MinusculeWindow.this.frame,
+											"Image " + saved.toString()
+													+ " saved successfully.");
+								}
+								// On error, show error message
+								else {
+									JOptionPane.showMessageDialog(
+											MinusculeWindow.this.frame,
+											Constants.ERROR_MESSAGE_SAVE_IMAGE,
+											"Error saving image",
+											JOptionPane.ERROR_MESSAGE);
+								}
+							}
+						});
+					}
+				});
+	}
+
 	/**
 	 * @return The canvas within this window that can be drawn on
 	 */
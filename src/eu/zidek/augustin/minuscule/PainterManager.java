@@ -12,6 +12,9 @@ import java.util.Map;
 public class PainterManager {
 	// Internal map holding the pairs
 	private final Map<Class<?>, MGeometricObjectPainter> shapePainterMap;
+	// Paints the labels attached by label(String), which have no class of
+	// their own
+	private final MLabelPainter attachedLabelPainter;
 
 	/**
 	 * Initializes the <code>PainterManager</code> which makes sure that the
@@ -35,6 +38,11 @@ public class PainterManager {
 				pointPainter, labelPainter);
 		final MShapePainter shapePainter = new MShapePainter();
 		final MRectanglePainter rectanglePainter = new MRectanglePainter();
+		final MCompactScenePainter compactScenePainter = new MCompactScenePainter();
+		final MMappedPointsPainter mappedPointsPainter = new MMappedPointsPainter();
+		final MPointPyramidPainter pointPyramidPainter = new MPointPyramidPainter();
+		final MSeriesPainter seriesPainter = new MSeriesPainter();
+		final MPolylinePainter polylinePainter = new MPolylinePainter();
 
 		// Pair the (built-in) geometric objects with their respective painters
 		this.shapePainterMap.put(MPoint.class, pointPainter);
@@ -43,6 +51,20 @@ public class PainterManager {
 		this.shapePainterMap.put(MPolygon.class, polygonPainter);
 		this.shapePainterMap.put(MShape.class, shapePainter);
 		this.shapePainterMap.put(MRectangle.class, rectanglePainter);
+		this.shapePainterMap.put(MCompactScene.class, compactScenePainter);
+		this.shapePainterMap.put(MMappedPoints.class, mappedPointsPainter);
+		this.shapePainterMap.put(MPointPyramid.class, pointPyramidPainter);
+		this.shapePainterMap.put(MSeries.class, seriesPainter);
+		this.shapePainterMap.put(MPolyline.class, polylinePainter);
+		this.attachedLabelPainter = labelPainter;
+	}
+
+	/**
+	 * @return The painter of the labels attached to the objects by
+	 *         <code>label(String)</code>
+	 */
+	MLabelPainter getAttachedLabelPainter() {
+		return this.attachedLabelPainter;
 	}
 
 	/**
@@ -73,7 +95,8 @@ public class PainterManager {
 	 * @param geometricObject The class of the geometric object
 	 * @param painter The painter for these geometric objects
 	 */
-	public void registerPainter(final Class<MGeometricObject> geometricObject,
+	public void registerPainter(
+			final Class<? extends MGeometricObject> geometricObject,
 			final MGeometricObjectPainter painter) {
 		// Add the pair into the map
 		this.shapePainterMap.put(geometricObject, painter);
@@ -0,0 +1,74 @@
+package eu.zidek.augustin.minuscule;
+
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+
+/**
+ * Performance overlay drawn over the scene in the top-left corner of the
+ * canvas. It shows the frame rate, the last and the 99th percentile frame
+ * time, the object counts, the number of objects waiting in the buffer, the
+ * effects of the ingestion policy and the heap usage.
+ * <p>
+ * The overlay is painted as the last step of <code>paintComponent()</code>,
+ * in the screen coordinates, so it is updated exactly when the canvas is
+ * repainted and never causes any repaints on its own. The shown values are
+ * those of the previous frame, as the current one is not finished yet.
+ * </p>
+ *
+ * @author Augustin Zidek
+ *
+ */
+class PerformanceHUD {
+	private final Canvas canvas;
+
+	/**
+	 * @param canvas The canvas whose performance is shown
+	 */
+	PerformanceHUD(final Canvas canvas) {
+		this.canvas = canvas;
+	}
+
+	/**
+	 * Paints the overlay.
+	 *
+	 * @param g2d The graphics of the canvas, not transformed
+	 */
+	void paint(final Graphics2D g2d) {
+		final RenderStats stats = this.canvas.getRenderStats();
+		final Runtime rt = Runtime.getRuntime();
+		final long usedMB = (rt.totalMemory() - rt.freeMemory()) >> 20;
+		final long maxMB = rt.maxMemory() >> 20;
+		final int drawn = stats.getLastFrameObjectsDrawn();
+		final int culled = stats.getLastFrameObjectsCulled();
+
+		final String[] lines = {
+				String.format("%.1f fps", this.canvas.getMeasuredFrameRate()),
+				String.format("frame %.1f ms, p99 %.1f ms",
+						stats.getLastFrameTime(), stats.getFrameTimeP99()),
+				String.format("objects %d, visible %d, culled %d",
+						drawn + culled, drawn, culled),
+				String.format("pending %d, dropped %d, stalled %.0f ms",
+						stats.getBufferSize(), stats.getObjectsDropped(),
+						stats.getIngestionStallTime()),
+				String.format("heap %d / %d MB", usedMB, maxMB) };
+
+		g2d.setFont(Constants.HUD_FONT);
+		final FontMetrics fm = g2d.getFontMetrics();
+		int width = 0;
+		for (final String line : lines) {
+			width = Math.max(width, fm.stringWidth(line));
+		}
+		final int pad = Constants.HUD_PADDING;
+		final int lineHeight = fm.getHeight();
+
+		// Translucent box, so that the scene stays visible below
+		g2d.setColor(Constants.HUD_BACKGROUND);
+		g2d.fillRect(pad, pad, width + 2 * pad, lines.length * lineHeight + 2
+				* pad);
+		g2d.setColor(Constants.HUD_COLOR);
+		for (int i = 0; i < lines.length; i++) {
+			g2d.drawString(lines[i], 2 * pad, 2 * pad + i * lineHeight
+					+ fm.getAscent());
+		}
+	}
+}
@@ -0,0 +1,432 @@
+package eu.zidek.augustin.minuscule;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Builds a point pyramid, the multi-resolution file of points drawn by
+ * {@link MPointPyramid}, from a file of points too large to be scanned on
+ * every frame. The pyramid is a quadtree: every node holds a subsample of the
+ * points in its square, spread evenly over it, and its children the rest.
+ * The root thus holds a coarse overview of the whole set and every level down
+ * doubles the resolution. Every point is in exactly one node.
+ * <p>
+ * The subsample is taken by a grid over the node: a point stays in the node
+ * if its cell of the grid is empty, otherwise it is passed to the child of
+ * its quadrant. The grid has about as many cells as the capacity of a node.
+ * Nodes with no more points than the capacity keep all of them, so do the
+ * nodes at the maximum depth (which only happens for many duplicates).
+ * </p>
+ * <p>
+ * The build works out of core, with memory independent of the number of
+ * points. The points passed to the children are streamed into temporary
+ * files, which are built depth first, so the temporary files never hold more
+ * points than the source. The records, including their attributes, are
+ * copied unchanged.
+ * </p>
+ *
+ * <pre>
+ * MMappedPoints points = new MMappedPoints(source);
+ * new PointPyramidBuilder(points).nodeCapacity(8192).build(pyramid);
+ * new MPointPyramid(pyramid).draw(canvas);
+ * </pre>
+ *
+ * @author Augustin Zidek
+ *
+ */
+public class PointPyramidBuilder {
+	// Layout of the header of the pyramid, the data of the nodes follow and
+	// the table of the nodes is at the end
+	static final int HEADER = 80;
+	static final int HEADER_RECORD_SIZE = 8;
+	static final int HEADER_BYTE_ORDER = 12;
+	static final int HEADER_NODE_COUNT = 16;
+	static final int HEADER_GRID_SIZE = 20;
+	static final int HEADER_TABLE_OFFSET = 24;
+	static final int HEADER_POINT_COUNT = 32;
+	static final int HEADER_BOUNDS = 40;
+	// Layout of a node in the table: the square {minX, minY, side}, the
+	// offset and the count of its points, its level and its four children
+	static final int NODE = 64;
+	static final int NODE_SIDE = 16;
+	static final int NODE_OFFSET = 24;
+	static final int NODE_POINTS = 32;
+	static final int NODE_LEVEL = 36;
+	static final int NODE_CHILDREN = 40;
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private final MMappedPoints source;
+	private int nodeCapacity = Constants.DEFAULT_PYRAMID_NODE_CAPACITY;
+	private int maxDepth = Constants.DEFAULT_PYRAMID_MAX_DEPTH;
+	private File tempDirectory = null;
+
+	// State of the build
+	private int recordSize;
+	private ByteOrder order;
+	private int gridSize;
+	private FileChannel out;
+	private FileChannel table;
+	private ByteBuffer outBuffer;
+	private int nodeCount;
+
+	/**
+	 * Creates a new builder of the pyramid of the given points.
+	 *
+	 * @param source The points, their translation is ignored
+	 */
+	public PointPyramidBuilder(final MMappedPoints source) {
+		this.source = source;
+	}
+
+	/**
+	 * Sets the number of points the nodes hold, which is roughly the number
+	 * of points loaded at once. The default is 4096.
+	 *
+	 * @param capacity The capacity of a node
+	 * @return The builder with modified capacity
+	 */
+	public PointPyramidBuilder nodeCapacity(final int capacity) {
+		this.nodeCapacity = Math.max(1, capacity);
+		return this;
+	}
+
+	/**
+	 * Sets the maximum depth of the tree. The nodes at this depth keep all
+	 * their points. The default is 20.
+	 *
+	 * @param depth The maximum depth, the root is at the depth 0
+	 * @return The builder with modified maximum depth
+	 */
+	public PointPyramidBuilder maxDepth(final int depth) {
+		this.maxDepth = Math.max(0, depth);
+		return this;
+	}
+
+	/**
+	 * Sets the directory of the temporary files. The default is the directory
+	 * of the pyramid.
+	 *
+	 * @param directory The directory of the temporary files
+	 * @return The builder with modified temporary directory
+	 */
+	public PointPyramidBuilder tempDirectory(final File directory) {
+		this.tempDirectory = directory;
+		return this;
+	}
+
+	/**
+	 * Builds the pyramid. The cost is <i>O(n*d)</i> reads and writes of the
+	 * records, where <i>d</i> is the depth of the tree.
+	 *
+	 * @param target The file of the pyramid, overwritten if it exists
+	 * @throws IOException If an error occurs during reading or writing
+	 */
+	public synchronized void build(final File target) throws IOException {
+		this.recordSize = this.source.getRecordSize();
+		this.order = this.source.getByteOrder();
+		this.gridSize = Math.max(1,
+				(int) Math.ceil(Math.sqrt(this.nodeCapacity)));
+		this.nodeCount = 1;
+		this.outBuffer = ByteBuffer.allocate(BUFFER_SIZE - BUFFER_SIZE
+				% this.recordSize);
+		final File tempDir = this.tempDirectory != null ? this.tempDirectory
+				: target.getAbsoluteFile().getParentFile();
+		final File tableFile = File.createTempFile(target.getName(), ".nodes",
+				tempDir);
+
+		// The root is a square, so are all the nodes
+		final MBoundingBox bounds = this.source.getFileBounds();
+		double side = Math.max(bounds.width, bounds.height);
+		if (!(side > 0)) {
+			side = 1;
+		}
+
+		try (final FileChannel outChannel = FileChannel.open(target.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+				final FileChannel tableChannel = FileChannel.open(
+						tableFile.toPath(), StandardOpenOption.WRITE)) {
+			this.out = outChannel;
+			this.table = tableChannel;
+			this.out.position(HEADER);
+			this.buildNode(0, 0, bounds.x, bounds.y, side,
+					new MappedReader(this.source), this.source.size(),
+					tempDir);
+
+			// The table goes after the data, the header last, so an
+			// interrupted build leaves an invalid pyramid
+			final long tableOffset = this.out.position();
+			try (final FileChannel tableIn = FileChannel.open(
+					tableFile.toPath(), StandardOpenOption.READ)) {
+				long copied = 0;
+				while (copied < tableIn.size()) {
+					copied += tableIn.transferTo(copied, tableIn.size()
+							- copied, this.out);
+				}
+			}
+			final ByteBuffer header = ByteBuffer.allocate(HEADER);
+			header.putLong(Constants.PYRAMID_MAGIC).putInt(this.recordSize)
+					.putInt(this.order == ByteOrder.BIG_ENDIAN ? 1 : 0)
+					.putInt(this.nodeCount).putInt(this.gridSize)
+					.putLong(tableOffset).putLong(this.source.size())
+					.putDouble(bounds.x).putDouble(bounds.y)
+					.putDouble(bounds.x + bounds.width)
+					.putDouble(bounds.y + bounds.height).putDouble(side);
+			header.flip();
+			this.out.position(0);
+			writeFully(this.out, header);
+		}
+		finally {
+			Files.deleteIfExists(tableFile.toPath());
+			this.out = null;
+			this.table = null;
+			this.outBuffer = null;
+		}
+	}
+
+	/**
+	 * Builds the node from the given points: keeps the subsample, streams
+	 * the rest into the files of the children, writes the node into the
+	 * table and builds the children.
+	 */
+	private void buildNode(final int node, final int level, final double minX,
+			final double minY, final double side, final RecordReader in,
+			final long count, final File tempDir) throws IOException {
+		final boolean keepAll = count <= this.nodeCapacity
+				|| level >= this.maxDepth;
+		final int g = this.gridSize;
+		final long[] occupied = new long[(g * g + 63) / 64];
+		final double half = side / 2;
+		final File[] childFiles = new File[4];
+		final FileChannel[] childChannels = new FileChannel[4];
+		final ByteBuffer[] childBuffers = new ByteBuffer[4];
+		final long[] childCounts = new long[4];
+		final long offset = this.out.position() + this.outBuffer.position();
+		int kept = 0;
+
+		try {
+			while (in.next()) {
+				final ByteBuffer buffer = in.buffer;
+				final int at = in.position;
+				final double x = buffer.getDouble(at);
+				final double y = buffer.getDouble(at + 8);
+				// NaN can't be placed into the tree
+				if (x != x || y != y) {
+					continue;
+				}
+				boolean keep = keepAll;
+				if (!keep) {
+					final int cx = Math.min(g - 1,
+							Math.max(0, (int) ((x - minX) / side * g)));
+					final int cy = Math.min(g - 1,
+							Math.max(0, (int) ((y - minY) / side * g)));
+					final int cell = cy * g + cx;
+					keep = (occupied[cell >>> 6] & (1L << cell)) == 0;
+					occupied[cell >>> 6] |= 1L << cell;
+				}
+				if (keep) {
+					this.copyRecord(buffer, at, this.outBuffer, this.out);
+					kept++;
+					continue;
+				}
+				final int q = (x >= minX + half ? 1 : 0)
+						+ (y >= minY + half ? 2 : 0);
+				if (childChannels[q] == null) {
+					childFiles[q] = File.createTempFile("pyramid", ".points",
+							tempDir);
+					childChannels[q] = FileChannel.open(childFiles[q].toPath(),
+							StandardOpenOption.WRITE);
+					childBuffers[q] = ByteBuffer.allocate(this.outBuffer
+							.capacity());
+				}
+				this.copyRecord(buffer, at, childBuffers[q], childChannels[q]);
+				childCounts[q]++;
+			}
+			// Nothing but the files is kept during the build of the children
+			in.close();
+			for (int q = 0; q < 4; q++) {
+				if (childChannels[q] != null) {
+					childBuffers[q].flip();
+					writeFully(childChannels[q], childBuffers[q]);
+					childChannels[q].close();
+					childChannels[q] = null;
+					childBuffers[q] = null;
+				}
+			}
+
+			// Number the children and write the node
+			final int[] children = { -1, -1, -1, -1 };
+			for (int q = 0; q < 4; q++) {
+				if (childCounts[q] > 0) {
+					children[q] = this.nodeCount++;
+				}
+			}
+			final ByteBuffer entry = ByteBuffer.allocate(NODE);
+			entry.putDouble(minX).putDouble(minY).putDouble(side)
+					.putLong(offset).putInt(kept).putInt(level);
+			for (final int child : children) {
+				entry.putInt(child);
+			}
+			// Including the padding at the end
+			entry.rewind();
+			while (entry.hasRemaining()) {
+				this.table.write(entry, (long) node * NODE + entry.position());
+			}
+
+			// Depth first, so that the files of the children of only one
+			// node per level exist at a time
+			for (int q = 0; q < 4; q++) {
+				if (children[q] < 0) {
+					continue;
+				}
+				this.buildNode(children[q], level + 1, minX + (q & 1) * half,
+						minY + (q >> 1) * half, half, new FileReader(
+								childFiles[q], this.recordSize, this.order),
+						childCounts[q], tempDir);
+				Files.delete(childFiles[q].toPath());
+				childFiles[q] = null;
+			}
+		}
+		finally {
+			for (int q = 0; q < 4; q++) {
+				if (childChannels[q] != null) {
+					childChannels[q].close();
+				}
+				if (childFiles[q] != null) {
+					Files.deleteIfExists(childFiles[q].toPath());
+				}
+			}
+			in.close();
+		}
+		// The data of the root ends the data of the pyramid
+		if (level == 0) {
+			this.outBuffer.flip();
+			writeFully(this.out, this.outBuffer);
+		}
+	}
+
+	/**
+	 * Copies the record into the buffer, writing the buffer into the channel
+	 * when full.
+	 */
+	private void copyRecord(final ByteBuffer from, final int at,
+			final ByteBuffer to, final FileChannel channel) throws IOException {
+		if (to.remaining() < this.recordSize) {
+			to.flip();
+			writeFully(channel, to);
+		}
+		for (int i = 0; i < this.recordSize; i++) {
+			to.put(from.get(at + i));
+		}
+	}
+
+	/**
+	 * Writes the remaining bytes of the buffer and clears it.
+	 */
+	private static void writeFully(final FileChannel channel,
+			final ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Reads the records one by one. The current record is in the buffer at
+	 * the position.
+	 */
+	private abstract static class RecordReader {
+		ByteBuffer buffer;
+		int position;
+
+		/**
+		 * @return <code>false</code> if there are no more records
+		 */
+		abstract boolean next() throws IOException;
+
+		void close() throws IOException {
+			// Nothing to close by default
+		}
+	}
+
+	/**
+	 * Reads the records of the mapped source.
+	 */
+	private static final class MappedReader extends RecordReader {
+		private final MMappedPoints points;
+		private long next = 0;
+		private long chunkEnd = 0;
+		private int chunk = -1;
+
+		MappedReader(final MMappedPoints points) {
+			this.points = points;
+		}
+
+		@Override
+		boolean next() {
+			if (this.next >= this.points.recordCount) {
+				return false;
+			}
+			if (this.next == this.chunkEnd) {
+				this.chunk++;
+				this.buffer = this.points.getChunk(this.chunk);
+				this.position = 0;
+				this.chunkEnd = Math.min(this.points.recordCount, this.next
+						+ this.points.recordsPerChunk);
+			}
+			else {
+				this.position += this.points.getRecordSize();
+			}
+			this.next++;
+			return true;
+		}
+	}
+
+	/**
+	 * Reads the records of a temporary file through a buffer.
+	 */
+	private static final class FileReader extends RecordReader {
+		private final FileChannel channel;
+		private final int recordSize;
+
+		FileReader(final File file, final int recordSize,
+				final ByteOrder order) throws IOException {
+			this.channel = FileChannel.open(file.toPath(),
+					StandardOpenOption.READ);
+			this.recordSize = recordSize;
+			this.buffer = ByteBuffer.allocate(
+					BUFFER_SIZE - BUFFER_SIZE % recordSize).order(order);
+			this.buffer.limit(0);
+			this.position = -recordSize;
+		}
+
+		@Override
+		boolean next() throws IOException {
+			this.position += this.recordSize;
+			if (this.position + this.recordSize <= this.buffer.limit()) {
+				return true;
+			}
+			// Refill with whole records
+			this.buffer.clear();
+			while (this.buffer.hasRemaining()
+					&& this.channel.read(this.buffer) >= 0) {
+				// Reading until full or the end of the file
+			}
+			this.buffer.flip();
+			this.position = 0;
+			return this.buffer.limit() >= this.recordSize;
+		}
+
+		@Override
+		void close() throws IOException {
+			this.channel.close();
+			this.buffer = null;
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package eu.zidek.augustin.minuscule;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Java Flight Recorder events of the rendering and ingestion pipeline. They
+ * show up in JDK Mission Control under the category <i>Minuscule</i>, next to
+ * the GC pauses and safepoints, so the rendering stalls can be correlated with
+ * them.
+ * <p>
+ * Every event can be enabled, disabled and given a threshold in the JFR
+ * configuration (<code>.jfc</code> file or <code>-XX:StartFlightRecording</code>
+ * options), using the names below. The frequent events (painter runs and label
+ * metrics) are disabled by default. When an event is disabled or no recording
+ * is running, emitting it costs next to nothing: the event object is not
+ * allocated after the JIT compilation and the fields are not filled in.
+ * </p>
+ *
+ * @author Augustin Zidek
+ *
+ */
+class RenderEvents {
+
+	private RenderEvents() {
+		// Holder of the event classes only
+	}
+
+	/**
+	 * One frame painted on the screen.
+	 */
+	@Name("eu.zidek.augustin.minuscule.PaintFrame")
+	@Label("Paint Frame")
+	@Category({ "Minuscule", "Rendering" })
+	@Description("A frame of the canvas painted on the EDT")
+	@Threshold("0 ms")
+	@StackTrace(false)
+	static final class PaintFrame extends Event {
+		@Label("Objects")
+		@Description("Number of objects in the scene")
+		int objectCount;
+
+		@Label("Objects Drawn")
+		int objectsDrawn;
+	}
+
+	/**
+	 * Newly added objects moved from the buffer into the queue.
+	 */
+	@Name("eu.zidek.augustin.minuscule.BufferFlush")
+	@Label("Buffer Flush")
+	@Category({ "Minuscule", "Ingestion" })
+	@StackTrace(false)
+	static final class BufferFlush extends Event {
+		@Label("Batch Size")
+		@Description("Number of objects flushed from the buffer")
+		int batchSize;
+	}
+
+	/**
+	 * The queue sorted by the layers of the objects.
+	 */
+	@Name("eu.zidek.augustin.minuscule.LayerSort")
+	@Label("Layer Sort")
+	@Category({ "Minuscule", "Ingestion" })
+	@StackTrace(false)
+	static final class LayerSort extends Event {
+		@Label("Objects")
+		int objectCount;
+	}
+
+	/**
+	 * A run of consecutive objects of the same class painted by their painter.
+	 * Timing runs instead of single objects samples the painters by class at
+	 * a fraction of the cost.
+	 */
+	@Name("eu.zidek.augustin.minuscule.PainterRun")
+	@Label("Painter Run")
+	@Category({ "Minuscule", "Rendering" })
+	@Description("Consecutive objects of one class painted by their painter")
+	@Enabled(false)
+	@StackTrace(false)
+	static final class PainterRun extends Event {
+		@Label("Object Class")
+		Class<?> objectClass;
+
+		@Label("Objects")
+		int objectCount;
+	}
+
+	/**
+	 * Font metrics of a label computed.
+	 */
+	@Name("eu.zidek.augustin.minuscule.LabelMetrics")
+	@Label("Label Metrics")
+	@Category({ "Minuscule", "Rendering" })
+	@Description("Dimensions of a label computed from the font metrics")
+	@Enabled(false)
+	@StackTrace(false)
+	static final class LabelMetrics extends Event {
+		@Label("Text Length")
+		int textLength;
+
+		@Label("Font")
+		String font;
+	}
+
+	/**
+	 * One stage of an image or SVG export.
+	 */
+	@Name("eu.zidek.augustin.minuscule.ImageExport")
+	@Label("Image Export")
+	@Category({ "Minuscule", "Export" })
+	static final class ImageExport extends Event {
+		@Label("Stage")
+		@Description("rasterize, encode or svg")
+		String stage;
+
+		@Label("Format")
+		String format;
+
+		@Label("Width")
+		int width;
+
+		@Label("Height")
+		int height;
+
+		@Label("File Size")
+		@DataAmount
+		long fileSize;
+	}
+}
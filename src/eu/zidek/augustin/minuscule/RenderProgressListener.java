@@ -0,0 +1,29 @@
+package eu.zidek.augustin.minuscule;
+
+/**
+ * Listener notified about the progress of the frames painted in the
+ * background (see {@link Canvas#setBackgroundRendering(boolean)}).
+ *
+ * Note that the listener is called from the render thread, not from the EDT.
+ * If it updates any Swing components, it has to use
+ * <code>SwingUtilities.invokeLater()</code>.
+ *
+ * @author Augustin Zidek
+ *
+ */
+public interface RenderProgressListener {
+
+	/**
+	 * Called when the frame being painted has progressed.
+	 *
+	 * @param progress The fraction of the objects painted, between 0 and 1
+	 */
+	public void renderProgress(final double progress);
+
+	/**
+	 * Called when the frame being painted has been cancelled, because the
+	 * view or the objects changed meanwhile. A new frame follows.
+	 */
+	public void renderCancelled();
+
+}
@@ -0,0 +1,356 @@
+package eu.zidek.augustin.minuscule;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Rendering metrics of one canvas: the frame times, the numbers of objects
+ * drawn and culled, the time spent in each painter, the cost of sorting and
+ * flushing the queue of the objects, the sizes of the queue and the effects
+ * of the ingestion policy.
+ * <p>
+ * The metrics are collected all the time. The counters are
+ * {@link LongAdder}s and the durations are recorded into fixed-size
+ * histograms, so collecting them allocates nothing and doesn't slow down the
+ * painting. The painters are timed per run of consecutive objects of the same
+ * class, not per object.
+ * </p>
+ * The metrics can be read using the getters, or over JMX after calling
+ * <code>registerMBean()</code>. All the times are in milliseconds.
+ *
+ * <pre>
+ * RenderStats stats = canvas.getRenderStats();
+ * System.out.println(stats.getFrameTimeP99() + " ms");
+ * </pre>
+ *
+ * @author Augustin Zidek
+ *
+ */
+public class RenderStats implements RenderStatsMXBean {
+	// Used to give the MBeans of different canvases different names
+	private static final AtomicInteger CANVAS_COUNTER = new AtomicInteger();
+
+	private final GeometricObjectQueue queue;
+	private final LatencyHistogram frameTimes = new LatencyHistogram();
+	private final LatencyHistogram sortTimes = new LatencyHistogram();
+	private final LatencyHistogram flushTimes = new LatencyHistogram();
+	private final LongAdder objectsDrawn = new LongAdder();
+	private final LongAdder objectsCulled = new LongAdder();
+	private final LongAdder ingestionStallNanos = new LongAdder();
+	private final LongAdder objectsDropped = new LongAdder();
+	private final LongAdder objectsEvicted = new LongAdder();
+	private final LongAdder framesCancelled = new LongAdder();
+	private final LongAdder framesIncremental = new LongAdder();
+	private volatile int lastFrameDrawn = 0;
+	private volatile int lastFrameCulled = 0;
+	private volatile long lastFrameNanos = 0;
+	private final ConcurrentMap<Class<?>, PainterStats> painters = new ConcurrentHashMap<>();
+	private ObjectName mBeanName;
+
+	/**
+	 * Counters of one painter.
+	 */
+	private static class PainterStats {
+		final LongAdder invocations = new LongAdder();
+		final LongAdder nanos = new LongAdder();
+	}
+
+	/**
+	 * @param queue The queue of the objects of the canvas. It reports the
+	 *            sorting and flushing to these stats.
+	 */
+	RenderStats(final GeometricObjectQueue queue) {
+		this.queue = queue;
+		queue.setStats(this);
+	}
+
+	/**
+	 * Records one frame painted on the screen.
+	 *
+	 * @param nanos The time spent painting the frame
+	 * @param drawn The number of objects drawn
+	 * @param culled The number of objects skipped
+	 */
+	void recordFrame(final long nanos, final int drawn, final int culled) {
+		this.frameTimes.record(nanos);
+		this.lastFrameNanos = nanos;
+		this.objectsDrawn.add(drawn);
+		this.objectsCulled.add(culled);
+		this.lastFrameDrawn = drawn;
+		this.lastFrameCulled = culled;
+	}
+
+	/**
+	 * Records a run of consecutive objects of the same class painted by their
+	 * painter.
+	 *
+	 * @param objectClass The class of the objects
+	 * @param count The number of objects in the run
+	 * @param nanos The time spent painting the run
+	 */
+	void recordPainter(final Class<?> objectClass, final int count,
+			final long nanos) {
+		PainterStats stats = this.painters.get(objectClass);
+		// First run of this class, allocate its counters once
+		if (stats == null) {
+			this.painters.putIfAbsent(objectClass, new PainterStats());
+			stats = this.painters.get(objectClass);
+		}
+		stats.invocations.add(count);
+		stats.nanos.add(nanos);
+	}
+
+	/**
+	 * Records sorting the queue by the layers.
+	 *
+	 * @param nanos The time spent sorting
+	 */
+	void recordSort(final long nanos) {
+		this.sortTimes.record(nanos);
+	}
+
+	/**
+	 * Records flushing the buffer into the queue.
+	 *
+	 * @param nanos The time spent flushing
+	 */
+	void recordFlush(final long nanos) {
+		this.flushTimes.record(nanos);
+	}
+
+	/**
+	 * Records a producer blocked by the ingestion policy.
+	 *
+	 * @param nanos The time the producer was blocked
+	 */
+	void recordIngestionStall(final long nanos) {
+		this.ingestionStallNanos.add(nanos);
+	}
+
+	/**
+	 * Records an object dropped by the ingestion policy.
+	 */
+	void recordDrop() {
+		this.objectsDropped.increment();
+	}
+
+	/**
+	 * Records objects evicted by the retention policy.
+	 *
+	 * @param count The number of objects evicted
+	 */
+	void recordEvictions(final int count) {
+		this.objectsEvicted.add(count);
+	}
+
+	/**
+	 * Records a frame painted in the background which was cancelled.
+	 */
+	void recordCancelledFrame() {
+		this.framesCancelled.increment();
+	}
+
+	/**
+	 * Records a frame which painted only the objects appended since the
+	 * previous one onto the back buffer.
+	 */
+	void recordIncrementalFrame() {
+		this.framesIncremental.increment();
+	}
+
+	@Override
+	public long getFramesPainted() {
+		return this.frameTimes.getCount();
+	}
+
+	@Override
+	public double getLastFrameTime() {
+		return this.lastFrameNanos / 1e6;
+	}
+
+	@Override
+	public double getFrameTimeMean() {
+		return this.frameTimes.getMean() / 1e6;
+	}
+
+	@Override
+	public double getFrameTimeP50() {
+		return this.frameTimes.getPercentile(0.5) / 1e6;
+	}
+
+	@Override
+	public double getFrameTimeP99() {
+		return this.frameTimes.getPercentile(0.99) / 1e6;
+	}
+
+	@Override
+	public double getFrameTimeMax() {
+		return this.frameTimes.getMax() / 1e6;
+	}
+
+	/**
+	 * Gets the given percentile of the time spent painting a frame.
+	 *
+	 * @param fraction The fraction of the frames, between 0 and 1 (e.g. 0.999)
+	 * @return The time in milliseconds within which the given fraction of the
+	 *         frames has been painted
+	 */
+	public double getFrameTimePercentile(final double fraction) {
+		return this.frameTimes.getPercentile(fraction) / 1e6;
+	}
+
+	@Override
+	public int getLastFrameObjectsDrawn() {
+		return this.lastFrameDrawn;
+	}
+
+	@Override
+	public int getLastFrameObjectsCulled() {
+		return this.lastFrameCulled;
+	}
+
+	@Override
+	public long getObjectsDrawn() {
+		return this.objectsDrawn.sum();
+	}
+
+	@Override
+	public long getObjectsCulled() {
+		return this.objectsCulled.sum();
+	}
+
+	@Override
+	public long getSortCount() {
+		return this.sortTimes.getCount();
+	}
+
+	@Override
+	public double getSortTimeMean() {
+		return this.sortTimes.getMean() / 1e6;
+	}
+
+	@Override
+	public long getFlushCount() {
+		return this.flushTimes.getCount();
+	}
+
+	@Override
+	public double getFlushTimeMean() {
+		return this.flushTimes.getMean() / 1e6;
+	}
+
+	@Override
+	public int getQueueSize() {
+		return this.queue.size();
+	}
+
+	@Override
+	public int getBufferSize() {
+		return this.queue.getBufferSize();
+	}
+
+	@Override
+	public double getIngestionStallTime() {
+		return this.ingestionStallNanos.sum() / 1e6;
+	}
+
+	@Override
+	public long getObjectsDropped() {
+		return this.objectsDropped.sum();
+	}
+
+	@Override
+	public long getObjectsEvicted() {
+		return this.objectsEvicted.sum();
+	}
+
+	@Override
+	public long getFramesCancelled() {
+		return this.framesCancelled.sum();
+	}
+
+	@Override
+	public long getFramesIncremental() {
+		return this.framesIncremental.sum();
+	}
+
+	@Override
+	public Map<String, Long> getPainterInvocations() {
+		final Map<String, Long> result = new TreeMap<>();
+		for (final Map.Entry<Class<?>, PainterStats> e : this.painters
+				.entrySet()) {
+			result.put(e.getKey().getName(), e.getValue().invocations.sum());
+		}
+		return result;
+	}
+
+	@Override
+	public Map<String, Double> getPainterTimes() {
+		final Map<String, Double> result = new TreeMap<>();
+		for (final Map.Entry<Class<?>, PainterStats> e : this.painters
+				.entrySet()) {
+			result.put(e.getKey().getName(), e.getValue().nanos.sum() / 1e6);
+		}
+		return result;
+	}
+
+	@Override
+	public void reset() {
+		this.frameTimes.reset();
+		this.sortTimes.reset();
+		this.flushTimes.reset();
+		this.objectsDrawn.reset();
+		this.objectsCulled.reset();
+		this.ingestionStallNanos.reset();
+		this.objectsDropped.reset();
+		this.objectsEvicted.reset();
+		this.framesCancelled.reset();
+		this.framesIncremental.reset();
+		this.lastFrameDrawn = 0;
+		this.lastFrameCulled = 0;
+		this.lastFrameNanos = 0;
+		this.painters.clear();
+	}
+
+	/**
+	 * Registers these stats in the platform MBean server under the name
+	 * <code>eu.zidek.augustin.minuscule:type=RenderStats,name=CanvasN</code>.
+	 * Registering again does nothing.
+	 *
+	 * @return The name under which the stats are registered
+	 * @throws JMException If the registration fails
+	 */
+	public synchronized ObjectName registerMBean() throws JMException {
+		if (this.mBeanName == null) {
+			final ObjectName name = new ObjectName(Constants.MBEAN_NAME
+					+ CANVAS_COUNTER.incrementAndGet());
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+					name);
+			this.mBeanName = name;
+		}
+		return this.mBeanName;
+	}
+
+	/**
+	 * Unregisters these stats from the platform MBean server, if registered.
+	 *
+	 * @throws JMException If the unregistration fails
+	 */
+	public synchronized void unregisterMBean() throws JMException {
+		if (this.mBeanName != null) {
+			final MBeanServer server = ManagementFactory
+					.getPlatformMBeanServer();
+			server.unregisterMBean(this.mBeanName);
+			this.mBeanName = null;
+		}
+	}
+}
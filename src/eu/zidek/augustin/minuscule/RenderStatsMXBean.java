@@ -0,0 +1,145 @@
+package eu.zidek.augustin.minuscule;
+
+import java.util.Map;
+
+/**
+ * Management interface of the {@link RenderStats}, so that the rendering of a
+ * canvas can be watched in JConsole, VisualVM or any other JMX client. See
+ * {@link RenderStats#registerMBean()}.
+ *
+ * All the times are in milliseconds.
+ *
+ * @author Augustin Zidek
+ *
+ */
+public interface RenderStatsMXBean {
+
+	/**
+	 * @return The number of frames painted on the screen
+	 */
+	public long getFramesPainted();
+
+	/**
+	 * @return The time spent painting the last frame
+	 */
+	public double getLastFrameTime();
+
+	/**
+	 * @return The mean time spent painting a frame
+	 */
+	public double getFrameTimeMean();
+
+	/**
+	 * @return The median time spent painting a frame
+	 */
+	public double getFrameTimeP50();
+
+	/**
+	 * @return The 99th percentile of the time spent painting a frame
+	 */
+	public double getFrameTimeP99();
+
+	/**
+	 * @return The longest time spent painting a frame
+	 */
+	public double getFrameTimeMax();
+
+	/**
+	 * @return The number of objects drawn in the last frame
+	 */
+	public int getLastFrameObjectsDrawn();
+
+	/**
+	 * @return The number of objects skipped (culled) in the last frame
+	 */
+	public int getLastFrameObjectsCulled();
+
+	/**
+	 * @return The number of objects drawn in all the frames
+	 */
+	public long getObjectsDrawn();
+
+	/**
+	 * @return The number of objects skipped (culled) in all the frames
+	 */
+	public long getObjectsCulled();
+
+	/**
+	 * @return The number of times the objects have been sorted by their layers
+	 */
+	public long getSortCount();
+
+	/**
+	 * @return The mean time of sorting the objects by their layers
+	 */
+	public double getSortTimeMean();
+
+	/**
+	 * @return The number of times the buffer of the newly added objects has
+	 *         been flushed into the queue
+	 */
+	public long getFlushCount();
+
+	/**
+	 * @return The mean time of flushing the buffer into the queue
+	 */
+	public double getFlushTimeMean();
+
+	/**
+	 * @return The number of objects in the queue (without the buffer)
+	 */
+	public int getQueueSize();
+
+	/**
+	 * @return The number of newly added objects waiting in the buffer
+	 */
+	public int getBufferSize();
+
+	/**
+	 * @return The total time the producers have been blocked by the
+	 *         <code>BLOCK</code> ingestion policy
+	 */
+	public double getIngestionStallTime();
+
+	/**
+	 * @return The number of objects dropped by the <code>DROP</code>
+	 *         ingestion policy
+	 */
+	public long getObjectsDropped();
+
+	/**
+	 * @return The number of objects evicted by the retention policies
+	 */
+	public long getObjectsEvicted();
+
+	/**
+	 * @return The number of frames painted in the background which were
+	 *         cancelled, because the view or the objects changed meanwhile
+	 */
+	public long getFramesCancelled();
+
+	/**
+	 * @return The number of frames which painted only the objects appended
+	 *         since the previous frame, see
+	 *         <code>Canvas.setIncrementalPainting()</code>
+	 */
+	public long getFramesIncremental();
+
+	/**
+	 * @return The number of objects painted by each painter, keyed by the
+	 *         class name of the geometric object
+	 */
+	public Map<String, Long> getPainterInvocations();
+
+	/**
+	 * @return The total time spent in each painter, keyed by the class name of
+	 *         the geometric object
+	 */
+	public Map<String, Double> getPainterTimes();
+
+	/**
+	 * Forgets all the measurements (the sizes of the queue are not affected).
+	 */
+	public void reset();
+
+}
@@ -0,0 +1,150 @@
+package eu.zidek.augustin.minuscule;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable policy bounding the objects kept by a canvas, or by one of its
+ * layers: the maximum number of objects, their maximum estimated size in
+ * bytes and their maximum age. Once a limit is exceeded, the objects are
+ * evicted either in the order they were drawn (<code>fifo()</code>) or in
+ * the order they were last drawn or modified (<code>lru()</code>), so that
+ * trails and live traces can run indefinitely in a bounded memory. See
+ * <code>Canvas.setRetentionPolicy()</code>.
+ * <p>
+ * Policies are created by <code>fifo()</code> or <code>lru()</code> without
+ * any limit and bounded by the builder methods, which return a new policy:
+ * </p>
+ *
+ * <pre>
+ * // The last 100000 points of the trail, at most 10 seconds old
+ * canvas.setRetentionPolicy(RetentionPolicy.fifo().maxObjects(100000)
+ * 		.maxAge(10, TimeUnit.SECONDS));
+ * </pre>
+ *
+ * An evicted object is removed from the canvas as if deleted, drawing it
+ * again adds it back. The age of an object is measured from the frame which
+ * took it in (or, for <code>lru()</code>, from the frame which took in its
+ * last change), the estimated size is given by
+ * <code>MGeometricObject.getEstimatedSize()</code>.
+ *
+ * @author Augustin Zidek
+ *
+ */
+public final class RetentionPolicy {
+	private final boolean lru;
+	private final int maxObjects;
+	private final long maxBytes;
+	private final long maxAgeNanos;
+
+	private RetentionPolicy(final boolean lru, final int maxObjects,
+			final long maxBytes, final long maxAgeNanos) {
+		this.lru = lru;
+		this.maxObjects = maxObjects;
+		this.maxBytes = maxBytes;
+		this.maxAgeNanos = maxAgeNanos;
+	}
+
+	/**
+	 * @return A policy evicting the objects drawn first, without any limit
+	 *         yet
+	 */
+	public static RetentionPolicy fifo() {
+		return new RetentionPolicy(false, Integer.MAX_VALUE, Long.MAX_VALUE,
+				Long.MAX_VALUE);
+	}
+
+	/**
+	 * @return A policy evicting the objects drawn or modified least
+	 *         recently, without any limit yet
+	 */
+	public static RetentionPolicy lru() {
+		return new RetentionPolicy(true, Integer.MAX_VALUE, Long.MAX_VALUE,
+				Long.MAX_VALUE);
+	}
+
+	/**
+	 * @param count The maximum number of objects, positive
+	 * @return The policy with the given maximum number of objects
+	 * @throws IllegalArgumentException If the count is not positive
+	 */
+	public RetentionPolicy maxObjects(final int count) {
+		if (count <= 0) {
+			throw new IllegalArgumentException(
+					Constants.ERROR_MESSAGE_RETENTION_LIMIT);
+		}
+		return new RetentionPolicy(this.lru, count, this.maxBytes,
+				this.maxAgeNanos);
+	}
+
+	/**
+	 * @param bytes The maximum estimated size of the objects in bytes,
+	 *            positive
+	 * @return The policy with the given maximum size
+	 * @throws IllegalArgumentException If the size is not positive
+	 */
+	public RetentionPolicy maxBytes(final long bytes) {
+		if (bytes <= 0) {
+			throw new IllegalArgumentException(
+					Constants.ERROR_MESSAGE_RETENTION_LIMIT);
+		}
+		return new RetentionPolicy(this.lru, this.maxObjects, bytes,
+				this.maxAgeNanos);
+	}
+
+	/**
+	 * @param age The maximum age of the objects, positive
+	 * @param unit The unit of the age
+	 * @return The policy with the given maximum age
+	 * @throws IllegalArgumentException If the age is not positive
+	 */
+	public RetentionPolicy maxAge(final long age, final TimeUnit unit) {
+		if (age <= 0) {
+			throw new IllegalArgumentException(
+					Constants.ERROR_MESSAGE_RETENTION_LIMIT);
+		}
+		return new RetentionPolicy(this.lru, this.maxObjects, this.maxBytes,
+				unit.toNanos(age));
+	}
+
+	/**
+	 * @return <code>true</code> if the objects drawn or modified least
+	 *         recently are evicted first, <code>false</code> if the objects
+	 *         drawn first are
+	 */
+	public boolean isLeastRecentlyUpdated() {
+		return this.lru;
+	}
+
+	/**
+	 * @return The maximum number of objects, <code>Integer.MAX_VALUE</code>
+	 *         if not limited
+	 */
+	public int getMaxObjects() {
+		return this.maxObjects;
+	}
+
+	/**
+	 * @return The maximum estimated size of the objects in bytes,
+	 *         <code>Long.MAX_VALUE</code> if not limited
+	 */
+	public long getMaxBytes() {
+		return this.maxBytes;
+	}
+
+	/**
+	 * @param unit The unit of the returned age
+	 * @return The maximum age of the objects, <code>Long.MAX_VALUE</code> if
+	 *         not limited
+	 */
+	public long getMaxAge(final TimeUnit unit) {
+		return this.maxAgeNanos == Long.MAX_VALUE ? Long.MAX_VALUE : unit
+				.convert(this.maxAgeNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return The maximum age in nanoseconds
+	 */
+	long getMaxAgeNanos() {
+		return this.maxAgeNanos;
+	}
+}
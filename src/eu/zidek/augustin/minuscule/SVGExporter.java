@@ -0,0 +1,156 @@
+package eu.zidek.augustin.minuscule;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Exports the objects of a canvas as SVG vector graphics. The objects are
+ * walked in the same z-order as they are painted and each of them is written
+ * by its painter (see {@link SVGPainter}) directly into the output. The
+ * exported view is the one currently shown, i.e. it uses the current
+ * translation, zoom and size of the canvas, including the grid.
+ *
+ * @author Augustin Zidek
+ *
+ */
+public class SVGExporter {
+	private final Canvas canvas;
+	private final PainterManager painterMgr;
+
+	/**
+	 * Creates a new exporter of the given canvas.
+	 *
+	 * @param canvas The canvas which objects should be exported
+	 * @param painterMgr The manager holding the painters of the objects
+	 */
+	SVGExporter(final Canvas canvas, final PainterManager painterMgr) {
+		this.canvas = canvas;
+		this.painterMgr = painterMgr;
+	}
+
+	/**
+	 * Writes the whole SVG document into the given writer. The writer is
+	 * flushed but not closed.
+	 *
+	 * @param out The writer into which the document is written. Should be
+	 *            buffered.
+	 * @throws IOException If an error occurs during writing
+	 */
+	public void export(final Writer out) throws IOException {
+		final RenderEvents.ImageExport event = new RenderEvents.ImageExport();
+		event.begin();
+		final SceneSnapshot s = this.canvas.committedSnapshot();
+		final int width = s.viewWidth;
+		final int height = s.viewHeight;
+		final SVGWriter svg = new SVGWriter(out, s.zoom, s.euclidean);
+
+		out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		out.write("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + width
+				+ "\" height=\"" + height + "\" viewBox=\"0 0 " + width + " "
+				+ height + "\">\n");
+
+		// The background
+		if (s.background != null) {
+			svg.rect(0, 0, width, height, s.background, null, true);
+		}
+
+		// The same transform as the one applied in paintComponent(), the grid
+		// goes before the Euclidean transform
+		final String view = "translate(" + s.translateX + " " + s.translateY
+				+ ") scale(" + s.zoom + ")";
+		if (s.grid != null) {
+			out.write("<g transform=\"" + view + "\">\n");
+			writeGrid(s, svg);
+			out.write("</g>\n");
+		}
+		out.write("<g transform=\"" + view);
+		if (s.euclidean) {
+			out.write(" translate(" + s.width / 2 + " " + s.height / 2
+					+ ") scale(1 -1)");
+		}
+		out.write("\">\n");
+
+		// The labels attached by label(String) go over the objects up to the
+		// layer of the labels
+		boolean labelsWritten = false;
+		for (final MGeometricObject object : s.objects) {
+			if (!labelsWritten
+					&& object.getLayer() > Constants.DEFAULT_LABEL_LAYER) {
+				this.writeLabels(s.objects, svg);
+				labelsWritten = true;
+			}
+			final MGeometricObjectPainter painter;
+			try {
+				painter = this.painterMgr.getPainter(object.getClass());
+			}
+			catch (final NoPainterException e) {
+				svg.comment(Constants.ERROR_MESSAGE_NO_PAINTER
+						+ object.getClass().getName());
+				continue;
+			}
+			// Painters that can't write SVG are skipped
+			if (painter instanceof SVGPainter) {
+				((SVGPainter) painter).paintSVG(object, svg);
+			}
+			else {
+				svg.comment(Constants.ERROR_MESSAGE_NO_SVG_PAINTER
+						+ object.getClass().getName());
+			}
+		}
+		if (!labelsWritten) {
+			this.writeLabels(s.objects, svg);
+		}
+
+		out.write("</g>\n</svg>\n");
+		out.flush();
+
+		if (event.shouldCommit()) {
+			event.stage = "svg";
+			event.format = "svg";
+			event.width = width;
+			event.height = height;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Writes the lines of the grid, the same as
+	 * <code>Canvas.drawGrid()</code> paints.
+	 */
+	private static void writeGrid(final SceneSnapshot s, final SVGWriter svg)
+			throws IOException {
+		final double colSize = s.grid.getColSize();
+		final double rowSize = s.grid.getRowSize();
+		final double[] bounds = Canvas.getGridBounds(s);
+		final double xmin = bounds[0];
+		final double ymin = bounds[1];
+		final double xmax = bounds[2];
+		final double ymax = bounds[3];
+		final MStroke stroke = new MBasicStroke(s.grid.getThickness());
+		for (double x = xmin; x < xmax; x += colSize) {
+			svg.line(x, ymin - rowSize, x, ymax, s.grid.getColor(), stroke);
+		}
+		for (double y = ymin; y < ymax; y += rowSize) {
+			svg.line(xmin - colSize, y, xmax, y, s.grid.getColor(), stroke);
+		}
+	}
+
+	/**
+	 * Writes the labels attached to the given objects by
+	 * <code>label(String)</code>, in the order of the objects.
+	 */
+	private void writeLabels(final List<MGeometricObject> objects,
+			final SVGWriter svg) throws IOException {
+		final MLabelPainter painter = this.painterMgr
+				.getAttachedLabelPainter();
+		for (final MGeometricObject object : objects) {
+			final AttachedLabel label = object.getAttachedLabel();
+			if (label != null) {
+				painter.paintAttachedSVG(object, label.getStyle()
+						.isZoomIndifferent(), svg);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,35 @@
+package eu.zidek.augustin.minuscule;
+
+import java.io.IOException;
+
+/**
+ * An optional extension of {@link MGeometricObjectPainter} for painters that
+ * are able to write their objects as SVG. When the canvas is exported using
+ * {@link Canvas#saveSVG(java.io.File)}, every object whose painter implements
+ * this interface is written into the output as vector graphics. Objects whose
+ * painter does not implement it are skipped (a comment is left in the output).
+ *
+ * All the built-in painters implement this interface. If you write your own
+ * geometric object with your own painter, implement this interface as well
+ * and use the methods of the given {@link SVGWriter} (mostly
+ * <code>shape()</code>, which accepts any Java {@link java.awt.Shape}).
+ *
+ * @author Augustin Zidek
+ *
+ */
+public interface SVGPainter extends MGeometricObjectPainter {
+
+	/**
+	 * Method called by the {@link SVGExporter} when exporting the object. The
+	 * coordinates written should be the same as the ones used in the
+	 * <code>paint()</code> method, the exporter takes care of the view
+	 * transform (translation, zoom, Euclidean coordinates).
+	 *
+	 * @param object The object to be exported
+	 * @param svg The writer into which the object should write itself
+	 * @throws IOException If an error occurs during writing
+	 */
+	public void paintSVG(final MGeometricObject object, final SVGWriter svg)
+			throws IOException;
+
+}
@@ -0,0 +1,524 @@
+package eu.zidek.augustin.minuscule;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Shape;
+import java.awt.geom.PathIterator;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Streaming writer of SVG elements. The elements are written directly into
+ * the underlying {@link Writer} as they come, no document tree is built, so
+ * the memory needed does not depend on the number of exported objects.
+ *
+ * To keep the files small, the writer shares the style definitions among the
+ * elements: every distinct combination of color, stroke and fill gets a CSS
+ * class which is defined only once (just before its first use). The number of
+ * such classes is capped, styles beyond the cap are written inline.
+ *
+ * @author Augustin Zidek
+ *
+ */
+public class SVGWriter {
+	private final Writer out;
+	private final double scale;
+	private final boolean euclidean;
+	// Maps the style definitions to the names of their CSS classes
+	private final Map<String, String> styleClasses = new HashMap<>();
+
+	/**
+	 * Creates a new SVG writer.
+	 *
+	 * @param out The writer into which the elements are written. Should be
+	 *            buffered, as many small writes are issued.
+	 * @param scale The zoom factor of the exported view, used by the zoom
+	 *            indifferent objects
+	 * @param euclidean <code>true</code> if the exported canvas uses the
+	 *            Euclidean coordinates, <code>false</code> otherwise
+	 */
+	SVGWriter(final Writer out, final double scale, final boolean euclidean) {
+		this.out = out;
+		this.scale = scale;
+		this.euclidean = euclidean;
+	}
+
+	/**
+	 * @return The zoom factor of the exported view. Zoom indifferent objects
+	 *         should divide their dimensions by it (in the same way they
+	 *         divide them by the scale of the Graphics2D transform).
+	 */
+	public double getScale() {
+		return this.scale;
+	}
+
+	/**
+	 * @return <code>true</code> if the exported canvas uses the Euclidean
+	 *         coordinates, <code>false</code> otherwise
+	 */
+	public boolean isEuclidean() {
+		return this.euclidean;
+	}
+
+	/**
+	 * @return The underlying writer, for painters that want to write their own
+	 *         raw SVG elements
+	 */
+	public Writer getWriter() {
+		return this.out;
+	}
+
+	/**
+	 * Writes a line.
+	 *
+	 * @param x1 The x coordinate of the starting point
+	 * @param y1 The y coordinate of the starting point
+	 * @param x2 The x coordinate of the ending point
+	 * @param y2 The y coordinate of the ending point
+	 * @param color The color of the line
+	 * @param stroke The stroke of the line
+	 * @throws IOException If an error occurs during writing
+	 */
+	public void line(final double x1, final double y1, final double x2,
+			final double y2, final Color color, final MStroke stroke)
+			throws IOException {
+		if (!isFinite(x1) || !isFinite(y1) || !isFinite(x2) || !isFinite(y2)) {
+			return;
+		}
+		final String style = this.getStyle(color, stroke, false, false);
+		this.out.write("<line x1=\"");
+		this.num(x1);
+		this.out.write("\" y1=\"");
+		this.num(y1);
+		this.out.write("\" x2=\"");
+		this.num(x2);
+		this.out.write("\" y2=\"");
+		this.num(y2);
+		this.out.write('"');
+		this.out.write(style);
+		this.out.write("/>\n");
+	}
+
+	/**
+	 * Writes a circle.
+	 *
+	 * @param cx The x coordinate of the center
+	 * @param cy The y coordinate of the center
+	 * @param r The radius
+	 * @param color The color of the circle
+	 * @param stroke The stroke of the circumference (ignored if filled)
+	 * @param fill <code>true</code> if the circle should be filled,
+	 *            <code>false</code> if only the circumference should be drawn
+	 * @throws IOException If an error occurs during writing
+	 */
+	public void circle(final double cx, final double cy, final double r,
+			final Color color, final MStroke stroke, final boolean fill)
+			throws IOException {
+		if (!isFinite(cx) || !isFinite(cy) || !isFinite(r)) {
+			return;
+		}
+		final String style = this.getStyle(color, stroke, fill, false);
+		this.out.write("<circle cx=\"");
+		this.num(cx);
+		this.out.write("\" cy=\"");
+		this.num(cy);
+		this.out.write("\" r=\"");
+		this.num(r);
+		this.out.write('"');
+		this.out.write(style);
+		this.out.write("/>\n");
+	}
+
+	/**
+	 * Writes a rectangle.
+	 *
+	 * @param x The x coordinate of the upper-left corner
+	 * @param y The y coordinate of the upper-left corner
+	 * @param width The width of the rectangle
+	 * @param height The height of the rectangle
+	 * @param color The color of the rectangle
+	 * @param stroke The stroke of the circumference (ignored if filled)
+	 * @param fill <code>true</code> if the rectangle should be filled,
+	 *            <code>false</code> if only the circumference should be drawn
+	 * @throws IOException If an error occurs during writing
+	 */
+	public void rect(final double x, final double y, final double width,
+			final double height, final Color color, final MStroke stroke,
+			final boolean fill) throws IOException {
+		if (!isFinite(x) || !isFinite(y) || !isFinite(width)
+				|| !isFinite(height)) {
+			return;
+		}
+		final String style = this.getStyle(color, stroke, fill, false);
+		this.out.write("<rect x=\"");
+		this.num(x);
+		this.out.write("\" y=\"");
+		this.num(y);
+		this.out.write("\" width=\"");
+		this.num(width);
+		this.out.write("\" height=\"");
+		this.num(height);
+		this.out.write('"');
+		this.out.write(style);
+		this.out.write("/>\n");
+	}
+
+	/**
+	 * Writes an arbitrary Java shape as an SVG path. The path is streamed
+	 * segment by segment from the shape's path iterator. Segments with
+	 * non-finite coordinates are left out, the path goes on from the end of
+	 * the next segment.
+	 *
+	 * @param shape The shape to be written
+	 * @param color The color of the shape
+	 * @param stroke The stroke of the outline (ignored if filled)
+	 * @param fill <code>true</code> if the shape should be filled,
+	 *            <code>false</code> if only the outline should be drawn
+	 * @throws IOException If an error occurs during writing
+	 */
+	public void shape(final Shape shape, final Color color,
+			final MStroke stroke, final boolean fill) throws IOException {
+		final PathIterator it = shape.getPathIterator(null);
+		final boolean evenOdd = it.getWindingRule() == PathIterator.WIND_EVEN_ODD;
+		final String style = this.getStyle(color, stroke, fill, evenOdd);
+		this.out.write("<path d=\"");
+		final double[] coords = new double[6];
+		// Whether a segment has been left out, the next one has to move
+		boolean skipped = false;
+		while (!it.isDone()) {
+			final int type = it.currentSegment(coords);
+			final int pairs = type == PathIterator.SEG_QUADTO ? 2
+					: type == PathIterator.SEG_CUBICTO ? 3
+							: type == PathIterator.SEG_CLOSE ? 0 : 1;
+			if (!areFinite(coords, pairs)) {
+				skipped = true;
+				it.next();
+				continue;
+			}
+			// Closing the left out segment is left out as well
+			if (skipped) {
+				if (pairs > 0) {
+					this.out.write('M');
+					this.coords(coords, pairs - 1, 1);
+					skipped = false;
+				}
+				it.next();
+				continue;
+			}
+			switch (type) {
+			case PathIterator.SEG_MOVETO:
+				this.out.write('M');
+				this.coords(coords, 0, 1);
+				break;
+			case PathIterator.SEG_LINETO:
+				this.out.write('L');
+				this.coords(coords, 0, 1);
+				break;
+			case PathIterator.SEG_QUADTO:
+				this.out.write('Q');
+				this.coords(coords, 0, 2);
+				break;
+			case PathIterator.SEG_CUBICTO:
+				this.out.write('C');
+				this.coords(coords, 0, 3);
+				break;
+			case PathIterator.SEG_CLOSE:
+				this.out.write('Z');
+				break;
+			default:
+				break;
+			}
+			it.next();
+		}
+		this.out.write('"');
+		this.out.write(style);
+		this.out.write("/>\n");
+	}
+
+	/**
+	 * Writes a text. The coordinates determine the position of the left end
+	 * of the text's baseline.
+	 *
+	 * @param text The text to be written
+	 * @param x The x coordinate of the baseline start
+	 * @param y The y coordinate of the baseline start
+	 * @param font The font of the text
+	 * @param color The color of the text
+	 * @param scaleX The horizontal scale of the glyphs (e.g. 1)
+	 * @param scaleY The vertical scale of the glyphs (e.g. -1 to counter the
+	 *            Euclidean flip of the y axis)
+	 * @throws IOException If an error occurs during writing
+	 */
+	public void text(final String text, final double x, final double y,
+			final Font font, final Color color, final double scaleX,
+			final double scaleY) throws IOException {
+		if (!isFinite(x) || !isFinite(y) || !isFinite(scaleX)
+				|| !isFinite(scaleY)) {
+			return;
+		}
+		final String style = this.getTextStyle(font, color);
+		this.out.write("<text");
+		// Scaled glyphs have to be positioned using the transform
+		if (scaleX != 1 || scaleY != 1) {
+			this.out.write(" transform=\"translate(");
+			this.num(x);
+			this.out.write(' ');
+			this.num(y);
+			this.out.write(") scale(");
+			this.num(scaleX);
+			this.out.write(' ');
+			this.num(scaleY);
+			this.out.write(")\"");
+		}
+		else {
+			this.out.write(" x=\"");
+			this.num(x);
+			this.out.write("\" y=\"");
+			this.num(y);
+			this.out.write('"');
+		}
+		this.out.write(style);
+		this.out.write('>');
+		this.escaped(text != null ? text : "");
+		this.out.write("</text>\n");
+	}
+
+	/**
+	 * Writes an XML comment.
+	 *
+	 * @param comment The text of the comment
+	 * @throws IOException If an error occurs during writing
+	 */
+	public void comment(final String comment) throws IOException {
+		this.out.write("<!-- ");
+		this.out.write(comment.replace("--", "- -"));
+		this.out.write(" -->\n");
+	}
+
+	/**
+	 * Returns the style attribute for the given style definition. If the
+	 * definition has been seen before, its class is returned. New definitions
+	 * get a new class which is written before the element that uses it, until
+	 * the cap on the number of classes is reached.
+	 *
+	 * @param definition The CSS definition of the style
+	 * @return The attribute to be appended to the element
+	 * @throws IOException If an error occurs during writing
+	 */
+	private String getStyleAttribute(final String definition)
+			throws IOException {
+		String cls = this.styleClasses.get(definition);
+		if (cls != null) {
+			return cls;
+		}
+		// Too many distinct styles, don't grow the map any more
+		if (this.styleClasses.size() >= Constants.SVG_MAX_STYLE_CLASSES) {
+			return " style=\"" + definition + '"';
+		}
+		final String name = "s" + this.styleClasses.size();
+		this.out.write("<style>.");
+		this.out.write(name);
+		this.out.write('{');
+		this.out.write(definition);
+		this.out.write("}</style>\n");
+		cls = " class=\"" + name + '"';
+		this.styleClasses.put(definition, cls);
+		return cls;
+	}
+
+	/**
+	 * Builds the style attribute of a drawn or filled shape.
+	 */
+	private String getStyle(final Color color, final MStroke stroke,
+			final boolean fill, final boolean evenOdd) throws IOException {
+		final StringBuilder sb = new StringBuilder(64);
+		// Filled shapes in Java are not stroked
+		if (fill) {
+			sb.append("fill:");
+			appendColor(sb, color, "fill-opacity");
+			if (evenOdd) {
+				sb.append(";fill-rule:evenodd");
+			}
+			sb.append(";stroke:none");
+			return this.getStyleAttribute(sb.toString());
+		}
+		sb.append("fill:none;stroke:");
+		appendColor(sb, color, "stroke-opacity");
+		if (stroke != null) {
+			sb.append(";stroke-width:");
+			sb.append(round(stroke.getThickness()));
+		}
+		// Extra information is available only for the basic strokes
+		if (stroke instanceof BasicStroke) {
+			final BasicStroke bs = (BasicStroke) stroke;
+			switch (bs.getEndCap()) {
+			case BasicStroke.CAP_ROUND:
+				sb.append(";stroke-linecap:round");
+				break;
+			case BasicStroke.CAP_SQUARE:
+				sb.append(";stroke-linecap:square");
+				break;
+			default:
+				break;
+			}
+			switch (bs.getLineJoin()) {
+			case BasicStroke.JOIN_ROUND:
+				sb.append(";stroke-linejoin:round");
+				break;
+			case BasicStroke.JOIN_BEVEL:
+				sb.append(";stroke-linejoin:bevel");
+				break;
+			default:
+				sb.append(";stroke-miterlimit:");
+				sb.append(round(bs.getMiterLimit()));
+				break;
+			}
+			final float[] dash = bs.getDashArray();
+			if (dash != null) {
+				sb.append(";stroke-dasharray:");
+				for (int i = 0; i < dash.length; i++) {
+					if (i > 0) {
+						sb.append(',');
+					}
+					sb.append(round(dash[i]));
+				}
+				sb.append(";stroke-dashoffset:");
+				sb.append(round(bs.getDashPhase()));
+			}
+		}
+		return this.getStyleAttribute(sb.toString());
+	}
+
+	/**
+	 * Builds the style attribute of a text.
+	 */
+	private String getTextStyle(final Font font, final Color color)
+			throws IOException {
+		final Font f = font != null ? font : Constants.DEFAULT_FONT;
+		final StringBuilder sb = new StringBuilder(64);
+		sb.append("font-family:'");
+		sb.append(f.getFamily().replace("'", ""));
+		sb.append("';font-size:");
+		sb.append(round(f.getSize2D()));
+		sb.append("px");
+		if (f.isBold()) {
+			sb.append(";font-weight:bold");
+		}
+		if (f.isItalic()) {
+			sb.append(";font-style:italic");
+		}
+		sb.append(";fill:");
+		appendColor(sb, color, "fill-opacity");
+		return this.getStyleAttribute(sb.toString());
+	}
+
+	/**
+	 * Appends the color in the <code>#rrggbb</code> format, followed by the
+	 * given opacity property if the color is translucent.
+	 */
+	private static void appendColor(final StringBuilder sb, final Color color,
+			final String opacityProperty) {
+		final Color c = color != null ? color : Color.BLACK;
+		sb.append('#');
+		final String hex = Integer.toHexString(c.getRGB() & 0xFFFFFF);
+		for (int i = hex.length(); i < 6; i++) {
+			sb.append('0');
+		}
+		sb.append(hex);
+		if (c.getAlpha() != 255) {
+			sb.append(';');
+			sb.append(opacityProperty);
+			sb.append(':');
+			sb.append(round(c.getAlpha() / 255D));
+		}
+	}
+
+	/**
+	 * Writes the given number of coordinate pairs, starting by the given
+	 * pair.
+	 */
+	private void coords(final double[] coords, final int first,
+			final int pairs) throws IOException {
+		for (int i = 2 * first; i < 2 * (first + pairs); i++) {
+			if (i > 2 * first) {
+				this.out.write(' ');
+			}
+			this.num(coords[i]);
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the given number of coordinate pairs are
+	 *         all finite
+	 */
+	private static boolean areFinite(final double[] coords, final int pairs) {
+		for (int i = 0; i < pairs * 2; i++) {
+			if (!isFinite(coords[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return <code>true</code> if the value is neither NaN nor infinite
+	 */
+	private static boolean isFinite(final double value) {
+		return !Double.isNaN(value) && !Double.isInfinite(value);
+	}
+
+	/**
+	 * Writes the number in a compact form.
+	 */
+	private void num(final double value) throws IOException {
+		this.out.write(round(value));
+	}
+
+	/**
+	 * Rounds the number to the SVG precision and converts it into a compact
+	 * string (without the trailing ".0" for whole numbers). Non-finite
+	 * numbers, which SVG has no syntax for, are clamped: NaN to 0 and the
+	 * infinities to the largest float.
+	 */
+	private static String round(final double value) {
+		if (Double.isNaN(value)) {
+			return "0";
+		}
+		if (Double.isInfinite(value)) {
+			return Float.toString(value > 0 ? Float.MAX_VALUE
+					: -Float.MAX_VALUE);
+		}
+		final double rounded = Math.rint(value * Constants.SVG_PRECISION)
+				/ Constants.SVG_PRECISION;
+		if (rounded == (long) rounded) {
+			return Long.toString((long) rounded);
+		}
+		return Double.toString(rounded);
+	}
+
+	/**
+	 * Writes the text with the XML special characters escaped.
+	 */
+	private void escaped(final String text) throws IOException {
+		for (int i = 0; i < text.length(); i++) {
+			final char ch = text.charAt(i);
+			switch (ch) {
+			case '&':
+				this.out.write("&amp;");
+				break;
+			case '<':
+				this.out.write("&lt;");
+				break;
+			case '>':
+				this.out.write("&gt;");
+				break;
+			default:
+				this.out.write(ch);
+				break;
+			}
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package eu.zidek.augustin.minuscule;
+
+import java.awt.Color;
+import java.util.List;
+
+/**
+ * Immutable snapshot of everything the canvas needs to paint one frame: the
+ * z-ordered objects and the view (translation, zoom, size, coordinate system,
+ * grid and background). The snapshot can be painted on any thread, which
+ * makes it possible to rasterize and encode images away from the EDT.
+ *
+ * Note that the objects themselves are not copied, only the list holding
+ * them.
+ *
+ * @author Augustin Zidek
+ *
+ */
+final class SceneSnapshot {
+	// The objects sorted by their layers
+	final List<MGeometricObject> objects;
+	final double translateX;
+	final double translateY;
+	final double zoom;
+	final boolean euclidean;
+	// The canvas size given in the constructor, determines Euclidean origin
+	final int width;
+	final int height;
+	// The current size of the canvas on the screen
+	final int viewWidth;
+	final int viewHeight;
+	// If null, no grid
+	final GridProperties grid;
+	final Color background;
+
+	SceneSnapshot(final List<MGeometricObject> objects,
+			final double translateX, final double translateY,
+			final double zoom, final boolean euclidean, final int width,
+			final int height, final int viewWidth, final int viewHeight,
+			final GridProperties grid, final Color background) {
+		this.objects = objects;
+		this.translateX = translateX;
+		this.translateY = translateY;
+		this.zoom = zoom;
+		this.euclidean = euclidean;
+		this.width = width;
+		this.height = height;
+		this.viewWidth = viewWidth;
+		this.viewHeight = viewHeight;
+		this.grid = grid;
+		this.background = background;
+	}
+
+	/**
+	 * @param list The objects sorted by their layers
+	 * @return Snapshot of the given objects with the view of this snapshot
+	 */
+	SceneSnapshot withObjects(final List<MGeometricObject> list) {
+		return new SceneSnapshot(list, this.translateX, this.translateY,
+				this.zoom, this.euclidean, this.width, this.height,
+				this.viewWidth, this.viewHeight, this.grid, this.background);
+	}
+
+	/**
+	 * @param list The objects sorted by their layers, appended since a frame
+	 *            of this snapshot was painted
+	 * @return Snapshot of the given objects to be painted over that frame,
+	 *         i.e. without the grid, which the frame has already
+	 */
+	SceneSnapshot withAppendedObjects(final List<MGeometricObject> list) {
+		return new SceneSnapshot(list, this.translateX, this.translateY,
+				this.zoom, this.euclidean, this.width, this.height,
+				this.viewWidth, this.viewHeight, null, this.background);
+	}
+
+	/**
+	 * @param other Another snapshot
+	 * @return <code>true</code> if both snapshots have the same view, i.e.
+	 *         the same objects would be painted the same way
+	 */
+	boolean sameView(final SceneSnapshot other) {
+		return this.translateX == other.translateX
+				&& this.translateY == other.translateY
+				&& this.zoom == other.zoom && this.euclidean == other.euclidean
+				&& this.width == other.width && this.height == other.height
+				&& this.viewWidth == other.viewWidth
+				&& this.viewHeight == other.viewHeight
+				&& this.grid == other.grid
+				&& (this.background == null ? other.background == null
+						: this.background.equals(other.background));
+	}
+
+}
@@ -0,0 +1,23 @@
+package eu.zidek.augustin.minuscule;
+
+/**
+ * Listener notified when painting a frame of the canvas blocked the EDT for
+ * longer than the threshold of the stall watchdog (see
+ * {@link Canvas#enableStallWatchdog(long, StallListener)}).
+ *
+ * Note that the listener is called from the watchdog thread, not from the
+ * EDT.
+ *
+ * @author Augustin Zidek
+ *
+ */
+public interface StallListener {
+
+	/**
+	 * Called after a frame which exceeded the threshold has been painted.
+	 *
+	 * @param report What the EDT was doing during the frame
+	 */
+	public void stallDetected(final StallReport report);
+
+}
@@ -0,0 +1,152 @@
+package eu.zidek.augustin.minuscule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Report of a frame which blocked the EDT for longer than the threshold of the
+ * stall watchdog. It contains the stack of the EDT at the moment the
+ * threshold was exceeded, and the time spent by the object classes, layers
+ * and the single objects, estimated from the samples taken by the watchdog
+ * while the frame was being painted. Time spent outside the painters (e.g.
+ * sorting the objects) is reported under the class
+ * <code>OUTSIDE_PAINTERS</code>.
+ *
+ * @author Augustin Zidek
+ *
+ */
+public class StallReport {
+	/**
+	 * The key under which the time spent outside the painters is reported.
+	 */
+	public static final String OUTSIDE_PAINTERS = "(outside painters)";
+
+	private final double duration;
+	private final StackTraceElement[] stackTrace;
+	private final double sampleInterval;
+	private final Map<String, Integer> classSamples;
+	private final Map<Integer, Integer> layerSamples;
+	private final Map<MGeometricObject, Integer> objectSamples;
+
+	/**
+	 * @param durationNanos The duration of the frame
+	 * @param stackTrace The stack of the EDT when the threshold was exceeded
+	 * @param sampleIntervalMillis The interval between two samples
+	 * @param classSamples The number of samples per object class
+	 * @param layerSamples The number of samples per layer
+	 * @param objectSamples The number of samples per object
+	 */
+	StallReport(final long durationNanos, final StackTraceElement[] stackTrace,
+			final double sampleIntervalMillis,
+			final Map<String, Integer> classSamples,
+			final Map<Integer, Integer> layerSamples,
+			final Map<MGeometricObject, Integer> objectSamples) {
+		this.duration = durationNanos / 1e6;
+		this.stackTrace = stackTrace;
+		this.sampleInterval = sampleIntervalMillis;
+		this.classSamples = sortByValue(classSamples);
+		this.layerSamples = sortByValue(layerSamples);
+		this.objectSamples = sortByValue(objectSamples);
+	}
+
+	/**
+	 * @return A copy of the map, ordered by the values, the largest first
+	 */
+	private static <K> Map<K, Integer> sortByValue(final Map<K, Integer> map) {
+		final List<Map.Entry<K, Integer>> entries = new ArrayList<>(
+				map.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<K, Integer>>() {
+			@Override
+			public int compare(final Map.Entry<K, Integer> a,
+					final Map.Entry<K, Integer> b) {
+				return b.getValue().compareTo(a.getValue());
+			}
+		});
+		final Map<K, Integer> sorted = new LinkedHashMap<>();
+		for (final Map.Entry<K, Integer> e : entries) {
+			sorted.put(e.getKey(), e.getValue());
+		}
+		return sorted;
+	}
+
+	/**
+	 * @return A copy of the map with the samples converted to milliseconds
+	 */
+	private <K> Map<K, Double> toMillis(final Map<K, Integer> samples) {
+		final Map<K, Double> times = new LinkedHashMap<>();
+		for (final Map.Entry<K, Integer> e : samples.entrySet()) {
+			times.put(e.getKey(), e.getValue() * this.sampleInterval);
+		}
+		return times;
+	}
+
+	/**
+	 * @return The time in milliseconds spent painting the frame
+	 */
+	public double getDuration() {
+		return this.duration;
+	}
+
+	/**
+	 * @return The stack of the EDT at the moment the frame exceeded the
+	 *         threshold
+	 */
+	public StackTraceElement[] getStackTrace() {
+		return this.stackTrace.clone();
+	}
+
+	/**
+	 * @return The estimated time in milliseconds spent painting the objects of
+	 *         each class (keyed by the class name), the most expensive first
+	 */
+	public Map<String, Double> getTimeByClass() {
+		return this.toMillis(this.classSamples);
+	}
+
+	/**
+	 * @return The estimated time in milliseconds spent painting the objects in
+	 *         each layer, the most expensive first
+	 */
+	public Map<Integer, Double> getTimeByLayer() {
+		return this.toMillis(this.layerSamples);
+	}
+
+	/**
+	 * @return The estimated time in milliseconds spent painting the single
+	 *         objects which were caught by the samples, the most expensive
+	 *         first
+	 */
+	public Map<MGeometricObject, Double> getTimeByObject() {
+		return this.toMillis(this.objectSamples);
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder();
+		sb.append(String.format("Frame blocked the EDT for %.1f ms%n",
+				this.duration));
+		sb.append("Time by class: ").append(this.getTimeByClass())
+				.append(System.lineSeparator());
+		sb.append("Time by layer: ").append(this.getTimeByLayer())
+				.append(System.lineSeparator());
+		// Only the most expensive objects, there may be many
+		int shown = 0;
+		for (final Map.Entry<MGeometricObject, Double> e : this
+				.getTimeByObject().entrySet()) {
+			if (shown++ == Constants.WATCHDOG_REPORTED_OBJECTS) {
+				break;
+			}
+			sb.append(String.format("  %.1f ms: %s (layer %d)%n",
+					e.getValue(), e.getKey(), e.getKey().getLayer()));
+		}
+		sb.append("EDT stack:").append(System.lineSeparator());
+		for (final StackTraceElement element : this.stackTrace) {
+			sb.append("  at ").append(element).append(System.lineSeparator());
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,169 @@
+package eu.zidek.augustin.minuscule;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ * Watchdog detecting frames that block the EDT for too long.
+ * <p>
+ * While a frame is being painted, the watchdog thread samples the object
+ * currently being painted at a fixed interval. The canvas only publishes the
+ * current object with a cheap ordered store, so painting is not slowed down.
+ * Once the frame exceeds the threshold, the stack of the EDT is captured. When
+ * the frame is finished, the samples are turned into a {@link StallReport}
+ * and passed to the listener (or logged if there is none) on the watchdog
+ * thread.
+ * </p>
+ *
+ * @author Augustin Zidek
+ *
+ */
+class StallWatchdog {
+	private final long thresholdNanos;
+	private final StallListener listener;
+	private final ScheduledExecutorService thread;
+	// The object being painted, null between the objects
+	private final AtomicReference<MGeometricObject> current = new AtomicReference<>();
+
+	// The frame being painted, guarded by this
+	private Thread edt;
+	private long frameStartNanos = 0;
+	private StackTraceElement[] stackTrace;
+	private Map<String, Integer> classSamples = new HashMap<>();
+	private Map<Integer, Integer> layerSamples = new HashMap<>();
+	private Map<MGeometricObject, Integer> objectSamples = new IdentityHashMap<>();
+
+	/**
+	 * Creates and starts the watchdog.
+	 *
+	 * @param thresholdMillis Frames longer than this are reported
+	 * @param listener The listener of the reports, if <code>null</code> the
+	 *            reports are logged
+	 */
+	StallWatchdog(final long thresholdMillis, final StallListener listener) {
+		this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+		this.listener = listener;
+		this.thread = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable r) {
+						final Thread t = new Thread(r,
+								Constants.WATCHDOG_THREAD_NAME);
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		this.thread.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				StallWatchdog.this.sample();
+			}
+		}, Constants.WATCHDOG_SAMPLE_INTERVAL_MS,
+				Constants.WATCHDOG_SAMPLE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the watchdog thread.
+	 */
+	void stop() {
+		this.thread.shutdownNow();
+	}
+
+	/**
+	 * Called by the canvas on the EDT when it starts painting a frame.
+	 */
+	synchronized void frameStarted() {
+		this.edt = Thread.currentThread();
+		this.frameStartNanos = System.nanoTime();
+		this.stackTrace = null;
+		this.current.lazySet(null);
+	}
+
+	/**
+	 * Called by the canvas for every object it paints.
+	 *
+	 * @param object The object which is going to be painted
+	 */
+	void objectStarted(final MGeometricObject object) {
+		this.current.lazySet(object);
+	}
+
+	/**
+	 * Called by the canvas on the EDT when it has finished painting a frame.
+	 * If the frame exceeded the threshold, the report is handed over to the
+	 * watchdog thread.
+	 */
+	synchronized void frameFinished() {
+		final long duration = System.nanoTime() - this.frameStartNanos;
+		this.frameStartNanos = 0;
+		this.current.lazySet(null);
+		if (duration > this.thresholdNanos) {
+			// The frame was shorter than one sample interval after exceeding
+			// the threshold, the stack wasn't captured
+			final StackTraceElement[] stack = this.stackTrace != null ? this.stackTrace
+					: new StackTraceElement[0];
+			final StallReport report = new StallReport(duration, stack,
+					Constants.WATCHDOG_SAMPLE_INTERVAL_MS, this.classSamples,
+					this.layerSamples, this.objectSamples);
+			this.thread.execute(new Runnable() {
+				@Override
+				public void run() {
+					StallWatchdog.this.report(report);
+				}
+			});
+		}
+		// The maps were handed over to the report, start new ones
+		if (!this.classSamples.isEmpty()) {
+			this.classSamples = new HashMap<>();
+			this.layerSamples = new HashMap<>();
+			this.objectSamples = new IdentityHashMap<>();
+		}
+	}
+
+	/**
+	 * One sample of the watchdog thread: records what is being painted and
+	 * captures the stack of the EDT once the frame exceeds the threshold.
+	 */
+	private synchronized void sample() {
+		if (this.frameStartNanos == 0) {
+			return;
+		}
+		final MGeometricObject object = this.current.get();
+		if (object != null) {
+			increment(this.classSamples, object.getClass().getName());
+			increment(this.layerSamples, object.getLayer());
+			increment(this.objectSamples, object);
+		}
+		else {
+			increment(this.classSamples, StallReport.OUTSIDE_PAINTERS);
+		}
+		if (this.stackTrace == null
+				&& System.nanoTime() - this.frameStartNanos > this.thresholdNanos) {
+			this.stackTrace = this.edt.getStackTrace();
+		}
+	}
+
+	private static <K> void increment(final Map<K, Integer> map, final K key) {
+		final Integer count = map.get(key);
+		map.put(key, count == null ? 1 : count + 1);
+	}
+
+	/**
+	 * Passes the report to the listener, or logs it if there is none.
+	 */
+	private void report(final StallReport report) {
+		if (this.listener != null) {
+			this.listener.stallDetected(report);
+		}
+		else {
+			Logger.getLogger(Canvas.class.getName()).warning(report.toString());
+		}
+	}
+}
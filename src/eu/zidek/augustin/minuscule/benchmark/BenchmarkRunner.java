@@ -0,0 +1,167 @@
+package eu.zidek.augustin.minuscule.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Minimal micro-benchmark runner in the spirit of JMH: every benchmark is run
+ * for a number of warm-up iterations (to let the JIT compile it), then for a
+ * number of measured iterations of fixed length. Every iteration counts the
+ * operations done by all the benchmark threads and the mean time per
+ * operation with its standard deviation over the iterations is reported.
+ *
+ * The results of the operations are summed into a sink, so that the JIT can't
+ * eliminate the benchmarked code as dead.
+ *
+ * @author Augustin Zidek
+ *
+ */
+class BenchmarkRunner {
+	private final int warmupIterations;
+	private final int measuredIterations;
+	private final long iterationMillis;
+	// Consumes the results of the operations
+	private final AtomicLong sink = new AtomicLong();
+
+	/**
+	 * One benchmark. The operation is called repeatedly by the given number
+	 * of threads until the iteration ends.
+	 */
+	abstract static class Benchmark {
+		private final String name;
+		private final int threads;
+
+		/**
+		 * @param name The name of the benchmark shown in the results
+		 * @param threads The number of threads running the operation
+		 */
+		Benchmark(final String name, final int threads) {
+			this.name = name;
+			this.threads = threads;
+		}
+
+		/**
+		 * Called before every iteration, not measured.
+		 *
+		 * @throws Exception If the set up fails
+		 */
+		void setUp() throws Exception {
+			// Nothing by default
+		}
+
+		/**
+		 * The benchmarked operation.
+		 *
+		 * @param thread The index of the calling thread, from 0
+		 * @return Any value depending on the result of the operation
+		 * @throws Exception If the operation fails
+		 */
+		abstract long operation(final int thread) throws Exception;
+
+		@Override
+		public String toString() {
+			return this.name;
+		}
+	}
+
+	/**
+	 * @param warmupIterations The number of warm-up iterations
+	 * @param measuredIterations The number of measured iterations
+	 * @param iterationMillis The length of one iteration
+	 */
+	BenchmarkRunner(final int warmupIterations, final int measuredIterations,
+			final long iterationMillis) {
+		this.warmupIterations = warmupIterations;
+		this.measuredIterations = measuredIterations;
+		this.iterationMillis = iterationMillis;
+	}
+
+	/**
+	 * Runs the benchmark and prints its result.
+	 *
+	 * @param benchmark The benchmark
+	 * @throws Exception If the benchmark fails
+	 */
+	void run(final Benchmark benchmark) throws Exception {
+		for (int i = 0; i < this.warmupIterations; i++) {
+			this.iteration(benchmark);
+		}
+		final double[] nanosPerOp = new double[this.measuredIterations];
+		for (int i = 0; i < this.measuredIterations; i++) {
+			nanosPerOp[i] = this.iteration(benchmark);
+		}
+		double mean = 0;
+		for (final double t : nanosPerOp) {
+			mean += t / nanosPerOp.length;
+		}
+		double variance = 0;
+		for (final double t : nanosPerOp) {
+			variance += (t - mean) * (t - mean) / nanosPerOp.length;
+		}
+		System.out.printf("%-55s %14.1f ns/op  +- %5.1f %%  (%d threads)%n",
+				benchmark.name, mean, 100 * Math.sqrt(variance) / mean,
+				benchmark.threads);
+	}
+
+	/**
+	 * Runs one iteration of the benchmark.
+	 *
+	 * @return The mean time per operation in nanoseconds
+	 */
+	private double iteration(final Benchmark benchmark) throws Exception {
+		benchmark.setUp();
+		final long end = System.nanoTime() + this.iterationMillis * 1000000;
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicLong operations = new AtomicLong();
+		final List<Thread> threads = new ArrayList<>();
+		final List<Exception> errors = new ArrayList<>();
+		for (int t = 0; t < benchmark.threads; t++) {
+			final int index = t;
+			final Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					long ops = 0;
+					long result = 0;
+					try {
+						start.await();
+						while (System.nanoTime() < end) {
+							result += benchmark.operation(index);
+							ops++;
+						}
+					}
+					catch (final Exception e) {
+						synchronized (errors) {
+							errors.add(e);
+						}
+					}
+					operations.addAndGet(ops);
+					BenchmarkRunner.this.sink.addAndGet(result);
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		final long startNanos = System.nanoTime();
+		start.countDown();
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		final long elapsed = System.nanoTime() - startNanos;
+		if (!errors.isEmpty()) {
+			throw errors.get(0);
+		}
+		// Time per operation as seen by one thread
+		return elapsed * benchmark.threads
+				/ (double) Math.max(1, operations.get());
+	}
+
+	/**
+	 * @return The sum of the results of all the operations, print it so that
+	 *         the JIT can't prove it unused
+	 */
+	long getSink() {
+		return this.sink.get();
+	}
+}
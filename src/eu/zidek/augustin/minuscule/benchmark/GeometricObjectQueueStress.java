@@ -0,0 +1,390 @@
+package eu.zidek.augustin.minuscule.benchmark;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CyclicBarrier;
+
+import eu.zidek.augustin.minuscule.GeometricObjectQueue;
+import eu.zidek.augustin.minuscule.MGeometricObject;
+import eu.zidek.augustin.minuscule.MPoint;
+import eu.zidek.augustin.minuscule.RetentionPolicy;
+
+/**
+ * Concurrency stress tests of the {@link GeometricObjectQueue}, in the style
+ * of jcstress: every test runs two or more actors concurrently on a fresh
+ * queue many times, starting them together on a barrier, and records the
+ * outcome of every run. The outcomes are then checked against the contract of
+ * the queue. Acceptable outcomes are counted, forbidden ones make the test
+ * fail. Run headless:
+ *
+ * <pre>
+ * java eu.zidek.augustin.minuscule.benchmark.GeometricObjectQueueStress [iterations]
+ * </pre>
+ *
+ * @author Augustin Zidek
+ *
+ */
+public class GeometricObjectQueueStress {
+	private static boolean failed = false;
+
+	/**
+	 * One stress test: the actors and the arbiter producing the outcome.
+	 */
+	private abstract static class StressTest {
+		final String name;
+		final int actors;
+		GeometricObjectQueue queue;
+
+		StressTest(final String name, final int actors) {
+			this.name = name;
+			this.actors = actors;
+		}
+
+		/**
+		 * Prepares the state of one run, called before the actors.
+		 */
+		void setUp() {
+			this.queue = new GeometricObjectQueue();
+		}
+
+		/**
+		 * The code of the given actor.
+		 */
+		abstract void actor(final int actor);
+
+		/**
+		 * Called after all the actors have finished.
+		 *
+		 * @return The outcome of the run
+		 */
+		abstract String arbiter();
+
+		/**
+		 * @return <code>true</code> if the outcome is allowed by the contract
+		 */
+		abstract boolean isAcceptable(final String outcome);
+	}
+
+	/**
+	 * Runs the stress tests.
+	 *
+	 * @param args The number of runs of every test, 20000 by default
+	 * @throws Exception If an actor fails
+	 */
+	public static void main(final String[] args) throws Exception {
+		final int iterations = args.length > 0 ? Integer.parseInt(args[0])
+				: 20000;
+		run(addRemove(), iterations);
+		run(clearSnapshot(), iterations);
+		run(layerChangeSort(), iterations);
+		run(producersSnapshot(), iterations);
+		run(evictRedrawDelete(), iterations);
+		System.out.println(failed ? "FAILED" : "OK");
+		if (failed) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Add and remove of the same object racing: remove is linearizable, so if
+	 * it found the object (remove after add), the object is gone, and if it
+	 * didn't (remove before add), the object stays. Never duplicated, never
+	 * lost by a concurrent flush.
+	 */
+	private static StressTest addRemove() {
+		return new StressTest("add vs remove vs flush", 3) {
+			private MPoint object;
+			private boolean found;
+
+			@Override
+			void setUp() {
+				super.setUp();
+				this.object = new MPoint();
+			}
+
+			@Override
+			void actor(final int actor) {
+				if (actor == 0) {
+					this.queue.add(this.object);
+				}
+				else if (actor == 1) {
+					this.found = this.queue.remove(this.object);
+				}
+				else {
+					this.queue.flushBuffer();
+				}
+			}
+
+			@Override
+			String arbiter() {
+				return (this.found ? "removed" : "missed") + " count="
+						+ count(this.queue.getSortedList(), this.object);
+			}
+
+			@Override
+			boolean isAcceptable(final String outcome) {
+				return outcome.equals("removed count=0")
+						|| outcome.equals("missed count=1");
+			}
+		};
+	}
+
+	/**
+	 * Clear racing with a snapshot of two objects added before: the snapshot
+	 * contains both (taken before the clear) or none (after), never one.
+	 */
+	private static StressTest clearSnapshot() {
+		return new StressTest("clear vs getSortedList", 2) {
+			private int snapshotSize;
+
+			@Override
+			void setUp() {
+				super.setUp();
+				this.queue.add(new MPoint());
+				this.queue.flushBuffer();
+				this.queue.add(new MPoint());
+			}
+
+			@Override
+			void actor(final int actor) {
+				if (actor == 0) {
+					this.queue.clear();
+				}
+				else {
+					this.snapshotSize = this.queue.getSortedList().size();
+				}
+			}
+
+			@Override
+			String arbiter() {
+				return "snapshot=" + this.snapshotSize + " after="
+						+ this.queue.getSortedList().size();
+			}
+
+			@Override
+			boolean isAcceptable(final String outcome) {
+				return outcome.equals("snapshot=0 after=0")
+						|| outcome.equals("snapshot=2 after=0");
+			}
+		};
+	}
+
+	/**
+	 * Layer change and markDirty racing with a snapshot: whatever the snapshot
+	 * saw, the snapshot taken after both actors finished is sorted.
+	 */
+	private static StressTest layerChangeSort() {
+		return new StressTest("layer change vs getSortedList", 2) {
+			private MPoint low;
+			private MPoint high;
+
+			@Override
+			void setUp() {
+				super.setUp();
+				this.low = new MPoint().layer(1);
+				this.high = new MPoint().layer(2);
+				this.queue.add(this.low);
+				this.queue.add(this.high);
+				this.queue.getSortedList();
+			}
+
+			@Override
+			void actor(final int actor) {
+				if (actor == 0) {
+					this.low.layer(3);
+					this.queue.markDirty();
+				}
+				else {
+					this.queue.getSortedList();
+				}
+			}
+
+			@Override
+			String arbiter() {
+				final List<MGeometricObject> list = this.queue.getSortedList();
+				return list.get(0) == this.high ? "sorted" : "unsorted";
+			}
+
+			@Override
+			boolean isAcceptable(final String outcome) {
+				return outcome.equals("sorted");
+			}
+		};
+	}
+
+	/**
+	 * Two producers adding three objects each, racing with a snapshot: the
+	 * snapshot holds a prefix of each producer's objects, and the final
+	 * snapshot all of them exactly once.
+	 */
+	private static StressTest producersSnapshot() {
+		return new StressTest("producers vs getSortedList", 3) {
+			private final MPoint[][] objects = new MPoint[2][3];
+			private List<MGeometricObject> snapshot;
+
+			@Override
+			void setUp() {
+				super.setUp();
+				for (int p = 0; p < 2; p++) {
+					for (int i = 0; i < 3; i++) {
+						this.objects[p][i] = new MPoint();
+					}
+				}
+			}
+
+			@Override
+			void actor(final int actor) {
+				if (actor < 2) {
+					for (final MPoint object : this.objects[actor]) {
+						this.queue.add(object);
+					}
+				}
+				else {
+					this.snapshot = this.queue.getSortedList();
+				}
+			}
+
+			@Override
+			String arbiter() {
+				final List<MGeometricObject> all = this.queue.getSortedList();
+				final StringBuilder sb = new StringBuilder();
+				for (int p = 0; p < 2; p++) {
+					boolean prefix = true;
+					int seen = 0;
+					for (int i = 0; i < 3; i++) {
+						final int c = count(this.snapshot, this.objects[p][i]);
+						if (c > 1 || (c == 1 && i > seen)) {
+							prefix = false;
+						}
+						seen += c;
+						if (count(all, this.objects[p][i]) != 1) {
+							prefix = false;
+						}
+					}
+					sb.append(prefix ? "p" + p + "=" + seen + " "
+							: "p" + p + "=broken ");
+				}
+				return sb.toString().trim();
+			}
+
+			@Override
+			boolean isAcceptable(final String outcome) {
+				return !outcome.contains("broken");
+			}
+		};
+	}
+
+	/**
+	 * An evicted object drawn again and deleted, racing with a frame which
+	 * flushes and evicts: whenever the flush takes the object in, the object
+	 * is deleted afterwards, so it is never left in the queue, and the size of
+	 * the queue matches its snapshot.
+	 */
+	private static StressTest evictRedrawDelete() {
+		return new StressTest("evict, redraw and delete vs prepare", 2) {
+			private MPoint evicted;
+
+			@Override
+			void setUp() {
+				super.setUp();
+				this.queue.setRetentionPolicy(RetentionPolicy.fifo()
+						.maxObjects(1));
+				this.evicted = new MPoint();
+				this.queue.add(this.evicted);
+				this.queue.prepare();
+				this.queue.add(new MPoint());
+				this.queue.prepare();
+			}
+
+			@Override
+			void actor(final int actor) {
+				if (actor == 0) {
+					this.queue.add(this.evicted);
+					this.queue.remove(this.evicted);
+				}
+				else {
+					this.queue.prepare();
+				}
+			}
+
+			@Override
+			String arbiter() {
+				final List<MGeometricObject> list = this.queue.getSortedList();
+				return "count=" + count(list, this.evicted)
+						+ (list.size() == this.queue.size() ? "" : " size="
+								+ this.queue.size() + "/" + list.size());
+			}
+
+			@Override
+			boolean isAcceptable(final String outcome) {
+				return outcome.equals("count=0");
+			}
+		};
+	}
+
+	private static int count(final List<MGeometricObject> list,
+			final MGeometricObject object) {
+		int count = 0;
+		for (final MGeometricObject o : list) {
+			if (o == object) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Runs the test the given number of times and prints the histogram of
+	 * the outcomes.
+	 */
+	private static void run(final StressTest test, final int iterations)
+			throws Exception {
+		final Map<String, Integer> outcomes = new TreeMap<>();
+		final CyclicBarrier barrier = new CyclicBarrier(test.actors + 1);
+		final Thread[] threads = new Thread[test.actors];
+		final Exception[] error = new Exception[1];
+		for (int a = 0; a < test.actors; a++) {
+			final int actor = a;
+			threads[a] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < iterations; i++) {
+							// Start together, then report being done
+							barrier.await();
+							test.actor(actor);
+							barrier.await();
+						}
+					}
+					catch (final Exception e) {
+						error[0] = e;
+					}
+				}
+			});
+			threads[a].start();
+		}
+		for (int i = 0; i < iterations; i++) {
+			test.setUp();
+			barrier.await();
+			barrier.await();
+			final String outcome = test.arbiter();
+			final Integer c = outcomes.get(outcome);
+			outcomes.put(outcome, c == null ? 1 : c + 1);
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		if (error[0] != null) {
+			throw error[0];
+		}
+
+		System.out.println(test.name);
+		for (final Map.Entry<String, Integer> e : outcomes.entrySet()) {
+			final boolean ok = test.isAcceptable(e.getKey());
+			failed |= !ok;
+			System.out.printf("  %-30s %8d  %s%n", e.getKey(), e.getValue(),
+					ok ? "ACCEPTABLE" : "FORBIDDEN");
+		}
+	}
+}
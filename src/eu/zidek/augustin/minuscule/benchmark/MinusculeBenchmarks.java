@@ -0,0 +1,333 @@
+package eu.zidek.augustin.minuscule.benchmark;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import eu.zidek.augustin.minuscule.Canvas;
+import eu.zidek.augustin.minuscule.GeometricObjectQueue;
+import eu.zidek.augustin.minuscule.LabelPositioningUtils;
+import eu.zidek.augustin.minuscule.MBoundingBox;
+import eu.zidek.augustin.minuscule.MGeometricObject;
+import eu.zidek.augustin.minuscule.MGeometricObjectPainter;
+import eu.zidek.augustin.minuscule.MLabel;
+import eu.zidek.augustin.minuscule.MLine;
+import eu.zidek.augustin.minuscule.MPoint;
+import eu.zidek.augustin.minuscule.MPolygon;
+import eu.zidek.augustin.minuscule.MRectangle;
+import eu.zidek.augustin.minuscule.MShape;
+import eu.zidek.augustin.minuscule.NoPainterException;
+
+/**
+ * Micro-benchmarks of the hot paths of Minuscule: the object queue, the
+ * painters, the label utilities, the polygon bounding box and the painting of
+ * whole frames. Run headless:
+ *
+ * <pre>
+ * java -Djava.awt.headless=true eu.zidek.augustin.minuscule.benchmark.MinusculeBenchmarks [filter]
+ * </pre>
+ *
+ * Only the benchmarks whose name contains the filter (if given) are run.
+ *
+ * @author Augustin Zidek
+ *
+ */
+public class MinusculeBenchmarks {
+	private static final int WIDTH = 800;
+	private static final int HEIGHT = 600;
+	// Producers clear the queue after this many adds to bound the memory
+	private static final int QUEUE_CLEAR_PERIOD = 1 << 16;
+
+	/**
+	 * Runs the benchmarks.
+	 *
+	 * @param args Optional filter of the benchmark names
+	 * @throws Exception If a benchmark fails
+	 */
+	public static void main(final String[] args) throws Exception {
+		final String filter = args.length > 0 ? args[0] : "";
+		final BenchmarkRunner runner = new BenchmarkRunner(3, 5, 1000);
+		final BenchmarkRunner frameRunner = new BenchmarkRunner(2, 5, 3000);
+
+		for (final BenchmarkRunner.Benchmark b : queueBenchmarks()) {
+			runIfMatches(runner, b, filter);
+		}
+		for (final BenchmarkRunner.Benchmark b : painterBenchmarks()) {
+			runIfMatches(runner, b, filter);
+		}
+		for (final BenchmarkRunner.Benchmark b : labelBenchmarks()) {
+			runIfMatches(runner, b, filter);
+		}
+		for (final int vertices : new int[] { 10, 1000 }) {
+			runIfMatches(runner, polygonBoundsBenchmark(vertices), filter);
+		}
+		for (final int objects : new int[] { 1000, 10000, 100000, 1000000 }) {
+			runIfMatches(frameRunner, fullFrameBenchmark(objects), filter);
+		}
+		System.out.println("(sink " + (runner.getSink() + frameRunner.getSink())
+				+ ")");
+	}
+
+	private static void runIfMatches(final BenchmarkRunner runner,
+			final BenchmarkRunner.Benchmark benchmark, final String filter)
+			throws Exception {
+		if (benchmark.toString().contains(filter)) {
+			runner.run(benchmark);
+		}
+	}
+
+	private static BenchmarkRunner.Benchmark[] queueBenchmarks() {
+		final MPoint point = new MPoint();
+		return new BenchmarkRunner.Benchmark[] {
+				// Single producer
+				new BenchmarkRunner.Benchmark("queue.add", 1) {
+					private GeometricObjectQueue queue;
+					private int count = 0;
+
+					@Override
+					void setUp() {
+						this.queue = new GeometricObjectQueue();
+					}
+
+					@Override
+					long operation(final int thread) {
+						this.queue.add(point);
+						if (++this.count % QUEUE_CLEAR_PERIOD == 0) {
+							this.queue.clear();
+						}
+						return 1;
+					}
+				},
+				// Four producers, contending on the buffer
+				new BenchmarkRunner.Benchmark("queue.add (contended)", 4) {
+					private GeometricObjectQueue queue;
+
+					@Override
+					void setUp() {
+						this.queue = new GeometricObjectQueue();
+					}
+
+					@Override
+					long operation(final int thread) {
+						this.queue.add(point);
+						if (this.queue.getBufferSize() > QUEUE_CLEAR_PERIOD) {
+							this.queue.clear();
+						}
+						return 1;
+					}
+				},
+				// Three producers and a renderer taking sorted snapshots
+				new BenchmarkRunner.Benchmark(
+						"queue.add + getSortedList (contended)", 4) {
+					private GeometricObjectQueue queue;
+
+					@Override
+					void setUp() {
+						this.queue = new GeometricObjectQueue();
+					}
+
+					@Override
+					long operation(final int thread) {
+						if (thread == 0) {
+							return this.queue.getSortedList().size();
+						}
+						this.queue.add(point);
+						if (this.queue.size() > QUEUE_CLEAR_PERIOD) {
+							this.queue.clear();
+						}
+						return 1;
+					}
+				},
+				// Flushing a buffer of 1000 objects
+				new BenchmarkRunner.Benchmark(
+						"queue.flushBuffer (1000 objects)", 1) {
+					private GeometricObjectQueue queue;
+
+					@Override
+					void setUp() {
+						this.queue = new GeometricObjectQueue();
+					}
+
+					@Override
+					long operation(final int thread) {
+						for (int i = 0; i < 1000; i++) {
+							this.queue.add(point);
+						}
+						this.queue.flushBuffer();
+						final int size = this.queue.size();
+						this.queue.clear();
+						return size;
+					}
+				},
+				// Snapshot of 10^4 objects after a layer change
+				new BenchmarkRunner.Benchmark(
+						"queue.getSortedList (10^4 objects, dirty)", 1) {
+					private GeometricObjectQueue queue;
+
+					@Override
+					void setUp() {
+						this.queue = new GeometricObjectQueue();
+						final Random r = new Random(1);
+						for (int i = 0; i < 10000; i++) {
+							this.queue.add(new MPoint().layer(r.nextInt(10)));
+						}
+					}
+
+					@Override
+					long operation(final int thread) {
+						this.queue.markDirty();
+						return this.queue.getSortedList().size();
+					}
+				} };
+	}
+
+	private static BenchmarkRunner.Benchmark[] painterBenchmarks()
+			throws NoPainterException {
+		final Canvas canvas = new Canvas(WIDTH, HEIGHT);
+		final MPolygon polygon = new MPolygon().fill(true);
+		for (int i = 0; i < 10; i++) {
+			final double angle = 2 * Math.PI * i / 10;
+			polygon.addVertex(400 + 100 * Math.cos(angle),
+					300 + 100 * Math.sin(angle));
+		}
+		final MGeometricObject[] objects = {
+				new MPoint().pos(400, 300),
+				new MLine().start(100, 100).end(700, 500),
+				new MLabel("Minuscule label").pos(400, 300),
+				polygon,
+				new MRectangle().pos(100, 100).dimensions(300, 200),
+				new MShape(new Ellipse2D.Double(100, 100, 400, 300))
+						.fill(true), new MPoint().pos(400, 300).label("Label") };
+		final BenchmarkRunner.Benchmark[] benchmarks = new BenchmarkRunner.Benchmark[objects.length];
+		for (int i = 0; i < objects.length; i++) {
+			final MGeometricObject object = objects[i];
+			final MGeometricObjectPainter painter = canvas.getPainterManager()
+					.getPainter(object.getClass());
+			final String suffix = object.getLabel() != null ? " (labelled)"
+					: "";
+			benchmarks[i] = new BenchmarkRunner.Benchmark("paint "
+					+ object.getClass().getSimpleName() + suffix, 1) {
+				private Graphics2D g2d;
+
+				@Override
+				void setUp() {
+					final BufferedImage image = new BufferedImage(WIDTH,
+							HEIGHT, BufferedImage.TYPE_INT_ARGB);
+					this.g2d = image.createGraphics();
+					this.g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+							RenderingHints.VALUE_ANTIALIAS_ON);
+				}
+
+				@Override
+				long operation(final int thread) {
+					painter.paint(object, this.g2d);
+					return 1;
+				}
+			};
+		}
+		return benchmarks;
+	}
+
+	private static BenchmarkRunner.Benchmark[] labelBenchmarks() {
+		final Font font = new Font("Arial", Font.PLAIN, 10);
+		final String text = "Minuscule label";
+		final MBoundingBox box = new MBoundingBox(0, 0, 100, 50);
+		return new BenchmarkRunner.Benchmark[] {
+				new BenchmarkRunner.Benchmark("LabelPositioningUtils.getLabelDimensions",
+						1) {
+					@Override
+					long operation(final int thread) {
+						return (long) LabelPositioningUtils.getLabelDimensions(
+								text, font).x;
+					}
+				},
+				new BenchmarkRunner.Benchmark(
+						"LabelPositioningUtils.getAutoPlacementToCircle", 1) {
+					private double angle = 0;
+
+					@Override
+					long operation(final int thread) {
+						this.angle = (this.angle + 1) % 360;
+						return (long) LabelPositioningUtils
+								.getAutoPlacementToCircle(this.angle, font,
+										text, 5).x;
+					}
+				},
+				new BenchmarkRunner.Benchmark(
+						"LabelPositioningUtils.getAutoPlacementToRectangle", 1) {
+					private double angle = 0;
+
+					@Override
+					long operation(final int thread) {
+						this.angle = (this.angle + 1) % 360;
+						return (long) LabelPositioningUtils
+								.getAutoPlacementToRectangle(this.angle, box,
+										font, text).x;
+					}
+				} };
+	}
+
+	private static BenchmarkRunner.Benchmark polygonBoundsBenchmark(
+			final int vertices) {
+		final MPolygon polygon = new MPolygon();
+		final Random r = new Random(1);
+		for (int i = 0; i < vertices; i++) {
+			polygon.addVertex(r.nextDouble() * WIDTH, r.nextDouble() * HEIGHT);
+		}
+		return new BenchmarkRunner.Benchmark("MPolygon.getBoundingRectangle (" + vertices
+				+ " vertices)", 1) {
+			@Override
+			long operation(final int thread) {
+				return (long) polygon.getBoundingRectangle().width;
+			}
+		};
+	}
+
+	private static BenchmarkRunner.Benchmark fullFrameBenchmark(
+			final int objects) {
+		return new BenchmarkRunner.Benchmark("full frame (" + objects + " objects)", 1) {
+			private Canvas canvas;
+
+			@Override
+			void setUp() {
+				if (this.canvas != null) {
+					return;
+				}
+				this.canvas = new Canvas(WIDTH, HEIGHT);
+				this.canvas.setBackground(Color.WHITE);
+				this.canvas.drawGrid(50, 50);
+				final Random r = new Random(1);
+				// Mostly points, some lines and polygons, a few labels
+				for (int i = 0; i < objects; i++) {
+					final double x = r.nextDouble() * WIDTH;
+					final double y = r.nextDouble() * HEIGHT;
+					final int kind = r.nextInt(100);
+					if (kind < 80) {
+						new MPoint().pos(x, y).diameter(2).draw(this.canvas);
+					}
+					else if (kind < 95) {
+						new MLine().start(x, y).end(x + 20, y + 10)
+								.draw(this.canvas);
+					}
+					else if (kind < 99) {
+						new MPolygon().addVertex(x, y).addVertex(x + 10, y)
+								.addVertex(x + 5, y + 10).fill(true)
+								.draw(this.canvas);
+					}
+					else {
+						new MLabel("Label " + i).pos(x, y).draw(this.canvas);
+					}
+				}
+			}
+
+			@Override
+			long operation(final int thread) {
+				return this.canvas.getImage().getRGB(0, 0);
+			}
+		};
+	}
+}
@@ -0,0 +1,237 @@
+package eu.zidek.augustin.minuscule.benchmark;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import eu.zidek.augustin.minuscule.Canvas;
+
+/**
+ * Headless performance regression harness. Every {@link Workload} is drawn on
+ * a fresh canvas and the following is measured:
+ * <ul>
+ * <li><code>ingest</code> -- objects drawn per second (higher is better)</li>
+ * <li><code>firstFrame</code> -- time of the first frame in ms, including
+ * flushing and sorting the objects</li>
+ * <li><code>frame</code> -- mean time of the steady-state frames in ms</li>
+ * <li><code>allocation</code> -- bytes allocated per steady-state frame</li>
+ * </ul>
+ * The results are compared with the baselines stored in a properties file. If
+ * any metric is worse than its baseline by more than the tolerance, the
+ * regression is reported and the harness exits with status 1. A metric
+ * without any baseline fails the check as well, so that a missing or stale
+ * baselines file can't pass unnoticed. Usage:
+ *
+ * <pre>
+ * java -Djava.awt.headless=true eu.zidek.augustin.minuscule.benchmark.SceneRegressionHarness
+ *      [--baselines=file] [--tolerance=0.2] [--scale=1] [--record]
+ * </pre>
+ *
+ * <code>--record</code> stores the results as the new baselines. Baselines
+ * depend on the machine, so record them on the machine running the checks
+ * before the first check.
+ *
+ * @author Augustin Zidek
+ *
+ */
+public class SceneRegressionHarness {
+	private static final int WARMUP_FRAMES = 3;
+	private static final int MEASURED_FRAMES = 10;
+	// Every workload is measured this many times and the best result is
+	// kept, which filters out most of the noise of a busy machine
+	private static final int RUNS = 3;
+
+	/**
+	 * The number of objects of each workload at scale 1.
+	 */
+	private static final Map<Workload, Integer> SIZES = new LinkedHashMap<>();
+	static {
+		SIZES.put(Workload.DENSE_POINTS, 100000);
+		SIZES.put(Workload.LONG_POLYLINES, 50000);
+		SIZES.put(Workload.LABEL_HEAVY, 5000);
+		SIZES.put(Workload.DEEP_LAYERS, 20000);
+	}
+
+	/**
+	 * Runs the harness.
+	 *
+	 * @param args The options, see the class description
+	 * @throws IOException If the baselines can't be read or written
+	 */
+	public static void main(final String[] args) throws IOException {
+		File baselineFile = new File("baselines.properties");
+		double tolerance = 0.2;
+		double scale = 1;
+		boolean record = false;
+		for (final String arg : args) {
+			if (arg.startsWith("--baselines=")) {
+				baselineFile = new File(arg.substring(arg.indexOf('=') + 1));
+			}
+			else if (arg.startsWith("--tolerance=")) {
+				tolerance = Double.parseDouble(arg.substring(arg
+						.indexOf('=') + 1));
+			}
+			else if (arg.startsWith("--scale=")) {
+				scale = Double
+						.parseDouble(arg.substring(arg.indexOf('=') + 1));
+			}
+			else if (arg.equals("--record")) {
+				record = true;
+			}
+			else {
+				throw new IllegalArgumentException("Unknown option " + arg);
+			}
+		}
+
+		final Properties baselines = new Properties();
+		if (baselineFile.exists()) {
+			try (final InputStream in = new FileInputStream(baselineFile)) {
+				baselines.load(in);
+			}
+		}
+
+		final Properties results = new Properties();
+		int regressions = 0;
+		int missing = 0;
+		for (final Map.Entry<Workload, Integer> e : SIZES.entrySet()) {
+			final int size = (int) Math.max(1, e.getValue() * scale);
+			final Map<String, Double> metrics = measure(e.getKey(), size);
+			for (int run = 1; run < RUNS; run++) {
+				for (final Map.Entry<String, Double> m : measure(e.getKey(),
+						size).entrySet()) {
+					final double best = metrics.get(m.getKey());
+					metrics.put(m.getKey(), isHigherBetter(m.getKey()) ? Math
+							.max(best, m.getValue()) : Math.min(best,
+							m.getValue()));
+				}
+			}
+			for (final Map.Entry<String, Double> m : metrics.entrySet()) {
+				final String key = e.getKey().name().toLowerCase() + "." + size
+						+ "." + m.getKey();
+				results.setProperty(key, String.valueOf(m.getValue()));
+				final String baseline = baselines.getProperty(key);
+				if (baseline == null) {
+					System.out.printf("%-40s %16.1f  (no baseline)%n", key,
+							m.getValue());
+					missing++;
+				}
+				else if (!compare(key, m.getValue(), baseline, tolerance)) {
+					regressions++;
+				}
+			}
+		}
+
+		if (record) {
+			try (final OutputStream out = new FileOutputStream(baselineFile)) {
+				results.store(out, "Minuscule scene performance baselines");
+			}
+			System.out.println("Baselines recorded into " + baselineFile);
+		}
+		else if (regressions > 0 || missing > 0) {
+			if (regressions > 0) {
+				System.out.println(regressions + " regression(s) beyond "
+						+ Math.round(tolerance * 100) + " %");
+			}
+			if (missing > 0) {
+				System.out.println(missing + " metric(s) without a baseline in "
+						+ baselineFile + ", record them by --record");
+			}
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Measures one workload.
+	 *
+	 * @return The metrics by their names
+	 */
+	private static Map<String, Double> measure(final Workload workload,
+			final int size) {
+		// Ingest once into a throwaway canvas, so that the measured ingest
+		// runs compiled code
+		workload.populate(new Canvas(Workload.WIDTH, Workload.HEIGHT), size);
+		System.gc();
+		final Canvas canvas = new Canvas(Workload.WIDTH, Workload.HEIGHT);
+		canvas.setSize(Workload.WIDTH, Workload.HEIGHT);
+		canvas.setBackground(Color.WHITE);
+		final BufferedImage image = new BufferedImage(Workload.WIDTH,
+				Workload.HEIGHT, BufferedImage.TYPE_INT_RGB);
+		final Graphics g = image.getGraphics();
+		final Map<String, Double> metrics = new LinkedHashMap<>();
+
+		final long ingestStart = System.nanoTime();
+		workload.populate(canvas, size);
+		final long ingestNanos = System.nanoTime() - ingestStart;
+		metrics.put("ingest", size / (ingestNanos / 1e9));
+
+		final long firstStart = System.nanoTime();
+		canvas.paintComponent(g);
+		metrics.put("firstFrame", (System.nanoTime() - firstStart) / 1e6);
+
+		for (int i = 0; i < WARMUP_FRAMES; i++) {
+			canvas.paintComponent(g);
+		}
+		final long allocStart = allocatedBytes();
+		final long frameStart = System.nanoTime();
+		for (int i = 0; i < MEASURED_FRAMES; i++) {
+			canvas.paintComponent(g);
+		}
+		metrics.put("frame", (System.nanoTime() - frameStart) / 1e6
+				/ MEASURED_FRAMES);
+		final long allocated = allocatedBytes() - allocStart;
+		if (allocated >= 0) {
+			metrics.put("allocation", allocated / (double) MEASURED_FRAMES);
+		}
+		g.dispose();
+		return metrics;
+	}
+
+	/**
+	 * @return The number of bytes allocated by this thread so far, or a
+	 *         negative number if the JVM can't tell
+	 */
+	private static long allocatedBytes() {
+		final java.lang.management.ThreadMXBean bean = ManagementFactory
+				.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean)
+					.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	/**
+	 * @return <code>true</code> if higher values of the metric are better.
+	 *         That's only the case of the ingest throughput, all the other
+	 *         metrics are times and allocations.
+	 */
+	private static boolean isHigherBetter(final String metric) {
+		return metric.endsWith("ingest");
+	}
+
+	/**
+	 * Compares the metric with its baseline and prints the result.
+	 *
+	 * @return <code>false</code> if the metric regressed beyond the tolerance
+	 */
+	private static boolean compare(final String key, final double value,
+			final String baseline, final double tolerance) {
+		final double base = Double.parseDouble(baseline);
+		final double change = base == 0 ? 0 : (value - base) / base;
+		final boolean regressed = isHigherBetter(key) ? change < -tolerance
+				: change > tolerance;
+		System.out.printf("%-40s %16.1f  %+7.1f %%%s%n", key, value,
+				100 * change, regressed ? "  REGRESSION" : "");
+		return !regressed;
+	}
+}
@@ -0,0 +1,125 @@
+package eu.zidek.augustin.minuscule.benchmark;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.util.Random;
+
+import eu.zidek.augustin.minuscule.Canvas;
+import eu.zidek.augustin.minuscule.MBasicStroke;
+import eu.zidek.augustin.minuscule.MLabel;
+import eu.zidek.augustin.minuscule.MLine;
+import eu.zidek.augustin.minuscule.MPoint;
+import eu.zidek.augustin.minuscule.MPolygon;
+import eu.zidek.augustin.minuscule.MRectangle;
+
+/**
+ * Headless workload generators, parameterized versions of the scenarios of the
+ * manual tests. Every workload draws a deterministic scene (the random
+ * generator is seeded) of roughly the given number of objects onto the
+ * canvas.
+ *
+ * @author Augustin Zidek
+ *
+ */
+enum Workload {
+	/**
+	 * Function plotted by many tiny points, as in
+	 * <code>MinusculeFunctionTest</code>, with random points around it.
+	 */
+	DENSE_POINTS {
+		@Override
+		void populate(final Canvas canvas, final int size) {
+			final Random r = new Random(SEED);
+			for (int i = 0; i < size; i++) {
+				final double x = WIDTH * i / (double) size;
+				final double y = i % 2 == 0 ? 100 * Math.sin(x / 25) + 300 : r
+						.nextDouble() * HEIGHT;
+				new MPoint().pos(x, y).diameter(0.5).draw(canvas);
+			}
+		}
+	},
+	/**
+	 * Long polylines made of short round-capped segments, as the function
+	 * plotted by lines in <code>MinusculeFunctionTest</code>.
+	 */
+	LONG_POLYLINES {
+		@Override
+		void populate(final Canvas canvas, final int size) {
+			final MBasicStroke stroke = new MBasicStroke(1,
+					BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+			final int lines = Math.max(1, size / SEGMENTS_PER_POLYLINE);
+			for (int l = 0; l < lines; l++) {
+				final double offset = HEIGHT * l / (double) lines;
+				final double dx = WIDTH / (double) SEGMENTS_PER_POLYLINE;
+				for (int i = 0; i < SEGMENTS_PER_POLYLINE; i++) {
+					final double x1 = i * dx;
+					final double x2 = x1 + dx;
+					new MLine().start(x1, offset + 20 * Math.cos(x1 / 25))
+							.end(x2, offset + 20 * Math.cos(x2 / 25))
+							.stroke(stroke).draw(canvas);
+				}
+			}
+		}
+	},
+	/**
+	 * Labelled points and standalone labels, as in
+	 * <code>MinusculeLabelTest</code>. Every label needs font metrics.
+	 */
+	LABEL_HEAVY {
+		@Override
+		void populate(final Canvas canvas, final int size) {
+			final Random r = new Random(SEED);
+			for (int i = 0; i < size; i++) {
+				final double x = r.nextDouble() * WIDTH;
+				final double y = r.nextDouble() * HEIGHT;
+				if (i % 2 == 0) {
+					new MPoint().pos(x, y).label("P" + i, i % 360)
+							.draw(canvas);
+				}
+				else {
+					new MLabel("Label " + i).pos(x, y).draw(canvas);
+				}
+			}
+		}
+	},
+	/**
+	 * Translucent rectangles and polygons spread over many layers, as in
+	 * <code>MinusculePolygonTest</code>. Exercises the layer sorting.
+	 */
+	DEEP_LAYERS {
+		@Override
+		void populate(final Canvas canvas, final int size) {
+			final Random r = new Random(SEED);
+			final Color fill = new Color(0x64_00_80_FF, true);
+			for (int i = 0; i < size; i++) {
+				final double x = r.nextDouble() * WIDTH;
+				final double y = r.nextDouble() * HEIGHT;
+				// Added in random layer order, so that sorting has to work
+				final int layer = r.nextInt(LAYERS);
+				if (i % 2 == 0) {
+					new MRectangle().pos(x, y).dimensions(30, 20).fill(true)
+							.color(fill).layer(layer).draw(canvas);
+				}
+				else {
+					new MPolygon().addVertex(x, y).addVertex(x + 20, y)
+							.addVertex(x + 10, y + 20).fill(true)
+							.fillColor(fill).layer(layer).draw(canvas);
+				}
+			}
+		}
+	};
+
+	static final int WIDTH = 800;
+	static final int HEIGHT = 600;
+	private static final long SEED = 42;
+	private static final int SEGMENTS_PER_POLYLINE = 500;
+	private static final int LAYERS = 1000;
+
+	/**
+	 * Draws the scene onto the canvas.
+	 *
+	 * @param canvas The canvas
+	 * @param size The approximate number of objects
+	 */
+	abstract void populate(final Canvas canvas, final int size);
+}